@@ -1,11 +1,41 @@
 package com.eaze.websocket.core.api;
 
-import com.eaze.websocket.core.codec.WebSocketFrame;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public interface WebSocketListener {
     void onOpen(WebSocketSession session);
-    void onMessage(WebSocketSession session, String text);
-    void onMessage(WebSocketSession session, byte[] data);
+
+    default void onMessage(WebSocketSession session, String text) {}
+
+    default void onMessage(WebSocketSession session, byte[] data) {}
+
+    /**
+     * Zero-copy variant of the message callbacks, invoked for every complete text or binary message.
+     * The payload is a read-only view into the server's read buffer and is only valid for the
+     * duration of the call; copy whatever must outlive it.
+     *
+     * The default implementation materializes the payload and delegates to
+     * {@link #onMessage(WebSocketSession, String)} or {@link #onMessage(WebSocketSession, byte[])},
+     * so listeners only override this method when they want to avoid those copies.
+     */
+    default void onMessage(WebSocketSession session, ByteBuffer payload, boolean text) {
+        if (text) {
+            onMessage(session, StandardCharsets.UTF_8.decode(payload).toString());
+        } else {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            onMessage(session, bytes);
+        }
+    }
+
+    /**
+     * Receives every text and binary message of a session whose negotiated subprotocol has a
+     * {@code MessageCodec}, already decoded on the read path, instead of the onMessage callbacks.
+     * Typically a pattern-matching switch over the protocol's message types.
+     */
+    default void onDecoded(WebSocketSession session, Object message) {}
+
     void onClose(WebSocketSession session, int code, String reason);
     void onError(WebSocketSession session, Throwable cause);
 }
@@ -1,11 +1,195 @@
 package com.eaze.websocket.core.api;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface WebSocketSession {
     void send(String text) throws IOException;
     void send(byte[] data) throws IOException;
+
+    /**
+     * Sends any character sequence as a text message, e.g. a reused StringBuilder or a CharBuffer
+     * over application-owned chars. The server session encodes the UTF-8 straight into the outgoing
+     * frame buffer, without an intermediate byte[] or String.
+     */
+    default void send(CharSequence text) throws IOException {
+        send(text.toString());
+    }
+
+    /**
+     * Sends the buffer's remaining bytes as a binary message, writing straight from the buffer
+     * without an intermediate copy. The buffer's position is left untouched, so the same buffer
+     * can be sent to many sessions.
+     */
+    default void send(ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(data.position(), bytes);
+        send(bytes);
+    }
+
+    /**
+     * Sends the remaining bytes of all buffers as a single binary message using a gathering write.
+     * Buffer positions are left untouched.
+     */
+    default void send(ByteBuffer[] data) throws IOException {
+        int length = 0;
+        for (ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        for (ByteBuffer buffer : data) {
+            joined.put(buffer.duplicate());
+        }
+        send(joined.array());
+    }
+
+    /**
+     * Sends a text message that supersedes any earlier message sent with the same key (e.g. the
+     * latest price of an instrument): if the earlier one is still queued for a slow client, it is
+     * replaced in place instead of both being sent. Without a backlog this is a plain send.
+     */
+    default void sendLatest(String key, String text) throws IOException {
+        send(text);
+    }
+
+    /**
+     * Binary variant of {@link #sendLatest(String, String)}. The buffer's position is left untouched.
+     */
+    default void sendLatest(String key, ByteBuffer data) throws IOException {
+        send(data);
+    }
+
+    /**
+     * Writes bytes that already hold one or more complete, unmasked server frames, e.g. a run of
+     * frames replayed from a journal. Nothing is re-encoded. The buffer's position is left untouched.
+     * A read-only buffer is taken to hold bytes that never change, so a session may keep a view of it
+     * queued for a slow client instead of a copy; pass a writable buffer for anything that is reused.
+     *
+     * @throws UnsupportedOperationException if the session cannot write raw frames
+     */
+    default void sendPreEncoded(ByteBuffer frames) throws IOException {
+        throw new UnsupportedOperationException("Pre-encoded frames are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Sends {@code count} bytes of a file starting at {@code position} as one binary message. The
+     * frame header is written first, then the payload goes from the file to the socket with
+     * {@link FileChannel#transferTo} (sendfile on Linux), never entering the heap.
+     *
+     * The message is written after everything already queued for the session, and other sends wait
+     * until it is complete, so this blocks the caller while the client reads; call it from a
+     * virtual thread. Pongs and a close frame may go out between fragments. Since a partly sent
+     * message can be neither queued nor dropped, sessions with a non-blocking slow-consumer policy
+     * reject it with {@link IllegalStateException}.
+     *
+     * @param fragmentSize largest frame payload; the message is split into continuation frames of this
+     *                     size so intermediaries never see one huge frame, or 0 for a single frame
+     * @throws UnsupportedOperationException if the session cannot write from a file
+     */
+    default void sendFile(FileChannel file, long position, long count, long fragmentSize) throws IOException {
+        throw new UnsupportedOperationException("File sends are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Sends a file region as a single-frame binary message; see {@link #sendFile(FileChannel, long, long, long)}.
+     */
+    default void sendFile(FileChannel file, long position, long count) throws IOException {
+        sendFile(file, position, count, 0);
+    }
+
+    /**
+     * Sends everything read from the stream, until its end, as one binary message of continuation
+     * frames, read directly into pooled buffers. Ordering and blocking are as for
+     * {@link #sendFile(FileChannel, long, long, long)}. The stream is not closed.
+     */
+    default void sendStream(InputStream in) throws IOException {
+        send(in.readAllBytes());
+    }
+
+    /**
+     * Holds back sends until {@link #uncork()}: frames are queued and then written together with a
+     * single gathering write instead of one write per frame. Sessions that do not batch send
+     * immediately.
+     */
+    default void cork() {
+    }
+
+    /**
+     * Releases a {@link #cork()}. The queued frames are flushed by the session's poller at the end
+     * of its current event-loop iteration.
+     */
+    default void uncork() throws IOException {
+    }
+
+    /**
+     * Runs a block of sends as one batch, e.g. a snapshot followed by its deltas.
+     */
+    default void batch(Batch sends) throws IOException {
+        cork();
+        try {
+            sends.run();
+        } finally {
+            uncork();
+        }
+    }
+
+    @FunctionalInterface
+    interface Batch {
+        void run() throws IOException;
+    }
+
+    /**
+     * Encodes the message with the codec of the negotiated subprotocol straight into a pooled
+     * frame buffer and sends it as one message.
+     *
+     * @throws IllegalStateException if the session has no subprotocol with a codec
+     * @throws ClassCastException if the codec does not accept this type of message
+     * @throws IllegalArgumentException if the encoded message is larger than the maximum frame payload
+     */
+    default void sendObject(Object message) throws IOException {
+        throw new IllegalStateException("Session has no subprotocol codec");
+    }
+
+    /**
+     * Sends a request to the client and returns its reply. The payload goes out as a binary
+     * message wrapped in an {@code rpc.Envelope} with a correlation id; the client answers with a
+     * reply envelope carrying the same id, and replies may arrive in any order. Any number of
+     * requests can be in flight. A reply to a pending request is not passed to the listener; a binary
+     * message that merely looks like one (unknown id, or the request already timed out) is.
+     *
+     * The future completes on the thread that reads the reply, so dependent stages run without a
+     * thread hop and must not block. It fails with a {@link java.util.concurrent.TimeoutException}
+     * if no reply arrives within {@code timeout}, and with an {@link IOException} if the session
+     * closes first or the request cannot be sent. Sessions without request support return a future
+     * failed with {@link UnsupportedOperationException}.
+     */
+    default CompletableFuture<ByteBuffer> request(ByteBuffer payload, Duration timeout) {
+        return CompletableFuture.failedFuture(
+                new UnsupportedOperationException("Requests are not supported by " + getClass().getName()));
+    }
+
     void close(int code, String reason) throws IOException;
     boolean isOpen();
+
+    /**
+     * Compact id assigned by the server at handshake, usable with NioWebSocketServer#send(int, ...).
+     * Ids of closed sessions are recycled oldest first with a new generation, so a stale id does not reach a newer session.
+     * Sessions not created by the server have no id and return 0, which no server session ever gets.
+     */
+    default int getId() {
+        return 0;
+    }
+
     String getRemoteAddress();
+
+    /**
+     * The subprotocol agreed on in the handshake ({@code Sec-WebSocket-Protocol}), or null if none was.
+     */
+    default String getSubprotocol() {
+        return null;
+    }
 }
@@ -7,7 +7,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class BufferPool {
     // Since we now use lazy allocation (only for active connections),
     // we can afford larger buffers to avoid frequent allocateDirect calls.
-    private static final int BUFFER_SIZE = 8192; 
+    public static final int BUFFER_SIZE = 8192;
     private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
 
     public static ByteBuffer acquire() {
@@ -20,11 +20,28 @@ public class BufferPool {
     }
 
     public static void release(ByteBuffer buffer) {
-        if (buffer != null && buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+        if (buffer != null && buffer.isDirect() && !buffer.isReadOnly() && buffer.capacity() == BUFFER_SIZE) {
             pool.offer(buffer);
         }
     }
     
+    /**
+     * Fills the pool up to {@code count} buffers ahead of traffic. allocateDirect zeroes new
+     * buffers, so their pages are touched here rather than on a connection's first read.
+     */
+    public static void preallocate(int count) {
+        for (int i = pool.size(); i < count; i++) {
+            pool.offer(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Number of buffers currently waiting in the pool.
+     */
+    static int pooled() {
+        return pool.size();
+    }
+
     public static ByteBuffer allocate(int size) {
         if (size <= BUFFER_SIZE) {
             return acquire();
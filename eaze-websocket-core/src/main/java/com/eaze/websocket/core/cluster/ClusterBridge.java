@@ -0,0 +1,303 @@
+package com.eaze.websocket.core.cluster;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans published messages out to subscribers on every node of a full mesh of servers.
+ *
+ * Each node runs a bridge with a unique node id, listens for peers on its own port and dials the
+ * others with {@link #connect}. When both sides of a pair dial each other, the link dialed by the
+ * node with the smaller id is kept. Nodes announce the topics they have local subscribers for, and
+ * a publish is only forwarded to peers that announced interest in its topic. Messages travel as
+ * already encoded WebSocket frames: a peer writes them to its subscribers without re-encoding.
+ *
+ * Messages received from a peer are delivered locally only, never forwarded again, so every node
+ * must be linked to every other node. They are handed to a {@link SubscriberQueue} per subscriber
+ * rather than written by the link's reader, so one slow client cannot stall cross-node traffic.
+ */
+public class ClusterBridge implements Closeable {
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final String nodeId;
+    private final byte[] nodeIdBytes;
+    private final ServerSocketChannel serverChannel;
+    private final Map<String, Set<WebSocketSession>> subscribers = new ConcurrentHashMap<>();
+    // Created with the first message a subscriber receives from a peer; added and removed under interestLock
+    private final Map<WebSocketSession, SubscriberQueue> deliveries = new ConcurrentHashMap<>();
+    private final LongAdder remoteMessagesDropped = new LongAdder();
+    private final Object interestLock = new Object();
+    // Every open link, including ones still waiting for the peer's HELLO
+    private final Set<PeerLink> links = ConcurrentHashMap.newKeySet();
+    // Links that completed HELLO, by remote node id
+    private final Map<String, PeerLink> peers = new ConcurrentHashMap<>();
+    private volatile boolean running;
+
+    public ClusterBridge(String nodeId, int port) throws IOException {
+        this.nodeId = nodeId;
+        this.nodeIdBytes = nodeId.getBytes(StandardCharsets.UTF_8);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        this.serverChannel.bind(new InetSocketAddress(port));
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+        Thread.ofPlatform().name("Eaze-Cluster-Acceptor").daemon().start(this::runAcceptor);
+    }
+
+    private void runAcceptor() {
+        while (running) {
+            try {
+                open(serverChannel.accept(), null);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Cluster accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps a link to the peer at {@code address}, reconnecting after failures until the bridge is closed.
+     */
+    public void connect(InetSocketAddress address) {
+        Thread.ofVirtual().name("Eaze-Cluster-Dialer").start(() -> {
+            while (running) {
+                try {
+                    if (open(SocketChannel.open(address), address).awaitClose()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    // Peer not up yet; retry below
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    private PeerLink open(SocketChannel channel, InetSocketAddress dialedAddress) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        PeerLink link = new PeerLink(this, channel, dialedAddress);
+        link.sendHello(nodeIdBytes);
+        synchronized (interestLock) {
+            // Registered before the snapshot so later interest changes reach this link too
+            links.add(link);
+            for (String topic : subscribers.keySet()) {
+                link.sendInterest(PeerLink.SUBSCRIBE, topic.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (!running) {
+            link.close();
+            return link;
+        }
+        link.start();
+        return link;
+    }
+
+    void onHello(PeerLink link) {
+        String remote = link.getNodeId();
+        if (remote.equals(nodeId)) {
+            link.closeAsDuplicate(nodeIdBytes);
+            return;
+        }
+        boolean preferred = (link.dialedAddress != null) == (nodeId.compareTo(remote) < 0);
+        synchronized (peers) {
+            PeerLink existing = peers.get(remote);
+            if (existing != null && existing.isOpen()) {
+                if (!preferred) {
+                    link.closeAsDuplicate(nodeIdBytes);
+                    return;
+                }
+                existing.closeAsDuplicate(nodeIdBytes);
+            }
+            peers.put(remote, link);
+        }
+    }
+
+    void onClosed(PeerLink link) {
+        links.remove(link);
+        String remote = link.getNodeId();
+        if (remote != null) {
+            peers.remove(remote, link);
+        }
+    }
+
+    public void subscribe(String topic, WebSocketSession session) {
+        synchronized (interestLock) {
+            Set<WebSocketSession> sessions = subscribers.get(topic);
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+                subscribers.put(topic, sessions);
+                announce(PeerLink.SUBSCRIBE, topic);
+            }
+            sessions.add(session);
+        }
+    }
+
+    public void unsubscribe(String topic, WebSocketSession session) {
+        synchronized (interestLock) {
+            Set<WebSocketSession> sessions = subscribers.get(topic);
+            if (sessions != null && sessions.remove(session) && sessions.isEmpty()) {
+                subscribers.remove(topic);
+                announce(PeerLink.UNSUBSCRIBE, topic);
+            }
+        }
+    }
+
+    /**
+     * Removes the session from every topic; call from {@code onClose}.
+     */
+    public void unsubscribeAll(WebSocketSession session) {
+        synchronized (interestLock) {
+            for (String topic : List.copyOf(subscribers.keySet())) {
+                unsubscribe(topic, session);
+            }
+            deliveries.remove(session);
+        }
+    }
+
+    private void announce(byte type, String topic) {
+        byte[] bytes = topic.getBytes(StandardCharsets.UTF_8);
+        for (PeerLink link : links) {
+            link.sendInterest(type, bytes);
+        }
+    }
+
+    /**
+     * Publishes a text message to the topic's subscribers on this and every interested node.
+     */
+    public void publish(String topic, String text) {
+        ByteBuffer encoded = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))));
+        try {
+            publish(topic, encoded);
+        } finally {
+            BufferPool.release(encoded);
+        }
+    }
+
+    /**
+     * Publishes an encoded, unmasked server frame (as produced by {@link FrameCodec#encode}).
+     * The buffer's position is left untouched and it is not retained after the call.
+     */
+    public void publish(String topic, ByteBuffer encodedFrame) {
+        long now = epochMicros();
+        byte[] topicBytes = null;
+        for (PeerLink link : peers.values()) {
+            if (link.isInterestedIn(topic)) {
+                if (topicBytes == null) {
+                    topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+                }
+                link.sendPublish(topicBytes, now, encodedFrame);
+            }
+        }
+        deliverLocal(topic, encodedFrame);
+    }
+
+    private void deliverLocal(String topic, ByteBuffer encodedFrame) {
+        Set<WebSocketSession> sessions = subscribers.get(topic);
+        if (sessions == null) return;
+        for (WebSocketSession session : sessions) {
+            try {
+                session.sendPreEncoded(encodedFrame);
+            } catch (IOException e) {
+                // The session's own read path reports the failure and closes it
+            }
+        }
+    }
+
+    /**
+     * Delivers a frame received from a peer. The link's read buffer is reused, so the frame is
+     * copied once and shared read-only by every subscriber's queue.
+     */
+    void deliverRemote(String topic, ByteBuffer encodedFrame) {
+        Set<WebSocketSession> sessions = subscribers.get(topic);
+        if (sessions == null) return;
+        ByteBuffer frame = ByteBuffer.allocate(encodedFrame.remaining()).put(encodedFrame).flip().asReadOnlyBuffer();
+        for (WebSocketSession session : sessions) {
+            SubscriberQueue queue = deliveries.get(session);
+            if (queue == null) {
+                synchronized (interestLock) {
+                    // A session unsubscribed since the snapshot must not get a queue that outlives it
+                    Set<WebSocketSession> current = subscribers.get(topic);
+                    if (current == null || !current.contains(session)) continue;
+                    queue = deliveries.computeIfAbsent(session, SubscriberQueue::new);
+                }
+            }
+            if (!queue.offer(frame)) {
+                remoteMessagesDropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Messages from peers dropped because a local subscriber had more than
+     * {@link SubscriberQueue#MAX_PENDING_BYTES} of them waiting.
+     */
+    public long getRemoteMessagesDropped() {
+        return remoteMessagesDropped.sum();
+    }
+
+    /**
+     * Subscribers holding a delivery queue, for tests.
+     */
+    int deliveryQueueCount() {
+        return deliveries.size();
+    }
+
+    /**
+     * Links to other nodes that completed their handshake, with per-peer lag and batching counters.
+     */
+    public Collection<PeerLink> getPeers() {
+        return List.copyOf(peers.values());
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        for (PeerLink link : links) {
+            link.close();
+        }
+    }
+}
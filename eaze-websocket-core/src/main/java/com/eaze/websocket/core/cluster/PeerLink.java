@@ -0,0 +1,327 @@
+package com.eaze.websocket.core.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One TCP connection to another node. Outgoing records are appended to a pending buffer and
+ * written by the link's writer thread, which swaps in a fresh buffer and writes everything that
+ * accumulated while its previous write was in flight: under load many messages share one write,
+ * when idle a message goes out immediately.
+ *
+ * Records are length-prefixed: {@code int length, byte type, body}. Bodies are
+ * HELLO(nodeId), SUBSCRIBE(topic), UNSUBSCRIBE(topic), PUBLISH(long epochMicros, topic, frame)
+ * and DUPLICATE(nodeId), where strings are a short length plus UTF-8 bytes and frame is the already
+ * encoded WebSocket frame. DUPLICATE is the last record on a link one side drops because another
+ * link to the same node is kept; it tells the other side's dialer not to reconnect.
+ */
+public final class PeerLink {
+    static final byte HELLO = 0;
+    static final byte SUBSCRIBE = 1;
+    static final byte UNSUBSCRIBE = 2;
+    static final byte PUBLISH = 3;
+    static final byte DUPLICATE = 4;
+
+    /** Outgoing backlog above which published messages are dropped instead of queued. */
+    static final int MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    static final int MAX_RECORD_BYTES = 17 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private final ClusterBridge bridge;
+    private final SocketChannel channel;
+    final InetSocketAddress dialedAddress;
+    final Set<String> remoteInterest = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    // Guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    // Set once DUPLICATE is queued: nothing more is queued, and the writer closes once it is out
+    private boolean closeWhenFlushed;
+
+    private volatile String nodeId;
+    private volatile boolean open = true;
+    private volatile boolean duplicate;
+    private volatile long messagesSent;
+    private volatile long messagesReceived;
+    private volatile long messagesDropped;
+    private volatile long writeCalls;
+    private volatile long lagMicros = -1;
+
+    PeerLink(ClusterBridge bridge, SocketChannel channel, InetSocketAddress dialedAddress) {
+        this.bridge = bridge;
+        this.channel = channel;
+        this.dialedAddress = dialedAddress;
+    }
+
+    void start() {
+        Thread.ofVirtual().name("Eaze-Cluster-Writer").start(this::runWriter);
+        Thread.ofVirtual().name("Eaze-Cluster-Reader").start(this::runReader);
+    }
+
+    /**
+     * Node id announced by the peer, or null until its HELLO arrives.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Latest one-way delay from publish on the peer to receipt here, in microseconds, including
+     * time spent queued on the peer. -1 until the first message arrives. Assumes synchronized clocks
+     * across hosts.
+     */
+    public long getLagMicros() {
+        return lagMicros;
+    }
+
+    /**
+     * Bytes waiting to be written to the peer.
+     */
+    public int getPendingBytes() {
+        lock.lock();
+        try {
+            return pending.position();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    /**
+     * Messages not forwarded because the backlog exceeded {@link #MAX_PENDING_BYTES}.
+     */
+    public long getMessagesDropped() {
+        return messagesDropped;
+    }
+
+    /**
+     * Socket writes so far; compare with {@link #getMessagesSent()} to see how well messages are batched.
+     */
+    public long getWriteCalls() {
+        return writeCalls;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    boolean isInterestedIn(String topic) {
+        return remoteInterest.contains(topic);
+    }
+
+    void sendHello(byte[] localNodeId) {
+        enqueue(HELLO, localNodeId, 0, null, false);
+    }
+
+    void sendInterest(byte type, byte[] topic) {
+        enqueue(type, topic, 0, null, false);
+    }
+
+    void sendPublish(byte[] topic, long epochMicros, ByteBuffer frame) {
+        enqueue(PUBLISH, topic, epochMicros, frame, true);
+    }
+
+    private void enqueue(byte type, byte[] text, long epochMicros, ByteBuffer frame, boolean droppable) {
+        int bodyLength = 1 + (type == PUBLISH ? 8 : 0) + 2 + text.length + (frame == null ? 0 : frame.remaining());
+        lock.lock();
+        try {
+            if (!open || closeWhenFlushed) return;
+            if (droppable && pending.position() + 4 + bodyLength > MAX_PENDING_BYTES) {
+                messagesDropped++;
+                return;
+            }
+            ensureCapacity(4 + bodyLength);
+            pending.putInt(bodyLength).put(type);
+            if (type == PUBLISH) {
+                pending.putLong(epochMicros);
+            }
+            pending.putShort((short) text.length).put(text);
+            if (frame != null) {
+                pending.put(frame.duplicate());
+                messagesSent++;
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (pending.remaining() >= length) return;
+        int capacity = pending.capacity();
+        while (capacity - pending.position() < length) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+
+    private void runWriter() {
+        ByteBuffer writing = null;
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    while (open && pending.position() == 0 && !closeWhenFlushed) {
+                        notEmpty.await();
+                    }
+                    if (!open) return;
+                    if (pending.position() == 0) break;  // Everything up to DUPLICATE is written
+                    // Swap: publishers keep appending to the spare while this batch is written
+                    writing = pending;
+                    pending = spare;
+                    spare = null;
+                } finally {
+                    lock.unlock();
+                }
+
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    writeCalls++;
+                    channel.write(writing);
+                }
+                writing.clear();
+                if (writing.capacity() > INITIAL_BUFFER_BYTES * 4) {
+                    // Do not keep a burst-sized buffer around forever
+                    writing = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+                }
+
+                lock.lock();
+                try {
+                    spare = writing;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // Closed below
+        }
+        close();
+    }
+
+    private void runReader() {
+        ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        try {
+            while (open) {
+                if (channel.read(in) == -1) break;
+                in.flip();
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        throw new IOException("Invalid record length " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        if (in.capacity() < 4 + length) {
+                            ByteBuffer grown = ByteBuffer.allocate(4 + length);
+                            grown.put(in);
+                            grown.flip();
+                            in = grown;
+                        }
+                        break;
+                    }
+                    int end = in.position() + 4 + length;
+                    in.position(in.position() + 4);
+                    handleRecord(in.slice(in.position(), length));
+                    in.position(end);
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            if (open) {
+                System.err.println("Cluster link error: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void handleRecord(ByteBuffer record) {
+        byte type = record.get();
+        long epochMicros = type == PUBLISH ? record.getLong() : 0;
+        byte[] text = new byte[record.getShort() & 0xFFFF];
+        record.get(text);
+        String value = new String(text, StandardCharsets.UTF_8);
+        switch (type) {
+            case HELLO -> {
+                nodeId = value;
+                bridge.onHello(this);
+            }
+            case DUPLICATE -> {
+                duplicate = true;
+                close();
+            }
+            case SUBSCRIBE -> remoteInterest.add(value);
+            case UNSUBSCRIBE -> remoteInterest.remove(value);
+            case PUBLISH -> {
+                messagesReceived++;
+                lagMicros = Math.max(0, ClusterBridge.epochMicros() - epochMicros);
+                // The rest of the record is the encoded frame, delivered as-is
+                bridge.deliverRemote(value, record);
+            }
+            default -> System.err.println("Cluster link: unknown record type " + type);
+        }
+    }
+
+    /**
+     * Closes the link because another link to the same node is kept; neither side's dialer
+     * reconnects it. Records already queued, and the DUPLICATE that tells the peer, are written first.
+     */
+    void closeAsDuplicate(byte[] localNodeId) {
+        duplicate = true;
+        enqueue(DUPLICATE, localNodeId, 0, null, false);
+        lock.lock();
+        try {
+            closeWhenFlushed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (!open) return;
+            open = false;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+        bridge.onClosed(this);
+        closed.countDown();
+    }
+
+    /**
+     * Blocks until the link closes.
+     *
+     * @return true if it was closed as a duplicate
+     */
+    boolean awaitClose() throws InterruptedException {
+        closed.await();
+        return duplicate;
+    }
+}
@@ -0,0 +1,62 @@
+package com.eaze.websocket.core.cluster;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frames received from peers that wait for one local subscriber. A link's reader only appends
+ * here; a virtual thread started per burst writes them to the session, so a subscriber whose send
+ * blocks (BLOCK policy) holds up its own frames instead of the link and every other subscriber.
+ * Beyond {@link #MAX_PENDING_BYTES} new frames are dropped, like a link's outgoing backlog.
+ */
+final class SubscriberQueue {
+    static final int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final WebSocketSession session;
+    private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    SubscriberQueue(WebSocketSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Queues a read-only frame shared with other subscribers.
+     *
+     * @return false if the subscriber is too far behind and the frame was dropped
+     */
+    boolean offer(ByteBuffer frame) {
+        if (pendingBytes.addAndGet(frame.remaining()) > MAX_PENDING_BYTES) {
+            pendingBytes.addAndGet(-frame.remaining());
+            return false;
+        }
+        frames.offer(frame);
+        if (draining.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("Eaze-Cluster-Delivery").start(this::drain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        do {
+            ByteBuffer frame;
+            while ((frame = frames.poll()) != null) {
+                pendingBytes.addAndGet(-frame.remaining());
+                try {
+                    session.sendPreEncoded(frame);
+                } catch (IOException e) {
+                    // The session's own read path reports the failure and closes it
+                }
+            }
+            draining.set(false);
+            // A frame offered after the last poll but before the flag cleared has no drainer yet
+        } while (!frames.isEmpty() && draining.compareAndSet(false, true));
+    }
+}
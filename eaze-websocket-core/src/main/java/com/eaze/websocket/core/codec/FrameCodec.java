@@ -1,7 +1,9 @@
 package com.eaze.websocket.core.codec;
 
 import com.eaze.websocket.core.buffer.BufferPool;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class FrameCodec {
 
@@ -57,24 +59,7 @@ public class FrameCodec {
 
         // Optimization: Use BufferPool instead of allocateDirect
         ByteBuffer buffer = BufferPool.allocate(headerLen + payloadLen);
-
-        byte b1 = (byte) (frame.isFin() ? 0x80 : 0x00);
-        b1 |= (byte) (frame.getOpcode().getCode() & 0x0F);
-        buffer.put(b1);
-
-        byte b2 = (byte) (frame.isMasked() ? 0x80 : 0x00);
-        if (payloadLen <= 125) {
-            b2 |= (byte) payloadLen;
-            buffer.put(b2);
-        } else if (payloadLen <= 65535) {
-            b2 |= 126;
-            buffer.put(b2);
-            buffer.putShort((short) payloadLen);
-        } else {
-            b2 |= 127;
-            buffer.put(b2);
-            buffer.putLong(payloadLen);
-        }
+        writeHeader(buffer, frame.isFin(), frame.getOpcode(), frame.isMasked(), payloadLen);
 
         if (frame.isMasked()) {
             buffer.put(frame.getMaskingKey());
@@ -90,4 +75,191 @@ public class FrameCodec {
         buffer.flip();
         return buffer;
     }
+
+    /** Largest possible header of an unmasked (server-to-client) frame. */
+    public static final int MAX_HEADER_LENGTH = 10;
+    /** Longest String encoded char by char; see {@link #encodeText(CharSequence)}. */
+    public static final int DIRECT_ENCODE_MAX_CHARS = 256;
+
+    /**
+     * Encodes an unmasked text frame straight from the characters into a pooled buffer, without
+     * an intermediate byte[]. The UTF-8 payload is written after {@link #MAX_HEADER_LENGTH}
+     * reserved bytes and the header is backfilled in front of it once its length is known, so the
+     * returned buffer usually starts past position 0. Unpaired surrogates become '?', as with
+     * {@link String#getBytes}.
+     *
+     * Strings longer than {@link #DIRECT_ENCODE_MAX_CHARS} still go through getBytes: its
+     * vectorized intrinsic outruns a char loop by enough to pay for the temporary array.
+     */
+    public static ByteBuffer encodeText(CharSequence text) {
+        if (text instanceof String s && s.length() > DIRECT_ENCODE_MAX_CHARS) {
+            return encode(new WebSocketFrame(true, Opcode.TEXT,
+                    ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)), false, null));
+        }
+        int length = text.length();
+        ByteBuffer buffer;
+        if (MAX_HEADER_LENGTH + 3L * length <= BufferPool.BUFFER_SIZE) {
+            // At most 3 bytes per char: a 4-byte code point takes two chars
+            buffer = BufferPool.acquire();
+        } else {
+            buffer = BufferPool.allocate(MAX_HEADER_LENGTH + utf8Length(text));
+        }
+        return backfillHeader(buffer, Opcode.TEXT, writeUtf8(text, buffer, MAX_HEADER_LENGTH));
+    }
+
+    /**
+     * Encodes a message with a subprotocol codec into a pooled buffer, the same way as
+     * {@link #encodeText(CharSequence)}: the codec writes after {@link #MAX_HEADER_LENGTH} reserved
+     * bytes and the header is backfilled. The first buffer fits the codec's
+     * {@link MessageCodec#sizeHint size hint}; a codec that overflows it is run again with one twice
+     * the size, up to room for {@code maxPayload} bytes.
+     *
+     * @throws IllegalArgumentException if the message does not fit in {@code maxPayload} bytes
+     */
+    public static <T> ByteBuffer encodeMessage(MessageCodec<T> codec, T message, int maxPayload) {
+        long hint = Math.min(Math.max(codec.sizeHint(message), 0), maxPayload);
+        int capacity = (int) Math.max(BufferPool.BUFFER_SIZE, MAX_HEADER_LENGTH + hint);
+        while (true) {
+            ByteBuffer buffer = BufferPool.allocate(capacity);
+            buffer.position(MAX_HEADER_LENGTH);
+            try {
+                codec.encode(message, buffer);
+            } catch (BufferOverflowException e) {
+                BufferPool.release(buffer);
+                if (capacity - MAX_HEADER_LENGTH >= maxPayload) {
+                    throw new IllegalArgumentException("Encoded message is larger than " + maxPayload + " bytes");
+                }
+                capacity = (int) Math.min(capacity * 2L, MAX_HEADER_LENGTH + (long) maxPayload);
+                continue;
+            }
+            return backfillHeader(buffer, codec.isText() ? Opcode.TEXT : Opcode.BINARY, buffer.position());
+        }
+    }
+
+    /**
+     * Writes the smallest header for a payload that starts at {@link #MAX_HEADER_LENGTH} and ends
+     * at {@code end}, right in front of it, and sets the buffer to span the frame.
+     */
+    private static ByteBuffer backfillHeader(ByteBuffer buffer, Opcode opcode, int end) {
+        int payloadLen = end - MAX_HEADER_LENGTH;
+        int start = MAX_HEADER_LENGTH - (payloadLen <= 125 ? 2 : (payloadLen <= 65535 ? 4 : 10));
+        buffer.limit(end).position(start);
+        writeHeader(buffer, true, opcode, false, payloadLen);
+        buffer.position(start);
+        return buffer;
+    }
+
+    static int utf8Length(CharSequence text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                // Two chars, four bytes
+                bytes += 2;
+                i++;
+            }
+            // An unpaired surrogate is replaced by a single '?'
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the text with absolute puts starting at {@code index}.
+     *
+     * @return the index after the last byte written
+     */
+    private static int writeUtf8(CharSequence text, ByteBuffer dst, int index) {
+        int length = text.length();
+        int i = 0;
+        // ASCII fast path: typical protocol text (JSON keys, numbers, ids) never leaves this loop
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) break;
+            dst.put(index++, (byte) c);
+        }
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                dst.put(index++, (byte) c);
+            } else if (c < 0x800) {
+                dst.put(index++, (byte) (0xC0 | (c >> 6)));
+                dst.put(index++, (byte) (0x80 | (c & 0x3F)));
+            } else if (!Character.isSurrogate(c)) {
+                dst.put(index++, (byte) (0xE0 | (c >> 12)));
+                dst.put(index++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                dst.put(index++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                dst.put(index++, (byte) (0xF0 | (cp >> 18)));
+                dst.put(index++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put(index++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put(index++, (byte) (0x80 | (cp & 0x3F)));
+            } else {
+                dst.put(index++, (byte) '?');
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Writes the header of an unmasked frame so the payload can be written separately,
+     * e.g. straight from caller buffers with a gathering write.
+     */
+    public static void encodeHeader(ByteBuffer dst, boolean fin, Opcode opcode, long payloadLen) {
+        writeHeader(dst, fin, opcode, false, payloadLen);
+    }
+
+    private static void writeHeader(ByteBuffer dst, boolean fin, Opcode opcode, boolean masked, long payloadLen) {
+        byte b1 = (byte) (fin ? 0x80 : 0x00);
+        b1 |= (byte) (opcode.getCode() & 0x0F);
+        dst.put(b1);
+
+        byte b2 = (byte) (masked ? 0x80 : 0x00);
+        if (payloadLen <= 125) {
+            b2 |= (byte) payloadLen;
+            dst.put(b2);
+        } else if (payloadLen <= 65535) {
+            b2 |= 126;
+            dst.put(b2);
+            dst.putShort((short) payloadLen);
+        } else {
+            b2 |= 127;
+            dst.put(b2);
+            dst.putLong(payloadLen);
+        }
+    }
+
+    /**
+     * Builds the payload of a close frame: a 2-byte status code followed by the UTF-8 reason.
+     */
+    public static ByteBuffer closePayload(int code, String reason) {
+        byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + reasonBytes.length);
+        payload.putShort((short) code);
+        payload.put(reasonBytes);
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Encodes a frame into a standalone direct buffer that never goes back to the BufferPool.
+     * Meant for frames written to many sessions: each writer should use its own duplicate().
+     */
+    public static ByteBuffer encodeShared(WebSocketFrame frame) {
+        ByteBuffer pooled = encode(frame);
+        try {
+            ByteBuffer shared = ByteBuffer.allocateDirect(pooled.remaining());
+            shared.put(pooled);
+            shared.flip();
+            return shared.asReadOnlyBuffer();
+        } finally {
+            BufferPool.release(pooled);
+        }
+    }
 }
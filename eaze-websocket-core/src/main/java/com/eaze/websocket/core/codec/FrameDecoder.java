@@ -0,0 +1,206 @@
+package com.eaze.websocket.core.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Incremental frame decoder for one connection. Unlike {@link FrameCodec#decode(ByteBuffer)} it
+ * never rewinds: every byte handed to it is consumed exactly once, and the parse state (header
+ * bytes seen so far, payload bytes remaining, mask offset) carries over to the next read. Payload
+ * bytes are unmasked as they arrive, so a large frame spread over many TCP segments is neither
+ * rescanned nor copied more than once. The buffer for a payload that spans reads grows with the
+ * bytes actually received, so a header declaring a large payload does not by itself reserve it.
+ *
+ * Protocol violations (RSV bits without an extension, reserved opcodes, fragmented or oversized
+ * control frames, unmasked client frames, payloads above the configured limit) are rejected as
+ * soon as the header bytes that carry them are seen.
+ *
+ * Not thread-safe: used by the session's current reader only.
+ */
+public final class FrameDecoder {
+    private static final int MAX_HEADER_LENGTH = 14;
+    private static final int MAX_CONTROL_PAYLOAD = 125;
+    private static final int INITIAL_PARTIAL_CAPACITY = 8192;
+
+    private final int maxPayloadLength;
+    private final boolean requireMask;
+
+    // Header bytes collected so far, and how many the header needs once the first two are known
+    private final byte[] header = new byte[MAX_HEADER_LENGTH];
+    private int headerLength;
+    private int headerNeeded = 2;
+    private int lengthEnd;
+
+    // Payload state of the frame being decoded, valid once the header is complete
+    private boolean inPayload;
+    private boolean fin;
+    private Opcode opcode;
+    private int mask;
+    private int payloadLength;
+    private int payloadRead;
+    private ByteBuffer partial;
+
+    /**
+     * @param maxPayloadLength largest accepted frame payload; longer frames fail with 1009
+     * @param requireMask      true on the server side, where every client frame must be masked
+     */
+    public FrameDecoder(int maxPayloadLength, boolean requireMask) {
+        this.maxPayloadLength = maxPayloadLength;
+        this.requireMask = requireMask;
+    }
+
+    /**
+     * Consumes bytes from the buffer until one frame is complete.
+     *
+     * The payload of the returned frame is already unmasked. When the whole payload was in
+     * {@code buffer} it is a slice of that buffer, unmasked in place (unless the buffer is
+     * read-only), and only valid until the buffer is reused.
+     *
+     * @return the next frame, or null if the buffer ran out first (its state is kept for the next call)
+     */
+    public WebSocketFrame decode(ByteBuffer buffer) throws WebSocketProtocolException {
+        if (!inPayload) {
+            if (!readHeader(buffer)) return null;
+        }
+
+        if (partial == null) {
+            if (buffer.remaining() >= payloadLength && !buffer.isReadOnly()) {
+                // Common case: the whole payload is here, hand out a view instead of copying it
+                int start = buffer.position();
+                unmask(buffer, start, payloadLength, mask, 0);
+                ByteBuffer payload = buffer.slice(start, payloadLength);
+                buffer.position(start + payloadLength);
+                return complete(payload);
+            }
+            partial = ByteBuffer.allocate(Math.min(payloadLength, Math.max(INITIAL_PARTIAL_CAPACITY, buffer.remaining())));
+        }
+
+        int n = Math.min(buffer.remaining(), payloadLength - payloadRead);
+        if (partial.remaining() < n) {
+            // Double, capped at the declared length: memory follows what has arrived, not what was announced
+            int capacity = (int) Math.min(payloadLength, Math.max((long) partial.capacity() * 2, partial.position() + n));
+            partial = ByteBuffer.allocate(capacity).put(partial.flip());
+        }
+        int at = partial.position();
+        partial.put(partial.position(), buffer, buffer.position(), n);
+        buffer.position(buffer.position() + n);
+        unmask(partial, at, n, mask, payloadRead);
+        partial.position(at + n);
+        payloadRead += n;
+        if (payloadRead < payloadLength) return null;
+
+        ByteBuffer payload = partial.flip();
+        partial = null;
+        return complete(payload);
+    }
+
+    /**
+     * True if the decoder is between frames, i.e. no partially received frame is pending.
+     */
+    public boolean isIdle() {
+        return !inPayload && headerLength == 0;
+    }
+
+    private WebSocketFrame complete(ByteBuffer payload) {
+        WebSocketFrame frame = new WebSocketFrame(fin, opcode, payload);
+        inPayload = false;
+        headerLength = 0;
+        headerNeeded = 2;
+        lengthEnd = 0;
+        payloadRead = 0;
+        opcode = null;
+        return frame;
+    }
+
+    private boolean readHeader(ByteBuffer buffer) throws WebSocketProtocolException {
+        while (headerLength < headerNeeded) {
+            if (!buffer.hasRemaining()) return false;
+            header[headerLength++] = buffer.get();
+            if (headerLength == 2) {
+                headerNeeded = validateFirstBytes();
+            }
+            if (headerLength == lengthEnd) {
+                payloadLength = readPayloadLength();
+            }
+        }
+
+        mask = headerNeeded - lengthEnd == 4
+                ? ((header[lengthEnd] & 0xFF) << 24) | ((header[lengthEnd + 1] & 0xFF) << 16)
+                        | ((header[lengthEnd + 2] & 0xFF) << 8) | (header[lengthEnd + 3] & 0xFF)
+                : 0;
+        inPayload = true;
+        return true;
+    }
+
+    /**
+     * Decodes the 7-bit, 16-bit or 64-bit payload length as soon as its last byte is in,
+     * so an oversized frame is refused before its masking key or payload arrive.
+     */
+    private int readPayloadLength() throws WebSocketProtocolException {
+        long length = header[1] & 0x7F;
+        if (lengthEnd > 2) {
+            length = 0;
+            for (int i = 2; i < lengthEnd; i++) {
+                length = (length << 8) | (header[i] & 0xFF);
+            }
+            if (length < 0) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Invalid payload length");
+            }
+        }
+        if (length > maxPayloadLength) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.MESSAGE_TOO_BIG,
+                    "Frame payload of " + length + " bytes exceeds " + maxPayloadLength);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Checks everything the first two header bytes decide, before any payload is buffered.
+     *
+     * @return total header length
+     */
+    private int validateFirstBytes() throws WebSocketProtocolException {
+        int b1 = header[0];
+        int b2 = header[1];
+        if ((b1 & 0x70) != 0) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "RSV bits set without a negotiated extension");
+        }
+        opcode = Opcode.fromCode(b1 & 0x0F);
+        if (opcode == null) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Reserved opcode " + (b1 & 0x0F));
+        }
+        fin = (b1 & 0x80) != 0;
+        boolean masked = (b2 & 0x80) != 0;
+        if (requireMask && !masked) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Client frames must be masked");
+        }
+        int length = b2 & 0x7F;
+        if (opcode.isControl() && (!fin || length > MAX_CONTROL_PAYLOAD)) {
+            throw new WebSocketProtocolException(WebSocketProtocolException.PROTOCOL_ERROR, "Invalid control frame");
+        }
+        lengthEnd = 2 + (length == 126 ? 2 : (length == 127 ? 8 : 0));
+        return lengthEnd + (masked ? 4 : 0);
+    }
+
+    /**
+     * XORs {@code length} bytes starting at absolute index {@code from} with the masking key,
+     * {@code maskOffset} being the position of the first byte within the payload. Works eight
+     * bytes at a time; a zero mask (unmasked frame) is a no-op.
+     */
+    static void unmask(ByteBuffer buffer, int from, int length, int mask, int maskOffset) {
+        if (mask == 0 || length == 0) return;
+        int rotated = Integer.rotateLeft(mask, 8 * (maskOffset & 3));
+        long wide = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            wide = Long.reverseBytes(wide);
+        }
+        int i = from;
+        int end = from + length;
+        for (; i + 8 <= end; i += 8) {
+            buffer.putLong(i, buffer.getLong(i) ^ wide);
+        }
+        for (; i < end; i++) {
+            buffer.put(i, (byte) (buffer.get(i) ^ (rotated >>> (24 - 8 * ((i - from) & 3)))));
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class HandshakeProcessor {
@@ -35,6 +36,20 @@ public class HandshakeProcessor {
         }
     }
 
+    /**
+     * Fills the digest pool so the first handshakes after startup do not pay for provider lookup
+     * and MessageDigest creation.
+     */
+    public static void prewarm() {
+        while (DIGEST_POOL.size() < MAX_POOL_SIZE) {
+            try {
+                DIGEST_POOL.offer(MessageDigest.getInstance("SHA-1"));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     public static String createAcceptKey(String clientKey) {
         String input = clientKey + GUID;
         MessageDigest md = getDigest();
@@ -123,9 +138,39 @@ public class HandshakeProcessor {
     }
 
     public static String buildResponse(String acceptKey) {
+        return buildResponse(acceptKey, null);
+    }
+
+    /**
+     * @param subprotocol the negotiated subprotocol echoed in {@code Sec-WebSocket-Protocol}, or null for none
+     */
+    public static String buildResponse(String acceptKey, String subprotocol) {
         return "HTTP/1.1 101 Switching Protocols\r\n" +
                "Upgrade: websocket\r\n" +
                "Connection: Upgrade\r\n" +
+               (subprotocol == null ? "" : "Sec-WebSocket-Protocol: " + subprotocol + "\r\n") +
                "Sec-WebSocket-Accept: " + acceptKey + "\r\n\r\n";
     }
+
+    /**
+     * Picks the subprotocol for a connection: the first one in the client's
+     * {@code Sec-WebSocket-Protocol} list (in its order of preference) that the server supports.
+     *
+     * @param offered the header value, e.g. {@code "v2.bin, v1.json"}; may be null
+     * @return the chosen name, or null if the client offered none the server supports
+     */
+    public static String selectSubprotocol(String offered, Set<String> supported) {
+        if (offered == null || supported.isEmpty()) return null;
+        int start = 0;
+        while (start < offered.length()) {
+            int comma = offered.indexOf(',', start);
+            int end = comma == -1 ? offered.length() : comma;
+            String token = offered.substring(start, end).trim();
+            if (supported.contains(token)) {
+                return token;
+            }
+            start = end + 1;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,48 @@
+package com.eaze.websocket.core.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts between application objects and message payloads for one subprotocol, registered with
+ * {@code NioWebSocketServer.addSubprotocol}. Sessions that negotiated the subprotocol decode every
+ * data message on the read path straight from the frame buffer and pass the object to
+ * {@code WebSocketListener.onDecoded}; {@code WebSocketSession.sendObject} encodes straight into a
+ * pooled frame buffer. No intermediate byte[] or String is created by the server.
+ *
+ * Implementations are shared by all sessions and must be thread-safe.
+ *
+ * @param <T> the application message type
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * Decodes one complete message. The payload is a read-only view into the server's read buffer
+     * and is only valid during the call. Any exception closes the session with 1007.
+     *
+     * @param text whether the message arrived as a text frame
+     */
+    T decode(ByteBuffer payload, boolean text);
+
+    /**
+     * Writes the message at {@code out}'s position. If it does not fit, throw (or let the buffer
+     * throw) {@link java.nio.BufferOverflowException}: the call is repeated with a buffer twice
+     * the size, up to the server's maximum frame payload, so encoding must have no side effects
+     * besides writing to {@code out}.
+     */
+    void encode(T message, ByteBuffer out);
+
+    /**
+     * Expected encoded size of the message in bytes, or -1 if unknown. The first buffer offered to
+     * {@link #encode} has at least this much room, so a codec that knows its sizes never retries.
+     */
+    default int sizeHint(T message) {
+        return -1;
+    }
+
+    /**
+     * Whether encoded messages are sent as text frames rather than binary ones.
+     */
+    default boolean isText() {
+        return false;
+    }
+}
@@ -10,6 +10,15 @@ public enum Opcode {
 
     private final int code;
 
+    // Indexed by the 4-bit opcode field; reserved opcodes map to null
+    private static final Opcode[] BY_CODE = new Opcode[16];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
     Opcode(int code) {
         this.code = code;
     }
@@ -19,12 +28,7 @@ public enum Opcode {
     }
 
     public static Opcode fromCode(int code) {
-        for (Opcode opcode : values()) {
-            if (opcode.code == code) {
-                return opcode;
-            }
-        }
-        return null;
+        return (code & ~0x0F) == 0 ? BY_CODE[code] : null;
     }
 
     public boolean isControl() {
@@ -0,0 +1,23 @@
+package com.eaze.websocket.core.codec;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a peer violates RFC 6455. Carries the close code the connection should be closed with.
+ */
+public class WebSocketProtocolException extends IOException {
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int INVALID_PAYLOAD = 1007;
+    public static final int MESSAGE_TOO_BIG = 1009;
+
+    private final int closeCode;
+
+    public WebSocketProtocolException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    public int getCloseCode() {
+        return closeCode;
+    }
+}
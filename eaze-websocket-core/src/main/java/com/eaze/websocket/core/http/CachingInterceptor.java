@@ -0,0 +1,119 @@
+package com.eaze.websocket.core.http;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Remembers the decisions of another interceptor by a key derived from the request, typically the
+ * token, so clients reconnecting en masse after a failover do not each hit the auth backend again.
+ *
+ * Entries live for a fixed time from the moment they were requested and the cache holds at most
+ * {@code maxEntries}, dropping the oldest first. Concurrent requests with the same key share one
+ * call to the delegate. A decision that completes exceptionally is not cached, so the next request
+ * tries again.
+ */
+public final class CachingInterceptor implements HandshakeInterceptor {
+    private final HandshakeInterceptor delegate;
+    private final Function<HandshakeRequest, String> key;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    // Insertion order is expiry order, since every entry lives for the same time; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private record Entry(CompletableFuture<HandshakeDecision> decision, long expiresAt) {
+    }
+
+    /**
+     * @param key        extracts the cache key, e.g. {@code r -> r.getQueryParameter("token")};
+     *                   requests for which it returns null always go to the delegate
+     * @param maxEntries decisions kept at most
+     * @param ttl        how long a decision is reused
+     */
+    public CachingInterceptor(HandshakeInterceptor delegate, Function<HandshakeRequest, String> key,
+                              int maxEntries, Duration ttl) {
+        if (maxEntries < 1 || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.delegate = delegate;
+        this.key = key;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    @Override
+    public CompletionStage<HandshakeDecision> intercept(HandshakeRequest request) {
+        String k = key.apply(request);
+        if (k == null) {
+            return delegate.intercept(request);
+        }
+        long now = System.nanoTime();
+        CompletableFuture<HandshakeDecision> decision;
+        synchronized (this) {
+            evictExpired(now);
+            Entry entry = entries.get(k);
+            if (entry != null) {
+                return entry.decision;
+            }
+            decision = new CompletableFuture<>();
+            entries.put(k, new Entry(decision, now + ttlNanos));
+            if (entries.size() > maxEntries) {
+                Iterator<Entry> oldest = entries.values().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        // Called outside the lock: the delegate may be slow or complete inline
+        CompletionStage<HandshakeDecision> result;
+        try {
+            result = delegate.intercept(request);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((d, failure) -> {
+            if (failure != null || d == null) {
+                remove(k, decision);
+            }
+            if (failure != null) {
+                decision.completeExceptionally(failure);
+            } else {
+                decision.complete(d);
+            }
+        });
+        return decision;
+    }
+
+    /**
+     * Forgets the decision for a key, e.g. once its token has been revoked.
+     */
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Number of cached and in-flight decisions, including expired ones not yet evicted.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized void remove(String k, CompletableFuture<HandshakeDecision> decision) {
+        Entry entry = entries.get(k);
+        if (entry != null && entry.decision == decision) {
+            entries.remove(k);
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().expiresAt - now > 0) break;
+            it.remove();
+        }
+    }
+}
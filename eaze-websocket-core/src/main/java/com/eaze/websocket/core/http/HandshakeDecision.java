@@ -0,0 +1,57 @@
+package com.eaze.websocket.core.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Outcome of a {@link HandshakeInterceptor}: accept the upgrade, or answer it with an HTTP error
+ * status and close the connection. Rejections carry their pre-encoded response, so a decision
+ * served from a cache costs one write.
+ */
+public final class HandshakeDecision {
+    public static final HandshakeDecision ACCEPT = new HandshakeDecision(101, "Switching Protocols", null);
+
+    private final int status;
+    private final String reason;
+    private final ByteBuffer response;
+
+    private HandshakeDecision(int status, String reason, ByteBuffer response) {
+        this.status = status;
+        this.reason = reason;
+        this.response = response;
+    }
+
+    /**
+     * @param status an HTTP error status, e.g. 401 or 403
+     * @param reason the reason phrase, also sent as the body
+     */
+    public static HandshakeDecision reject(int status, String reason) {
+        if (status < 400 || status > 599) {
+            throw new IllegalArgumentException("Rejections need a 4xx or 5xx status");
+        }
+        byte[] bytes = ("HTTP/1.1 " + status + " " + reason + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + reason.length() + "\r\n" +
+                "Connection: close\r\n\r\n" + reason).getBytes(StandardCharsets.US_ASCII);
+        return new HandshakeDecision(status, reason, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    public boolean isAccepted() {
+        return response == null;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * The HTTP response of a rejection, as a fresh view for one write; null for {@link #ACCEPT}.
+     */
+    public ByteBuffer response() {
+        return response == null ? null : response.duplicate();
+    }
+}
@@ -0,0 +1,17 @@
+package com.eaze.websocket.core.http;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Decides whether a WebSocket upgrade may proceed, e.g. by validating a token from the query string
+ * or a header against an auth service. Installed with {@code NioWebSocketServer.setHandshakeInterceptor}.
+ *
+ * The server calls it on a virtual thread once the request has been read, so neither acceptor nor
+ * poller threads wait for it: blocking is fine, and so is returning a stage completed later by
+ * an asynchronous client. Wrap it in a {@link CachingInterceptor} to answer repeated credentials
+ * from memory.
+ */
+@FunctionalInterface
+public interface HandshakeInterceptor {
+    CompletionStage<HandshakeDecision> intercept(HandshakeRequest request);
+}
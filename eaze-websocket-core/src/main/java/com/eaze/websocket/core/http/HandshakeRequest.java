@@ -0,0 +1,107 @@
+package com.eaze.websocket.core.http;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A WebSocket upgrade request as seen by a {@link HandshakeInterceptor}: the request line, the
+ * headers and the client address. Immutable, so it can be handed to another thread.
+ */
+public final class HandshakeRequest {
+    private final String method;
+    private final String target;
+    private final Map<String, String> headers;
+    private final InetSocketAddress remoteAddress;
+
+    /**
+     * @param headers request headers with lower-case names
+     */
+    public HandshakeRequest(String method, String target, Map<String, String> headers, InetSocketAddress remoteAddress) {
+        this.method = method;
+        this.target = target;
+        this.headers = Map.copyOf(headers);
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * Reads the request line from a buffer positioned at its start.
+     *
+     * @return null if the request line is malformed
+     */
+    public static HandshakeRequest parse(ByteBuffer request, Map<String, String> headers, SocketAddress remote) {
+        int start = request.position();
+        int lineEnd = indexOf(request, (byte) '\r', start, request.limit());
+        int methodEnd = lineEnd < 0 ? -1 : indexOf(request, (byte) ' ', start, lineEnd);
+        int targetEnd = methodEnd < 0 ? -1 : indexOf(request, (byte) ' ', methodEnd + 1, lineEnd);
+        if (targetEnd < 0) return null;
+        return new HandshakeRequest(ascii(request, start, methodEnd), ascii(request, methodEnd + 1, targetEnd),
+                headers, remote instanceof InetSocketAddress inet ? inet : null);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /** The request target as sent, e.g. {@code /chat?token=abc}. */
+    public String getTarget() {
+        return target;
+    }
+
+    /** The target without its query string. */
+    public String getPath() {
+        int query = target.indexOf('?');
+        return query < 0 ? target : target.substring(0, query);
+    }
+
+    /**
+     * The decoded value of the first query parameter with that name, or null if there is none.
+     */
+    public String getQueryParameter(String name) {
+        int query = target.indexOf('?');
+        if (query < 0) return null;
+        int start = query + 1;
+        while (start < target.length()) {
+            int end = target.indexOf('&', start);
+            if (end < 0) end = target.length();
+            int eq = target.indexOf('=', start);
+            int nameEnd = eq < 0 || eq > end ? end : eq;
+            if (target.regionMatches(start, name, 0, name.length()) && nameEnd - start == name.length()) {
+                return nameEnd == end ? "" : URLDecoder.decode(target.substring(nameEnd + 1, end), StandardCharsets.UTF_8);
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /** A header value by case-insensitive name, or null. */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /** All headers, with lower-case names. */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** The client address, or null if unknown. */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
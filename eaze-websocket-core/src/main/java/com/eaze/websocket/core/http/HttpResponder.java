@@ -0,0 +1,303 @@
+package com.eaze.websocket.core.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Minimal HTTP/1.1 responder for plain (non-upgrade) requests arriving on the WebSocket port,
+ * so health checks and the client bundle do not need a separate web server.
+ *
+ * Serves {@code /health}, {@code /ready} and, when a static root is configured, GET/HEAD for the
+ * files below it. Every response closes the connection, so nothing is ever handed to a SubPoller.
+ * All fixed responses are pre-encoded direct buffers; files carry precomputed headers and an ETag
+ * (a matching If-None-Match is answered with 304), small files are cached in memory, and large
+ * ones are streamed with {@link FileChannel#transferTo}. Every file request, from the lookup on,
+ * runs on a virtual thread, so the acceptor never touches the disk; paths found missing are
+ * remembered like files, so repeated 404s cost no file system call either. A fixed response the
+ * socket does not take in one non-blocking write is finished on a virtual thread too, so a slow
+ * client never holds up the acceptor.
+ */
+public class HttpResponder {
+    /** Files up to this size are kept in memory. */
+    public static final int DEFAULT_CACHE_FILE_LIMIT = 64 * 1024;
+    private static final long MAX_CACHED_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_CACHED_FILES = 4096;
+    private static final int MAX_MISSING_PATHS = 4096;
+    // How long a cached file is trusted before its size and mtime are checked again
+    private static final long REVALIDATE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private record Canned(ByteBuffer headers, ByteBuffer body) {}
+
+    private static final Canned HEALTHY = canned("200 OK", "OK");
+    private static final Canned READY = canned("200 OK", "READY");
+    private static final Canned NOT_READY = canned("503 Service Unavailable", "NOT READY");
+    private static final Canned NOT_FOUND = canned("404 Not Found", "Not Found");
+    private static final Canned BAD_REQUEST = canned("400 Bad Request", "Bad Request");
+    private static final Canned METHOD_NOT_ALLOWED = new Canned(encode("HTTP/1.1 405 Method Not Allowed\r\n" +
+            "Allow: GET, HEAD\r\n" +
+            "Content-Length: 0\r\n" +
+            "Connection: close\r\n\r\n"), encode(""));
+
+    private final Path root;
+    private final int cacheFileLimit;
+    // Keyed by normalized path, so spellings like /./a.js and /a.js share one entry
+    private final Map<Path, StaticFile> files = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    // Paths found missing, with the time they were checked; trusted as long as cached files are
+    private final Map<Path, Long> missing = new ConcurrentHashMap<>();
+    private volatile BooleanSupplier readiness = () -> true;
+
+    /**
+     * @param staticRoot directory served for non-endpoint paths, or null to serve only the endpoints
+     */
+    public HttpResponder(Path staticRoot) {
+        this(staticRoot, DEFAULT_CACHE_FILE_LIMIT);
+    }
+
+    public HttpResponder(Path staticRoot, int cacheFileLimit) {
+        this.root = staticRoot == null ? null : staticRoot.toAbsolutePath().normalize();
+        this.cacheFileLimit = cacheFileLimit;
+    }
+
+    /**
+     * Decides what {@code /ready} reports; ready by default.
+     */
+    public void setReadiness(BooleanSupplier readiness) {
+        this.readiness = readiness;
+    }
+
+    /**
+     * Answers one request and closes the connection (possibly after this method returns, when the
+     * response is still being written). The client channel must not be registered with a selector.
+     *
+     * @param request     buffer positioned at the start of the request line
+     * @param headers     request headers, keys in lower case
+     */
+    public void respond(SocketChannel client, ByteBuffer request, Map<String, String> headers) {
+        boolean handedOff = false;
+        try {
+            int lineEnd = indexOf(request, (byte) '\r', request.position(), request.limit());
+            int methodEnd = indexOf(request, (byte) ' ', request.position(), lineEnd);
+            int targetEnd = methodEnd < 0 ? -1 : indexOf(request, (byte) ' ', methodEnd + 1, lineEnd);
+            if (targetEnd < 0) {
+                handedOff = write(client, BAD_REQUEST, false);
+                return;
+            }
+            String method = ascii(request, request.position(), methodEnd);
+            boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                handedOff = write(client, METHOD_NOT_ALLOWED, false);
+                return;
+            }
+            String path;
+            try {
+                path = new URI(ascii(request, methodEnd + 1, targetEnd)).getPath();
+            } catch (URISyntaxException e) {
+                path = null;
+            }
+            if (path == null) {
+                handedOff = write(client, BAD_REQUEST, head);
+                return;
+            }
+
+            handedOff = switch (path) {
+                case "/health" -> write(client, HEALTHY, head);
+                case "/ready" -> write(client, readiness.getAsBoolean() ? READY : NOT_READY, head);
+                default -> {
+                    String requestPath = path;
+                    String ifNoneMatch = headers.get("if-none-match");
+                    Thread.startVirtualThread(() -> {
+                        try {
+                            client.configureBlocking(true);
+                            serveFile(client, requestPath, ifNoneMatch, head);
+                        } catch (IOException ignore) {
+                        } finally {
+                            close(client);
+                        }
+                    });
+                    yield true;
+                }
+            };
+        } catch (IOException ignore) {
+            // Client went away
+        } finally {
+            if (!handedOff) {
+                close(client);
+            }
+        }
+    }
+
+    /**
+     * Runs on a virtual thread with the client in blocking mode; the caller closes the connection.
+     */
+    private void serveFile(SocketChannel client, String path, String ifNoneMatch, boolean head) throws IOException {
+        StaticFile file = lookup(path);
+        if (file == null) {
+            if (head) {
+                writeFully(client, NOT_FOUND.headers().duplicate());
+            } else {
+                writeFully(client, NOT_FOUND.headers().duplicate(), NOT_FOUND.body().duplicate());
+            }
+        } else if (file.etag.equals(ifNoneMatch)) {
+            writeFully(client, file.notModified.duplicate());
+        } else if (head) {
+            writeFully(client, file.headers.duplicate());
+        } else if (file.body != null) {
+            writeFully(client, file.headers.duplicate(), file.body.duplicate());
+        } else {
+            try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+                writeFully(client, file.headers.duplicate());
+                long position = 0;
+                while (position < file.size) {
+                    long sent = channel.transferTo(position, file.size - position, client);
+                    if (sent <= 0) break; // File shrank under us
+                    position += sent;
+                }
+            }
+        }
+    }
+
+    private StaticFile lookup(String path) throws IOException {
+        if (root == null) return null;
+        String relative = path.startsWith("/") ? path.substring(1) : path;
+        if (relative.isEmpty() || relative.endsWith("/")) {
+            relative += "index.html";
+        }
+
+        Path resolved = root.resolve(relative).normalize();
+        if (!resolved.startsWith(root)) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        Long missingSince = missing.get(resolved);
+        if (missingSince != null && now - missingSince < REVALIDATE_NANOS) {
+            return null;
+        }
+        StaticFile cached = files.get(resolved);
+        if (cached != null) {
+            if (now - cached.checkedAtNanos < REVALIDATE_NANOS) return cached;
+            if (cached.isCurrent()) {
+                cached.checkedAtNanos = now;
+                return cached;
+            }
+        }
+
+        int limit = cachedBytes.get() < MAX_CACHED_BYTES ? cacheFileLimit : -1;
+        StaticFile loaded = StaticFile.load(resolved, limit, now);
+        if (loaded == null) {
+            // When full, further misses just go to the disk each time
+            if (missingSince != null || missing.size() < MAX_MISSING_PATHS) {
+                missing.put(resolved, now);
+            }
+        } else if (missingSince != null) {
+            missing.remove(resolved);
+        }
+        if (loaded != null && cached == null && files.size() >= MAX_CACHED_FILES) {
+            // Table full: serve this file uncached rather than grow without bound
+            return loaded;
+        }
+        StaticFile previous = loaded == null ? files.remove(resolved) : files.put(resolved, loaded);
+        if (loaded != null && loaded.body != null) {
+            cachedBytes.addAndGet(loaded.size);
+        }
+        if (previous != null && previous.body != null) {
+            cachedBytes.addAndGet(-previous.size);
+        }
+        return loaded;
+    }
+
+    int cachedFiles() {
+        return files.size();
+    }
+
+    int missingPaths() {
+        return missing.size();
+    }
+
+    private static boolean write(SocketChannel client, Canned response, boolean head) throws IOException {
+        return head ? send(client, response.headers().duplicate())
+                : send(client, response.headers().duplicate(), response.body().duplicate());
+    }
+
+    /**
+     * Writes what the socket takes right away; if that is not everything, a virtual thread
+     * finishes the response in blocking mode and closes the connection.
+     *
+     * @return true if the response continues on a virtual thread, which then owns the connection
+     */
+    private static boolean send(SocketChannel client, ByteBuffer... buffers) throws IOException {
+        client.configureBlocking(false);
+        client.write(buffers);
+        client.configureBlocking(true);
+        if (!buffers[buffers.length - 1].hasRemaining()) {
+            return false;
+        }
+        Thread.startVirtualThread(() -> {
+            try {
+                writeFully(client, buffers);
+            } catch (IOException ignore) {
+            } finally {
+                close(client);
+            }
+        });
+        return true;
+    }
+
+    private static void writeFully(SocketChannel client, ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= client.write(buffers);
+        }
+    }
+
+    private static void close(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignore) {}
+    }
+
+    private static Canned canned(String status, String body) {
+        return new Canned(encode("HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Cache-Control: no-store\r\n" +
+                "Connection: close\r\n\r\n"), encode(body));
+    }
+
+    /**
+     * Encodes a fixed response as a read-only direct buffer; writers use their own duplicate().
+     */
+    static ByteBuffer encode(String response) {
+        byte[] bytes = response.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer();
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
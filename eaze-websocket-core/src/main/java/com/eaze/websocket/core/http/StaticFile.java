@@ -0,0 +1,114 @@
+package com.eaze.websocket.core.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * A static file with its response headers and ETag computed once. Small files also keep their
+ * content in a direct buffer, so serving them is one gathering write with no file access at all;
+ * larger ones are sent from the file with {@link FileChannel#transferTo} (sendfile).
+ *
+ * Immutable: when the file changes on disk a new instance replaces this one.
+ */
+final class StaticFile {
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("wasm", "application/wasm"));
+
+    final Path path;
+    final long size;
+    final long lastModified;
+    final String etag;
+    /** Full 200 response header block. */
+    final ByteBuffer headers;
+    /** Complete 304 response for conditional requests that match {@link #etag}. */
+    final ByteBuffer notModified;
+    /** File content when it is small enough to cache, otherwise null. */
+    final ByteBuffer body;
+    // Last time the file's attributes were compared with the disk
+    volatile long checkedAtNanos;
+
+    private StaticFile(Path path, long size, long lastModified, ByteBuffer body, long now) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+        this.headers = HttpResponder.encode("HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + contentType(path) + "\r\n" +
+                "Content-Length: " + size + "\r\n" +
+                "ETag: " + etag + "\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "Connection: close\r\n\r\n");
+        this.notModified = HttpResponder.encode("HTTP/1.1 304 Not Modified\r\n" +
+                "ETag: " + etag + "\r\n" +
+                "Connection: close\r\n\r\n");
+        this.body = body;
+        this.checkedAtNanos = now;
+    }
+
+    /**
+     * Reads the file's attributes, and its content if it is at most {@code cacheLimit} bytes.
+     *
+     * @return the file, or null if it does not exist or is not a regular file
+     */
+    static StaticFile load(Path path, int cacheLimit, long now) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+        long size = attributes.size();
+        ByteBuffer body = null;
+        if (size <= cacheLimit) {
+            ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (content.hasRemaining() && file.read(content) >= 0) {
+                    // Read until full or EOF
+                }
+            }
+            body = content.flip().asReadOnlyBuffer();
+        }
+        return new StaticFile(path, size, attributes.lastModifiedTime().toMillis(), body, now);
+    }
+
+    /**
+     * True if the file on disk still has the size and modification time this instance was built from.
+     */
+    boolean isCurrent() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String contentType(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+        return type != null ? type : "application/octet-stream";
+    }
+}
@@ -0,0 +1,177 @@
+package com.eaze.websocket.core.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HPACK header block decoder (RFC 7541) for one connection. The dynamic table lives as long as the
+ * connection and must see every header block in order, so it is only used by the connection's reader.
+ *
+ * Headers come back as a map with lower-case names, pseudo-headers included (":method",
+ * ":path", ...). Repeated headers are joined with ", " ("; " for cookie), as HTTP/1.1 would fold them.
+ */
+public final class HpackDecoder {
+    private static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC_TABLE = {
+            null,
+            {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+            {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+            {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+            {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""},
+            {"accept", ""}, {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""},
+            {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+            {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+            {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+            {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+            {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+            {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""},
+            {"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""},
+            {"range", ""}, {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""},
+            {"set-cookie", ""}, {"strict-transport-security", ""}, {"transfer-encoding", ""},
+            {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+    private static final int STATIC_SIZE = STATIC_TABLE.length - 1;
+
+    private final int maxHeaderListSize;
+    // Newest entry first, as HPACK indexes them
+    private final ArrayDeque<String[]> dynamicTable = new ArrayDeque<>();
+    private int tableSize;
+    private int maxTableSize;
+    private final int tableSizeLimit;
+
+    /**
+     * @param maxTableSize      dynamic table size announced in SETTINGS_HEADER_TABLE_SIZE
+     * @param maxHeaderListSize largest decoded header list (names, values and 32 bytes per header) accepted
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.maxTableSize = maxTableSize;
+        this.tableSizeLimit = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Decodes a complete header block, i.e. the fragments of a HEADERS frame and its CONTINUATION frames.
+     */
+    public Map<String, String> decode(ByteBuffer block) throws Http2Exception {
+        Map<String, String> headers = new HashMap<>();
+        int listSize = 0;
+        boolean headerSeen = false;
+        while (block.hasRemaining()) {
+            int b = block.get(block.position()) & 0xFF;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) {
+                String[] entry = entry(readInt(block, 7));
+                name = entry[0];
+                value = entry[1];
+            } else if ((b & 0xE0) == 0x20) {
+                // Only allowed before the first header
+                if (headerSeen) {
+                    throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Table size update after a header");
+                }
+                int size = readInt(block, 5);
+                if (size > tableSizeLimit) {
+                    throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Table size above the announced limit");
+                }
+                maxTableSize = size;
+                evict(0);
+                continue;
+            } else {
+                boolean indexed = (b & 0xC0) == 0x40;
+                int nameIndex = readInt(block, indexed ? 6 : 4);
+                name = nameIndex == 0 ? readString(block) : entry(nameIndex)[0];
+                value = readString(block);
+                if (indexed) {
+                    add(name, value);
+                }
+            }
+            headerSeen = true;
+            listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+            if (listSize > maxHeaderListSize) {
+                throw new Http2Exception(Http2Codec.PROTOCOL_ERROR, "Header list too large");
+            }
+            headers.merge(name, value, (a, v) -> a + (name.equals("cookie") ? "; " : ", ") + v);
+        }
+        return headers;
+    }
+
+    private String[] entry(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC_SIZE) {
+            return STATIC_TABLE[index];
+        }
+        int dynamic = index - STATIC_SIZE - 1;
+        if (index == 0 || dynamic >= dynamicTable.size()) {
+            throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Invalid table index " + index);
+        }
+        // ArrayDeque has no indexed access; tables hold a few dozen entries at most
+        int i = 0;
+        for (String[] entry : dynamicTable) {
+            if (i++ == dynamic) return entry;
+        }
+        throw new IllegalStateException();
+    }
+
+    private void add(String name, String value) {
+        int size = name.length() + value.length() + ENTRY_OVERHEAD;
+        evict(size);
+        if (size <= maxTableSize) {
+            dynamicTable.addFirst(new String[]{name, value});
+            tableSize += size;
+        }
+    }
+
+    /**
+     * Drops the oldest entries until {@code incoming} more bytes fit.
+     */
+    private void evict(int incoming) {
+        while (!dynamicTable.isEmpty() && tableSize + incoming > maxTableSize) {
+            String[] oldest = dynamicTable.removeLast();
+            tableSize -= oldest[0].length() + oldest[1].length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Reads an integer with an N-bit prefix (RFC 7541, section 5.1).
+     */
+    static int readInt(ByteBuffer src, int prefixBits) throws Http2Exception {
+        int max = (1 << prefixBits) - 1;
+        int value = src.get() & max;
+        if (value < max) return value;
+        int shift = 0;
+        int b;
+        do {
+            if (!src.hasRemaining() || shift > 21) {
+                throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Invalid integer");
+            }
+            b = src.get() & 0xFF;
+            value += (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0) {
+            throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Integer overflow");
+        }
+        return value;
+    }
+
+    private static String readString(ByteBuffer src) throws Http2Exception {
+        if (!src.hasRemaining()) {
+            throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Truncated string");
+        }
+        boolean huffman = (src.get(src.position()) & 0x80) != 0;
+        int length = readInt(src, 7);
+        if (length > src.remaining()) {
+            throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Truncated string");
+        }
+        if (huffman) {
+            return Huffman.decode(src, length);
+        }
+        byte[] bytes = new byte[length];
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,60 @@
+package com.eaze.websocket.core.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the few response headers the server sends. Everything is written as a literal without
+ * indexing and without Huffman coding, so the encoder keeps no dynamic table state and a response
+ * can be encoded on any thread.
+ */
+public final class HpackEncoder {
+    private static final int STATUS_NAME_INDEX = 8;
+
+    private HpackEncoder() {
+    }
+
+    /**
+     * Writes {@code :status}, as a single static-table index where one exists.
+     */
+    public static void encodeStatus(ByteBuffer dst, int status) {
+        for (int i = STATUS_NAME_INDEX; i < STATUS_NAME_INDEX + 7; i++) {
+            if (HpackDecoder.STATIC_TABLE[i][1].equals(Integer.toString(status))) {
+                writeInt(dst, 0x80, 7, i);
+                return;
+            }
+        }
+        writeInt(dst, 0x00, 4, STATUS_NAME_INDEX);
+        writeString(dst, Integer.toString(status));
+    }
+
+    /**
+     * Writes a header with a lower-case name.
+     */
+    public static void encodeHeader(ByteBuffer dst, String name, String value) {
+        dst.put((byte) 0x00);
+        writeString(dst, name);
+        writeString(dst, value);
+    }
+
+    static void writeInt(ByteBuffer dst, int pattern, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            dst.put((byte) (pattern | value));
+            return;
+        }
+        dst.put((byte) (pattern | max));
+        value -= max;
+        while (value >= 0x80) {
+            dst.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    private static void writeString(ByteBuffer dst, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        writeInt(dst, 0x00, 7, bytes.length);
+        dst.put(bytes);
+    }
+}
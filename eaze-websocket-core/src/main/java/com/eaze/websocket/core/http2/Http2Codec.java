@@ -0,0 +1,113 @@
+package com.eaze.websocket.core.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/2 framing constants and the 9-byte frame header (RFC 9113, section 4.1).
+ *
+ * <pre>
+ * +-----------------------------------------------+
+ * |                 Length (24)                   |
+ * +---------------+---------------+---------------+
+ * |   Type (8)    |   Flags (8)   |
+ * +-+-------------+---------------+-------------------------------+
+ * |R|                 Stream Identifier (31)                      |
+ * +=+=============================================================+
+ * |                   Frame Payload (0...)                      ...
+ * +---------------------------------------------------------------+
+ * </pre>
+ */
+public final class Http2Codec {
+    public static final int FRAME_HEADER_LENGTH = 9;
+    /** Largest frame payload a peer may send before SETTINGS_MAX_FRAME_SIZE says otherwise. */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    public static final int DEFAULT_INITIAL_WINDOW_SIZE = 65_535;
+    public static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /** What a client sends first on a connection, before its SETTINGS frame. */
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Frame types
+    public static final int DATA = 0x0;
+    public static final int HEADERS = 0x1;
+    public static final int PRIORITY = 0x2;
+    public static final int RST_STREAM = 0x3;
+    public static final int SETTINGS = 0x4;
+    public static final int PUSH_PROMISE = 0x5;
+    public static final int PING = 0x6;
+    public static final int GOAWAY = 0x7;
+    public static final int WINDOW_UPDATE = 0x8;
+    public static final int CONTINUATION = 0x9;
+
+    // Flags
+    public static final int FLAG_END_STREAM = 0x1;
+    public static final int FLAG_ACK = 0x1;
+    public static final int FLAG_END_HEADERS = 0x4;
+    public static final int FLAG_PADDED = 0x8;
+    public static final int FLAG_PRIORITY = 0x20;
+
+    // Settings
+    public static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    public static final int SETTINGS_ENABLE_PUSH = 0x2;
+    public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    public static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    public static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    public static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    /** RFC 8441: the server accepts extended CONNECT, i.e. WebSocket over a stream. */
+    public static final int SETTINGS_ENABLE_CONNECT_PROTOCOL = 0x8;
+
+    // Error codes
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+    public static final int ENHANCE_YOUR_CALM = 0xb;
+
+    private Http2Codec() {
+    }
+
+    /**
+     * True if the buffer starts with as much of the connection preface as it holds, at least
+     * {@code "PRI "}: the acceptor's first read may end before the whole preface.
+     */
+    public static boolean isPreface(ByteBuffer buffer) {
+        int n = Math.min(buffer.remaining(), PREFACE.length);
+        if (n < 4) return false;
+        for (int i = 0; i < n; i++) {
+            if (buffer.get(buffer.position() + i) != PREFACE[i]) return false;
+        }
+        return true;
+    }
+
+    public static void writeFrameHeader(ByteBuffer dst, int length, int type, int flags, int streamId) {
+        dst.put((byte) (length >>> 16))
+                .put((byte) (length >>> 8))
+                .put((byte) length)
+                .put((byte) type)
+                .put((byte) flags)
+                .putInt(streamId & Integer.MAX_VALUE);
+    }
+
+    /** Payload length of the frame whose header starts at {@code offset}. */
+    public static int length(ByteBuffer header, int offset) {
+        return (header.get(offset) & 0xFF) << 16 | (header.get(offset + 1) & 0xFF) << 8 | header.get(offset + 2) & 0xFF;
+    }
+
+    public static int type(ByteBuffer header, int offset) {
+        return header.get(offset + 3) & 0xFF;
+    }
+
+    public static int flags(ByteBuffer header, int offset) {
+        return header.get(offset + 4) & 0xFF;
+    }
+
+    public static int streamId(ByteBuffer header, int offset) {
+        return header.getInt(offset + 5) & Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,30 @@
+package com.eaze.websocket.core.http2;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a peer violates RFC 9113 or RFC 7541. Carries the HTTP/2 error code and the stream
+ * it concerns: 0 for a connection error (GOAWAY), otherwise a stream error (RST_STREAM).
+ */
+public class Http2Exception extends IOException {
+    private final int errorCode;
+    private final int streamId;
+
+    public Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    public Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+}
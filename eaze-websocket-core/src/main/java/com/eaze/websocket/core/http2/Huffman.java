@@ -0,0 +1,96 @@
+package com.eaze.websocket.core.http2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoder for the HPACK Huffman code (RFC 7541, Appendix B). The code is canonical, so it is
+ * fully described by the code length of each symbol: codes of one length are consecutive
+ * integers in symbol order, which is all {@link #decode} needs to map a code back to its symbol.
+ */
+final class Huffman {
+    private static final int EOS = 256;
+    private static final int MAX_LENGTH = 30;
+
+    /** Code length in bits of each byte value, then EOS. */
+    private static final byte[] LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    // Per code length: the first code, and where that length's symbols start in SYMBOLS
+    private static final int[] FIRST_CODE = new int[MAX_LENGTH + 2];
+    private static final int[] FIRST_INDEX = new int[MAX_LENGTH + 2];
+    private static final int[] COUNT = new int[MAX_LENGTH + 2];
+    private static final int[] SYMBOLS = new int[LENGTHS.length];
+
+    static {
+        for (byte length : LENGTHS) {
+            COUNT[length]++;
+        }
+        int code = 0;
+        int index = 0;
+        for (int length = 1; length <= MAX_LENGTH; length++) {
+            FIRST_CODE[length] = code;
+            FIRST_INDEX[length] = index;
+            code = (code + COUNT[length]) << 1;
+            index += COUNT[length];
+        }
+        int[] next = FIRST_INDEX.clone();
+        for (int symbol = 0; symbol < LENGTHS.length; symbol++) {
+            SYMBOLS[next[LENGTHS[symbol]]++] = symbol;
+        }
+    }
+
+    private Huffman() {
+    }
+
+    /**
+     * Decodes {@code length} bytes of Huffman-coded string at the buffer's position.
+     */
+    static String decode(ByteBuffer src, int length) throws Http2Exception {
+        byte[] out = new byte[length * 8 / 5 + 1];
+        int written = 0;
+        int code = 0;
+        int bits = 0;
+        for (int i = 0; i < length; i++) {
+            int b = src.get() & 0xFF;
+            for (int bit = 7; bit >= 0; bit--) {
+                code = (code << 1) | ((b >>> bit) & 1);
+                bits++;
+                int offset = code - FIRST_CODE[bits];
+                if (offset >= 0 && offset < COUNT[bits]) {
+                    int symbol = SYMBOLS[FIRST_INDEX[bits] + offset];
+                    if (symbol == EOS) {
+                        throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "EOS in Huffman string");
+                    }
+                    out[written++] = (byte) symbol;
+                    code = 0;
+                    bits = 0;
+                } else if (bits == MAX_LENGTH) {
+                    throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Invalid Huffman code");
+                }
+            }
+        }
+        // Padding is the most significant bits of EOS: fewer than 8 bits, all ones
+        if (bits > 7 || code != (1 << bits) - 1) {
+            throw new Http2Exception(Http2Codec.COMPRESSION_ERROR, "Invalid Huffman padding");
+        }
+        return new String(out, 0, written, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,30 @@
+package com.eaze.websocket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One call into the session's frame decoder that produced a frame. Per-frame, so disabled by default.
+ */
+@Name("com.eaze.websocket.FrameDecode")
+@Label("WebSocket Frame Decode")
+@Category({"Eaze WebSocket", "Frames"})
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+public final class FrameDecodeEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Opcode")
+    public String opcode;
+
+    @Label("Payload Length")
+    @DataAmount
+    public int payloadLength;
+}
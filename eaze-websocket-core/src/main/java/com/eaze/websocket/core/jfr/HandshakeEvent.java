@@ -0,0 +1,28 @@
+package com.eaze.websocket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Time an acceptor spent on one connection, from the first read of the upgrade request to the
+ * session being handed to a SubPoller (or the connection being answered and closed). With a
+ * handshake interceptor this includes waiting for its decision, which happens on a virtual thread.
+ */
+@Name("com.eaze.websocket.Handshake")
+@Label("WebSocket Handshake")
+@Category({"Eaze WebSocket", "Connection"})
+@Description("Upgrade request handled by an acceptor thread")
+@Threshold("20 ms")
+@StackTrace(false)
+public final class HandshakeEvent extends jdk.jfr.Event {
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Upgraded")
+    @Description("False for plain HTTP requests and failed handshakes")
+    public boolean upgraded;
+}
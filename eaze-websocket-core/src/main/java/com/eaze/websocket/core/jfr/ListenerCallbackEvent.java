@@ -0,0 +1,29 @@
+package com.eaze.websocket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Time spent inside application listener code. Per-message, so disabled by default; with a
+ * threshold it finds the slow handlers behind tail latency. Keeps the stack trace to show which.
+ */
+@Name("com.eaze.websocket.ListenerCallback")
+@Label("WebSocket Listener Callback")
+@Category({"Eaze WebSocket", "Application"})
+@Enabled(false)
+@Threshold("10 ms")
+public final class ListenerCallbackEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Callback")
+    public String callback;
+
+    @Label("Payload Length")
+    @DataAmount
+    public int payloadLength;
+}
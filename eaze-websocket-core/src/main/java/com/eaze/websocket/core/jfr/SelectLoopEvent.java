@@ -0,0 +1,26 @@
+package com.eaze.websocket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Work done by a SubPoller between two selects: dispatching ready keys, registrations, drain
+ * steps and the flush pass. Time blocked in select is not included. Disabled by default.
+ */
+@Name("com.eaze.websocket.SelectLoop")
+@Label("SubPoller Loop Iteration")
+@Category({"Eaze WebSocket", "Poller"})
+@Enabled(false)
+@Threshold("5 ms")
+@StackTrace(false)
+public final class SelectLoopEvent extends jdk.jfr.Event {
+    @Label("Poller")
+    public int poller;
+
+    @Label("Ready Keys")
+    public int readyKeys;
+}
@@ -0,0 +1,45 @@
+package com.eaze.websocket.core.jfr;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A session that closed, with its close code and reason. Per connection, so disabled by default
+ * like the per-frame events.
+ */
+@Name("com.eaze.websocket.SessionClose")
+@Label("WebSocket Session Close")
+@Category({"Eaze WebSocket", "Connection"})
+@Enabled(false)
+@StackTrace(false)
+public final class SessionCloseEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Close Code")
+    public int code;
+
+    @Label("Reason")
+    public String reason;
+
+    /**
+     * Must run before the channel is closed, while the remote address is still known.
+     */
+    public static void emit(WebSocketSession session, int code, String reason) {
+        SessionCloseEvent event = new SessionCloseEvent();
+        if (event.isEnabled()) {
+            event.sessionId = session.getId();
+            event.remoteAddress = session.getRemoteAddress();
+            event.code = code;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
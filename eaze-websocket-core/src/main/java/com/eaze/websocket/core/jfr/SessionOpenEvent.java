@@ -0,0 +1,34 @@
+package com.eaze.websocket.core.jfr;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A session that completed its handshake. Disabled by default: a reconnect storm would record one
+ * per client.
+ */
+@Name("com.eaze.websocket.SessionOpen")
+@Label("WebSocket Session Open")
+@Category({"Eaze WebSocket", "Connection"})
+@Enabled(false)
+@StackTrace(false)
+public final class SessionOpenEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    public static void emit(WebSocketSession session) {
+        SessionOpenEvent event = new SessionOpenEvent();
+        if (event.isEnabled()) {
+            event.sessionId = session.getId();
+            event.remoteAddress = session.getRemoteAddress();
+            event.commit();
+        }
+    }
+}
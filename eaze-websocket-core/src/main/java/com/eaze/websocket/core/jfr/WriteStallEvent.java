@@ -0,0 +1,31 @@
+package com.eaze.websocket.core.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A blocking send that found the socket buffer full, from the first zero-byte write until the
+ * data was written. Only created on that slow path, so it costs nothing while sockets keep up.
+ */
+@Name("com.eaze.websocket.WriteStall")
+@Label("WebSocket Write Stall")
+@Category({"Eaze WebSocket", "Frames"})
+@Description("Sender waited for a full socket buffer to drain")
+@Threshold("10 ms")
+public final class WriteStallEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Bytes")
+    @Description("Size of the write that stalled")
+    @DataAmount
+    public long bytes;
+
+    @Label("Retries")
+    @Description("Zero-byte writes before the data went out")
+    public int retries;
+}
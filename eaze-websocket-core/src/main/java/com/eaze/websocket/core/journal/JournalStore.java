@@ -0,0 +1,56 @@
+package com.eaze.websocket.core.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link TopicJournal} per topic, each in its own subdirectory, opened on first use with
+ * shared segment and retention settings.
+ */
+public class JournalStore implements Closeable {
+    private final Path root;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final Duration retention;
+    private final Map<String, TopicJournal> topics = new ConcurrentHashMap<>();
+
+    public JournalStore(Path root, int segmentBytes, long retentionBytes, Duration retention) {
+        this.root = root;
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retention = retention;
+    }
+
+    /**
+     * Returns the topic's journal, opening (and recovering) it on first use.
+     *
+     * @param topic letters, digits, '-', '_' and '.' only, since it names a directory
+     */
+    public TopicJournal topic(String topic) throws IOException {
+        if (!topic.matches("[A-Za-z0-9._-]+") || topic.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid topic name: " + topic);
+        }
+        try {
+            return topics.computeIfAbsent(topic, name -> {
+                try {
+                    return new TopicJournal(root.resolve(name), segmentBytes, retentionBytes, retention);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void close() {
+        topics.values().forEach(TopicJournal::close);
+        topics.clear();
+    }
+}
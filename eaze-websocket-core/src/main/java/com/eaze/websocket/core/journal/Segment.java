@@ -0,0 +1,191 @@
+package com.eaze.websocket.core.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One memory-mapped journal file holding encoded frames back to back, starting at
+ * {@link #baseSequence}. Storing bare frames (no per-record header) means any run of sequences is
+ * a contiguous byte range that can be written to a socket straight from the mapping; frames are
+ * self-delimiting, so record boundaries are recovered from the frame headers themselves.
+ *
+ * A sparse index holds the offset of every {@link #INDEX_INTERVAL}-th frame, so finding a
+ * sequence costs one array read plus at most INDEX_INTERVAL - 1 header hops.
+ *
+ * Single writer (the journal, under its lock); readers are lock-free and see a prefix published
+ * through one volatile word holding both the frame count and the byte size, so a reader always
+ * gets a matching pair.
+ */
+final class Segment {
+    static final String SUFFIX = ".seg";
+    static final int INDEX_INTERVAL = 64;
+
+    final long baseSequence;
+    final Path path;
+    private final MappedByteBuffer map;
+    private final int capacity;
+
+    // Frame count in the high half, byte size in the low half; written last on every append
+    private volatile long published;
+    private volatile int[] index = new int[64];
+    private volatile long lastAppendMillis;
+
+    private Segment(long baseSequence, Path path, MappedByteBuffer map, long lastAppendMillis) {
+        this.baseSequence = baseSequence;
+        this.path = path;
+        this.map = map;
+        this.capacity = map.capacity();
+        this.lastAppendMillis = lastAppendMillis;
+    }
+
+    static Segment create(Path directory, long baseSequence, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(baseSequence));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(baseSequence, path, map, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Maps an existing segment and rebuilds its index by walking the frame headers up to the
+     * first byte that cannot start a frame (the zero-filled tail) or a frame cut short by a crash.
+     */
+    static Segment open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        long baseSequence = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            Segment segment = new Segment(baseSequence, path, map,
+                    Files.getLastModifiedTime(path).toMillis());
+            segment.recover();
+            return segment;
+        }
+    }
+
+    static String fileName(long baseSequence) {
+        return String.format("%020d%s", baseSequence, SUFFIX);
+    }
+
+    private void recover() {
+        int position = 0;
+        int frames = 0;
+        int length;
+        while ((length = frameLength(map, position, capacity)) > 0) {
+            indexFrame(frames++, position);
+            position += length;
+        }
+        published = pack(frames, position);
+    }
+
+    private static long pack(int count, int size) {
+        return ((long) count << 32) | size;
+    }
+
+    boolean hasRoomFor(int length) {
+        return capacity - (int) published >= length;
+    }
+
+    /**
+     * Appends one encoded frame. Caller holds the journal lock and has checked {@link #hasRoomFor}.
+     */
+    void append(ByteBuffer frame) {
+        long current = published;
+        int count = (int) (current >>> 32);
+        int position = (int) current;
+        int length = frame.remaining();
+        map.put(position, frame, frame.position(), length);
+        indexFrame(count, position);
+        lastAppendMillis = System.currentTimeMillis();
+        // Volatile write publishes the bytes and the index entry along with the new count and size
+        published = pack(count + 1, position + length);
+    }
+
+    private void indexFrame(int ordinal, int position) {
+        if (ordinal % INDEX_INTERVAL != 0) return;
+        int slot = ordinal / INDEX_INTERVAL;
+        int[] current = index;
+        if (slot == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            current[slot] = position;
+            index = current;
+        } else {
+            current[slot] = position;
+        }
+    }
+
+    int count() {
+        return (int) (published >>> 32);
+    }
+
+    long nextSequence() {
+        return baseSequence + count();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long lastAppendMillis() {
+        return lastAppendMillis;
+    }
+
+    /**
+     * Read-only view of the frames from {@code sequence} up to {@code end}, a value returned by
+     * {@link #end()} (which must be read first, so the index covers the requested sequence).
+     */
+    ByteBuffer slice(long sequence, long end) {
+        int ordinal = (int) (sequence - baseSequence);
+        int position = index[ordinal / INDEX_INTERVAL];
+        for (int i = ordinal - ordinal % INDEX_INTERVAL; i < ordinal; i++) {
+            position += frameLength(map, position, capacity);
+        }
+        return map.slice(position, (int) end - position).asReadOnlyBuffer();
+    }
+
+    /**
+     * Snapshot of the published frame count and byte size; see {@link #endSequence(long)}.
+     */
+    long end() {
+        return published;
+    }
+
+    long endSequence(long end) {
+        return baseSequence + (end >>> 32);
+    }
+
+    void force() {
+        map.force();
+    }
+
+    /**
+     * Total length of the frame starting at {@code position}, or 0 if no complete frame starts there.
+     * Journals only hold server frames (unmasked) with a non-zero first byte.
+     */
+    static int frameLength(ByteBuffer buffer, int position, int limit) {
+        if (limit - position < 2) return 0;
+        int b1 = buffer.get(position) & 0xFF;
+        int b2 = buffer.get(position + 1) & 0xFF;
+        if (b1 == 0 || (b2 & 0x80) != 0) return 0;
+        long payload = b2 & 0x7F;
+        int header = 2;
+        if (payload == 126) {
+            if (limit - position < 4) return 0;
+            payload = buffer.getShort(position + 2) & 0xFFFF;
+            header = 4;
+        } else if (payload == 127) {
+            if (limit - position < 10) return 0;
+            payload = buffer.getLong(position + 2);
+            header = 10;
+        }
+        long total = header + payload;
+        return payload < 0 || total > limit - position ? 0 : (int) total;
+    }
+}
@@ -0,0 +1,212 @@
+package com.eaze.websocket.core.journal;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only history of one topic, so a reconnecting client can ask for everything after the
+ * last sequence it saw instead of a full snapshot.
+ *
+ * Messages are stored as already-encoded server frames in memory-mapped segment files and numbered
+ * with consecutive sequences starting at 0. Appending copies the frame into the mapping once;
+ * replaying writes whole runs of frames from the mapping to the socket without decoding or copying
+ * them on the heap. Segments roll when full, and whole segments are deleted once the journal
+ * exceeds its size budget or their last append is older than the retention time.
+ *
+ * Appends are serialized by the journal's monitor; {@link #replay} is lock-free and may run
+ * concurrently with appends and retention (a deleted segment stays mapped until unreachable).
+ * Durability is that of the page cache unless {@link #flush()} is called.
+ */
+public class TopicJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long RETENTION_CHECK_INTERVAL_MS = 1000;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+
+    // Oldest first; replaced wholesale so readers can iterate a snapshot without locking
+    private volatile Segment[] segments;
+    private long lastRetentionCheck;
+
+    /**
+     * Opens the journal in {@code directory}, recovering any segments already there.
+     *
+     * @param segmentBytes   size of each mapped segment file; also the largest frame that can be stored
+     * @param retentionBytes total size above which the oldest segments are deleted, 0 for no limit
+     * @param retention      age of the last append after which a segment is deleted, {@link Duration#ZERO} for no limit
+     */
+    public TopicJournal(Path directory, int segmentBytes, long retentionBytes, Duration retention) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retention.toMillis();
+
+        List<Segment> recovered = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(p -> p.getFileName().toString().endsWith(Segment.SUFFIX)).sorted().toList()) {
+                recovered.add(Segment.open(path));
+            }
+        }
+        this.segments = recovered.toArray(new Segment[0]);
+    }
+
+    /**
+     * Appends an encoded, unmasked server frame (as produced by {@link FrameCodec#encode}).
+     *
+     * @return the frame's sequence
+     */
+    public synchronized long append(ByteBuffer encodedFrame) throws IOException {
+        int length = encodedFrame.remaining();
+        if (Segment.frameLength(encodedFrame, encodedFrame.position(), encodedFrame.limit()) != length) {
+            throw new IllegalArgumentException("Expected exactly one complete unmasked frame");
+        }
+        if (length > segmentBytes) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes exceeds segment size " + segmentBytes);
+        }
+
+        Segment[] current = segments;
+        Segment active = current.length == 0 ? null : current[current.length - 1];
+        if (active == null || !active.hasRoomFor(length)) {
+            active = roll(active == null ? 0 : active.nextSequence());
+        }
+        long sequence = active.nextSequence();
+        active.append(encodedFrame);
+
+        long now = System.currentTimeMillis();
+        if (now - lastRetentionCheck >= RETENTION_CHECK_INTERVAL_MS) {
+            enforceRetention();
+        }
+        return sequence;
+    }
+
+    /**
+     * Encodes a text message and appends it.
+     *
+     * @return the message's sequence
+     */
+    public long append(String text) throws IOException {
+        ByteBuffer encoded = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))));
+        try {
+            return append(encoded);
+        } finally {
+            BufferPool.release(encoded);
+        }
+    }
+
+    private Segment roll(long baseSequence) throws IOException {
+        Segment created = Segment.create(directory, baseSequence, segmentBytes);
+        Segment[] current = segments;
+        Segment[] next = new Segment[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = created;
+        segments = next;
+        enforceRetention();
+        return created;
+    }
+
+    /**
+     * Sends every stored frame from {@code fromSequence} onwards to the session, straight from the
+     * mapped segments.
+     *
+     * @return the sequence to resume from next time (one past the last frame sent), or -1 if
+     *         {@code fromSequence} has already been deleted by retention and the client needs a snapshot
+     */
+    public long replay(long fromSequence, WebSocketSession session) throws IOException {
+        Segment[] current = segments;
+        if (current.length == 0) {
+            return fromSequence == 0 ? 0 : -1;
+        }
+        if (fromSequence < current[0].baseSequence) {
+            return -1;
+        }
+        long next = fromSequence;
+        for (Segment segment : current) {
+            long end = segment.end();
+            long segmentEnd = segment.endSequence(end);
+            if (next >= segmentEnd) continue;
+            if (next < segment.baseSequence) {
+                // Between a deleted segment and the next one: cannot happen for a live journal
+                return -1;
+            }
+            session.sendPreEncoded(segment.slice(next, end));
+            next = segmentEnd;
+        }
+        return Math.max(next, fromSequence);
+    }
+
+    /**
+     * Sequence of the oldest frame still stored.
+     */
+    public long firstSequence() {
+        Segment[] current = segments;
+        return current.length == 0 ? 0 : current[0].baseSequence;
+    }
+
+    /**
+     * Sequence the next appended frame will get.
+     */
+    public long nextSequence() {
+        Segment[] current = segments;
+        return current.length == 0 ? 0 : current[current.length - 1].nextSequence();
+    }
+
+    /**
+     * Deletes the oldest segments while the journal is over its size budget or they are past the
+     * retention time. The active segment is never deleted. Runs on every roll and at most once a
+     * second on append; quiet topics can call it from a timer.
+     */
+    public synchronized void enforceRetention() throws IOException {
+        lastRetentionCheck = System.currentTimeMillis();
+        Segment[] current = segments;
+        long total = (long) current.length * segmentBytes;
+        int drop = 0;
+        while (drop < current.length - 1) {
+            Segment oldest = current[drop];
+            boolean overSize = retentionBytes > 0 && total > retentionBytes;
+            boolean expired = retentionMillis > 0 && lastRetentionCheck - oldest.lastAppendMillis() > retentionMillis;
+            if (!overSize && !expired) break;
+            total -= oldest.capacity();
+            drop++;
+        }
+        if (drop == 0) return;
+
+        Segment[] kept = new Segment[current.length - drop];
+        System.arraycopy(current, drop, kept, 0, kept.length);
+        segments = kept;
+        for (int i = 0; i < drop; i++) {
+            Files.deleteIfExists(current[i].path);
+        }
+    }
+
+    /**
+     * Forces appended frames to disk.
+     */
+    public synchronized void flush() {
+        for (Segment segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        segments = new Segment[0];
+    }
+}
@@ -0,0 +1,216 @@
+package com.eaze.websocket.core.metrics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The heaviest keys of one key space (e.g. session ids or client addresses) by bytes and by
+ * messages, in fixed memory however many distinct keys there are.
+ *
+ * Every update adds to two count-min sketches, one for bytes and one for messages (two rows each,
+ * one atomic add per row), and gets the key's estimate back. A key then enters its stripe's top-K
+ * table only if that estimate beats the table's smallest entry; below it, the update is done
+ * without taking a lock. Keys always map to the same one of 16 stripes, so the tables are disjoint,
+ * updates of different stripes never contend, and the overall top-N is a merge of the tables.
+ *
+ * Collisions can only inflate an estimate, never hide a heavy key. {@link #decay()} halves all
+ * counts so the ranking follows recent traffic.
+ *
+ * @param <L> label kept with a table entry to identify the key, e.g. the session or the address
+ */
+public final class HeavyHitters<L> {
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int STRIPES = 16;
+
+    /**
+     * One heavy key with its current estimates.
+     */
+    public record Hitter<L>(long key, L label, long bytes, long messages) {
+    }
+
+    private final long[] bytes;
+    private final long[] messages;
+    private final int mask;
+    private final TopK<L>[] byBytes;
+    private final TopK<L>[] byMessages;
+
+    /**
+     * @param width    counters per sketch row, rounded up to a power of two; memory is 32 bytes per counter
+     * @param capacity entries each stripe keeps per ranking, so at least the top {@code capacity}
+     *                 keys are always tracked
+     */
+    @SuppressWarnings("unchecked")
+    public HeavyHitters(int width, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.bytes = new long[size * 2];
+        this.messages = new long[size * 2];
+        this.mask = size - 1;
+        this.byBytes = new TopK[STRIPES];
+        this.byMessages = new TopK[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            byBytes[i] = new TopK<>(capacity);
+            byMessages[i] = new TopK<>(capacity);
+        }
+    }
+
+    /**
+     * Counts one message of {@code size} bytes for the key.
+     */
+    public void record(long key, L label, int size) {
+        long h = mix(key);
+        int a = (int) h & mask;
+        // Second row lives in the upper half of the array
+        int b = ((int) (h >>> 32) & mask) + mask + 1;
+        long byteCount = Math.min((long) COUNTS.getAndAdd(bytes, a, (long) size),
+                (long) COUNTS.getAndAdd(bytes, b, (long) size)) + size;
+        long messageCount = Math.min((long) COUNTS.getAndAdd(messages, a, 1L),
+                (long) COUNTS.getAndAdd(messages, b, 1L)) + 1;
+        int stripe = (int) (h >>> 60);
+        byBytes[stripe].offer(key, label, byteCount);
+        byMessages[stripe].offer(key, label, messageCount);
+    }
+
+    public long estimateBytes(long key) {
+        return estimate(bytes, key);
+    }
+
+    public long estimateMessages(long key) {
+        return estimate(messages, key);
+    }
+
+    /**
+     * The {@code n} keys with the most bytes, heaviest first.
+     */
+    public List<Hitter<L>> topByBytes(int n) {
+        return top(byBytes, n, Comparator.comparingLong(Hitter<L>::bytes));
+    }
+
+    /**
+     * The {@code n} keys with the most messages, heaviest first.
+     */
+    public List<Hitter<L>> topByMessages(int n) {
+        return top(byMessages, n, Comparator.comparingLong(Hitter<L>::messages));
+    }
+
+    /**
+     * Halves every count. Called periodically, this turns the totals into a moving window with a
+     * half-life of the call interval.
+     */
+    public void decay() {
+        halve(bytes);
+        halve(messages);
+        for (int i = 0; i < STRIPES; i++) {
+            byBytes[i].halve();
+            byMessages[i].halve();
+        }
+    }
+
+    private List<Hitter<L>> top(TopK<L>[] tables, int n, Comparator<Hitter<L>> order) {
+        List<Hitter<L>> all = new ArrayList<>();
+        for (TopK<L> table : tables) {
+            table.collect(this, all);
+        }
+        all.sort(order.reversed());
+        return all.size() > n ? new ArrayList<>(all.subList(0, n)) : all;
+    }
+
+    private Hitter<L> hitter(long key, L label) {
+        return new Hitter<>(key, label, estimateBytes(key), estimateMessages(key));
+    }
+
+    private long estimate(long[] counts, long key) {
+        long h = mix(key);
+        return Math.min((long) COUNTS.getVolatile(counts, (int) h & mask),
+                (long) COUNTS.getVolatile(counts, ((int) (h >>> 32) & mask) + mask + 1));
+    }
+
+    private static void halve(long[] counts) {
+        for (int i = 0; i < counts.length; i++) {
+            long value = (long) COUNTS.getVolatile(counts, i);
+            if (value > 1) {
+                // An add rather than a store, so concurrent updates are not lost
+                COUNTS.getAndAdd(counts, i, -(value >>> 1));
+            }
+        }
+    }
+
+    private static long mix(long key) {
+        // splitmix64 finalizer: both halves of the result are well distributed
+        key ^= key >>> 30;
+        key *= 0xBF58476D1CE4E5B9L;
+        key ^= key >>> 27;
+        key *= 0x94D049BB133111EBL;
+        key ^= key >>> 31;
+        return key;
+    }
+
+    /**
+     * Fixed-size table of one stripe's heaviest keys. {@code floor} is the smallest count once the
+     * table is full, read without locking to reject the vast majority of updates.
+     */
+    private static final class TopK<L> {
+        private final long[] keys;
+        private final Object[] labels;
+        private final long[] counts;
+        private int size;
+        private volatile long floor;
+
+        TopK(int capacity) {
+            keys = new long[capacity];
+            labels = new Object[capacity];
+            counts = new long[capacity];
+        }
+
+        void offer(long key, L label, long count) {
+            if (count <= floor) return;
+            synchronized (this) {
+                int min = 0;
+                for (int i = 0; i < size; i++) {
+                    if (keys[i] == key) {
+                        counts[i] = Math.max(counts[i], count);
+                        updateFloor();
+                        return;
+                    }
+                    if (counts[i] < counts[min]) {
+                        min = i;
+                    }
+                }
+                if (size < keys.length) {
+                    min = size++;
+                } else if (count <= counts[min]) {
+                    return;
+                }
+                keys[min] = key;
+                labels[min] = label;
+                counts[min] = count;
+                updateFloor();
+            }
+        }
+
+        private void updateFloor() {
+            if (size < keys.length) return;
+            long min = Long.MAX_VALUE;
+            for (long c : counts) {
+                min = Math.min(min, c);
+            }
+            floor = min;
+        }
+
+        synchronized void halve() {
+            for (int i = 0; i < size; i++) {
+                counts[i] >>>= 1;
+            }
+            floor >>>= 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void collect(HeavyHitters<L> owner, List<Hitter<L>> into) {
+            for (int i = 0; i < size; i++) {
+                into.add(owner.hitter(keys[i], (L) labels[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.eaze.websocket.core.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters. Updated from I/O and virtual threads, so everything is a LongAdder
+ * to keep increments contention-free; reads are approximate while traffic is flowing.
+ */
+public class ServerMetrics {
+    private final LongAdder throttleEvents = new LongAdder();
+    private final LongAdder throttledSessions = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder shedConnections = new LongAdder();
+    private final LongAdder messagesConflated = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private final LongAdder requestTimeouts = new LongAdder();
+    private final LongAdder rejectedHandshakes = new LongAdder();
+    // Null unless heavy-hitter tracking is enabled
+    private volatile TrafficHitters trafficHitters;
+
+    public void sessionThrottled() {
+        throttleEvents.increment();
+        throttledSessions.increment();
+    }
+
+    public void sessionUnthrottled() {
+        throttledSessions.decrement();
+    }
+
+    public void frameSent() {
+        framesSent.increment();
+    }
+
+    public void framesSent(int count) {
+        framesSent.add(count);
+    }
+
+    public void writeCall() {
+        writeCalls.increment();
+    }
+
+    public void connectionAccepted() {
+        acceptedConnections.increment();
+    }
+
+    public void connectionShed() {
+        shedConnections.increment();
+    }
+
+    public void messageConflated() {
+        messagesConflated.increment();
+    }
+
+    public void messagesDropped(int count) {
+        messagesDropped.add(count);
+    }
+
+    public void slowConsumerDisconnected() {
+        slowConsumerDisconnects.increment();
+    }
+
+    public void requestTimedOut() {
+        requestTimeouts.increment();
+    }
+
+    public void handshakeRejected() {
+        rejectedHandshakes.increment();
+    }
+
+    /** Number of times any session exceeded its inbound budget. */
+    public long getThrottleEvents() {
+        return throttleEvents.sum();
+    }
+
+    /** Sessions whose reads are currently paused by inbound flow control. */
+    public long getThrottledSessions() {
+        return throttledSessions.sum();
+    }
+
+    /** Frames handed to sessions for sending, whether written directly or through a batch. */
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    /** Socket write calls made by sessions; compared with {@link #getFramesSent()} this shows how well sends are batched. */
+    public long getWriteCalls() {
+        return writeCalls.sum();
+    }
+
+    /** Connections let through admission control (they may still fail the handshake). */
+    public long getAcceptedConnections() {
+        return acceptedConnections.sum();
+    }
+
+    /** Connections rejected by admission control before the handshake. */
+    public long getShedConnections() {
+        return shedConnections.sum();
+    }
+
+    /** Unsent keyed messages replaced by a newer one with the same key. */
+    public long getMessagesConflated() {
+        return messagesConflated.sum();
+    }
+
+    /** Unsent messages discarded by the {@code DROP_OLDEST} slow-consumer policy. */
+    public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    /** Sessions closed by the {@code DISCONNECT} slow-consumer policy. */
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.sum();
+    }
+
+    /** Requests sent with {@code WebSocketSession.request} that got no reply in time. */
+    public long getRequestTimeouts() {
+        return requestTimeouts.sum();
+    }
+
+    /** Upgrades refused by the handshake interceptor, including ones it failed to decide in time. */
+    public long getRejectedHandshakes() {
+        return rejectedHandshakes.sum();
+    }
+
+    /** Heaviest sessions and client addresses, or null if heavy-hitter tracking is off. */
+    public TrafficHitters getTrafficHitters() {
+        return trafficHitters;
+    }
+
+    /**
+     * Enables heavy-hitter tracking for sessions reporting to these metrics, or disables it with null.
+     */
+    public void setTrafficHitters(TrafficHitters trafficHitters) {
+        this.trafficHitters = trafficHitters;
+    }
+}
@@ -0,0 +1,104 @@
+package com.eaze.websocket.core.metrics;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * The heaviest sessions and client addresses, inbound and outbound, by bytes and by messages.
+ * Fed by sessions on every data message once installed with
+ * {@link ServerMetrics#setTrafficHitters(TrafficHitters)}; {@link #decay()} is meant to be called
+ * periodically so the rankings reflect recent traffic rather than all-time totals.
+ *
+ * Inbound bytes are payload bytes of data messages; outbound bytes are encoded frame bytes.
+ */
+public final class TrafficHitters {
+    /** Counters per sketch row; 4096 gives 128 KB per tracker. */
+    public static final int DEFAULT_SKETCH_WIDTH = 4096;
+
+    private final HeavyHitters<WebSocketSession> inboundSessions;
+    private final HeavyHitters<WebSocketSession> outboundSessions;
+    private final HeavyHitters<InetAddress> inboundAddresses;
+    private final HeavyHitters<InetAddress> outboundAddresses;
+
+    /**
+     * @param capacity heavy keys tracked per stripe and ranking; top-N queries are exact for N up to this
+     */
+    public TrafficHitters(int capacity) {
+        this(DEFAULT_SKETCH_WIDTH, capacity);
+    }
+
+    public TrafficHitters(int sketchWidth, int capacity) {
+        if (sketchWidth < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Sketch width and capacity must be positive");
+        }
+        this.inboundSessions = new HeavyHitters<>(sketchWidth, capacity);
+        this.outboundSessions = new HeavyHitters<>(sketchWidth, capacity);
+        this.inboundAddresses = new HeavyHitters<>(sketchWidth, capacity);
+        this.outboundAddresses = new HeavyHitters<>(sketchWidth, capacity);
+    }
+
+    /**
+     * Counts a message received by the session.
+     *
+     * @param address the client address, or null if unknown
+     */
+    public void inbound(WebSocketSession session, InetAddress address, int bytes) {
+        inboundSessions.record(session.getId(), session, bytes);
+        if (address != null) {
+            inboundAddresses.record(addressKey(address), address, bytes);
+        }
+    }
+
+    /**
+     * Counts a message sent to the session.
+     */
+    public void outbound(WebSocketSession session, InetAddress address, int bytes) {
+        outboundSessions.record(session.getId(), session, bytes);
+        if (address != null) {
+            outboundAddresses.record(addressKey(address), address, bytes);
+        }
+    }
+
+    /** Sessions ranked by what their clients send; keys are session ids. */
+    public HeavyHitters<WebSocketSession> getInboundSessions() {
+        return inboundSessions;
+    }
+
+    /** Sessions ranked by what the server sends them; keys are session ids. */
+    public HeavyHitters<WebSocketSession> getOutboundSessions() {
+        return outboundSessions;
+    }
+
+    /** Client addresses ranked by what all their sessions send. */
+    public HeavyHitters<InetAddress> getInboundAddresses() {
+        return inboundAddresses;
+    }
+
+    /** Client addresses ranked by what the server sends to all their sessions. */
+    public HeavyHitters<InetAddress> getOutboundAddresses() {
+        return outboundAddresses;
+    }
+
+    /**
+     * Halves every count in all four trackers.
+     */
+    public void decay() {
+        inboundSessions.decay();
+        outboundSessions.decay();
+        inboundAddresses.decay();
+        outboundAddresses.decay();
+    }
+
+    /**
+     * Key of an address: the address itself for IPv4, a 32-bit hash of the 16 bytes for IPv6.
+     * Computed from {@link InetAddress#hashCode()}, which does not allocate, so sessions need not
+     * store it.
+     */
+    public static long addressKey(InetAddress address) {
+        long hash = address.hashCode() & 0xFFFFFFFFL;
+        // IPv6 keys stay clear of the IPv4 range
+        return address instanceof Inet4Address ? hash : hash | (1L << 32);
+    }
+}
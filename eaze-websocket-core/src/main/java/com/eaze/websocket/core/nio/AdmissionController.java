@@ -0,0 +1,146 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides, right after accept() and before any handshake work, whether a connection is let in.
+ * Shared by all acceptor threads. The session cap and the handshake rate are lock-free; the
+ * per-address count takes one of 64 striped locks.
+ *
+ * The handshake rate uses GCRA (a token bucket kept as a single "theoretical arrival time"), so
+ * admitting a connection is one CAS. Shed connections get a pre-encoded 503 or a reset, and
+ * never touch the handshake code, the BufferPool's large buffers or the session table.
+ */
+final class AdmissionController {
+    static final int REJECTED = -1;
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_DRAIN_READS = 4;
+
+    private final AdmissionLimits limits;
+    private final long intervalNanos;
+    private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+    // Null when there is no per-address limit
+    private final IpSessionCounter perIp;
+    private final ByteBuffer rejection;
+
+    AdmissionController(AdmissionLimits limits) {
+        this.limits = limits;
+        this.intervalNanos = limits.getHandshakesPerSecond() > 0
+                ? TimeUnit.SECONDS.toNanos(1) / limits.getHandshakesPerSecond() : 0;
+        this.perIp = limits.getMaxSessionsPerIp() > 0 ? new IpSessionCounter() : null;
+        byte[] response = ("HTTP/1.1 503 Service Unavailable\r\n" +
+                "Retry-After: " + limits.getRetryAfterSeconds() + "\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer encoded = ByteBuffer.allocateDirect(response.length).put(response).flip();
+        this.rejection = encoded.asReadOnlyBuffer();
+    }
+
+    /**
+     * Key identifying the client address for the per-address limit, 0 when that limit is off.
+     */
+    long addressKey(SocketChannel client) throws IOException {
+        if (perIp == null) return 0;
+        SocketAddress remote = client.getRemoteAddress();
+        return remote instanceof InetSocketAddress inet ? addressKey(inet.getAddress().getAddress()) : 0;
+    }
+
+    /**
+     * An IPv4 address as is; an IPv6 address by its /64 prefix, the smallest block a client is
+     * usually assigned, so rotating through its own interface ids does not escape the limit.
+     * IPv4 keys carry bit 32, which no global IPv6 prefix has.
+     */
+    static long addressKey(byte[] address) {
+        long key = 0;
+        for (int i = 0; i < Math.min(address.length, 8); i++) {
+            key = (key << 8) | (address[i] & 0xFF);
+        }
+        return address.length == 4 ? key | 1L << 32 : key;
+    }
+
+    /**
+     * Checks the session cap, the per-address cap and the handshake rate, in that order.
+     * An admitted connection holds a per-address slot until {@link #release(int)}.
+     *
+     * @return the ticket to release the slot with, or {@link #REJECTED}
+     */
+    int admit(long addressKey, int openSessions) {
+        if (limits.getMaxSessions() > 0 && openSessions >= limits.getMaxSessions()) {
+            return REJECTED;
+        }
+        int ticket = 0;
+        if (perIp != null) {
+            ticket = perIp.tryAcquire(addressKey, limits.getMaxSessionsPerIp());
+            if (ticket == IpSessionCounter.AT_LIMIT) {
+                return REJECTED;
+            }
+        }
+        if (intervalNanos > 0 && !tryTakeHandshake()) {
+            release(ticket);
+            return REJECTED;
+        }
+        return ticket;
+    }
+
+    void release(int ticket) {
+        if (perIp != null) {
+            perIp.release(ticket);
+        }
+    }
+
+    private boolean tryTakeHandshake() {
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, now) + intervalNanos;
+            if (next - now > BURST_NANOS) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sheds a connection: either an immediate reset (SO_LINGER 0), or the shared 503 response
+     * followed by a FIN. Whatever the client already sent is read and discarded first, because
+     * closing a socket with unread input makes the kernel send a reset that can destroy the 503
+     * before the client reads it.
+     */
+    void reject(SocketChannel client) {
+        try {
+            if (limits.isResetOnReject()) {
+                client.setOption(StandardSocketOptions.SO_LINGER, 0);
+            } else {
+                client.configureBlocking(false);
+                ByteBuffer scratch = BufferPool.acquire();
+                try {
+                    int reads = 0;
+                    while (reads++ < MAX_DRAIN_READS && client.read(scratch.clear()) > 0) {
+                        // Discarded
+                    }
+                } finally {
+                    BufferPool.release(scratch);
+                }
+                client.write(rejection.duplicate());
+                client.shutdownOutput();
+            }
+        } catch (IOException ignore) {
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ignore) {}
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.eaze.websocket.core.nio;
+
+/**
+ * Limits applied to new connections before any handshake work is done. During a reconnect storm
+ * connections over a limit are shed with a pre-encoded 503 (or a TCP reset), which costs a
+ * fraction of a full handshake and keeps the server from being overwhelmed.
+ *
+ * A value of 0 disables the corresponding limit.
+ */
+public final class AdmissionLimits {
+    public static final AdmissionLimits UNLIMITED = new AdmissionLimits(0, 0, 0, 1, false);
+
+    private final int handshakesPerSecond;
+    private final int maxSessions;
+    private final int maxSessionsPerIp;
+    private final int retryAfterSeconds;
+    private final boolean resetOnReject;
+
+    /**
+     * @param handshakesPerSecond sustained rate of accepted connections; bursts of up to one second's worth are allowed
+     * @param maxSessions         open sessions above which new connections are shed
+     * @param maxSessionsPerIp    open sessions per client address above which its new connections are shed
+     * @param retryAfterSeconds   value of the Retry-After header in the 503 response
+     * @param resetOnReject       reset the connection instead of answering 503, the cheapest option when even
+     *                            writing a response is too much
+     */
+    public AdmissionLimits(int handshakesPerSecond, int maxSessions, int maxSessionsPerIp,
+                           int retryAfterSeconds, boolean resetOnReject) {
+        if (handshakesPerSecond < 0 || maxSessions < 0 || maxSessionsPerIp < 0 || retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.handshakesPerSecond = handshakesPerSecond;
+        this.maxSessions = maxSessions;
+        this.maxSessionsPerIp = maxSessionsPerIp;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.resetOnReject = resetOnReject;
+    }
+
+    public int getHandshakesPerSecond() {
+        return handshakesPerSecond;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public int getMaxSessionsPerIp() {
+        return maxSessionsPerIp;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public boolean isResetOnReject() {
+        return resetOnReject;
+    }
+}
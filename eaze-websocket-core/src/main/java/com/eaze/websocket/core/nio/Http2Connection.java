@@ -0,0 +1,963 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.HandshakeProcessor;
+import com.eaze.websocket.core.http.HandshakeDecision;
+import com.eaze.websocket.core.http.HandshakeInterceptor;
+import com.eaze.websocket.core.http.HandshakeRequest;
+import com.eaze.websocket.core.http2.HpackDecoder;
+import com.eaze.websocket.core.http2.HpackEncoder;
+import com.eaze.websocket.core.http2.Http2Codec;
+import com.eaze.websocket.core.http2.Http2Exception;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static com.eaze.websocket.core.http2.Http2Codec.*;
+
+/**
+ * One HTTP/2 connection carrying WebSocket sessions as streams (RFC 8441). A virtual thread reads
+ * frames, answers extended CONNECT requests and feeds each stream's DATA into its
+ * {@link Http2Session}, which decodes WebSocket frames with the usual {@code FrameDecoder}.
+ *
+ * Outbound, sessions queue encoded WebSocket frames per stream and control frames go to a queue of
+ * their own; a second virtual thread, the writer, is the only one writing to the socket. It cuts
+ * queued frames into DATA frames as far as the connection and stream send windows allow, gathering
+ * several queued frames into one DATA frame, and writes each batch without holding the lock. A
+ * sender therefore never blocks on a client that stops reading: its frames pile up and the outbound
+ * limit decides what happens to the session. A send never waits for window updates on the reader
+ * thread, which is the only thread that can receive them.
+ *
+ * Every WebSocket stream goes through the server's admission checks like an HTTP/1.1 upgrade,
+ * on top of the slot the connection itself holds. Streams the client resets or that are refused
+ * are rate-limited per connection, so opening and cancelling streams in a loop cannot keep the
+ * reader, the interceptor and the listener busy for free.
+ */
+final class Http2Connection {
+    private static final int HEADER_TABLE_SIZE = 4096;
+    private static final int MAX_HEADER_LIST_SIZE = 16 * 1024;
+    /** Streams per second a client may reset or have refused before the connection is dropped. */
+    static final int MAX_CANCELLED_STREAMS_PER_SECOND = 100;
+    private static final long CANCELLED_STREAM_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / MAX_CANCELLED_STREAMS_PER_SECOND;
+    private static final long CANCELLED_STREAM_BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /** Control frames queued for a client that does not read them before the connection is dropped. */
+    static final int MAX_QUEUED_CONTROL_BYTES = 64 * 1024;
+    /** How long a closing connection waits for the writer to get out what is queued, e.g. GOAWAY. */
+    private static final Duration WRITER_LINGER = Duration.ofSeconds(1);
+
+    private final SocketChannel channel;
+    private final SessionConfig config;
+    private final Http2Settings settings;
+    private final Map<String, Subprotocol> subprotocols;
+    private final HandshakeInterceptor interceptor;
+    private final Duration interceptorTimeout;
+    private final InetSocketAddress remoteAddress;
+    private final long addressKey;
+    private final Consumer<Http2Connection> onClosed;
+
+    private final ConcurrentHashMap<Integer, Http2Session> streams = new ConcurrentHashMap<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private volatile Thread reader;
+    private volatile Thread writer;
+    private volatile boolean goingAway;
+
+    // Reader thread only
+    private final HpackDecoder hpack = new HpackDecoder(HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+    private ByteBuffer headerBlock;
+    private int headerStreamId;
+    private boolean headerEndStream;
+    private int lastStreamId;
+    private long receiveWindow;
+    // GCRA state of the cancelled-stream limit
+    private long cancelledStreamsArrival = System.nanoTime();
+
+    // Guarded by writeLock
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition writable = writeLock.newCondition();
+    private final Condition work = writeLock.newCondition();
+    private final ArrayDeque<ByteBuffer> control = new ArrayDeque<>();
+    private long controlBytes;
+    // Streams with frames to cut, or a pending END_STREAM
+    private final ArrayDeque<Http2Session> ready = new ArrayDeque<>();
+    private boolean writing;
+    private boolean stopping;
+    private long sendWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int peerInitialWindow = DEFAULT_INITIAL_WINDOW_SIZE;
+    private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * @param interceptor decides on each CONNECT request before the session is created; may be null
+     * @param onClosed    runs once the connection is gone and every stream has been closed
+     */
+    Http2Connection(SocketChannel channel, SessionConfig config, Http2Settings settings,
+                    Map<String, Subprotocol> subprotocols, HandshakeInterceptor interceptor,
+                    Duration interceptorTimeout, Consumer<Http2Connection> onClosed) throws IOException {
+        this.channel = channel;
+        this.config = config;
+        this.settings = settings;
+        this.subprotocols = subprotocols;
+        this.interceptor = interceptor;
+        this.interceptorTimeout = interceptorTimeout;
+        this.remoteAddress = channel.getRemoteAddress() instanceof InetSocketAddress inet ? inet : null;
+        this.addressKey = config.admission == null ? 0 : config.admission.addressKey(channel);
+        this.onClosed = onClosed;
+    }
+
+    /**
+     * Runs the connection until the peer goes away; meant to be the body of a virtual thread.
+     *
+     * @param initial bytes the acceptor has already read, starting with (part of) the preface
+     */
+    void serve(ByteBuffer initial) {
+        reader = Thread.currentThread();
+        // SETTINGS_MAX_FRAME_SIZE is never raised, so no frame is larger than this
+        ByteBuffer in = ByteBuffer.allocate(FRAME_HEADER_LENGTH + DEFAULT_MAX_FRAME_SIZE);
+        in.put(initial).flip();
+        writer = Thread.ofVirtual().name(reader.getName() + "-Writer").start(this::runWriter);
+        try {
+            fill(in, PREFACE.length);
+            for (byte b : PREFACE) {
+                if (in.get() != b) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "Invalid connection preface");
+                }
+            }
+            writeSettings();
+            while (true) {
+                fill(in, FRAME_HEADER_LENGTH);
+                int length = Http2Codec.length(in, in.position());
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new Http2Exception(FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                fill(in, FRAME_HEADER_LENGTH + length);
+                int start = in.position();
+                ByteBuffer payload = in.slice(start + FRAME_HEADER_LENGTH, length);
+                in.position(start + FRAME_HEADER_LENGTH + length);
+                try {
+                    handleFrame(type(in, start), flags(in, start), streamId(in, start), payload);
+                } catch (Http2Exception e) {
+                    if (e.getStreamId() == 0) throw e;
+                    resetStream(e.getStreamId(), e.getErrorCode(), e.getMessage());
+                }
+            }
+        } catch (Http2Exception e) {
+            goAway(e.getErrorCode(), e.getMessage());
+        } catch (IOException e) {
+            // Connection lost or closed by the drain
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void fill(ByteBuffer in, int needed) throws IOException {
+        if (in.remaining() >= needed) return;
+        in.compact();
+        while (in.position() < needed) {
+            if (channel.read(in) == -1) {
+                throw new EOFException("Connection closed by peer");
+            }
+        }
+        in.flip();
+    }
+
+    private void handleFrame(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (headerBlock != null && type != CONTINUATION) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Expected CONTINUATION");
+        }
+        switch (type) {
+            case DATA -> onData(flags, streamId, payload);
+            case HEADERS -> onHeaders(flags, streamId, payload);
+            case CONTINUATION -> onContinuation(flags, streamId, payload);
+            case RST_STREAM -> onReset(streamId, payload);
+            case SETTINGS -> onSettings(flags, streamId, payload);
+            case PING -> onPing(flags, streamId, payload);
+            case WINDOW_UPDATE -> onWindowUpdate(streamId, payload);
+            case PUSH_PROMISE -> throw new Http2Exception(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            case PRIORITY -> {
+                if (streamId == 0) throw new Http2Exception(PROTOCOL_ERROR, "PRIORITY on stream 0");
+            }
+            // GOAWAY needs no action: the client closes the connection once its streams are done.
+            // Unknown frame types must be ignored.
+            default -> {}
+        }
+    }
+
+    private void onData(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        // Padding counts against the windows too
+        int length = payload.remaining();
+        ByteBuffer data = unpad(flags, payload);
+        receiveWindow -= length;
+        if (receiveWindow < 0) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection receive window exceeded");
+        }
+        if (receiveWindow <= settings.getInitialWindowSize() / 2) {
+            writeWindowUpdate(0, (int) (settings.getInitialWindowSize() - receiveWindow));
+            receiveWindow = settings.getInitialWindowSize();
+        }
+
+        Http2Session session = streams.get(streamId);
+        if (session == null) {
+            if (streamId > lastStreamId) {
+                throw new Http2Exception(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            // Closed on our side already: late frames, e.g. the client's close reply, are dropped
+            return;
+        }
+        int acknowledge = session.consumeWindow(length);
+        if (acknowledge < 0) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream receive window exceeded");
+        }
+        if (acknowledge > 0) {
+            writeWindowUpdate(streamId, acknowledge);
+        }
+        session.receive(data, (flags & FLAG_END_STREAM) != 0);
+    }
+
+    private void onHeaders(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if ((streamId & 1) == 0 || streamId <= lastStreamId) {
+            // Also rejects trailers: a WebSocket stream carries a single request header block
+            throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream id " + streamId + " for HEADERS");
+        }
+        lastStreamId = streamId;
+        ByteBuffer block = unpad(flags, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (block.remaining() < 5) {
+                throw new Http2Exception(FRAME_SIZE_ERROR, "Truncated priority");
+            }
+            block.position(block.position() + 5);
+        }
+        headerStreamId = streamId;
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onRequest(streamId, hpack.decode(block), headerEndStream);
+        } else {
+            headerBlock = ByteBuffer.allocate(MAX_HEADER_LIST_SIZE);
+            appendHeaderBlock(block);
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (headerBlock == null || streamId != headerStreamId) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        appendHeaderBlock(payload);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            ByteBuffer block = headerBlock.flip();
+            headerBlock = null;
+            onRequest(streamId, hpack.decode(block), headerEndStream);
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuffer fragment) throws Http2Exception {
+        if (fragment.remaining() > headerBlock.remaining()) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Header block too large");
+        }
+        headerBlock.put(fragment);
+    }
+
+    /**
+     * A complete request header block: opens a session for an extended CONNECT with
+     * {@code :protocol websocket}, answers anything else with an error status.
+     */
+    private void onRequest(int streamId, Map<String, String> headers, boolean endStream) throws IOException {
+        if (goingAway || streams.size() >= settings.getMaxConcurrentStreams()) {
+            streamCancelled();
+            writeReset(streamId, REFUSED_STREAM);
+            return;
+        }
+        if (!"CONNECT".equals(headers.get(":method")) || !"websocket".equals(headers.get(":protocol"))
+                || headers.get(":path") == null || endStream) {
+            respond(streamId, 400, null, true);
+            return;
+        }
+        if (!"13".equals(headers.get("sec-websocket-version"))) {
+            respond(streamId, 400, null, true);
+            return;
+        }
+        AdmissionController admission = config.admission;
+        int admissionTicket = 0;
+        if (admission != null) {
+            admissionTicket = admission.admit(addressKey, config.sessions == null ? 0 : config.sessions.size());
+            if (admissionTicket == AdmissionController.REJECTED) {
+                config.metrics.connectionShed();
+                streamCancelled();
+                respond(streamId, 503, null, true);
+                return;
+            }
+        }
+        String protocol = HandshakeProcessor.selectSubprotocol(headers.get("sec-websocket-protocol"),
+                subprotocols.keySet());
+        Http2Session session = new Http2Session(this, streamId, config, settings.getInitialWindowSize());
+        session.setAdmissionTicket(admissionTicket);
+        if (protocol != null) {
+            session.setSubprotocol(subprotocols.get(protocol));
+        }
+        writeLock.lock();
+        try {
+            session.sendWindow = peerInitialWindow;
+        } finally {
+            writeLock.unlock();
+        }
+        streams.put(streamId, session);
+        if (interceptor == null) {
+            open(session, protocol);
+            return;
+        }
+        HandshakeRequest request = new HandshakeRequest("CONNECT", headers.get(":path"), headers, remoteAddress);
+        // Stream data arriving meanwhile is kept by the session until it is open
+        Thread.startVirtualThread(() -> {
+            HandshakeDecision decision = NioWebSocketServer.decide(interceptor, request, interceptorTimeout);
+            if (decision.isAccepted()) {
+                open(session, protocol);
+            } else {
+                config.metrics.handshakeRejected();
+                session.abort(1006, "Rejected");
+                try {
+                    respond(streamId, decision.getStatus(), null, true);
+                } catch (IOException ignore) {
+                    // The reader sees the connection fail and cleans up
+                }
+            }
+        });
+    }
+
+    private void open(Http2Session session, String protocol) {
+        int streamId = session.streamId;
+        try {
+            if (streams.get(streamId) != session) return;  // Reset while the interceptor ran
+            if (config.sessions != null && config.sessions.add(session) == SessionTable.NO_ID) {
+                session.abort(1006, "Session table full");
+                respond(streamId, 503, null, true);
+                return;
+            }
+            respond(streamId, 200, protocol, false);
+            session.open();
+        } catch (IOException e) {
+            // The reader sees the connection fail and closes the stream
+        }
+    }
+
+    private void onReset(int streamId, ByteBuffer payload) throws Http2Exception {
+        if (streamId == 0 || payload.remaining() != 4) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Malformed RST_STREAM");
+        }
+        Http2Session session = streams.get(streamId);
+        if (session != null) {
+            streamCancelled();
+            session.abort(1006, "Stream reset by client");
+        }
+    }
+
+    /**
+     * Counts a stream the client reset, or one that was refused, against the connection's allowance
+     * (GCRA, like the handshake rate). Reader thread only.
+     */
+    private void streamCancelled() throws Http2Exception {
+        long now = System.nanoTime();
+        long next = Math.max(cancelledStreamsArrival, now) + CANCELLED_STREAM_INTERVAL_NANOS;
+        if (next - now > CANCELLED_STREAM_BURST_NANOS) {
+            throw new Http2Exception(ENHANCE_YOUR_CALM, "Too many cancelled streams");
+        }
+        cancelledStreamsArrival = next;
+    }
+
+    private void onSettings(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) return;
+        if (payload.remaining() % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Malformed SETTINGS");
+        }
+        writeLock.lock();
+        try {
+            while (payload.hasRemaining()) {
+                int id = payload.getShort() & 0xFFFF;
+                int value = payload.getInt();
+                if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+                    if (value < 0) {
+                        throw new Http2Exception(FLOW_CONTROL_ERROR, "Initial window too large");
+                    }
+                    int delta = value - peerInitialWindow;
+                    peerInitialWindow = value;
+                    for (Http2Session session : streams.values()) {
+                        session.sendWindow += delta;
+                    }
+                } else if (id == SETTINGS_MAX_FRAME_SIZE) {
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new Http2Exception(PROTOCOL_ERROR, "Invalid max frame size");
+                    }
+                    peerMaxFrameSize = value;
+                }
+                // Responses are encoded without the dynamic table, so HEADER_TABLE_SIZE needs no action
+            }
+            queueControl(SETTINGS, FLAG_ACK, 0, null);
+            scheduleAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void onPing(int flags, int streamId, ByteBuffer payload) throws IOException {
+        if (streamId != 0 || payload.remaining() != 8) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Malformed PING");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            queueControl(PING, FLAG_ACK, 0, payload);
+        }
+    }
+
+    private void onWindowUpdate(int streamId, ByteBuffer payload) throws IOException {
+        if (payload.remaining() != 4) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "Malformed WINDOW_UPDATE");
+        }
+        int increment = payload.getInt() & Integer.MAX_VALUE;
+        if (increment == 0) {
+            throw new Http2Exception(PROTOCOL_ERROR, streamId, "Zero window increment");
+        }
+        writeLock.lock();
+        try {
+            if (streamId == 0) {
+                sendWindow += increment;
+                if (sendWindow > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                scheduleAll();
+                return;
+            }
+            Http2Session session = streams.get(streamId);
+            if (session == null) return;
+            session.sendWindow += increment;
+            if (session.sendWindow > MAX_WINDOW_SIZE) {
+                throw new Http2Exception(FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+            }
+            schedule(session);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static ByteBuffer unpad(int flags, ByteBuffer payload) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) return payload;
+        if (!payload.hasRemaining()) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Missing pad length");
+        }
+        int padding = payload.get() & 0xFF;
+        if (padding > payload.remaining()) {
+            throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds frame");
+        }
+        return payload.limit(payload.limit() - padding);
+    }
+
+    // ---- Outbound ----
+
+    /**
+     * Queues an encoded WebSocket frame for the stream, taking ownership of the buffer, and hands
+     * the stream to the writer; the calling thread never writes to the socket. While another thread is sending a fragmented message on the
+     * stream, data frames wait behind it; control frames may go in between, as RFC 6455 allows.
+     */
+    void send(Http2Session session, ByteBuffer encoded, boolean control) throws IOException {
+        boolean disconnect = false;
+        writeLock.lock();
+        try {
+            if (session.localEnded || !channel.isOpen()) {
+                BufferPool.release(encoded);
+                return;
+            }
+            config.metrics.frameSent();
+            Thread owner = session.messageOwner;
+            if (!control && owner != null && owner != Thread.currentThread()) {
+                session.deferred.add(encoded);
+                session.deferredBytes += encoded.remaining();
+            } else {
+                session.pending.add(encoded);
+                session.pendingBytes += encoded.remaining();
+                if (!session.corked) {
+                    schedule(session);
+                }
+            }
+            if (!control) {
+                disconnect = awaitBacklog(session);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (disconnect) {
+            config.metrics.slowConsumerDisconnected();
+            session.abort(1008, "Slow consumer");
+            writeReset(session.streamId, CANCEL);
+        }
+    }
+
+    /**
+     * Applies the outbound limit once the client stops opening its windows: BLOCK waits for
+     * window updates (except on the reader thread, which is the one receiving them); every other
+     * policy disconnects the session, since frames split into DATA frames cannot be replaced or
+     * dropped.
+     *
+     * @return true if the session must be disconnected
+     */
+    private boolean awaitBacklog(Http2Session session) throws IOException {
+        OutboundLimits limits = config.outboundLimits;
+        if (session.pendingBytes + session.deferredBytes <= limits.getMaxPendingBytes()) return false;
+        if (limits.isNonBlocking()) return true;
+        if (Thread.currentThread() == reader) return false;
+        try {
+            while (session.pendingBytes + session.deferredBytes > limits.getMaxPendingBytes()
+                    && !session.localEnded && channel.isOpen()) {
+                writable.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the client to read");
+        }
+        return false;
+    }
+
+    /**
+     * Makes the calling thread the only one sending data frames on the stream until
+     * {@link #endMessage(Http2Session)}, so the fragments of a message stay together.
+     */
+    void beginMessage(Http2Session session) throws IOException {
+        writeLock.lock();
+        try {
+            while (session.messageOwner != null && channel.isOpen()) {
+                writable.await();
+            }
+            session.messageOwner = Thread.currentThread();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message in progress");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void endMessage(Http2Session session) throws IOException {
+        writeLock.lock();
+        try {
+            session.messageOwner = null;
+            if (!session.deferred.isEmpty()) {
+                session.pending.addAll(session.deferred);
+                session.pendingBytes += session.deferredBytes;
+                session.deferred.clear();
+                session.deferredBytes = 0;
+            }
+            if (!session.corked) {
+                schedule(session);
+            }
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void uncork(Http2Session session) {
+        writeLock.lock();
+        try {
+            schedule(session);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Queues the close frame and ends the stream once everything before it has been written.
+     */
+    void sendClose(Http2Session session, ByteBuffer closeFrame) throws IOException {
+        writeLock.lock();
+        try {
+            session.closing = true;
+            session.corked = false;
+            send(session, closeFrame, true);
+            schedule(session);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the stream, e.g. after a message could only be queued in part.
+     */
+    void reset(Http2Session session) {
+        try {
+            writeReset(session.streamId, CANCEL);
+        } catch (IOException ignore) {
+            // The reader sees the connection fail and cleans up
+        }
+    }
+
+    /**
+     * Forgets the stream without writing anything more to it and returns its unsent frames to the pool.
+     */
+    void discard(Http2Session session) {
+        writeLock.lock();
+        try {
+            streams.remove(session.streamId, session);
+            session.localEnded = true;
+            session.pendingBytes = 0;
+            session.deferredBytes = 0;
+            for (ByteBuffer buffer : session.pending) {
+                // A partly cut buffer the writer is still writing from is released by the writer
+                if (buffer != session.writingHead) {
+                    BufferPool.release(buffer);
+                }
+            }
+            for (ByteBuffer buffer : session.deferred) {
+                BufferPool.release(buffer);
+            }
+            session.pending.clear();
+            session.deferred.clear();
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Caller holds the write lock. */
+    private void scheduleAll() {
+        for (Http2Session session : streams.values()) {
+            if (!session.corked) {
+                schedule(session);
+            }
+        }
+    }
+
+    /**
+     * Hands the stream to the writer, which cuts its queued frames as far as the windows allow.
+     * Caller holds the write lock.
+     */
+    private void schedule(Http2Session session) {
+        if (session.scheduled) return;
+        session.scheduled = true;
+        ready.add(session);
+        work.signal();
+    }
+
+    /**
+     * The writer thread: takes a batch under the lock, writes it without the lock, then returns the
+     * written buffers to the pool. Ends when the socket is closed, or once everything queued has
+     * been written after {@link #shutdown()} began.
+     */
+    private void runWriter() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        List<ByteBuffer> written = new ArrayList<>();
+        List<Http2Session> partial = new ArrayList<>();
+        try {
+            while (true) {
+                long length;
+                writeLock.lock();
+                try {
+                    while (control.isEmpty() && ready.isEmpty() && !stopping && channel.isOpen()) {
+                        work.await();
+                    }
+                    if (!channel.isOpen() || (control.isEmpty() && ready.isEmpty())) return;
+                    length = cut(batch, written, partial);
+                    writing = true;
+                } finally {
+                    writeLock.unlock();
+                }
+                if (length > 0) {
+                    writeFully(batch.toArray(new ByteBuffer[0]), length);
+                }
+                for (ByteBuffer buffer : written) {
+                    BufferPool.release(buffer);
+                }
+                writeLock.lock();
+                try {
+                    writing = false;
+                    for (Http2Session session : partial) {
+                        // Discarded meanwhile: the stream no longer holds the buffer
+                        ByteBuffer head = session.writingHead;
+                        if (head != null && session.pending.peekFirst() != head) {
+                            BufferPool.release(head);
+                        }
+                        session.writingHead = null;
+                    }
+                    writable.signalAll();
+                } finally {
+                    writeLock.unlock();
+                }
+                batch.clear();
+                written.clear();
+                partial.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The reader sees the connection fail and cleans up
+            abort();
+        } finally {
+            writeLock.lock();
+            try {
+                writing = false;
+                writable.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves the queued control frames into the batch, then the DATA frames of every ready stream
+     * as far as both windows allow, gathering several queued buffers into one DATA frame. Buffers
+     * cut completely go to {@code written}; a buffer cut in part stays queued and is remembered as
+     * the stream's {@code writingHead}, and the stream goes to {@code partial}. Caller holds the
+     * write lock.
+     *
+     * @return the bytes in the batch
+     */
+    private long cut(List<ByteBuffer> batch, List<ByteBuffer> written, List<Http2Session> partial) {
+        long length = controlBytes;
+        batch.addAll(control);
+        control.clear();
+        controlBytes = 0;
+        Http2Session session;
+        while ((session = ready.poll()) != null) {
+            session.scheduled = false;
+            if (session.localEnded) continue;
+            while (session.pendingBytes > 0) {
+                long window = Math.min(sendWindow, session.sendWindow);
+                if (window <= 0) break;
+                int frameLength = (int) Math.min(Math.min(window, peerMaxFrameSize), session.pendingBytes);
+                batch.add(frameHeader(frameLength, DATA, 0, session.streamId));
+                int left = frameLength;
+                while (left > 0) {
+                    ByteBuffer head = session.pending.peekFirst();
+                    int take = Math.min(left, head.remaining());
+                    if (take == head.remaining()) {
+                        batch.add(session.pending.pollFirst());
+                        written.add(head);
+                        if (head == session.writingHead) {
+                            session.writingHead = null;
+                        }
+                    } else {
+                        batch.add(head.duplicate().limit(head.position() + take));
+                        head.position(head.position() + take);
+                        if (session.writingHead == null) {
+                            partial.add(session);
+                        }
+                        session.writingHead = head;
+                    }
+                    left -= take;
+                }
+                session.pendingBytes -= frameLength;
+                session.sendWindow -= frameLength;
+                sendWindow -= frameLength;
+                length += FRAME_HEADER_LENGTH + frameLength;
+            }
+            if (session.closing && session.pendingBytes == 0) {
+                batch.add(frameHeader(0, DATA, FLAG_END_STREAM, session.streamId));
+                length += FRAME_HEADER_LENGTH;
+                session.localEnded = true;
+                streams.remove(session.streamId, session);
+            }
+        }
+        return length;
+    }
+
+    private static ByteBuffer frameHeader(int length, int type, int flags, int streamId) {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+        writeFrameHeader(header, length, type, flags, streamId);
+        return header.flip();
+    }
+
+    private void writeSettings() throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(18)
+                .putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(settings.getMaxConcurrentStreams())
+                .putShort((short) SETTINGS_INITIAL_WINDOW_SIZE).putInt(settings.getInitialWindowSize())
+                .putShort((short) SETTINGS_ENABLE_CONNECT_PROTOCOL).putInt(1)
+                .flip();
+        queueControl(SETTINGS, 0, 0, payload);
+        // The connection window starts at 65535 whatever SETTINGS say; raise it to match the streams
+        receiveWindow = settings.getInitialWindowSize();
+        int increment = settings.getInitialWindowSize() - DEFAULT_INITIAL_WINDOW_SIZE;
+        if (increment > 0) {
+            writeWindowUpdate(0, increment);
+        }
+    }
+
+    private void respond(int streamId, int status, String protocol, boolean endStream) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(64 + (protocol == null ? 0 : protocol.length()));
+        HpackEncoder.encodeStatus(block, status);
+        if (protocol != null) {
+            HpackEncoder.encodeHeader(block, "sec-websocket-protocol", protocol);
+        }
+        queueControl(HEADERS, FLAG_END_HEADERS | (endStream ? FLAG_END_STREAM : 0), streamId, block.flip());
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        queueControl(WINDOW_UPDATE, 0, streamId, ByteBuffer.allocate(4).putInt(increment).flip());
+    }
+
+    private void writeReset(int streamId, int errorCode) throws IOException {
+        writeLock.lock();
+        try {
+            // Nothing more may go out on a reset stream, including DATA already queued
+            Http2Session session = streams.get(streamId);
+            if (session != null) {
+                session.localEnded = true;
+            }
+            queueControl(RST_STREAM, 0, streamId, ByteBuffer.allocate(4).putInt(errorCode).flip());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode, String reason) throws IOException {
+        writeReset(streamId, errorCode);
+        Http2Session session = streams.get(streamId);
+        if (session != null) {
+            session.abort(1006, reason);
+        }
+    }
+
+    private void goAway(int errorCode, String debug) {
+        byte[] message = debug == null ? new byte[0] : debug.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + message.length).putInt(lastStreamId).putInt(errorCode).put(message);
+        try {
+            queueControl(GOAWAY, 0, 0, payload.flip());
+        } catch (IOException ignore) {}
+    }
+
+    /**
+     * Queues a control frame for the writer. A client that leaves more than
+     * {@link #MAX_QUEUED_CONTROL_BYTES} of them unread, e.g. by sending PINGs without reading, loses
+     * the connection.
+     */
+    private void queueControl(int type, int flags, int streamId, ByteBuffer payload) throws IOException {
+        int length = payload == null ? 0 : payload.remaining();
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH + length);
+        writeFrameHeader(frame, length, type, flags, streamId);
+        if (payload != null) {
+            frame.put(payload);
+        }
+        boolean overflow = false;
+        writeLock.lock();
+        try {
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (controlBytes + frame.capacity() > MAX_QUEUED_CONTROL_BYTES) {
+                overflow = true;
+            } else {
+                control.add(frame.flip());
+                controlBytes += frame.limit();
+                work.signal();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (overflow) {
+            abort();
+            throw new IOException("Client does not read control frames");
+        }
+    }
+
+    /** Writer thread only. */
+    private void writeFully(ByteBuffer[] srcs, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            config.metrics.writeCall();
+            remaining -= channel.write(srcs);
+        }
+    }
+
+    // ---- Lifecycle ----
+
+    String getRemoteAddress() {
+        return String.valueOf(remoteAddress);
+    }
+
+    /**
+     * Closes every session with the given code, tells the client with GOAWAY, and closes the
+     * connection once the close frames are written or the deadline has passed.
+     *
+     * @return completes once the connection is closed
+     */
+    CompletableFuture<Void> drain(int code, String reason, long deadlineNanos) {
+        Thread.startVirtualThread(() -> {
+            goingAway = true;
+            for (Http2Session session : streams.values()) {
+                try {
+                    session.close(code, reason);
+                } catch (IOException ignore) {}
+            }
+            try {
+                if (writeLock.tryLock(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    try {
+                        goAway(NO_ERROR, null);
+                        long remaining;
+                        while ((!streams.isEmpty() || !control.isEmpty() || writing)
+                                && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                            writable.awaitNanos(remaining);
+                        }
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            abort();
+        });
+        return closed;
+    }
+
+    /**
+     * Closes the socket; the reader then closes every remaining session.
+     */
+    void abort() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+    }
+
+    private void shutdown() {
+        writeLock.lock();
+        try {
+            stopping = true;
+            work.signal();
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            // Lets a GOAWAY queued by the reader go out first
+            Thread thread = writer;
+            if (thread != null) {
+                thread.join(WRITER_LINGER);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abort();
+        for (Http2Session session : streams.values()) {
+            session.abort(1006, "Connection closed");
+        }
+        writeLock.lock();
+        try {
+            writable.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        onClosed.accept(this);
+        closed.complete(null);
+    }
+}
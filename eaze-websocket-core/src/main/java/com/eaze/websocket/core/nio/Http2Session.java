@@ -0,0 +1,506 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.FrameDecoder;
+import com.eaze.websocket.core.codec.MessageCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.codec.WebSocketProtocolException;
+import com.eaze.websocket.core.http2.Http2Codec;
+import com.eaze.websocket.core.http2.Http2Exception;
+import com.eaze.websocket.core.jfr.ListenerCallbackEvent;
+import com.eaze.websocket.core.jfr.SessionCloseEvent;
+import com.eaze.websocket.core.jfr.SessionOpenEvent;
+import com.eaze.websocket.core.rpc.Envelope;
+import com.eaze.websocket.core.rpc.PendingRequests;
+import com.eaze.websocket.core.rpc.TimerWheel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A WebSocket session carried by one stream of an {@link Http2Connection} (RFC 8441). The stream's
+ * DATA frames form the same byte stream a TCP connection would carry, so frames are decoded with
+ * the usual {@link FrameDecoder} and sent as the usual encoded frames; the connection does the
+ * HTTP/2 framing and flow control.
+ *
+ * Sends never write to the socket themselves: every encoded frame is handed to the connection,
+ * which owns it from then on. Messages are dispatched on the connection's reader thread.
+ */
+final class Http2Session extends ServerSession {
+    private static final int NEW = 0;
+    private static final int OPEN = 1;
+    private static final int CLOSED = 2;
+    /** Largest fragment of {@link #sendFile} and {@link #sendStream}: one pooled buffer per frame. */
+    private static final int FRAGMENT_SIZE = BufferPool.BUFFER_SIZE - FrameCodec.MAX_HEADER_LENGTH;
+
+    final int streamId;
+    private final Http2Connection connection;
+    private final SessionConfig config;
+    private final int receiveWindowSize;
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private Subprotocol subprotocol;
+    private volatile PendingRequests requests;
+    private int admissionTicket;
+
+    // Used by one thread at a time: the reader, or the opening thread while it works off the backlog
+    private FrameDecoder decoder;
+
+    // Reader thread only
+    private int receiveWindow;
+
+    // Guarded by this: data that arrived before onOpen returned
+    private boolean ready;
+    private ByteBuffer backlog;
+    private boolean backlogEnded;
+
+    // Guarded by the connection's write lock
+    final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    final ArrayDeque<ByteBuffer> deferred = new ArrayDeque<>();
+    long pendingBytes;
+    long deferredBytes;
+    long sendWindow;
+    Thread messageOwner;
+    boolean closing;
+    boolean localEnded;
+    // Handed to the writer and not yet cut
+    boolean scheduled;
+    // The queued buffer the writer is writing part of, which a discard must not release
+    ByteBuffer writingHead;
+    volatile boolean corked;
+
+    Http2Session(Http2Connection connection, int streamId, SessionConfig config, int receiveWindowSize) {
+        this.connection = connection;
+        this.streamId = streamId;
+        this.config = config;
+        this.receiveWindowSize = receiveWindowSize;
+        this.receiveWindow = receiveWindowSize;
+    }
+
+    /**
+     * Runs once the 200 response is written: notifies the listener, then delivers whatever the
+     * client sent meanwhile, in order, before the reader may deliver directly.
+     */
+    void open() {
+        if (!state.compareAndSet(NEW, OPEN)) return;
+        SessionOpenEvent.emit(this);
+        try {
+            config.listener.onOpen(this);
+        } catch (RuntimeException e) {
+            fail(e, 1011);
+        }
+        while (true) {
+            ByteBuffer data;
+            boolean ended;
+            synchronized (this) {
+                if (backlog == null) {
+                    ready = true;
+                    return;
+                }
+                data = backlog.flip();
+                ended = backlogEnded;
+                backlog = null;
+                backlogEnded = false;
+            }
+            process(data, ended);
+        }
+    }
+
+    /**
+     * Charges received DATA against the stream's receive window.
+     *
+     * @return the window increment to send back, 0 for none yet, or -1 if the client overran the window
+     */
+    int consumeWindow(int length) {
+        receiveWindow -= length;
+        if (receiveWindow < 0) return -1;
+        if (receiveWindow > receiveWindowSize / 2) return 0;
+        int increment = receiveWindowSize - receiveWindow;
+        receiveWindow = receiveWindowSize;
+        return increment;
+    }
+
+    /**
+     * Reader thread: the payload of a DATA frame, valid only during the call.
+     */
+    void receive(ByteBuffer data, boolean endStream) throws Http2Exception {
+        synchronized (this) {
+            if (!ready) {
+                int held = backlog == null ? 0 : backlog.position();
+                if (held + data.remaining() > receiveWindowSize) {
+                    throw new Http2Exception(Http2Codec.FLOW_CONTROL_ERROR, streamId, "Too much data before the stream was accepted");
+                }
+                if (backlog == null || backlog.remaining() < data.remaining()) {
+                    ByteBuffer grown = ByteBuffer.allocate(Math.max(held + data.remaining(), held * 2));
+                    if (backlog != null) {
+                        grown.put(backlog.flip());
+                    }
+                    backlog = grown;
+                }
+                backlog.put(data);
+                backlogEnded |= endStream;
+                return;
+            }
+        }
+        process(data, endStream);
+    }
+
+    private void process(ByteBuffer data, boolean endStream) {
+        try {
+            while (state.get() == OPEN) {
+                if (decoder == null) {
+                    decoder = new FrameDecoder(config.maxFramePayload, true);
+                }
+                WebSocketFrame frame = decoder.decode(data);
+                if (frame == null) {
+                    if (decoder.isIdle()) {
+                        decoder = null;
+                    }
+                    break;
+                }
+                if (!frame.isFin()) continue;
+                Opcode op = frame.getOpcode();
+                ByteBuffer payload = frame.getPayload();
+                if (op == Opcode.BINARY && requests != null && Envelope.isReply(payload)
+                        && requests.complete(Envelope.correlationId(payload), Envelope.payload(payload))) {
+                    // Completed a pending request; anything else that looks like a reply is a message
+                } else if (op == Opcode.TEXT || op == Opcode.BINARY) {
+                    deliver(payload.asReadOnlyBuffer(), op == Opcode.TEXT);
+                } else if (op == Opcode.CLOSE) {
+                    close(1000, "Client Close");
+                    return;
+                } else if (op == Opcode.PING) {
+                    connection.send(this, FrameCodec.encode(new WebSocketFrame(true, Opcode.PONG, payload)), true);
+                }
+            }
+            if (endStream) {
+                close(1000, "EOF");
+            }
+        } catch (WebSocketProtocolException e) {
+            fail(e, e.getCloseCode());
+        } catch (IOException e) {
+            fail(e, 1006);
+        } catch (RuntimeException e) {
+            // A failing listener must not take the connection's other streams down with it
+            fail(e, 1011);
+        }
+    }
+
+    private void fail(Throwable cause, int code) {
+        if (state.get() != OPEN) return;
+        config.listener.onError(this, cause);
+        try {
+            close(code, cause.getMessage());
+        } catch (IOException ignore) {}
+    }
+
+    private void deliver(ByteBuffer payload, boolean text) throws WebSocketProtocolException {
+        ListenerCallbackEvent event = new ListenerCallbackEvent();
+        event.begin();
+        int length = payload.remaining();
+        MessageCodec<Object> codec = subprotocol == null ? null : subprotocol.codec();
+        if (codec != null) {
+            Object message;
+            try {
+                message = codec.decode(payload, text);
+            } catch (RuntimeException e) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.INVALID_PAYLOAD,
+                        "Undecodable " + subprotocol.name() + " message");
+            }
+            config.listener.onDecoded(this, message);
+        } else {
+            config.listener.onMessage(this, payload, text);
+        }
+        if (event.shouldCommit()) {
+            event.sessionId = getId();
+            event.callback = codec != null ? "onDecoded" : "onMessage";
+            event.payloadLength = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void send(String text) throws IOException {
+        send((CharSequence) text);
+    }
+
+    @Override
+    public void send(CharSequence text) throws IOException {
+        if (!isOpen()) return;
+        connection.send(this, FrameCodec.encodeText(text), false);
+    }
+
+    @Override
+    public void send(byte[] data) throws IOException {
+        if (!isOpen()) return;
+        connection.send(this, FrameCodec.encode(new WebSocketFrame(true, Opcode.BINARY, ByteBuffer.wrap(data))), false);
+    }
+
+    @Override
+    public void send(ByteBuffer data) throws IOException {
+        send(new ByteBuffer[]{data});
+    }
+
+    @Override
+    public void send(ByteBuffer[] data) throws IOException {
+        if (!isOpen()) return;
+        long length = 0;
+        for (ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        // The connection queues frames until the windows allow them, so they must own their bytes
+        ByteBuffer encoded = BufferPool.allocate((int) (FrameCodec.MAX_HEADER_LENGTH + length));
+        FrameCodec.encodeHeader(encoded, true, Opcode.BINARY, length);
+        for (ByteBuffer buffer : data) {
+            encoded.put(buffer.duplicate());
+        }
+        connection.send(this, encoded.flip(), false);
+    }
+
+    /**
+     * A plain send: frames queued on a stream may already be split into DATA frames, so they
+     * cannot be replaced.
+     */
+    @Override
+    public void sendLatest(String key, String text) throws IOException {
+        send(text);
+    }
+
+    @Override
+    public void sendLatest(String key, ByteBuffer data) throws IOException {
+        send(data);
+    }
+
+    @Override
+    public void sendPreEncoded(ByteBuffer frames) throws IOException {
+        if (!isOpen()) return;
+        ByteBuffer copy = BufferPool.allocate(frames.remaining());
+        connection.send(this, copy.put(frames.duplicate()).flip(), false);
+    }
+
+    /**
+     * Reads the file into pooled buffers, one fragment each: a stream cannot use
+     * {@link FileChannel#transferTo} because every chunk needs a DATA frame header.
+     */
+    @Override
+    public void sendFile(FileChannel file, long position, long count, long fragmentSize) throws IOException {
+        if (position < 0 || count < 0 || fragmentSize < 0 || position + count > file.size()) {
+            throw new IllegalArgumentException("Region " + position + "+" + count + " is not within the file");
+        }
+        if (!isOpen()) return;
+        long fragment = fragmentSize == 0 ? FRAGMENT_SIZE : Math.min(fragmentSize, FRAGMENT_SIZE);
+        connection.beginMessage(this);
+        try {
+            long offset = 0;
+            do {
+                int length = (int) Math.min(fragment, count - offset);
+                boolean fin = offset + length == count;
+                ByteBuffer encoded = BufferPool.acquire();
+                FrameCodec.encodeHeader(encoded, fin, offset == 0 ? Opcode.BINARY : Opcode.CONTINUATION, length);
+                encoded.limit(encoded.position() + length);
+                while (encoded.hasRemaining()) {
+                    if (file.read(encoded, position + offset + length - encoded.remaining()) == -1) {
+                        BufferPool.release(encoded);
+                        throw new EOFException("File truncated during send");
+                    }
+                }
+                connection.send(this, encoded.flip(), false);
+                offset += length;
+            } while (offset < count);
+        } catch (IOException e) {
+            abandonMessage(e);
+            throw e;
+        } finally {
+            connection.endMessage(this);
+        }
+    }
+
+    @Override
+    public void sendStream(InputStream in) throws IOException {
+        if (!isOpen()) return;
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer payload = BufferPool.acquire();
+        connection.beginMessage(this);
+        try {
+            boolean first = true;
+            boolean end = false;
+            while (!end) {
+                // Fill the buffer completely: only a short fragment is known to be the last one
+                payload.clear().limit(FRAGMENT_SIZE);
+                while (payload.hasRemaining()) {
+                    if (source.read(payload) == -1) {
+                        end = true;
+                        break;
+                    }
+                }
+                payload.flip();
+                ByteBuffer encoded = BufferPool.acquire();
+                FrameCodec.encodeHeader(encoded, end, first ? Opcode.BINARY : Opcode.CONTINUATION, payload.remaining());
+                connection.send(this, encoded.put(payload).flip(), false);
+                first = false;
+            }
+        } catch (IOException e) {
+            abandonMessage(e);
+            throw e;
+        } finally {
+            connection.endMessage(this);
+            BufferPool.release(payload);
+        }
+    }
+
+    /**
+     * Gives up on a message that may be partly queued: nothing can follow an unfinished
+     * fragmented message, so the stream is reset rather than closed.
+     */
+    private void abandonMessage(IOException cause) {
+        if (state.get() != OPEN) return;
+        config.listener.onError(this, cause);
+        connection.reset(this);
+        abort(1006, cause.getMessage());
+    }
+
+    @Override
+    public void sendObject(Object message) throws IOException {
+        MessageCodec<Object> codec = subprotocol == null ? null : subprotocol.codec();
+        if (codec == null) {
+            throw new IllegalStateException("No subprotocol codec negotiated for this session");
+        }
+        if (!isOpen()) return;
+        connection.send(this, FrameCodec.encodeMessage(codec, message, config.maxFramePayload), false);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> request(ByteBuffer payload, Duration timeout) {
+        PendingRequests table = pendingRequests();
+        PendingRequests.Pending pending = table.register(timeout);
+        if (pending.isDone()) return pending;
+        try {
+            send(new ByteBuffer[]{Envelope.header(Envelope.REQUEST, pending.getId()), payload});
+        } catch (IOException e) {
+            table.fail(pending, e);
+        }
+        return pending;
+    }
+
+    private PendingRequests pendingRequests() {
+        PendingRequests table = requests;
+        if (table == null) {
+            synchronized (this) {
+                table = requests;
+                if (table == null) {
+                    table = new PendingRequests(TimerWheel.shared(), config.metrics);
+                    requests = table;
+                    if (state.get() == CLOSED) {
+                        // Closed before the table existed: close() had nothing to fail
+                        table.failAll(new IOException("Session closed"));
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public void cork() {
+        corked = true;
+    }
+
+    @Override
+    public void uncork() throws IOException {
+        if (!corked) return;
+        corked = false;
+        connection.uncork(this);
+    }
+
+    @Override
+    public void close(int code, String reason) throws IOException {
+        int previous = state.getAndSet(CLOSED);
+        if (previous == CLOSED) return;
+        if (previous == NEW) {
+            connection.discard(this);
+            release();
+            return;
+        }
+        SessionCloseEvent.emit(this, code, reason);
+        try {
+            connection.sendClose(this, FrameCodec.encode(
+                    new WebSocketFrame(true, Opcode.CLOSE, FrameCodec.closePayload(code, reason))));
+        } catch (IOException ignore) {
+        } finally {
+            try {
+                config.listener.onClose(this, code, reason);
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Closes the session without writing to the stream, e.g. because it was reset or the
+     * connection is gone.
+     */
+    void abort(int code, String reason) {
+        int previous = state.getAndSet(CLOSED);
+        connection.discard(this);
+        if (previous == CLOSED) return;
+        if (previous == NEW) {
+            release();
+            return;
+        }
+        SessionCloseEvent.emit(this, code, reason);
+        try {
+            config.listener.onClose(this, code, reason);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Runs once, on the transition to CLOSED.
+     */
+    private void release() {
+        if (config.sessions != null) {
+            config.sessions.remove(this);
+        }
+        if (config.admission != null) {
+            config.admission.release(admissionTicket);
+        }
+        PendingRequests table = requests;
+        if (table != null) {
+            table.failAll(new IOException("Session closed"));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return state.get() == OPEN;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return connection.getRemoteAddress();
+    }
+
+    @Override
+    public String getSubprotocol() {
+        return subprotocol == null ? null : subprotocol.name();
+    }
+
+    void setSubprotocol(Subprotocol subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    void setAdmissionTicket(int admissionTicket) {
+        this.admissionTicket = admissionTicket;
+    }
+}
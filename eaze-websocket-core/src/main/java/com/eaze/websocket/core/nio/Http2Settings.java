@@ -0,0 +1,39 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.http2.Http2Codec;
+
+/**
+ * Limits of the HTTP/2 listener mode, in which one TCP connection carries many WebSocket sessions
+ * as streams (RFC 8441).
+ */
+public final class Http2Settings {
+    /** 100 sessions per connection, 1 MB receive window per session and per connection. */
+    public static final Http2Settings DEFAULT = new Http2Settings(100, 1 << 20);
+
+    private final int maxConcurrentStreams;
+    private final int initialWindowSize;
+
+    /**
+     * @param maxConcurrentStreams sessions one connection may have open at once; further ones are refused
+     * @param initialWindowSize    bytes a client may send on one session, and on the whole connection,
+     *                             before the server acknowledges them
+     */
+    public Http2Settings(int maxConcurrentStreams, int initialWindowSize) {
+        if (maxConcurrentStreams < 1) {
+            throw new IllegalArgumentException("maxConcurrentStreams must be positive");
+        }
+        if (initialWindowSize < Http2Codec.DEFAULT_INITIAL_WINDOW_SIZE) {
+            throw new IllegalArgumentException("initialWindowSize must be at least 65535");
+        }
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.initialWindowSize = initialWindowSize;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+}
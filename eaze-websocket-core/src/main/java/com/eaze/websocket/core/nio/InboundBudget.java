@@ -0,0 +1,73 @@
+package com.eaze.websocket.core.nio;
+
+/**
+ * Message and byte token buckets for one session. Only allocated when rate limits are configured,
+ * and only touched by the session's current reader (reads are serialized by the READING flag),
+ * so no synchronization is needed.
+ *
+ * Dispatch is allowed to drive a bucket into debt: the message that crossed the limit has
+ * already been decoded, so it is delivered and the session pays the debt back before reading again.
+ */
+final class InboundBudget {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // Tokens are kept scaled by NANOS_PER_SECOND so refills are exact: elapsed nanos * rate
+    private final long messagesPerSecond;
+    private final long bytesPerSecond;
+    private long messageCredit;
+    private long byteCredit;
+    private long lastRefill;
+
+    InboundBudget(InboundLimits limits, long now) {
+        this.messagesPerSecond = limits.getMessagesPerSecond();
+        this.bytesPerSecond = limits.getBytesPerSecond();
+        this.messageCredit = messagesPerSecond * NANOS_PER_SECOND;
+        this.byteCredit = bytesPerSecond * NANOS_PER_SECOND;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Charges one message of the given size.
+     *
+     * @return false if the session is now over budget and should stop dispatching
+     */
+    boolean consume(int payloadBytes) {
+        if (messagesPerSecond > 0) {
+            messageCredit -= NANOS_PER_SECOND;
+        }
+        if (bytesPerSecond > 0) {
+            byteCredit -= payloadBytes * NANOS_PER_SECOND;
+        }
+        return messageCredit >= 0 && byteCredit >= 0;
+    }
+
+    /**
+     * Refills both buckets and returns how many nanoseconds remain until the session is out of
+     * debt, or 0 if it may read again now.
+     */
+    long delayNanos(long now) {
+        refill(now);
+        long delay = 0;
+        if (messageCredit < 0) {
+            delay = Math.max(delay, -messageCredit / messagesPerSecond + 1);
+        }
+        if (byteCredit < 0) {
+            delay = Math.max(delay, -byteCredit / bytesPerSecond + 1);
+        }
+        return delay;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) return;
+        lastRefill = now;
+        // Buckets hold at most one second of budget, which also keeps elapsed * rate from overflowing
+        elapsed = Math.min(elapsed, NANOS_PER_SECOND);
+        if (messagesPerSecond > 0) {
+            messageCredit = Math.min(messagesPerSecond * NANOS_PER_SECOND, messageCredit + elapsed * messagesPerSecond);
+        }
+        if (bytesPerSecond > 0) {
+            byteCredit = Math.min(bytesPerSecond * NANOS_PER_SECOND, byteCredit + elapsed * bytesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+
+/**
+ * Per-session inbound budgets. A session that exceeds either rate has its remaining input left
+ * unprocessed and stops being read until its budget refills; since the socket is no longer
+ * drained, the client is slowed down by TCP flow control rather than by server memory.
+ *
+ * A value of 0 disables the corresponding limit.
+ */
+public final class InboundLimits {
+    public static final InboundLimits UNLIMITED = new InboundLimits(0, 0, 0);
+    /** Highest supported rate; keeps the nanosecond-scaled token arithmetic within a long. */
+    public static final long MAX_RATE = 1_000_000_000L;
+
+    private final long messagesPerSecond;
+    private final long bytesPerSecond;
+    private final int maxBacklogBytes;
+
+    /**
+     * @param messagesPerSecond sustained message rate; bursts of up to one second's worth are allowed
+     * @param bytesPerSecond    sustained payload byte rate; bursts of up to one second's worth are allowed
+     * @param maxBacklogBytes   received-but-undispatched bytes above which a resumed session works off
+     *                          its backlog before reading the socket again; the backlog lives in one
+     *                          read buffer, so at most {@link BufferPool#BUFFER_SIZE}
+     */
+    public InboundLimits(long messagesPerSecond, long bytesPerSecond, int maxBacklogBytes) {
+        if (messagesPerSecond < 0 || bytesPerSecond < 0 || maxBacklogBytes < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        if (messagesPerSecond > MAX_RATE || bytesPerSecond > MAX_RATE) {
+            throw new IllegalArgumentException("Rates above " + MAX_RATE + "/s are not supported");
+        }
+        if (maxBacklogBytes > BufferPool.BUFFER_SIZE) {
+            throw new IllegalArgumentException("maxBacklogBytes above the read buffer size ("
+                    + BufferPool.BUFFER_SIZE + ") would never be reached");
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxBacklogBytes = maxBacklogBytes;
+    }
+
+    public long getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public int getMaxBacklogBytes() {
+        return maxBacklogBytes;
+    }
+
+    boolean isRateLimited() {
+        return messagesPerSecond > 0 || bytesPerSecond > 0;
+    }
+}
@@ -0,0 +1,543 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.uring.BufferRing;
+import com.eaze.websocket.core.uring.IoUring;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Experimental Linux transport that receives through io_uring instead of the SubPollers'
+ * Selectors. Each poller thread owns a ring with a multishot receive armed per session: the
+ * kernel fills buffers from a provided-buffer ring as data arrives and the poller reaps whole
+ * batches of completions per {@code io_uring_enter}, so reading costs no syscall per session.
+ * Data is handed to the session on a virtual thread, one completion at a time per session, and
+ * the replies of each completion go out with one gathering write.
+ *
+ * Sessions have no SubPoller here, so they flush inline like standalone sessions. Features that
+ * rely on read interest or the flush pass (inbound rate limits, non-blocking slow-consumer
+ * policies, poller scaling) keep the server on NIO.
+ */
+final class IoUringTransport {
+    private static final int SUBMISSION_ENTRIES = 1024;
+    // Buffers per poller; an idle session holds none of them
+    private static final int RING_BUFFERS = 512;
+    // A session this many buffers behind has its receive cancelled until it catches up
+    private static final int MAX_INBOX = 16;
+    private static final long RETRY_INTERVAL_MS = 10;
+    private static final Method FD_VAL = fdAccessor();
+
+    private final Poller[] pollers;
+    private final AtomicInteger nextPoller = new AtomicInteger();
+    private final Map<NioWebSocketSession, Registration> registrations = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    IoUringTransport(int pollers) throws IOException {
+        this.pollers = new Poller[pollers];
+        try {
+            for (int i = 0; i < pollers; i++) {
+                this.pollers[i] = new Poller(i);
+            }
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Why io_uring cannot be used with these settings, or null if it can.
+     */
+    static String unavailableReason(SessionConfig config, boolean scaling) {
+        if (config.inboundLimits.getMessagesPerSecond() > 0 || config.inboundLimits.getBytesPerSecond() > 0) {
+            return "inbound limits need the NIO poller";
+        }
+        if (config.outboundLimits.isNonBlocking()) {
+            return config.outboundLimits.getPolicy() + " slow-consumer policy needs the NIO poller";
+        }
+        if (scaling) {
+            return "poller scaling needs the NIO poller";
+        }
+        if (FD_VAL == null) {
+            return "socket descriptors are not accessible, run with --add-opens java.base/sun.nio.ch=ALL-UNNAMED";
+        }
+        return IoUring.unsupportedReason();
+    }
+
+    private static Method fdAccessor() {
+        try {
+            Method method = Class.forName("sun.nio.ch.SelChImpl").getMethod("getFDVal");
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int fdOf(SocketChannel channel) throws IOException {
+        try {
+            return (int) FD_VAL.invoke(channel);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot read socket descriptor", e);
+        }
+    }
+
+    /**
+     * Hands a session the server has just opened to the next poller.
+     */
+    void register(NioWebSocketSession session, int code, String reason) {
+        if (stopped) {
+            // Opened after the drain took its snapshot
+            try {
+                session.close(code, reason);
+            } catch (IOException ignore) {}
+            return;
+        }
+        Poller poller = pollers[Math.abs(nextPoller.getAndIncrement() % pollers.length)];
+        try {
+            Registration registration = new Registration(poller, session, fdOf(session.getChannel()));
+            registrations.put(session, registration);
+            if (!session.isOpen()) {
+                // Closed from onOpen, before its close could find the registration
+                registrations.remove(session);
+                return;
+            }
+            registration.start();
+        } catch (IOException e) {
+            session.onFailure(e);
+        }
+    }
+
+    /**
+     * Called once a session has closed its socket: the armed receive holds its own reference to
+     * the socket, which would otherwise keep the connection from being released.
+     */
+    void channelClosed(NioWebSocketSession session) {
+        Registration registration = registrations.remove(session);
+        if (registration != null) {
+            registration.close();
+        }
+    }
+
+    /**
+     * Closes every session with the given pre-encoded close frame, spread evenly over
+     * {@code spreadNanos}; sockets still not flushed at the deadline are closed forcibly.
+     *
+     * @return a future completed once every session has been closed
+     */
+    CompletableFuture<Void> drain(ByteBuffer closeFrame, int code, String reason,
+                                  long spreadNanos, long deadlineNanos) {
+        stopped = true;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        List<NioWebSocketSession> sessions = new ArrayList<>(registrations.keySet());
+        Thread.ofPlatform().name("Eaze-UringDrain").daemon().start(() -> {
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> closes = new ArrayList<>(sessions.size());
+            for (int i = 0; i < sessions.size(); i++) {
+                long wait = start + SubPoller.spreadOffset(spreadNanos, i, sessions.size()) - System.nanoTime();
+                if (wait > 0 && System.nanoTime() - deadlineNanos < 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                NioWebSocketSession session = sessions.get(i);
+                if (session.markClosing()) {
+                    CompletableFuture<Void> closed = new CompletableFuture<>();
+                    closes.add(closed);
+                    Thread.startVirtualThread(() -> {
+                        closeOne(session, closeFrame.duplicate(), code, reason, deadlineNanos);
+                        closed.complete(null);
+                    });
+                }
+            }
+            try {
+                CompletableFuture.allOf(closes.toArray(CompletableFuture[]::new))
+                        .get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                done.complete(null);
+            } catch (Exception e) {
+                // Past the deadline: closing the sockets fails the writes still blocked on them
+                for (NioWebSocketSession session : sessions) {
+                    try {
+                        session.getChannel().close();
+                    } catch (IOException ignore) {}
+                }
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    private static void closeOne(NioWebSocketSession session, ByteBuffer frame, int code, String reason,
+                                 long deadlineNanos) {
+        // Another thread may own the write side for a while; the socket itself is blocking
+        while (!session.tryWriteEncoded(frame) && System.nanoTime() - deadlineNanos < 0) {
+            try {
+                Thread.sleep(RETRY_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        session.completeClose(code, reason);
+    }
+
+    void stop() {
+        stopped = true;
+        for (Poller poller : pollers) {
+            if (poller != null) {
+                poller.stop();
+            }
+        }
+    }
+
+    /**
+     * One ring and the platform thread reaping its completions.
+     */
+    private static final class Poller implements Runnable {
+        // user_data values below FIRST_ARM are never a receive
+        private static final long WAKE = 0;
+        private static final long CANCEL = 1;
+        private static final long FIRST_ARM = 2;
+
+        private final IoUring ring;
+        private final BufferRing buffers;
+        private final Thread thread;
+        private volatile boolean running = true;
+        // Guards the submission queue and the buffer ring, which the kernel reads without locking
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock
+        private long nextUserData = FIRST_ARM;
+        private final List<Registration> starved = new ArrayList<>();
+        private boolean closed;
+        // Receives by user_data, one entry per armed receive
+        private final Map<Long, Registration> armed = new ConcurrentHashMap<>();
+        // Buffers handed to sessions and not yet recycled
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        Poller(int index) throws IOException {
+            this.ring = new IoUring(SUBMISSION_ENTRIES);
+            try {
+                this.buffers = new BufferRing(ring, (short) 0, RING_BUFFERS);
+            } catch (IOException | RuntimeException e) {
+                ring.close();
+                throw e;
+            }
+            this.thread = Thread.ofPlatform().name("Eaze-UringPoller-" + index).start(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    ring.awaitCompletions();
+                    ring.reap(this::complete);
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("io_uring poller error: " + e.getMessage());
+                }
+            } finally {
+                lock.lock();
+                try {
+                    closed = true;
+                    buffers.close();
+                    ring.close();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private void complete(long userData, int result, int flags) {
+            if (userData < FIRST_ARM) return;
+            boolean more = (flags & IoUring.CQE_F_MORE) != 0;
+            Registration registration = more ? armed.get(userData) : armed.remove(userData);
+            if ((flags & IoUring.CQE_F_BUFFER) != 0) {
+                int bid = flags >>> IoUring.CQE_BUFFER_SHIFT;
+                outstanding.incrementAndGet();
+                if (registration == null) {
+                    recycle(bid);
+                } else {
+                    registration.deliver(bid, result);
+                }
+            } else if (registration != null && result != -IoUring.ENOBUFS && result != -IoUring.ECANCELED) {
+                // End of stream (0) or a receive error
+                registration.deliver(-1, result);
+            }
+            if (!more && registration != null) {
+                registration.receiveEnded(result);
+            }
+        }
+
+        /**
+         * Arms a multishot receive for the registration.
+         */
+        void arm(Registration registration) {
+            lock.lock();
+            try {
+                if (closed || !registration.armAs(nextUserData)) return;
+                long userData = nextUserData++;
+                armed.put(userData, registration);
+                ring.prepareRecvMultishot(registration.fd, buffers.group(), userData);
+                ring.submit();
+            } catch (IOException e) {
+                Thread.startVirtualThread(() -> registration.session.onFailure(e));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Cancels an armed receive; its final completion arrives with -ECANCELED.
+         */
+        void cancel(long userData) {
+            lock.lock();
+            try {
+                if (closed) return;
+                ring.prepareCancel(userData, CANCEL);
+                ring.submit();
+            } catch (IOException e) {
+                System.err.println("io_uring cancel failed: " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Parks a registration whose receive ended because the buffer ring ran dry, until a buffer
+         * comes back. If none is out, the ring refills from completions still being reaped.
+         */
+        void starve(Registration registration) {
+            lock.lock();
+            try {
+                if (outstanding.get() > 0) {
+                    starved.add(registration);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            arm(registration);
+        }
+
+        ByteBuffer buffer(int bid, int length) {
+            return buffers.buffer(bid, length);
+        }
+
+        void recycle(int bid) {
+            List<Registration> waiting = null;
+            lock.lock();
+            try {
+                if (closed) return;
+                buffers.recycle(bid);
+                outstanding.decrementAndGet();
+                if (!starved.isEmpty()) {
+                    waiting = new ArrayList<>(starved);
+                    starved.clear();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (waiting != null) {
+                for (Registration registration : waiting) {
+                    arm(registration);
+                }
+            }
+        }
+
+        void stop() {
+            running = false;
+            lock.lock();
+            try {
+                if (!closed) {
+                    ring.prepareNop(WAKE);
+                    ring.submit();
+                }
+            } catch (IOException e) {
+                System.err.println("io_uring wakeup failed: " + e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * A session's receive state. Completions queue up in the inbox and are processed in order by
+     * at most one virtual thread at a time.
+     */
+    private static final class Registration {
+        private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+        // Inbox entry that only works off data left over from the handshake
+        private static final long KICK = entry(-1, 1);
+
+        final Poller poller;
+        final NioWebSocketSession session;
+        final int fd;
+
+        // Guarded by this: entries of (buffer id, result)
+        private long[] inbox = new long[4];
+        private int head;
+        private int size;
+        private boolean processing;
+        private boolean paused;
+        private boolean closed;
+        // user_data of the armed receive, 0 if none is armed
+        private long armedAs;
+
+        Registration(Poller poller, NioWebSocketSession session, int fd) {
+            this.poller = poller;
+            this.session = session;
+            this.fd = fd;
+        }
+
+        private static long entry(int bid, int result) {
+            return ((long) bid << 32) | (result & 0xFFFFFFFFL);
+        }
+
+        void start() {
+            synchronized (this) {
+                push(KICK);
+                processing = true;
+            }
+            poller.arm(this);
+            Thread.startVirtualThread(this::process);
+        }
+
+        /**
+         * Records the receive about to be armed, unless one is armed already or the session is closed.
+         */
+        synchronized boolean armAs(long userData) {
+            if (closed || armedAs != 0) return false;
+            armedAs = userData;
+            return true;
+        }
+
+        /**
+         * Reaper thread: queues a completion, cancelling the receive if the session falls too far behind.
+         */
+        void deliver(int bid, int result) {
+            boolean start = false;
+            long cancel = 0;
+            synchronized (this) {
+                push(entry(bid, result));
+                if (size >= MAX_INBOX && !paused && !closed && armedAs != 0) {
+                    paused = true;
+                    cancel = armedAs;
+                }
+                if (!processing) {
+                    processing = true;
+                    start = true;
+                }
+            }
+            if (cancel != 0) {
+                poller.cancel(cancel);
+            }
+            if (start) {
+                Thread.startVirtualThread(this::process);
+            }
+        }
+
+        /**
+         * Reaper thread: the armed receive has completed for the last time.
+         */
+        void receiveEnded(int result) {
+            boolean rearm;
+            synchronized (this) {
+                armedAs = 0;
+                if (closed || result == 0 || (result < 0 && result != -IoUring.ENOBUFS && result != -IoUring.ECANCELED)) {
+                    // Closed, end of stream or an error the session is told about
+                    return;
+                }
+                // A paused session is rearmed by its processor once it has caught up
+                rearm = !paused || (!processing && size == 0);
+                if (rearm) {
+                    paused = false;
+                }
+            }
+            if (!rearm) return;
+            if (result == -IoUring.ENOBUFS) {
+                poller.starve(this);
+            } else {
+                poller.arm(this);
+            }
+        }
+
+        void close() {
+            long cancel;
+            synchronized (this) {
+                closed = true;
+                cancel = armedAs;
+            }
+            if (cancel != 0) {
+                poller.cancel(cancel);
+            }
+        }
+
+        private void push(long entry) {
+            if (size == inbox.length) {
+                long[] grown = new long[size * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = inbox[(head + i) % size];
+                }
+                inbox = grown;
+                head = 0;
+            }
+            inbox[(head + size++) % inbox.length] = entry;
+        }
+
+        private void process() {
+            while (true) {
+                long entry;
+                synchronized (this) {
+                    if (size == 0) {
+                        processing = false;
+                        // Caught up after being paused, and the cancelled receive has ended
+                        if (!paused || closed || armedAs != 0) return;
+                        paused = false;
+                        break;
+                    }
+                    entry = inbox[head];
+                    head = (head + 1) % inbox.length;
+                    size--;
+                }
+                handle((int) (entry >> 32), (int) entry);
+            }
+            poller.arm(this);
+        }
+
+        private void handle(int bid, int result) {
+            try {
+                if (bid >= 0) {
+                    try {
+                        session.handleData(poller.buffer(bid, result));
+                    } finally {
+                        poller.recycle(bid);
+                    }
+                } else if (entry(bid, result) == KICK) {
+                    session.handleData(EMPTY);
+                } else if (result == 0) {
+                    session.close(1000, "EOF");
+                } else {
+                    session.onFailure(new IOException("Receive failed: errno " + -result));
+                }
+            } catch (Exception e) {
+                session.onFailure(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.eaze.websocket.core.nio;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Exact open-session count per client address. Only addresses with at least one open session
+ * have an entry, so memory follows the peak number of distinct connected addresses (about 24
+ * bytes each), and a flood of distinct addresses is bounded by the sessions it actually holds open.
+ * Unlike a fixed-size sketch it never refuses an address because other addresses share its counters.
+ *
+ * Addresses are spread over {@link #STRIPES} stripes by a keyed 64-bit hash. Each stripe has its
+ * own monitor, an entry arena (key, hash and count, at stable positions) and an open-addressed index
+ * into that arena with linear probing. An acquire returns the stripe and arena position packed
+ * into an int ticket, which is what a session keeps to release its count; it needs neither the
+ * address nor its hash again. An entry whose count drops to zero is unlinked from the index and
+ * its position reused.
+ *
+ * The hash keys are random per counter, so a client cannot pick addresses that pile up in one
+ * stripe or one probe chain.
+ */
+final class IpSessionCounter {
+    static final int AT_LIMIT = -1;
+    static final int STRIPES = 64;
+
+    private static final int STRIPE_SHIFT = 64 - Integer.numberOfTrailingZeros(STRIPES);
+    private static final int ENTRY_BITS = 31 - Integer.numberOfTrailingZeros(STRIPES);
+    private static final int ENTRY_MASK = (1 << ENTRY_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long key0;
+    private final long key1;
+
+    IpSessionCounter() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        SecureRandom random = new SecureRandom();
+        this.key0 = random.nextLong();
+        this.key1 = random.nextLong();
+    }
+
+    /**
+     * Counts one more session for the address unless it already has {@code limit}.
+     *
+     * @return the ticket for {@link #release(int)}, or {@link #AT_LIMIT} if the address is at its
+     *         limit (nothing is counted then)
+     */
+    int tryAcquire(long addressKey, int limit) {
+        long hash = hash(addressKey);
+        int stripeIndex = (int) (hash >>> STRIPE_SHIFT);
+        Stripe stripe = stripes[stripeIndex];
+        synchronized (stripe) {
+            int entry = stripe.find(addressKey, hash);
+            if (entry < 0) {
+                if (limit <= 0) return AT_LIMIT;
+                entry = stripe.insert(addressKey, hash);
+                if (entry < 0) return AT_LIMIT;
+            } else if (stripe.counts[entry] >= limit) {
+                return AT_LIMIT;
+            }
+            stripe.counts[entry]++;
+            // Stripe index below 2^(31 - ENTRY_BITS), so the ticket is never negative
+            return stripeIndex << ENTRY_BITS | entry;
+        }
+    }
+
+    void release(int ticket) {
+        Stripe stripe = stripes[ticket >>> ENTRY_BITS];
+        int entry = ticket & ENTRY_MASK;
+        synchronized (stripe) {
+            if (entry >= stripe.used || stripe.counts[entry] == 0) return;
+            if (--stripe.counts[entry] == 0) {
+                stripe.remove(entry);
+            }
+        }
+    }
+
+    int count(long addressKey) {
+        long hash = hash(addressKey);
+        Stripe stripe = stripes[(int) (hash >>> STRIPE_SHIFT)];
+        synchronized (stripe) {
+            int entry = stripe.find(addressKey, hash);
+            return entry < 0 ? 0 : stripe.counts[entry];
+        }
+    }
+
+    /**
+     * Addresses with at least one open session.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Two rounds of a 64-bit finalizer, each keyed with a secret. Without the secrets the stripe
+     * and probe position of an address cannot be predicted.
+     */
+    private long hash(long addressKey) {
+        return mix(mix(addressKey ^ key0) ^ key1);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Guarded by its own monitor. Arena positions never move, so tickets stay valid while the
+     * index is rebuilt.
+     */
+    private static final class Stripe {
+        // Arena: key, low hash bits and count per entry; count 0 marks a free entry
+        long[] keys = new long[INITIAL_CAPACITY];
+        int[] hashes = new int[INITIAL_CAPACITY];
+        int[] counts = new int[INITIAL_CAPACITY];
+        int used;
+        int[] free = new int[INITIAL_CAPACITY];
+        int freeCount;
+        // Index: arena position + 1 per slot, 0 for an empty slot; at most half full
+        int[] index = new int[INITIAL_CAPACITY * 2];
+        int size;
+
+        int find(long key, long hash) {
+            int mask = index.length - 1;
+            for (int slot = (int) hash & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                int entry = index[slot] - 1;
+                if (keys[entry] == key) return entry;
+            }
+            return -1;
+        }
+
+        /**
+         * Adds an entry with count 0 for a key that is not present.
+         *
+         * @return its arena position, or -1 if the stripe is full
+         */
+        int insert(long key, long hash) {
+            int entry;
+            if (freeCount > 0) {
+                entry = free[--freeCount];
+            } else {
+                if (used > ENTRY_MASK) return -1;
+                if (used == keys.length) {
+                    keys = Arrays.copyOf(keys, used * 2);
+                    hashes = Arrays.copyOf(hashes, used * 2);
+                    counts = Arrays.copyOf(counts, used * 2);
+                }
+                entry = used++;
+            }
+            keys[entry] = key;
+            hashes[entry] = (int) hash;
+            if (++size * 2 > index.length) {
+                rebuild(index.length * 2);
+            }
+            link(entry);
+            return entry;
+        }
+
+        void remove(int entry) {
+            int mask = index.length - 1;
+            int slot = hashes[entry] & mask;
+            while (index[slot] != entry + 1) {
+                slot = (slot + 1) & mask;
+            }
+            // Backward-shift deletion: pull later entries of the probe run into the gap
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (index[next] == 0) break;
+                int home = hashes[index[next] - 1] & mask;
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    index[slot] = index[next];
+                    slot = next;
+                }
+            }
+            index[slot] = 0;
+            size--;
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount * 2);
+            }
+            free[freeCount++] = entry;
+        }
+
+        private void link(int entry) {
+            int mask = index.length - 1;
+            int slot = hashes[entry] & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = entry + 1;
+        }
+
+        private void rebuild(int capacity) {
+            index = new int[capacity];
+            for (int entry = 0; entry < used; entry++) {
+                if (counts[entry] > 0) {
+                    link(entry);
+                }
+            }
+        }
+    }
+}
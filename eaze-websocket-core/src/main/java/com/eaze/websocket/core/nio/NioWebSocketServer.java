@@ -1,7 +1,21 @@
 package com.eaze.websocket.core.nio;
 
 import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
 import com.eaze.websocket.core.codec.HandshakeProcessor;
+import com.eaze.websocket.core.codec.MessageCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.http.HandshakeDecision;
+import com.eaze.websocket.core.http.HandshakeInterceptor;
+import com.eaze.websocket.core.http.HandshakeRequest;
+import com.eaze.websocket.core.http.HttpResponder;
+import com.eaze.websocket.core.http2.Http2Codec;
+import com.eaze.websocket.core.jfr.HandshakeEvent;
+import com.eaze.websocket.core.jfr.SessionOpenEvent;
+import com.eaze.websocket.core.metrics.ServerMetrics;
+import com.eaze.websocket.core.metrics.TrafficHitters;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -10,30 +24,70 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * High-performance WebSocket server optimized for 10M+ concurrent connections.
  * 
  * Architecture:
  * 1. MasterPoller Pool: Multiple platform threads performing blocking accept() and Direct Handshake.
- * 2. SubPoller Pool: Multiple platform threads each with its own Selector to handle established connections.
+ * 2. SubPoller Pool: Multiple platform threads each with its own Selector to handle established connections,
+ *    optionally resized at runtime with {@link #setPollerScaling(PollerScaling)}.
  * 3. Virtual Threads: Used for message processing only after successful handshake, minimizing context switching.
+ *
+ * On Linux, {@link #setIoUring(boolean)} replaces the SubPollers' Selectors with io_uring rings for reading.
  */
 public class NioWebSocketServer {
+    public static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration ACCEPTOR_JOIN_TIMEOUT = Duration.ofSeconds(1);
+    private static final long DRAIN_GRACE_MS = 1000;
+    private static final int SHUTDOWN_CLOSE_CODE = 1001;
+    private static final String SHUTDOWN_CLOSE_REASON = "Server shutting down";
+    private static final HandshakeDecision INTERCEPTOR_TIMEOUT = HandshakeDecision.reject(503, "Service Unavailable");
+    private static final HandshakeDecision INTERCEPTOR_ERROR = HandshakeDecision.reject(500, "Internal Server Error");
+
+    private enum Handshake { FAILED, UPGRADED, PENDING }
+
     private final WebSocketListener listener;
+    private final SessionTable sessionTable = new SessionTable();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private volatile SessionConfig sessionConfig;
+    // Answers plain HTTP requests on the WebSocket port; null closes them
+    private volatile HttpResponder httpResponder;
+    // Accepted subprotocols by name; only modified before start
+    private final Map<String, Subprotocol> subprotocols = new LinkedHashMap<>();
+    private volatile HandshakeInterceptor handshakeInterceptor;
+    private Duration interceptorTimeout;
+    // Orders intercepted sessions reaching a SubPoller against the drain stopping the pollers
+    private final Object interceptLock = new Object();
+    private volatile Http2Settings http2;
+    private final Set<Http2Connection> http2Connections = ConcurrentHashMap.newKeySet();
+    private boolean ioUring;
+    // Replaces the SubPollers for reading when io_uring is enabled and usable; set once in start()
+    private volatile IoUringTransport uring;
     private final ServerSocketChannel serverChannel;
     private final int pollerThreads;
-    private final int selectorThreads;
     private final AtomicBoolean running = new AtomicBoolean(false);
     
     private final List<Thread> acceptorThreads = new ArrayList<>();
-    private final SubPoller[] subPollers;
-    private final AtomicInteger nextSelector = new AtomicInteger(0);
+    private final PollerPool subPollers;
+    private int warmUpBuffers;
+    private int warmUpIterations;
+    private final CountDownLatch warmedUp = new CountDownLatch(1);
+    private Duration hitterHalfLife;
+    private Thread hitterDecay;
 
     public NioWebSocketServer(int port, WebSocketListener listener) throws IOException {
         this(port, listener, 2, Runtime.getRuntime().availableProcessors());
@@ -41,28 +95,75 @@ public class NioWebSocketServer {
 
     public NioWebSocketServer(int port, WebSocketListener listener, int pollerThreads, int selectorThreads) throws IOException {
         this.listener = listener;
+        this.sessionConfig = new SessionConfig(listener, sessionTable, metrics, InboundLimits.UNLIMITED,
+                SessionConfig.DEFAULT_MAX_FRAME_PAYLOAD, null, OutboundLimits.DEFAULT, null);
         this.pollerThreads = pollerThreads;
-        this.selectorThreads = selectorThreads;
         
         this.serverChannel = ServerSocketChannel.open();
         this.serverChannel.configureBlocking(true);
         this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
         this.serverChannel.bind(new InetSocketAddress(port), 65535);
 
-        this.subPollers = new SubPoller[selectorThreads];
-        for (int i = 0; i < selectorThreads; i++) {
-            this.subPollers[i] = new SubPoller(i);
-        }
+        this.subPollers = new PollerPool(selectorThreads);
     }
 
+    /**
+     * Starts accepting connections. If a warm-up is configured it runs in the background and
+     * {@link #isReady()} stays false until it has finished.
+     */
     public void start() {
         if (running.compareAndSet(false, true)) {
+            if (ioUring) {
+                startIoUring();
+            }
             for (int i = 0; i < pollerThreads; i++) {
                 Thread t = Thread.ofPlatform()
                         .name("Eaze-MasterPoller-" + i)
                         .start(this::runAcceptor);
                 acceptorThreads.add(t);
             }
+            subPollers.start();
+            TrafficHitters hitters = metrics.getTrafficHitters();
+            if (hitters != null) {
+                hitterDecay = Thread.ofPlatform().name("Eaze-HeavyHitters").daemon().start(() -> runDecay(hitters));
+            }
+            if (warmUpBuffers > 0 || warmUpIterations > 0) {
+                Thread.ofPlatform().name("Eaze-WarmUp").start(() -> {
+                    WarmUp.run(warmUpBuffers, warmUpIterations);
+                    warmedUp.countDown();
+                });
+            } else {
+                warmedUp.countDown();
+            }
+        }
+    }
+
+    private void startIoUring() {
+        String reason = IoUringTransport.unavailableReason(sessionConfig, subPollers.isScaling());
+        if (reason == null) {
+            try {
+                IoUringTransport transport = new IoUringTransport(subPollers.active().length);
+                SessionConfig current = sessionConfig;
+                sessionConfig = new SessionConfig(current.listener, current.sessions, current.metrics,
+                        current.inboundLimits, current.maxFramePayload, current.admission, current.outboundLimits,
+                        transport::channelClosed);
+                uring = transport;
+                return;
+            } catch (IOException | RuntimeException e) {
+                reason = e.getMessage();
+            }
+        }
+        System.err.println("io_uring transport unavailable, using NIO: " + reason);
+    }
+
+    private void runDecay(TrafficHitters hitters) {
+        while (running.get()) {
+            try {
+                Thread.sleep(hitterHalfLife);
+            } catch (InterruptedException e) {
+                return;
+            }
+            hitters.decay();
         }
     }
 
@@ -71,7 +172,7 @@ public class NioWebSocketServer {
             try {
                 SocketChannel client = serverChannel.accept();
                 if (client != null) {
-                    handleNewConnection(client);
+                    admit(client);
                 }
             } catch (IOException e) {
                 if (running.get()) {
@@ -81,7 +182,66 @@ public class NioWebSocketServer {
         }
     }
 
-    private void handleNewConnection(SocketChannel client) {
+    private void admit(SocketChannel client) {
+        AdmissionController admission = sessionConfig.admission;
+        int admissionTicket = 0;
+        if (admission != null) {
+            try {
+                admissionTicket = admission.admit(admission.addressKey(client), sessionTable.size());
+            } catch (IOException e) {
+                try { client.close(); } catch (IOException ignore) {}
+                return;
+            }
+            if (admissionTicket == AdmissionController.REJECTED) {
+                metrics.connectionShed();
+                admission.reject(client);
+                return;
+            }
+        }
+        metrics.connectionAccepted();
+        handleNewConnection(client, admissionTicket);
+    }
+
+    /**
+     * Performs the handshake and hands the session to a SubPoller, or passes the request to the
+     * handshake interceptor on a virtual thread, which then finishes the job.
+     */
+    private void handleNewConnection(SocketChannel client, int admissionTicket) {
+        HandshakeEvent event = new HandshakeEvent();
+        if (event.isEnabled()) {
+            // Read up front: the address is gone once a failed handshake closes the channel
+            event.remoteAddress = remoteAddress(client);
+        }
+        event.begin();
+        Handshake result = handshake(client, admissionTicket, event);
+        if (result != Handshake.PENDING) {
+            endHandshake(event, admissionTicket, result == Handshake.UPGRADED);
+        }
+    }
+
+    /**
+     * @param upgraded true if a session was created; from then on the session releases its admission slot itself
+     */
+    private void endHandshake(HandshakeEvent event, int admissionTicket, boolean upgraded) {
+        if (event.shouldCommit()) {
+            event.upgraded = upgraded;
+            event.commit();
+        }
+        AdmissionController admission = sessionConfig.admission;
+        if (!upgraded && admission != null) {
+            admission.release(admissionTicket);
+        }
+    }
+
+    private static String remoteAddress(SocketChannel client) {
+        try {
+            return String.valueOf(client.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private Handshake handshake(SocketChannel client, int admissionTicket, HandshakeEvent event) {
         try {
             client.configureBlocking(true);
             client.setOption(StandardSocketOptions.TCP_NODELAY, true);
@@ -91,61 +251,479 @@ public class NioWebSocketServer {
             int bytesRead = client.read(buffer);
             if (bytesRead <= 0) {
                 client.close();
-                return;
+                return Handshake.FAILED;
             }
 
             buffer.flip();
+            Http2Settings h2 = http2;
+            if (h2 != null && Http2Codec.isPreface(buffer)) {
+                return serveHttp2(client, admissionTicket, buffer, h2) ? Handshake.UPGRADED : Handshake.FAILED;
+            }
             int endOfHeaders = NioWebSocketSession.findEndOfHeaders(buffer);
             if (endOfHeaders == -1) {
                 // Incomplete handshake - for 10M+ scale, we could hand this off to a 
                 // specialized poller, but for now we close to protect the acceptor.
                 client.close();
-                return;
+                return Handshake.FAILED;
             }
 
             Map<String, String> headers = HandshakeProcessor.parseHeaders(buffer, endOfHeaders);
             if (headers.containsKey("sec-websocket-key")) {
-                String acceptKey = HandshakeProcessor.createAcceptKey(headers.get("sec-websocket-key"));
-                String response = HandshakeProcessor.buildResponse(acceptKey);
-                
-                ByteBuffer respBuffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
-                while (respBuffer.hasRemaining()) {
-                    client.write(respBuffer);
+                HandshakeInterceptor interceptor = handshakeInterceptor;
+                if (interceptor == null) {
+                    return upgrade(client, admissionTicket, buffer, endOfHeaders, headers)
+                            ? Handshake.UPGRADED : Handshake.FAILED;
                 }
-                
-                // Advance buffer past headers
-                buffer.position(buffer.position() + endOfHeaders);
-                
-                NioWebSocketSession session = new NioWebSocketSession(client, listener);
-                session.setHandshaked(true);
-                
-                // Pass any leftover data (e.g. first frames)
-                if (buffer.hasRemaining()) {
-                    session.setInitialBuffer(buffer);
+                HandshakeRequest request = HandshakeRequest.parse(buffer, headers, client.getRemoteAddress());
+                if (request == null) {
+                    client.close();
+                    return Handshake.FAILED;
                 }
-                
-                listener.onOpen(session);
-                
-                // Hand off to a SubPoller
-                int idx = Math.abs(nextSelector.getAndIncrement() % selectorThreads);
-                subPollers[idx].register(session);
+                // The acceptor moves on; the decision may take as long as the auth backend does
+                Thread.startVirtualThread(() -> intercepted(interceptor, request, client, admissionTicket,
+                        buffer, endOfHeaders, headers, event));
+                return Handshake.PENDING;
+            } else if (httpResponder != null) {
+                httpResponder.respond(client, buffer, headers);
+                return Handshake.FAILED;
             } else {
                 client.close();
+                return Handshake.FAILED;
             }
         } catch (IOException e) {
             try { client.close(); } catch (IOException ignore) {}
+            return Handshake.FAILED;
+        }
+    }
+
+    /**
+     * Completes an upgrade request: writes the 101 response, creates the session and hands it to a SubPoller.
+     *
+     * @return true if a session was created
+     */
+    private boolean upgrade(SocketChannel client, int admissionTicket, ByteBuffer buffer, int endOfHeaders,
+                            Map<String, String> headers) throws IOException {
+        String acceptKey = HandshakeProcessor.createAcceptKey(headers.get("sec-websocket-key"));
+        // A client offering only unknown subprotocols gets no header and decides itself whether to go on
+        String protocol = HandshakeProcessor.selectSubprotocol(headers.get("sec-websocket-protocol"),
+                subprotocols.keySet());
+        String response = HandshakeProcessor.buildResponse(acceptKey, protocol);
+
+        ByteBuffer respBuffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+        while (respBuffer.hasRemaining()) {
+            client.write(respBuffer);
+        }
+
+        // Advance buffer past headers
+        buffer.position(buffer.position() + endOfHeaders);
+
+        NioWebSocketSession session = new NioWebSocketSession(client, sessionConfig);
+        session.setHandshaked(true);
+        session.setAdmissionTicket(admissionTicket);
+        if (protocol != null) {
+            session.setSubprotocol(subprotocols.get(protocol));
+        }
+        if (metrics.getTrafficHitters() != null
+                && client.getRemoteAddress() instanceof InetSocketAddress inet) {
+            session.setTrafficAddress(inet.getAddress());
+        }
+        if (sessionTable.add(session) == SessionTable.NO_ID) {
+            // Id space exhausted (16M live sessions)
+            client.close();
+            return false;
+        }
+
+        // Pass any leftover data (e.g. first frames)
+        if (buffer.hasRemaining()) {
+            session.setInitialBuffer(buffer);
+        }
+
+        SessionOpenEvent.emit(session);
+        listener.onOpen(session);
+
+        // Hand off to a SubPoller
+        if (handshakeInterceptor == null) {
+            // Acceptors are joined by the drain, so this cannot race with the pollers stopping
+            register(session);
+            return true;
+        }
+        synchronized (interceptLock) {
+            if (running.get()) {
+                register(session);
+                return true;
+            }
+        }
+        // The drain has already passed this session by
+        session.close(SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON);
+        return true;
+    }
+
+    private void register(NioWebSocketSession session) {
+        IoUringTransport transport = uring;
+        if (transport != null) {
+            transport.register(session, SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON);
+        } else {
+            subPollers.next().register(session);
+        }
+    }
+
+    /**
+     * Hands a connection that opened with the HTTP/2 preface to its own reader thread. The
+     * connection gives back the admission slot itself once it closes.
+     *
+     * @return true if the connection is being served
+     */
+    private boolean serveHttp2(SocketChannel client, int admissionTicket, ByteBuffer buffer, Http2Settings h2)
+            throws IOException {
+        AdmissionController admission = sessionConfig.admission;
+        Http2Connection connection = new Http2Connection(client, sessionConfig, h2, subprotocols,
+                handshakeInterceptor, interceptorTimeout, closed -> {
+                    http2Connections.remove(closed);
+                    if (admission != null) {
+                        admission.release(admissionTicket);
+                    }
+                });
+        synchronized (interceptLock) {
+            // The drain may already have passed by if an interceptor delayed this acceptor
+            if (!running.get()) {
+                client.close();
+                return false;
+            }
+            http2Connections.add(connection);
+        }
+        Thread.ofVirtual().name("Eaze-H2-" + remoteAddress(client)).start(() -> connection.serve(buffer));
+        return true;
+    }
+
+    /**
+     * Runs on a virtual thread: waits for the interceptor, then upgrades or answers with its rejection.
+     */
+    private void intercepted(HandshakeInterceptor interceptor, HandshakeRequest request, SocketChannel client,
+                             int admissionTicket, ByteBuffer buffer, int endOfHeaders, Map<String, String> headers,
+                             HandshakeEvent event) {
+        HandshakeDecision decision = decide(interceptor, request, interceptorTimeout);
+        boolean upgraded = false;
+        try {
+            if (decision.isAccepted()) {
+                upgraded = upgrade(client, admissionTicket, buffer, endOfHeaders, headers);
+            } else {
+                metrics.handshakeRejected();
+                ByteBuffer response = decision.response();
+                while (response.hasRemaining()) {
+                    client.write(response);
+                }
+                client.close();
+            }
+        } catch (IOException e) {
+            try { client.close(); } catch (IOException ignore) {}
+        }
+        endHandshake(event, admissionTicket, upgraded);
+    }
+
+    static HandshakeDecision decide(HandshakeInterceptor interceptor, HandshakeRequest request, Duration timeout) {
+        try {
+            HandshakeDecision decision = interceptor.intercept(request).toCompletableFuture()
+                    .get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return decision != null ? decision : INTERCEPTOR_ERROR;
+        } catch (TimeoutException e) {
+            return INTERCEPTOR_TIMEOUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return INTERCEPTOR_TIMEOUT;
+        } catch (ExecutionException | RuntimeException e) {
+            System.err.println("Handshake interceptor error: " + e.getMessage());
+            return INTERCEPTOR_ERROR;
         }
     }
 
+    /**
+     * Graceful stop: drains all sessions with a "going away" close frame, waiting up to
+     * {@link #DEFAULT_DRAIN_TIMEOUT} for close frames to reach the sockets.
+     */
     public void stop() throws IOException {
+        drain(DEFAULT_DRAIN_TIMEOUT, Duration.ZERO);
+    }
+
+    /**
+     * Stops accepting, then has every SubPoller close its own sessions in parallel with a
+     * pre-encoded 1001 close frame, and finally shuts the pollers down.
+     *
+     * @param flushTimeout how long to wait for close frames stuck behind full socket buffers
+     *                     once the last session has been scheduled; remaining sockets are then closed forcibly
+     * @param spreadWindow window over which disconnects are spread evenly, so clients do not all
+     *                     reconnect to the next node at the same instant; {@link Duration#ZERO} closes at once
+     * @return true if every session was closed before the deadline
+     */
+    public boolean drain(Duration flushTimeout, Duration spreadWindow) throws IOException {
         running.set(false);
         serverChannel.close();
         for (Thread t : acceptorThreads) {
             t.interrupt();
         }
-        for (SubPoller sp : subPollers) {
-            sp.stop();
+        if (hitterDecay != null) {
+            hitterDecay.interrupt();
+        }
+        for (Thread t : acceptorThreads) {
+            try {
+                // Let in-flight handshakes reach their SubPoller so the drain picks them up
+                t.join(ACCEPTOR_JOIN_TIMEOUT.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (interceptLock) {
+            // Barrier: intercepted handshakes past this point see the server stopped and close themselves
+        }
+
+        ByteBuffer closeFrame = FrameCodec.encodeShared(new WebSocketFrame(true, Opcode.CLOSE,
+                FrameCodec.closePayload(SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON)));
+        long spreadNanos = spreadWindow.toNanos();
+        long deadline = System.nanoTime() + spreadNanos + flushTimeout.toNanos();
+
+        // Includes pollers still migrating sessions away; their drain takes over from the migration
+        List<SubPoller> pollers = subPollers.stop();
+        List<Http2Connection> connections = List.copyOf(http2Connections);
+        IoUringTransport transport = uring;
+        CompletableFuture<?>[] drains = new CompletableFuture<?>[pollers.size() + connections.size()
+                + (transport != null ? 1 : 0)];
+        for (int i = 0; i < pollers.size(); i++) {
+            drains[i] = pollers.get(i).drain(closeFrame, SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON,
+                    spreadNanos, deadline);
+        }
+        for (int i = 0; i < connections.size(); i++) {
+            drains[pollers.size() + i] = connections.get(i).drain(SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON, deadline);
+        }
+        if (transport != null) {
+            drains[drains.length - 1] = transport.drain(closeFrame, SHUTDOWN_CLOSE_CODE, SHUTDOWN_CLOSE_REASON,
+                    spreadNanos, deadline);
+        }
+
+        boolean completed = true;
+        try {
+            // Pollers force-close at the deadline themselves; the grace period only covers that last step
+            CompletableFuture.allOf(drains).get(
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) + DRAIN_GRACE_MS,
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            completed = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
+        } finally {
+            for (SubPoller sp : pollers) {
+                sp.stop();
+            }
+            for (Http2Connection connection : connections) {
+                connection.abort();
+            }
+            if (transport != null) {
+                transport.stop();
+            }
+        }
+        return completed;
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Sets per-session inbound message/byte budgets. Must be called before {@link #start()}.
+     */
+    public void setInboundLimits(InboundLimits limits) {
+        if (running.get()) {
+            throw new IllegalStateException("Inbound limits must be set before the server starts");
+        }
+        SessionConfig current = sessionConfig;
+        sessionConfig = new SessionConfig(current.listener, current.sessions, current.metrics, limits,
+                current.maxFramePayload, current.admission, current.outboundLimits, current.channelClosed);
+    }
+
+    /**
+     * Sets the largest frame payload a client may send (default 16 MB). Larger frames are rejected
+     * from their header alone, before any payload is buffered, and the session is closed with 1009.
+     * Must be called before {@link #start()}.
+     */
+    public void setMaxFramePayload(int bytes) {
+        if (running.get()) {
+            throw new IllegalStateException("Max frame payload must be set before the server starts");
+        }
+        SessionConfig current = sessionConfig;
+        sessionConfig = new SessionConfig(current.listener, current.sessions, current.metrics,
+                current.inboundLimits, bytes, current.admission, current.outboundLimits, current.channelClosed);
+    }
+
+    /**
+     * Sets admission control for new connections: handshake rate, total and per-address session
+     * caps. Connections over a limit are shed before the handshake. Must be called before {@link #start()}.
+     */
+    public void setAdmissionLimits(AdmissionLimits limits) {
+        if (running.get()) {
+            throw new IllegalStateException("Admission limits must be set before the server starts");
+        }
+        SessionConfig current = sessionConfig;
+        sessionConfig = new SessionConfig(current.listener, current.sessions, current.metrics,
+                current.inboundLimits, current.maxFramePayload,
+                limits == AdmissionLimits.UNLIMITED ? null : new AdmissionController(limits),
+                current.outboundLimits, current.channelClosed);
+    }
+
+    /**
+     * Sets how many unsent bytes a session may accumulate and what happens to a client that falls
+     * further behind: block the sender (default), conflate keyed messages, drop the oldest messages
+     * or disconnect. Must be called before {@link #start()}.
+     */
+    public void setOutboundLimits(OutboundLimits limits) {
+        if (running.get()) {
+            throw new IllegalStateException("Outbound limits must be set before the server starts");
+        }
+        SessionConfig current = sessionConfig;
+        sessionConfig = new SessionConfig(current.listener, current.sessions, current.metrics,
+                current.inboundLimits, current.maxFramePayload, current.admission, limits, current.channelClosed);
+    }
+
+    /**
+     * Lets the SubPoller pool grow and shrink between the given bounds based on measured
+     * event-loop utilization. A poller taken out of service migrates its sessions to the remaining
+     * ones without closing them. The pool starts with {@code selectorThreads} pollers, clamped to
+     * the bounds. Must be called before {@link #start()}.
+     */
+    public void setPollerScaling(PollerScaling scaling) throws IOException {
+        if (running.get()) {
+            throw new IllegalStateException("Poller scaling must be set before the server starts");
+        }
+        subPollers.setScaling(scaling);
+    }
+
+    /**
+     * Number of SubPollers currently accepting new sessions.
+     */
+    public int getPollerCount() {
+        return subPollers.active().length;
+    }
+
+    /**
+     * Utilization (0-1) of each active SubPoller: the share of time spent working between selects,
+     * averaged over roughly the last second.
+     */
+    public double[] getPollerUtilization() {
+        SubPoller[] pollers = subPollers.active();
+        double[] utilization = new double[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            utilization[i] = pollers[i].getUtilization();
+        }
+        return utilization;
+    }
+
+    /**
+     * Tracks the sessions and client addresses sending and receiving the most bytes and messages,
+     * in fixed memory however many sessions there are. Counts are halved every {@code halfLife},
+     * so the rankings follow recent traffic. Must be called before {@link #start()}.
+     *
+     * @param capacity heavy keys kept per stripe (16 stripes), e.g. 16; top-N is exact for N up to this
+     */
+    public void setHeavyHitters(int capacity, Duration halfLife) {
+        if (running.get()) {
+            throw new IllegalStateException("Heavy-hitter tracking must be set before the server starts");
+        }
+        if (halfLife.isNegative() || halfLife.isZero()) {
+            throw new IllegalArgumentException("Half-life must be positive");
         }
+        this.hitterHalfLife = halfLife;
+        metrics.setTrafficHitters(new TrafficHitters(capacity));
+    }
+
+    /**
+     * Heaviest sessions and client addresses, or null unless {@link #setHeavyHitters(int, Duration)} was called.
+     */
+    public TrafficHitters getHeavyHitters() {
+        return metrics.getTrafficHitters();
+    }
+
+    /**
+     * Accepts a subprotocol in {@code Sec-WebSocket-Protocol} negotiation. When a client offers
+     * several supported ones, the first in its list wins. Sessions that negotiated a subprotocol
+     * with a codec get every message decoded on the read path and delivered to
+     * {@link WebSocketListener#onDecoded}, and can send objects with
+     * {@link WebSocketSession#sendObject}; with a null codec the name is only negotiated.
+     * Must be called before {@link #start()}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void addSubprotocol(String name, MessageCodec<T> codec) {
+        if (running.get()) {
+            throw new IllegalStateException("Subprotocols must be added before the server starts");
+        }
+        subprotocols.put(name, new Subprotocol(name, (MessageCodec<Object>) codec));
+    }
+
+    /**
+     * Has every upgrade request decided by the interceptor before the session is created, e.g. to
+     * check a token against an auth service. The interceptor runs on a virtual thread, so acceptors
+     * keep accepting while it waits. Requests it rejects get its HTTP status and are closed; ones it
+     * fails to decide within {@code timeout} get 503, and ones it fails on get 500.
+     * Must be called before {@link #start()}.
+     */
+    public void setHandshakeInterceptor(HandshakeInterceptor interceptor, Duration timeout) {
+        if (running.get()) {
+            throw new IllegalStateException("Handshake interceptor must be set before the server starts");
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Interceptor timeout must be positive");
+        }
+        this.handshakeInterceptor = interceptor;
+        this.interceptorTimeout = timeout;
+    }
+
+    /**
+     * Accepts HTTP/2 connections with prior knowledge (h2c) next to HTTP/1.1 upgrades on the same
+     * port: a connection that opens with the HTTP/2 preface carries WebSocket sessions as streams,
+     * opened by extended CONNECT requests (RFC 8441). Each stream is a full session with its own
+     * id, listener callbacks and close handshake; the connection is one admission slot. Null
+     * disables HTTP/2 (the default). Must be called before {@link #start()}.
+     */
+    public void setHttp2(Http2Settings settings) {
+        if (running.get()) {
+            throw new IllegalStateException("HTTP/2 settings must be set before the server starts");
+        }
+        this.http2 = settings;
+    }
+
+    /**
+     * Reads from sessions through io_uring instead of the SubPollers' Selectors (experimental,
+     * Linux 6.0+): multishot receives into a shared buffer ring, with completions reaped in batches.
+     * Needs {@code --enable-native-access=ALL-UNNAMED} and
+     * {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED}. If the kernel or JVM lacks support, or
+     * inbound limits, a non-blocking slow-consumer policy or poller scaling is configured, the
+     * server logs why and stays on NIO. Must be called before {@link #start()}.
+     */
+    public void setIoUring(boolean enabled) {
+        if (running.get()) {
+            throw new IllegalStateException("io_uring must be set before the server starts");
+        }
+        this.ioUring = enabled;
+    }
+
+    /**
+     * True if the server is reading through io_uring, known once it has started.
+     */
+    public boolean isIoUringActive() {
+        return uring != null;
+    }
+
+    /**
+     * Serves plain (non-upgrade) HTTP requests arriving on the WebSocket port, e.g. health checks
+     * and static files. Without a responder such requests are closed. Must be called before {@link #start()}.
+     */
+    public void setHttpResponder(HttpResponder responder) {
+        if (running.get()) {
+            throw new IllegalStateException("HTTP responder must be set before the server starts");
+        }
+        this.httpResponder = responder;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
     }
 
     public WebSocketListener getListener() {
@@ -155,4 +733,72 @@ public class NioWebSocketServer {
     public boolean isRunning() {
         return running.get();
     }
+
+    /**
+     * True once the server is running and its warm-up has finished; meant for readiness probes,
+     * e.g. {@code httpResponder.setReadiness(server::isReady)}.
+     */
+    public boolean isReady() {
+        return running.get() && warmedUp.getCount() == 0;
+    }
+
+    /**
+     * Waits for {@link #isReady()}.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitReady(Duration timeout) throws InterruptedException {
+        return warmedUp.await(timeout.toNanos(), TimeUnit.NANOSECONDS) && running.get();
+    }
+
+    /**
+     * Configures a warm-up run by {@link #start()}: fills the buffer pool with {@code pooledBuffers}
+     * pre-touched buffers and the handshake digest pool, then runs the handshake and frame codec
+     * paths {@code iterations} times on in-memory data so the JIT has compiled them before a
+     * reconnect storm arrives. About 20,000 iterations is enough for C2 to compile the hot paths.
+     * Must be called before {@link #start()}.
+     */
+    public void setWarmUp(int pooledBuffers, int iterations) {
+        if (running.get()) {
+            throw new IllegalStateException("Warm-up must be set before the server starts");
+        }
+        this.warmUpBuffers = pooledBuffers;
+        this.warmUpIterations = iterations;
+    }
+
+    /**
+     * Looks up an open session by the id returned from {@link WebSocketSession#getId()}.
+     * Lock-free; returns null if the session has closed, even if its slot was reused since.
+     */
+    public WebSocketSession getSession(int sessionId) {
+        return sessionTable.get(sessionId);
+    }
+
+    /**
+     * Sends a text frame to the session with the given id.
+     *
+     * @return false if no open session has that id
+     */
+    public boolean send(int sessionId, String text) throws IOException {
+        ServerSession session = sessionTable.get(sessionId);
+        if (session == null || !session.isOpen()) return false;
+        session.send(text);
+        return true;
+    }
+
+    /**
+     * Sends a binary frame to the session with the given id.
+     *
+     * @return false if no open session has that id
+     */
+    public boolean send(int sessionId, byte[] data) throws IOException {
+        ServerSession session = sessionTable.get(sessionId);
+        if (session == null || !session.isOpen()) return false;
+        session.send(data);
+        return true;
+    }
+
+    public int getSessionCount() {
+        return sessionTable.size();
+    }
 }
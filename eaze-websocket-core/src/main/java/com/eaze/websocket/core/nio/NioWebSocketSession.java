@@ -4,35 +4,198 @@ import com.eaze.websocket.core.api.WebSocketListener;
 import com.eaze.websocket.core.api.WebSocketSession;
 import com.eaze.websocket.core.buffer.BufferPool;
 import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.FrameDecoder;
 import com.eaze.websocket.core.codec.HandshakeProcessor;
+import com.eaze.websocket.core.codec.MessageCodec;
 import com.eaze.websocket.core.codec.Opcode;
 import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.codec.WebSocketProtocolException;
+import com.eaze.websocket.core.jfr.FrameDecodeEvent;
+import com.eaze.websocket.core.jfr.ListenerCallbackEvent;
+import com.eaze.websocket.core.jfr.SessionCloseEvent;
+import com.eaze.websocket.core.jfr.SessionOpenEvent;
+import com.eaze.websocket.core.jfr.WriteStallEvent;
+import com.eaze.websocket.core.metrics.TrafficHitters;
+import com.eaze.websocket.core.rpc.Envelope;
+import com.eaze.websocket.core.rpc.PendingRequests;
+import com.eaze.websocket.core.rpc.TimerWheel;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * WebSocket session that handles messaging.
  * Optimized for multi-selector architecture where reads are triggered by a Selector
  * and processed in virtual threads.
+ *
+ * Memory layout: at 10M connections every field counts, so all mutable flags live in a single
+ * int state word updated through a VarHandle (no AtomicBoolean/ReentrantLock objects), and
+ * everything that is the same for all sessions lives in a shared {@link SessionConfig}.
  */
-public class NioWebSocketSession implements WebSocketSession {
+public class NioWebSocketSession extends ServerSession {
+    static final int OPEN = 1;
+    static final int HANDSHAKED = 1 << 1;
+    static final int READING = 1 << 2;
+    static final int WRITING = 1 << 3;
+    static final int THROTTLED = 1 << 4;
+    static final int CORKED = 1 << 5;
+    // Set by the reader while it dispatches a read batch: replies are queued and flushed once at the end
+    static final int BATCHING = 1 << 6;
+    static final int FLUSH_SCHEDULED = 1 << 7;
+    // A sendFile/sendStream message is between fragments: control frames may go, data frames wait
+    static final int STREAMING = 1 << 8;
+    // A control frame waits for the write side: the next fragment of a streamed message lets it go first
+    static final int CONTROL_WAITING = 1 << 9;
+
+    // Results of tryFlush()
+    static final int FLUSH_DONE = 0;
+    static final int FLUSH_PARTIAL = 1;
+    static final int FLUSH_BUSY = 2;
+
+    // Waiting for the write side: yields first, then parks from 1 us doubling up to ~1 ms
+    private static final int WRITE_YIELDS = 64;
+    private static final long MIN_WRITE_PARK_NANOS = 1_000;
+    private static final int MAX_WRITE_PARK_SHIFT = 10;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(NioWebSocketSession.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final SocketChannel channel;
-    private final WebSocketListener listener;
-    private final AtomicBoolean open = new AtomicBoolean(true);
-    private boolean handshaked = false;
-    
+    private final SessionConfig config;
+    private volatile int state = OPEN;
+    // Client address key for per-address admission limits, released on close
+    private int admissionTicket;
+    // Client address for heavy-hitter tracking; only set while tracking is enabled
+    private InetAddress trafficAddress;
+
     private ByteBuffer stickyBuffer = null;
-    private final ReentrantLock writeLock = new ReentrantLock();
+    // Only allocated while a read is being decoded or a frame is split across reads
+    private FrameDecoder decoder;
+    // Only allocated when the server has inbound rate limits
+    private InboundBudget budget;
+    // Only allocated while frames are waiting to be written; guarded by WRITING
+    private OutboundQueue outbound;
+    // Set on registration and when migrated to another poller; null for standalone sessions, which flush inline
+    private volatile SubPoller poller;
+    // Created by the first request(); from then on reply envelopes are taken out of the message stream
+    private volatile PendingRequests requests;
+    // Negotiated at handshake, before the session is registered; null if none
+    private Subprotocol subprotocol;
 
     public NioWebSocketSession(SocketChannel channel, WebSocketListener listener) {
+        this(channel, new SessionConfig(listener));
+    }
+
+    NioWebSocketSession(SocketChannel channel, SessionConfig config) {
         this.channel = channel;
-        this.listener = listener;
+        this.config = config;
+    }
+
+    private boolean hasFlag(int flag) {
+        return (state & flag) != 0;
+    }
+
+    private void setFlag(int flag) {
+        STATE.getAndBitwiseOr(this, flag);
+    }
+
+    /**
+     * Sets the flag only if it is not already set, so it can act as an ownership bit.
+     */
+    private boolean trySetFlag(int flag) {
+        int s;
+        do {
+            s = state;
+            if ((s & flag) != 0) return false;
+        } while (!STATE.compareAndSet(this, s, s | flag));
+        return true;
+    }
+
+    /**
+     * Clears the flag and reports whether this call was the one that cleared it.
+     */
+    private boolean clearFlag(int flag) {
+        return ((int) STATE.getAndBitwiseAnd(this, ~flag) & flag) != 0;
+    }
+
+    /**
+     * Takes exclusive ownership of the write side to start a data frame, waiting for a streamed
+     * message to finish first. Only one thread writes a frame at a time, so contention is usually
+     * short-lived: losers yield instead of parking on a lock queue, and only fall back to timed parks
+     * while a sendFile or sendStream holds the write side for a slow client.
+     */
+    private void acquireWrite() {
+        acquireWrite(WRITING | STREAMING);
+    }
+
+    /**
+     * Takes the write side for a control frame, which may go between the fragments of a message.
+     */
+    private void acquireControlWrite() {
+        for (int attempt = 0; !tryAcquireWrite(WRITING); attempt++) {
+            setFlag(CONTROL_WAITING);
+            awaitWrite(attempt);
+        }
+        clearFlag(CONTROL_WAITING);
+    }
+
+    /**
+     * Takes the write side for the next fragment of a streamed message, after any waiting control frame.
+     */
+    private void acquireFragmentWrite() {
+        acquireWrite(WRITING | CONTROL_WAITING);
+    }
+
+    private void acquireWrite(int blockers) {
+        for (int attempt = 0; !tryAcquireWrite(blockers); attempt++) {
+            awaitWrite(attempt);
+        }
+    }
+
+    private static void awaitWrite(int attempt) {
+        if (attempt < WRITE_YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(MIN_WRITE_PARK_NANOS << Math.min(attempt - WRITE_YIELDS, MAX_WRITE_PARK_SHIFT));
+        }
+    }
+
+    private boolean tryAcquireWrite() {
+        return trySetFlag(WRITING);
+    }
+
+    private boolean tryAcquireWrite(int blockers) {
+        int s;
+        do {
+            s = state;
+            if ((s & blockers) != 0) return false;
+        } while (!STATE.compareAndSet(this, s, s | WRITING));
+        return true;
+    }
+
+    private void releaseWrite() {
+        clearFlag(WRITING);
     }
 
     /**
@@ -40,7 +203,12 @@ public class NioWebSocketSession implements WebSocketSession {
      * This is executed in a virtual thread.
      */
     public void handleRead() {
-        if (!open.get()) return;
+        if (!hasFlag(OPEN) || !trySetFlag(READING)) return;
+
+        boolean resumed = clearFlag(THROTTLED);
+        if (resumed) {
+            config.metrics.sessionUnthrottled();
+        }
 
         ByteBuffer readBuffer = BufferPool.acquire();
         try {
@@ -50,52 +218,111 @@ public class NioWebSocketSession implements WebSocketSession {
                 stickyBuffer = null;
             }
 
-            int bytesRead = channel.read(readBuffer);
-            if (bytesRead == -1) {
-                close(1000, "EOF");
-                return;
+            // Coming back from throttling with a large backlog: work it off before taking more from the socket
+            int maxBacklog = config.inboundLimits.getMaxBacklogBytes();
+            if (!resumed || maxBacklog == 0 || readBuffer.position() < maxBacklog) {
+                int bytesRead = channel.read(readBuffer);
+                if (bytesRead == -1) {
+                    close(1000, "EOF");
+                    return;
+                }
             }
 
-            if (bytesRead == 0 && readBuffer.position() == 0) {
+            if (readBuffer.position() == 0) {
                 return;
             }
 
             readBuffer.flip();
+            consume(readBuffer);
+        } catch (WebSocketProtocolException e) {
+            onProtocolError(e);
+        } catch (IOException e) {
+            onFailure(e);
+        } finally {
+            BufferPool.release(readBuffer);
+            endBatch();
+            clearFlag(READING);
+        }
+    }
 
-            if (!handshaked) {
-                if (!doHandshake(readBuffer)) {
-                    // Incomplete handshake, save buffer and wait for more data
-                    if (readBuffer.hasRemaining()) {
-                        saveRemainingData(readBuffer);
-                    }
-                    return;
-                }
-            }
+    /**
+     * Handles data a completion-based transport (io_uring) has already received, in place of the
+     * channel read of {@link #handleRead()}. The caller keeps ownership of {@code data}; an empty
+     * buffer just works off data left over from the handshake.
+     */
+    void handleData(ByteBuffer data) {
+        if (!hasFlag(OPEN) || !trySetFlag(READING)) return;
 
-            if (handshaked) {
-                processFrames(readBuffer);
+        ByteBuffer merged = null;
+        try {
+            ByteBuffer buffer = data;
+            if (stickyBuffer != null) {
+                merged = BufferPool.allocate(stickyBuffer.remaining() + data.remaining());
+                merged.put(stickyBuffer).put(data).flip();
+                stickyBuffer = null;
+                buffer = merged;
             }
-
-            // Save any remaining data for next iteration
-            if (readBuffer.hasRemaining()) {
-                saveRemainingData(readBuffer);
+            if (buffer.hasRemaining()) {
+                consume(buffer);
             }
+        } catch (WebSocketProtocolException e) {
+            onProtocolError(e);
         } catch (IOException e) {
             onFailure(e);
         } finally {
-            BufferPool.release(readBuffer);
+            BufferPool.release(merged);
+            endBatch();
+            clearFlag(READING);
+        }
+    }
+
+    /**
+     * Runs the handshake if it is still pending, then dispatches the frames in the buffer as one
+     * read batch. Whatever cannot be consumed yet is kept for the next read.
+     */
+    private void consume(ByteBuffer buffer) throws IOException {
+        setFlag(BATCHING);
+        // An incomplete handshake leaves the buffer as it is and waits for more data
+        if (hasFlag(HANDSHAKED) || doHandshake(buffer)) {
+            processFrames(buffer);
+        }
+        if (buffer.hasRemaining()) {
+            saveRemainingData(buffer);
+        }
+    }
+
+    /**
+     * Ends the read batch: everything the listener sent while handling it goes out with one
+     * gathering write, scheduled on the owning SubPoller.
+     */
+    private void endBatch() {
+        if (clearFlag(BATCHING) && !hasFlag(CORKED)) {
+            try {
+                scheduleFlush();
+            } catch (IOException e) {
+                onFailure(e);
+            }
         }
     }
 
     public void onFailure(Throwable t) {
-        if (open.get()) {
-            listener.onError(this, t);
+        if (hasFlag(OPEN)) {
+            config.listener.onError(this, t);
             try {
                 close(1006, t.getMessage());
             } catch (IOException ignore) {}
         }
     }
 
+    private void onProtocolError(WebSocketProtocolException e) {
+        if (hasFlag(OPEN)) {
+            config.listener.onError(this, e);
+            try {
+                close(e.getCloseCode(), e.getMessage());
+            } catch (IOException ignore) {}
+        }
+    }
+
     private void saveRemainingData(ByteBuffer buffer) {
         stickyBuffer = ByteBuffer.allocate(buffer.remaining());
         stickyBuffer.put(buffer);
@@ -126,8 +353,9 @@ public class NioWebSocketSession implements WebSocketSession {
                 channel.write(respBuffer);
             }
 
-            handshaked = true;
-            listener.onOpen(this);
+            setFlag(HANDSHAKED);
+            SessionOpenEvent.emit(this);
+            config.listener.onOpen(this);
 
             if (buffer.hasRemaining()) {
                 processFrames(buffer);
@@ -152,21 +380,49 @@ public class NioWebSocketSession implements WebSocketSession {
     }
 
     private void processFrames(ByteBuffer buffer) throws IOException {
-        while (open.get()) {
-            WebSocketFrame frame = FrameCodec.decode(buffer);
+        long batchStart = System.nanoTime();
+        while (hasFlag(OPEN) && !hasFlag(THROTTLED)) {
+            if (System.nanoTime() - batchStart > SubPoller.FLUSH_LATENCY_BUDGET_NANOS) {
+                // A long batch must not hold earlier replies back past the latency budget
+                flushPending();
+                batchStart = System.nanoTime();
+            }
+            if (decoder == null) {
+                decoder = new FrameDecoder(config.maxFramePayload, true);
+            }
+            // Consumes the buffer as it goes: a partial frame stays in the decoder, not in the sticky buffer
+            FrameDecodeEvent decodeEvent = new FrameDecodeEvent();
+            decodeEvent.begin();
+            WebSocketFrame frame = decoder.decode(buffer);
             if (frame == null) {
+                if (decoder.isIdle()) {
+                    // Read ended on a frame boundary: idle sessions keep no parse state
+                    decoder = null;
+                }
                 return;
             }
+            if (decodeEvent.shouldCommit()) {
+                decodeEvent.sessionId = getId();
+                decodeEvent.opcode = frame.getOpcode().name();
+                decodeEvent.payloadLength = frame.getPayload().remaining();
+                decodeEvent.commit();
+            }
 
             if (frame.isFin()) {
                 Opcode op = frame.getOpcode();
-                if (op == Opcode.TEXT) {
-                    String text = StandardCharsets.UTF_8.decode(frame.getPayload()).toString();
-                    listener.onMessage(this, text);
-                } else if (op == Opcode.BINARY) {
-                    byte[] bytes = new byte[frame.getPayload().remaining()];
-                    frame.getPayload().get(bytes);
-                    listener.onMessage(this, bytes);
+                if (!op.isControl()) {
+                    chargeInbound(frame.getPayload().remaining());
+                    TrafficHitters hitters = config.metrics.getTrafficHitters();
+                    if (hitters != null) {
+                        hitters.inbound(this, trafficAddress, frame.getPayload().remaining());
+                    }
+                }
+                ByteBuffer payload = frame.getPayload();
+                if (op == Opcode.BINARY && requests != null && Envelope.isReply(payload)
+                        && requests.complete(Envelope.correlationId(payload), Envelope.payload(payload))) {
+                    // Completed a pending request; anything else that looks like a reply is a message
+                } else if (op == Opcode.TEXT || op == Opcode.BINARY) {
+                    deliver(frame.getPayload().asReadOnlyBuffer(), op == Opcode.TEXT);
                 } else if (op == Opcode.CLOSE) {
                     close(1000, "Client Close");
                     return;
@@ -177,70 +433,793 @@ public class NioWebSocketSession implements WebSocketSession {
         }
     }
 
+    private void deliver(ByteBuffer payload, boolean text) throws WebSocketProtocolException {
+        ListenerCallbackEvent event = new ListenerCallbackEvent();
+        event.begin();
+        int length = payload.remaining();
+        MessageCodec<Object> codec = subprotocol == null ? null : subprotocol.codec();
+        if (codec != null) {
+            Object message;
+            try {
+                message = codec.decode(payload, text);
+            } catch (RuntimeException e) {
+                throw new WebSocketProtocolException(WebSocketProtocolException.INVALID_PAYLOAD,
+                        "Undecodable " + subprotocol.name() + " message");
+            }
+            config.listener.onDecoded(this, message);
+        } else {
+            config.listener.onMessage(this, payload, text);
+        }
+        if (event.shouldCommit()) {
+            event.sessionId = getId();
+            event.callback = codec != null ? "onDecoded" : "onMessage";
+            event.payloadLength = length;
+            event.commit();
+        }
+    }
+
+    /**
+     * Charges a data message against the inbound budget. Once over budget the session is marked
+     * THROTTLED: the current message is still delivered, the rest of the input stays buffered, and
+     * the SubPoller holds off reading until the budget has refilled.
+     */
+    private void chargeInbound(int payloadBytes) {
+        InboundLimits limits = config.inboundLimits;
+        if (!limits.isRateLimited()) return;
+        if (budget == null) {
+            budget = new InboundBudget(limits, System.nanoTime());
+        }
+        if (!budget.consume(payloadBytes) && trySetFlag(THROTTLED)) {
+            config.metrics.sessionThrottled();
+        }
+    }
+
+    boolean isThrottled() {
+        return hasFlag(THROTTLED);
+    }
+
+    /**
+     * Nanoseconds until a throttled session has paid back its inbound debt. Must only be called by
+     * the thread that just finished {@link #handleRead()}.
+     */
+    long throttleDelayNanos() {
+        return budget == null ? 0 : budget.delayNanos(System.nanoTime());
+    }
+
     @Override
     public void send(String text) throws IOException {
-        if (!open.get()) return;
-        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
-        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT, ByteBuffer.wrap(bytes), false, null);
-        sendFrame(frame);
+        send((CharSequence) text);
+    }
+
+    @Override
+    public void send(CharSequence text) throws IOException {
+        if (!hasFlag(OPEN)) return;
+        sendEncoded(FrameCodec.encodeText(text), Opcode.TEXT, null);
     }
 
     @Override
     public void send(byte[] data) throws IOException {
-        if (!open.get()) return;
+        if (!hasFlag(OPEN)) return;
         WebSocketFrame frame = new WebSocketFrame(true, Opcode.BINARY, ByteBuffer.wrap(data), false, null);
         sendFrame(frame);
     }
 
+    @Override
+    public void send(ByteBuffer data) throws IOException {
+        send(new ByteBuffer[]{data});
+    }
+
+    @Override
+    public void sendLatest(String key, String text) throws IOException {
+        if (!hasFlag(OPEN)) return;
+        sendEncoded(FrameCodec.encodeText(text), Opcode.TEXT, key);
+    }
+
+    @Override
+    public void sendLatest(String key, ByteBuffer data) throws IOException {
+        if (!hasFlag(OPEN)) return;
+        sendFrame(new WebSocketFrame(true, Opcode.BINARY, data, false, null), key);
+    }
+
+    @Override
+    public void send(ByteBuffer[] data) throws IOException {
+        if (!hasFlag(OPEN)) return;
+        // Header plus duplicates of the caller's buffers: positions stay untouched, payload is never copied
+        ByteBuffer[] srcs = new ByteBuffer[data.length + 1];
+        long payloadLen = 0;
+        for (int i = 0; i < data.length; i++) {
+            srcs[i + 1] = data[i].duplicate();
+            payloadLen += data[i].remaining();
+        }
+        ByteBuffer header = BufferPool.acquire();
+        try {
+            FrameCodec.encodeHeader(header, true, Opcode.BINARY, payloadLen);
+            header.flip();
+            srcs[0] = header;
+            acquireWrite();
+            try {
+                if (!hasFlag(OPEN)) return;
+                config.metrics.frameSent();
+                recordOutbound((int) (header.remaining() + payloadLen));
+                if (isBatching()) {
+                    // Queued frames must own their bytes, so this path copies once into an encoded buffer
+                    ByteBuffer encoded = BufferPool.allocate((int) (header.remaining() + payloadLen));
+                    for (ByteBuffer src : srcs) {
+                        encoded.put(src);
+                    }
+                    enqueue(encoded.flip(), null);
+                } else if (config.outboundLimits.isNonBlocking()) {
+                    writeOrQueue(srcs, header.remaining() + payloadLen, null);
+                } else {
+                    writeFully(srcs, header.remaining() + payloadLen);
+                }
+            } finally {
+                releaseWrite();
+            }
+        } finally {
+            BufferPool.release(header);
+        }
+    }
+
+    @Override
+    public void sendPreEncoded(ByteBuffer frames) throws IOException {
+        if (!hasFlag(OPEN)) return;
+        ByteBuffer src = frames.duplicate();
+        acquireWrite();
+        try {
+            if (!hasFlag(OPEN)) return;
+            config.metrics.framesSent(OutboundQueue.countFrames(src));
+            recordOutbound(src.remaining());
+            boolean nonBlocking = config.outboundLimits.isNonBlocking();
+            // A read-only run (a mapped journal segment) never changes, so it is queued as a view, not copied
+            boolean view = src.isReadOnly();
+            if (isBatching() && (nonBlocking || src.remaining() <= BufferPool.BUFFER_SIZE)) {
+                enqueue(view ? src : BufferPool.allocate(src.remaining()).put(src).flip(), null);
+            } else if (nonBlocking && view) {
+                writeOrQueueView(src);
+            } else if (nonBlocking) {
+                writeOrQueue(new ByteBuffer[]{src}, src.remaining(), null);
+            } else {
+                // Large runs go straight from the caller's (often mapped) buffer, after anything queued
+                drainOutbound();
+                writeFully(src);
+            }
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    @Override
+    public void sendFile(FileChannel file, long position, long count, long fragmentSize) throws IOException {
+        if (position < 0 || count < 0 || fragmentSize < 0 || position + count > file.size()) {
+            throw new IllegalArgumentException("Region " + position + "+" + count + " is not within the file");
+        }
+        requireBlockingPolicy("sendFile");
+        if (!beginStreaming()) return;
+        long fragment = fragmentSize == 0 ? Math.max(count, 1) : fragmentSize;
+        recordOutbound((int) Math.min(count, Integer.MAX_VALUE));
+        ByteBuffer header = BufferPool.acquire();
+        IOException failure = null;
+        try {
+            long offset = 0;
+            do {
+                long length = Math.min(fragment, count - offset);
+                boolean fin = offset + length == count;
+                acquireFragmentWrite();
+                try {
+                    // Closed between fragments: the close frame has ended the message
+                    if (!hasFlag(OPEN)) return;
+                    // Only control frames (pongs queued by a read batch) can have been queued since
+                    drainOutbound();
+                    header.clear();
+                    FrameCodec.encodeHeader(header, fin, offset == 0 ? Opcode.BINARY : Opcode.CONTINUATION, length);
+                    writeFully(header.flip());
+                    transferFully(file, position + offset, length);
+                } finally {
+                    releaseWrite();
+                }
+                offset += length;
+            } while (offset < count);
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            clearFlag(STREAMING);
+            BufferPool.release(header);
+        }
+        if (failure != null) {
+            abandonMessage(failure);
+            throw failure;
+        }
+    }
+
+    @Override
+    public void sendStream(InputStream in) throws IOException {
+        requireBlockingPolicy("sendStream");
+        if (!beginStreaming()) return;
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer header = BufferPool.acquire();
+        ByteBuffer payload = BufferPool.acquire();
+        IOException failure = null;
+        try {
+            long total = 0;
+            boolean first = true;
+            boolean end = false;
+            while (!end) {
+                // Fill the buffer completely (without the write side): only a short fragment is known to be the last one
+                payload.clear();
+                while (payload.hasRemaining()) {
+                    if (source.read(payload) == -1) {
+                        end = true;
+                        break;
+                    }
+                }
+                payload.flip();
+                header.clear();
+                FrameCodec.encodeHeader(header, end, first ? Opcode.BINARY : Opcode.CONTINUATION, payload.remaining());
+                total += payload.remaining();
+                acquireFragmentWrite();
+                try {
+                    if (!hasFlag(OPEN)) return;
+                    drainOutbound();
+                    writeFully(new ByteBuffer[]{header.flip(), payload}, header.remaining() + payload.remaining());
+                } finally {
+                    releaseWrite();
+                }
+                first = false;
+            }
+            recordOutbound((int) Math.min(total, Integer.MAX_VALUE));
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            clearFlag(STREAMING);
+            BufferPool.release(header);
+            BufferPool.release(payload);
+        }
+        if (failure != null) {
+            abandonMessage(failure);
+            throw failure;
+        }
+    }
+
+    /**
+     * sendFile and sendStream block until the client has read the message, which only the BLOCK
+     * policy allows; a partly sent message can be neither queued, conflated nor dropped.
+     */
+    private void requireBlockingPolicy(String method) {
+        OutboundLimits limits = config.outboundLimits;
+        if (limits.isNonBlocking()) {
+            throw new IllegalStateException(method + " blocks while the client reads and is not available under the "
+                    + limits.getPolicy() + " slow-consumer policy");
+        }
+    }
+
+    /**
+     * Starts a streamed message once earlier data frames (and any other streamed message) are out.
+     * The write side is then released between fragments, so pongs and a close frame can go in
+     * between while other data frames wait for {@link #STREAMING} to clear.
+     *
+     * @return false if the session is closed
+     */
+    private boolean beginStreaming() throws IOException {
+        acquireWrite();
+        try {
+            if (!hasFlag(OPEN)) return false;
+            config.metrics.frameSent();
+            drainOutbound();
+            setFlag(STREAMING);
+            return true;
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    /**
+     * Gives up on a message that may be partly on the wire: nothing can follow half a frame or an
+     * unfinished fragmented message, not even a close frame, so the socket is closed before the
+     * session is.
+     */
+    private void abandonMessage(IOException cause) {
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+        onFailure(cause);
+    }
+
+    private void transferFully(FileChannel file, long position, long count) throws IOException {
+        WriteStallEvent stall = null;
+        long remaining = count;
+        while (remaining > 0) {
+            config.metrics.writeCall();
+            long written = file.transferTo(position, remaining, channel);
+            if (written == 0) {
+                if (position >= file.size()) {
+                    throw new EOFException("File truncated during send");
+                }
+                stall = stalled(stall);
+            }
+            position += written;
+            remaining -= written;
+        }
+        endStall(stall, count);
+    }
+
+    @Override
+    public void sendObject(Object message) throws IOException {
+        MessageCodec<Object> codec = subprotocol == null ? null : subprotocol.codec();
+        if (codec == null) {
+            throw new IllegalStateException("No subprotocol codec negotiated for this session");
+        }
+        if (!hasFlag(OPEN)) return;
+        sendEncoded(FrameCodec.encodeMessage(codec, message, config.maxFramePayload),
+                codec.isText() ? Opcode.TEXT : Opcode.BINARY, null);
+    }
+
+    @Override
+    public CompletableFuture<ByteBuffer> request(ByteBuffer payload, Duration timeout) {
+        PendingRequests table = pendingRequests();
+        PendingRequests.Pending pending = table.register(timeout);
+        if (pending.isDone()) return pending;
+        try {
+            send(new ByteBuffer[]{Envelope.header(Envelope.REQUEST, pending.getId()), payload});
+        } catch (IOException e) {
+            table.fail(pending, e);
+        }
+        return pending;
+    }
+
+    private PendingRequests pendingRequests() {
+        PendingRequests table = requests;
+        if (table == null) {
+            synchronized (this) {
+                table = requests;
+                if (table == null) {
+                    table = new PendingRequests(TimerWheel.shared(), config.metrics);
+                    requests = table;
+                    if (!hasFlag(OPEN)) {
+                        // Closed before the table existed: close() had nothing to fail
+                        table.failAll(new IOException("Session closed"));
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    private void failRequests() {
+        PendingRequests table = requests;
+        if (table != null) {
+            table.failAll(new IOException("Session closed"));
+        }
+    }
+
+    @Override
+    public void cork() {
+        setFlag(CORKED);
+    }
+
+    @Override
+    public void uncork() throws IOException {
+        if (clearFlag(CORKED) && !hasFlag(BATCHING)) {
+            scheduleFlush();
+        }
+    }
+
     private void sendPong(ByteBuffer payload) throws IOException {
         WebSocketFrame frame = new WebSocketFrame(true, Opcode.PONG, payload, false, null);
         sendFrame(frame);
     }
 
     private void sendFrame(WebSocketFrame frame) throws IOException {
-        ByteBuffer encoded = FrameCodec.encode(frame);
+        sendFrame(frame, null);
+    }
+
+    /**
+     * @param key if not null, the frame replaces an unsent frame queued under the same key
+     */
+    private void sendFrame(WebSocketFrame frame, String key) throws IOException {
+        sendEncoded(FrameCodec.encode(frame), frame.getOpcode(), key);
+    }
+
+    private void recordOutbound(int frameBytes) {
+        TrafficHitters hitters = config.metrics.getTrafficHitters();
+        if (hitters != null) {
+            hitters.outbound(this, trafficAddress, frameBytes);
+        }
+    }
+
+    /**
+     * Writes or queues a frame encoded into a pooled buffer, which this call takes ownership of.
+     */
+    private void sendEncoded(ByteBuffer encoded, Opcode opcode, String key) throws IOException {
+        boolean closing = opcode == Opcode.CLOSE;
+        boolean queued = false;
         try {
-            writeLock.lock();
+            if (opcode.isControl()) {
+                acquireControlWrite();
+            } else {
+                acquireWrite();
+            }
             try {
-                if (!open.get() && frame.getOpcode() != Opcode.CLOSE) return;
-                while (encoded.hasRemaining()) {
-                    int written = channel.write(encoded);
-                    if (written == 0 && encoded.hasRemaining()) {
-                        Thread.yield();
-                    }
+                if (!hasFlag(OPEN) && !closing) return;
+                config.metrics.frameSent();
+                recordOutbound(encoded.remaining());
+                if (!closing && isBatching()) {
+                    queued = true;
+                    enqueue(encoded, key);
+                    return;
+                }
+                if (!closing && config.outboundLimits.isNonBlocking()) {
+                    writeOrQueue(new ByteBuffer[]{encoded}, encoded.remaining(), key);
+                    return;
                 }
+                // A close frame goes out after everything queued before it
+                drainOutbound();
+                writeFully(encoded);
             } finally {
-                writeLock.unlock();
+                releaseWrite();
             }
         } finally {
-            BufferPool.release(encoded);
+            if (!queued) {
+                BufferPool.release(encoded);
+            }
+        }
+    }
+
+    /**
+     * True if a frame must go through the outbound queue rather than straight to the socket:
+     * the session is corked, inside a read batch, or still has earlier frames pending.
+     * Caller must own the write side.
+     */
+    private boolean isBatching() {
+        return hasFlag(CORKED | BATCHING) || outbound != null;
+    }
+
+    /**
+     * Queues an encoded frame, taking ownership of the buffer, and applies the slow-consumer policy
+     * once the backlog is over its limit. Caller must own the write side.
+     */
+    private void enqueue(ByteBuffer encoded, String key) throws IOException {
+        if (outbound == null) {
+            outbound = new OutboundQueue();
+        }
+        if (outbound.add(encoded, key)) {
+            config.metrics.messageConflated();
+        }
+        OutboundLimits limits = config.outboundLimits;
+        if (outbound.pendingBytes() >= limits.getMaxPendingBytes()) {
+            switch (limits.getPolicy()) {
+                case BLOCK -> {
+                    drainOutbound();
+                    return;
+                }
+                case CONFLATE -> {
+                    // Keyed sends are bounded by the number of keys; anything else waits for the client
+                    if (key == null) {
+                        drainOutbound();
+                        return;
+                    }
+                }
+                case DROP_OLDEST -> config.metrics.messagesDropped(outbound.dropOldest(limits.getMaxPendingBytes()));
+                case DISCONNECT -> {
+                    disconnectSlowConsumer();
+                    return;
+                }
+            }
+        }
+        if (!hasFlag(CORKED | BATCHING)) {
+            // Earlier frames are still waiting on a partial write; the poller picks these up with them
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * One non-blocking gathering write; whatever the socket does not take is copied into the
+     * outbound queue for the poller to finish. Caller must own the write side.
+     */
+    private void writeOrQueue(ByteBuffer[] srcs, long length, String key) throws IOException {
+        config.metrics.writeCall();
+        long remaining = length - channel.write(srcs);
+        if (remaining == 0) return;
+        ByteBuffer rest = BufferPool.allocate((int) remaining);
+        for (ByteBuffer src : srcs) {
+            rest.put(src);
+        }
+        rest.flip();
+        if (remaining == length) {
+            enqueue(rest, key);
+            return;
+        }
+        // Once part of the frame is on the wire it can no longer be replaced or dropped
+        outbound = new OutboundQueue();
+        outbound.addRemainder(rest);
+        scheduleFlush();
+    }
+
+    /**
+     * Like {@link #writeOrQueue} for a buffer whose bytes never change: the unwritten rest is queued
+     * as is instead of being copied. Caller must own the write side.
+     */
+    private void writeOrQueueView(ByteBuffer src) throws IOException {
+        config.metrics.writeCall();
+        int length = src.remaining();
+        channel.write(src);
+        if (!src.hasRemaining()) return;
+        if (src.remaining() == length) {
+            enqueue(src, null);
+            return;
+        }
+        outbound = new OutboundQueue();
+        outbound.addRemainder(src);
+        scheduleFlush();
+    }
+
+    /**
+     * Closes a session that fell further behind than the DISCONNECT policy allows. Nothing more is
+     * written; the close completes on another thread because it needs the write side held by the caller.
+     */
+    private void disconnectSlowConsumer() {
+        if (markClosing()) {
+            config.metrics.slowConsumerDisconnected();
+            Thread.startVirtualThread(() -> completeClose(1008, "Slow consumer"));
+        }
+    }
+
+    /**
+     * Hands the session to its SubPoller's flush pass, at most once until that flush has run.
+     * Standalone sessions have no poller and flush inline.
+     */
+    private void scheduleFlush() throws IOException {
+        SubPoller p = poller;
+        if (p == null) {
+            flushPending();
+        } else if (trySetFlag(FLUSH_SCHEDULED)) {
+            p.scheduleFlush(this);
+        }
+    }
+
+    /**
+     * Blocking flush of everything queued so far.
+     */
+    private void flushPending() throws IOException {
+        acquireWrite();
+        try {
+            drainOutbound();
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    /**
+     * Writes out the outbound queue, yielding while the socket is full. Caller must own the write side.
+     */
+    private void drainOutbound() throws IOException {
+        OutboundQueue queue = outbound;
+        if (queue == null) return;
+        WriteStallEvent stall = null;
+        long bytes = queue.pendingBytes();
+        while (!queue.isEmpty()) {
+            config.metrics.writeCall();
+            if (queue.writeTo(channel) == 0) {
+                stall = stalled(stall);
+            }
+        }
+        outbound = null;
+        endStall(stall, bytes);
+    }
+
+    /**
+     * Non-blocking flush, run by the SubPoller at the end of an event-loop iteration or when the
+     * socket turns writable: one gathering write covering every frame queued since the last flush.
+     *
+     * @return {@link #FLUSH_DONE}, {@link #FLUSH_PARTIAL} if the socket buffer filled up, or
+     *         {@link #FLUSH_BUSY} if another thread owns the write side
+     */
+    int tryFlush() throws IOException {
+        if (!tryAcquireWrite()) return FLUSH_BUSY;
+        try {
+            clearFlag(FLUSH_SCHEDULED);
+            OutboundQueue queue = outbound;
+            // Corked again since the flush was scheduled: the next uncork schedules another one
+            if (queue == null || hasFlag(CORKED | BATCHING)) return FLUSH_DONE;
+            config.metrics.writeCall();
+            queue.writeTo(channel);
+            if (!queue.isEmpty()) return FLUSH_PARTIAL;
+            outbound = null;
+            return FLUSH_DONE;
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        WriteStallEvent stall = null;
+        long bytes = src.remaining();
+        while (src.hasRemaining()) {
+            config.metrics.writeCall();
+            if (channel.write(src) == 0) {
+                stall = stalled(stall);
+            }
+        }
+        endStall(stall, bytes);
+    }
+
+    /**
+     * Gathering write of exactly {@code length} bytes. Caller must own the write side.
+     */
+    private void writeFully(ByteBuffer[] srcs, long length) throws IOException {
+        WriteStallEvent stall = null;
+        long bytes = length;
+        while (length > 0) {
+            config.metrics.writeCall();
+            long written = channel.write(srcs);
+            length -= written;
+            if (written == 0) {
+                stall = stalled(stall);
+            }
+        }
+        endStall(stall, bytes);
+    }
+
+    /**
+     * Yields after a zero-byte write; the first one of a send starts timing the stall.
+     */
+    private static WriteStallEvent stalled(WriteStallEvent stall) {
+        if (stall == null) {
+            stall = new WriteStallEvent();
+            stall.begin();
+        }
+        stall.retries++;
+        Thread.yield();
+        return stall;
+    }
+
+    private void endStall(WriteStallEvent stall, long bytes) {
+        if (stall != null && stall.shouldCommit()) {
+            stall.sessionId = getId();
+            stall.bytes = bytes;
+            stall.commit();
         }
     }
 
     @Override
     public void close(int code, String reason) throws IOException {
-        if (open.compareAndSet(true, false)) {
+        if (clearFlag(OPEN)) {
+            SessionCloseEvent.emit(this, code, reason);
             try {
-                byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
-                ByteBuffer payload = ByteBuffer.allocate(2 + reasonBytes.length);
-                payload.putShort((short) code);
-                payload.put(reasonBytes);
-                payload.flip();
-                sendFrame(new WebSocketFrame(true, Opcode.CLOSE, payload));
+                sendFrame(new WebSocketFrame(true, Opcode.CLOSE, FrameCodec.closePayload(code, reason)));
             } catch (Exception ignore) {
             } finally {
                 try {
-                    listener.onClose(this, code, reason);
+                    config.listener.onClose(this, code, reason);
                 } finally {
+                    releaseThrottle();
+                    releaseId();
                     channel.close();
+                    channelClosed();
+                    releaseOutbound();
+                    failRequests();
                 }
             }
         }
     }
 
+    /**
+     * Marks the session closed without writing anything, so a server-initiated close
+     * can be driven by the owning SubPoller. Returns false if the session was already closed.
+     */
+    boolean markClosing() {
+        return clearFlag(OPEN);
+    }
+
+    /**
+     * Non-blocking write of a pre-encoded frame, used while draining.
+     * Returns true once the frame is fully written (or the channel is gone), false if it
+     * must be retried because the socket buffer is full or another thread owns the write side.
+     */
+    boolean tryWriteEncoded(ByteBuffer encoded) {
+        if (!tryAcquireWrite()) return false;
+        try {
+            // Frames queued before the close frame go first
+            OutboundQueue queue = outbound;
+            if (queue != null) {
+                queue.writeTo(channel);
+                if (!queue.isEmpty()) return false;
+                outbound = null;
+            }
+            channel.write(encoded);
+            return !encoded.hasRemaining();
+        } catch (IOException e) {
+            return true;
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    /**
+     * Completes a close started with {@link #markClosing()}: releases the socket and notifies
+     * the listener on a virtual thread so a slow callback never stalls the poller.
+     */
+    void completeClose(int code, String reason) {
+        SessionCloseEvent.emit(this, code, reason);
+        releaseThrottle();
+        releaseId();
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+        channelClosed();
+        releaseOutbound();
+        failRequests();
+        Thread.startVirtualThread(() -> config.listener.onClose(this, code, reason));
+    }
+
+    private void releaseThrottle() {
+        if (clearFlag(THROTTLED)) {
+            config.metrics.sessionUnthrottled();
+        }
+    }
+
+    /**
+     * Returns unsent frames to the pool. Runs after the channel is closed, so a writer stuck on a
+     * full socket fails fast and gives up the write side.
+     */
+    private void releaseOutbound() {
+        acquireWrite();
+        try {
+            if (outbound != null) {
+                outbound.release();
+                outbound = null;
+            }
+        } finally {
+            releaseWrite();
+        }
+    }
+
+    private void channelClosed() {
+        if (config.channelClosed != null) {
+            config.channelClosed.accept(this);
+        }
+    }
+
+    private void releaseId() {
+        if (config.sessions != null) {
+            config.sessions.remove(this);
+        }
+        if (config.admission != null) {
+            config.admission.release(admissionTicket);
+        }
+    }
+
+    @Override
+    public String getSubprotocol() {
+        return subprotocol == null ? null : subprotocol.name();
+    }
+
+    void setSubprotocol(Subprotocol subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
+    void setAdmissionTicket(int admissionTicket) {
+        this.admissionTicket = admissionTicket;
+    }
+
+    /**
+     * Attributes this session's traffic to the client address in heavy-hitter tracking.
+     */
+    void setTrafficAddress(InetAddress address) {
+        this.trafficAddress = address;
+    }
+
+    void setPoller(SubPoller poller) {
+        this.poller = poller;
+    }
+
+    SubPoller getPoller() {
+        return poller;
+    }
+
     @Override
     public boolean isOpen() {
-        return open.get();
+        return hasFlag(OPEN);
     }
 
     public SocketChannel getChannel() {
@@ -248,7 +1227,11 @@ public class NioWebSocketSession implements WebSocketSession {
     }
 
     public void setHandshaked(boolean handshaked) {
-        this.handshaked = handshaked;
+        if (handshaked) {
+            setFlag(HANDSHAKED);
+        } else {
+            clearFlag(HANDSHAKED);
+        }
     }
 
     @Override
@@ -0,0 +1,39 @@
+package com.eaze.websocket.core.nio;
+
+/**
+ * Per-session outbound backlog limit and what to do with a client that cannot keep up with it.
+ */
+public final class OutboundLimits {
+    /** Sends block once 256 KB are waiting, as before slow-consumer policies existed. */
+    public static final OutboundLimits DEFAULT = new OutboundLimits(SlowConsumerPolicy.BLOCK, 256 * 1024);
+
+    private final SlowConsumerPolicy policy;
+    private final int maxPendingBytes;
+
+    /**
+     * @param policy          applied when a send leaves more than {@code maxPendingBytes} unsent
+     * @param maxPendingBytes encoded bytes that may wait for the socket before the policy applies
+     */
+    public OutboundLimits(SlowConsumerPolicy policy, int maxPendingBytes) {
+        if (maxPendingBytes <= 0) {
+            throw new IllegalArgumentException("maxPendingBytes must be positive");
+        }
+        this.policy = policy;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    /**
+     * True if sends must never wait on the socket.
+     */
+    boolean isNonBlocking() {
+        return policy != SlowConsumerPolicy.BLOCK;
+    }
+}
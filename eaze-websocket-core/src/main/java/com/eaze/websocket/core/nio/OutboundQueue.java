@@ -0,0 +1,261 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoded frames waiting to be written for one session, in order. Small frames are coalesced into
+ * the last pooled buffer, so a burst of small sends drains with a single gathering write.
+ *
+ * Read-only entries are views of data the session does not own (mapped journal segments): they
+ * are written from in place and never coalesced into or returned to the pool.
+ *
+ * Keyed frames get an exact-size entry of their own and are indexed by key: a newer frame with the
+ * same key replaces the unsent one in place, so a slow client receives the latest value per key in
+ * the order the keys were first queued. A frame whose first bytes are already on the wire is never
+ * replaced or dropped.
+ *
+ * Not thread-safe: only used by the thread that owns the session's write side. Allocated lazily
+ * when the first frame has to be queued and dropped once drained, so idle sessions pay nothing.
+ */
+final class OutboundQueue {
+    private ByteBuffer[] buffers = new ByteBuffer[4];
+    // Parallel to buffers: the key of a replaceable keyed entry, null otherwise
+    private Object[] keys = new Object[4];
+    // Parallel to buffers: position of the entry's first byte when queued, or -1 for the rest of a
+    // frame that was already partly on the wire. Encoded frames do not always start at position 0.
+    private int[] starts = new int[4];
+    // Key to slot; allocated with the first keyed frame
+    private Map<Object, Integer> slots;
+    private int head;
+    private int tail;
+    private long pendingBytes;
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Queues an encoded frame (in read mode) and takes ownership of it: the buffer is either kept
+     * until written or copied into the tail buffer and returned to the pool immediately.
+     */
+    void add(ByteBuffer encoded) {
+        int length = encoded.remaining();
+        pendingBytes += length;
+        if (tail > head && keys[tail - 1] == null) {
+            ByteBuffer last = buffers[tail - 1];
+            if (!last.isReadOnly() && last.capacity() == BufferPool.BUFFER_SIZE && last.capacity() - last.limit() >= length) {
+                int pos = last.position();
+                last.position(last.limit()).limit(last.capacity());
+                last.put(encoded);
+                last.limit(last.position()).position(pos);
+                BufferPool.release(encoded);
+                return;
+            }
+        }
+        if (tail == buffers.length) {
+            grow();
+        }
+        starts[tail] = encoded.position();
+        buffers[tail++] = encoded;
+    }
+
+    /**
+     * Queues the unwritten rest of a frame whose first bytes are already on the wire. Like
+     * {@link #add(ByteBuffer)} it takes ownership; the entry is never replaced or dropped.
+     */
+    void addRemainder(ByteBuffer rest) {
+        pendingBytes += rest.remaining();
+        if (tail == buffers.length) {
+            grow();
+        }
+        starts[tail] = -1;
+        buffers[tail++] = rest;
+    }
+
+    /**
+     * True if some of the entry has been written, or it is the rest of a partly written frame.
+     */
+    private boolean isStarted(int index) {
+        return starts[index] < 0 || buffers[index].position() != starts[index];
+    }
+
+    /**
+     * Queues an encoded frame (in read mode) under a key, replacing an unsent frame with the same
+     * key. Takes ownership of the buffer: it is copied into an exact-size entry and returned to the pool.
+     *
+     * @return true if an unsent frame was replaced
+     */
+    boolean add(ByteBuffer encoded, Object key) {
+        if (key == null) {
+            add(encoded);
+            return false;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(encoded.remaining()).put(encoded).flip();
+        BufferPool.release(encoded);
+        if (slots == null) {
+            slots = new HashMap<>();
+        }
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            ByteBuffer old = buffers[slot];
+            if (!isStarted(slot)) {
+                pendingBytes += copy.remaining() - old.remaining();
+                buffers[slot] = copy;
+                return true;
+            }
+            // Already partly written: it has to finish, so the newer frame queues behind it
+            keys[slot] = null;
+        }
+        if (tail == buffers.length) {
+            grow();
+        }
+        pendingBytes += copy.remaining();
+        starts[tail] = 0;
+        buffers[tail] = copy;
+        keys[tail] = key;
+        slots.put(key, tail++);
+        return false;
+    }
+
+    /**
+     * Discards whole entries from the front until at most {@code maxBytes} are pending. A head
+     * entry that is partly written is kept so the client never sees a truncated frame.
+     *
+     * @return the number of frames discarded
+     */
+    int dropOldest(long maxBytes) {
+        int first = head;
+        if (first < tail && isStarted(first)) {
+            first++;
+        }
+        int end = first;
+        int frames = 0;
+        while (pendingBytes > maxBytes && end < tail) {
+            ByteBuffer dropped = buffers[end];
+            pendingBytes -= dropped.remaining();
+            frames += countFrames(dropped);
+            if (keys[end] != null) {
+                slots.remove(keys[end]);
+            }
+            BufferPool.release(dropped);
+            end++;
+        }
+        int removed = end - first;
+        if (removed > 0) {
+            System.arraycopy(buffers, end, buffers, first, tail - end);
+            System.arraycopy(keys, end, keys, first, tail - end);
+            System.arraycopy(starts, end, starts, first, tail - end);
+            Arrays.fill(buffers, tail - removed, tail, null);
+            Arrays.fill(keys, tail - removed, tail, null);
+            tail -= removed;
+            reindex(first);
+        }
+        return frames;
+    }
+
+    /**
+     * Counts the unmasked frames in a buffer that starts on a frame boundary.
+     */
+    static int countFrames(ByteBuffer buffer) {
+        int count = 0;
+        int pos = buffer.position();
+        while (pos < buffer.limit()) {
+            int length = buffer.get(pos + 1) & 0x7F;
+            if (length == 126) {
+                pos += 4 + (buffer.getShort(pos + 2) & 0xFFFF);
+            } else if (length == 127) {
+                pos += 10 + (int) buffer.getLong(pos + 2);
+            } else {
+                pos += 2 + length;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void reindex(int from) {
+        if (slots == null) return;
+        for (int i = from; i < tail; i++) {
+            if (keys[i] != null) {
+                slots.put(keys[i], i);
+            }
+        }
+    }
+
+    /**
+     * One gathering write of everything pending; fully written buffers go back to the pool.
+     *
+     * @return bytes written
+     */
+    long writeTo(GatheringByteChannel channel) throws IOException {
+        if (isEmpty()) return 0;
+        long written = channel.write(buffers, head, tail - head);
+        pendingBytes -= written;
+        while (head < tail && !buffers[head].hasRemaining()) {
+            BufferPool.release(buffers[head]);
+            buffers[head] = null;
+            if (keys[head] != null) {
+                slots.remove(keys[head]);
+                keys[head] = null;
+            }
+            head++;
+        }
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        }
+        return written;
+    }
+
+    /**
+     * Returns all pending buffers to the pool without writing them.
+     */
+    void release() {
+        for (int i = head; i < tail; i++) {
+            BufferPool.release(buffers[i]);
+            buffers[i] = null;
+            keys[i] = null;
+        }
+        if (slots != null) {
+            slots.clear();
+        }
+        head = 0;
+        tail = 0;
+        pendingBytes = 0;
+    }
+
+    private void grow() {
+        int count = tail - head;
+        boolean larger = count * 2 > buffers.length;
+        ByteBuffer[] target = larger ? new ByteBuffer[buffers.length * 2] : buffers;
+        Object[] targetKeys = larger ? new Object[buffers.length * 2] : keys;
+        int[] targetStarts = larger ? new int[buffers.length * 2] : starts;
+        System.arraycopy(buffers, head, target, 0, count);
+        System.arraycopy(keys, head, targetKeys, 0, count);
+        System.arraycopy(starts, head, targetStarts, 0, count);
+        if (!larger) {
+            Arrays.fill(buffers, count, tail, null);
+            Arrays.fill(keys, count, tail, null);
+        }
+        buffers = target;
+        keys = targetKeys;
+        starts = targetStarts;
+        int shift = head;
+        head = 0;
+        tail = count;
+        if (shift > 0) {
+            reindex(0);
+        }
+    }
+}
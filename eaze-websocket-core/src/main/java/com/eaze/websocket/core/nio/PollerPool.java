@@ -0,0 +1,186 @@
+package com.eaze.websocket.core.nio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The server's SubPollers. New sessions are spread round-robin over the active pollers, read
+ * from a volatile copy-on-write array so the accept path takes no lock. With a non-fixed
+ * {@link PollerScaling}, a scaler thread adds a poller while the pool is busy and retires one
+ * while it is idle; a retired poller hands its sessions over to the active ones and exits once
+ * it owns none.
+ */
+final class PollerPool {
+    private final Object lock = new Object();
+    private volatile SubPoller[] active;
+    private final AtomicInteger nextPoller = new AtomicInteger();
+
+    // Guarded by lock
+    private final List<SubPoller> retiring = new ArrayList<>();
+    private PollerScaling scaling;
+    private int nextIndex;
+    private boolean stopped;
+    private Thread scaler;
+
+    // Scaler thread only: when utilization first dropped below the scale-down threshold, -1 if it is not low
+    private long lowSinceNanos = -1;
+
+    PollerPool(int pollers) throws IOException {
+        SubPoller[] initial = new SubPoller[pollers];
+        for (int i = 0; i < pollers; i++) {
+            initial[i] = new SubPoller(nextIndex++);
+        }
+        this.active = initial;
+        this.scaling = PollerScaling.fixed(pollers);
+    }
+
+    /**
+     * The poller for the next new session.
+     */
+    SubPoller next() {
+        SubPoller[] pollers = active;
+        return pollers[Math.abs(nextPoller.getAndIncrement() % pollers.length)];
+    }
+
+    SubPoller[] active() {
+        return active;
+    }
+
+    /**
+     * Applies new bounds, starting or retiring pollers right away if the current size is outside them.
+     */
+    void setScaling(PollerScaling scaling) throws IOException {
+        synchronized (lock) {
+            this.scaling = scaling;
+            while (active.length < scaling.getMinPollers()) {
+                grow();
+            }
+            while (active.length > scaling.getMaxPollers()) {
+                retire();
+            }
+        }
+    }
+
+    /**
+     * True if the pool may resize itself once started.
+     */
+    boolean isScaling() {
+        synchronized (lock) {
+            return !scaling.isFixed();
+        }
+    }
+
+    void start() {
+        synchronized (lock) {
+            if (!scaling.isFixed() && scaler == null && !stopped) {
+                scaler = Thread.ofPlatform().name("Eaze-PollerScaler").daemon().start(this::runScaler);
+            }
+        }
+    }
+
+    private void runScaler() {
+        while (true) {
+            PollerScaling current;
+            synchronized (lock) {
+                if (stopped) return;
+                current = scaling;
+            }
+            try {
+                Thread.sleep(current.getInterval());
+                rebalance(System.nanoTime());
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Poller scaling error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One scaling decision based on the pollers' average utilization. Grows by one poller at a
+     * time; shrinks only if the remaining pollers would stay below the scale-up threshold, and
+     * never while a previous retirement is still migrating sessions.
+     */
+    void rebalance(long now) throws IOException {
+        synchronized (lock) {
+            if (stopped) return;
+            SubPoller[] pollers = active;
+            double total = 0;
+            for (SubPoller poller : pollers) {
+                total += poller.getUtilization();
+            }
+            double average = total / pollers.length;
+            if (average > scaling.getScaleUpUtilization() && pollers.length < scaling.getMaxPollers()) {
+                grow();
+                lowSinceNanos = -1;
+            } else if (average < scaling.getScaleDownUtilization() && pollers.length > scaling.getMinPollers()
+                    && retiring.isEmpty() && total / (pollers.length - 1) < scaling.getScaleUpUtilization()) {
+                if (lowSinceNanos == -1) {
+                    lowSinceNanos = now;
+                }
+                if (now - lowSinceNanos >= scaling.getScaleDownDelay().toNanos()) {
+                    retire();
+                    lowSinceNanos = -1;
+                }
+            } else {
+                lowSinceNanos = -1;
+            }
+        }
+    }
+
+    /**
+     * Starts one more poller.
+     */
+    void grow() throws IOException {
+        synchronized (lock) {
+            SubPoller[] grown = Arrays.copyOf(active, active.length + 1);
+            grown[grown.length - 1] = new SubPoller(nextIndex++);
+            active = grown;
+        }
+    }
+
+    /**
+     * Takes the newest poller out of rotation and has it migrate its sessions to the others.
+     */
+    void retire() {
+        synchronized (lock) {
+            if (active.length == 1) return;
+            SubPoller victim = active[active.length - 1];
+            active = Arrays.copyOf(active, active.length - 1);
+            retiring.add(victim);
+            victim.retire(this);
+        }
+    }
+
+    /**
+     * Called by a retiring poller that no longer owns any session.
+     *
+     * @return false if the pool has been stopped meanwhile; the poller must then keep running
+     *         so the shutdown drain can complete on it
+     */
+    boolean retired(SubPoller poller) {
+        synchronized (lock) {
+            if (stopped) return false;
+            retiring.remove(poller);
+            return true;
+        }
+    }
+
+    /**
+     * Stops resizing and returns every poller, including ones still migrating sessions.
+     */
+    List<SubPoller> stop() {
+        synchronized (lock) {
+            stopped = true;
+            if (scaler != null) {
+                scaler.interrupt();
+            }
+            List<SubPoller> all = new ArrayList<>(Arrays.asList(active));
+            all.addAll(retiring);
+            return all;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.eaze.websocket.core.nio;
+
+import java.time.Duration;
+
+/**
+ * Bounds and thresholds for resizing the SubPoller pool at runtime. Utilization is the share of
+ * wall-clock time a poller spends working between selects rather than blocked in select(); the
+ * pool grows by one poller while the average is above {@code scaleUpUtilization} and retires one,
+ * migrating its sessions to the others, after it has stayed below {@code scaleDownUtilization}
+ * for {@code scaleDownDelay}.
+ */
+public final class PollerScaling {
+    private static final double DEFAULT_SCALE_UP = 0.75;
+    private static final double DEFAULT_SCALE_DOWN = 0.25;
+    private static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration DEFAULT_SCALE_DOWN_DELAY = Duration.ofSeconds(30);
+
+    private final int minPollers;
+    private final int maxPollers;
+    private final double scaleUpUtilization;
+    private final double scaleDownUtilization;
+    private final Duration interval;
+    private final Duration scaleDownDelay;
+
+    /**
+     * A pool between {@code minPollers} and {@code maxPollers} with the default thresholds:
+     * grow above 75% utilization, shrink after 30 seconds below 25%, checked every second.
+     */
+    public PollerScaling(int minPollers, int maxPollers) {
+        this(minPollers, maxPollers, DEFAULT_SCALE_UP, DEFAULT_SCALE_DOWN, DEFAULT_INTERVAL, DEFAULT_SCALE_DOWN_DELAY);
+    }
+
+    /**
+     * @param minPollers           pollers kept even when idle, at least 1
+     * @param maxPollers           upper bound, e.g. the core count
+     * @param scaleUpUtilization   average utilization (0-1) above which a poller is added
+     * @param scaleDownUtilization average utilization (0-1) below which a poller may be retired
+     * @param interval             how often utilization is checked
+     * @param scaleDownDelay       how long utilization must stay low before a poller is retired
+     */
+    public PollerScaling(int minPollers, int maxPollers, double scaleUpUtilization, double scaleDownUtilization,
+                         Duration interval, Duration scaleDownDelay) {
+        if (minPollers < 1 || maxPollers < minPollers) {
+            throw new IllegalArgumentException("Need 1 <= minPollers <= maxPollers");
+        }
+        if (!(scaleDownUtilization >= 0 && scaleDownUtilization < scaleUpUtilization && scaleUpUtilization <= 1)) {
+            throw new IllegalArgumentException("Need 0 <= scaleDownUtilization < scaleUpUtilization <= 1");
+        }
+        if (interval.isNegative() || interval.isZero() || scaleDownDelay.isNegative()) {
+            throw new IllegalArgumentException("Interval must be positive and delay not negative");
+        }
+        this.minPollers = minPollers;
+        this.maxPollers = maxPollers;
+        this.scaleUpUtilization = scaleUpUtilization;
+        this.scaleDownUtilization = scaleDownUtilization;
+        this.interval = interval;
+        this.scaleDownDelay = scaleDownDelay;
+    }
+
+    /**
+     * A pool that never resizes.
+     */
+    public static PollerScaling fixed(int pollers) {
+        return new PollerScaling(pollers, pollers);
+    }
+
+    public int getMinPollers() {
+        return minPollers;
+    }
+
+    public int getMaxPollers() {
+        return maxPollers;
+    }
+
+    public double getScaleUpUtilization() {
+        return scaleUpUtilization;
+    }
+
+    public double getScaleDownUtilization() {
+        return scaleDownUtilization;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    public Duration getScaleDownDelay() {
+        return scaleDownDelay;
+    }
+
+    boolean isFixed() {
+        return minPollers == maxPollers;
+    }
+}
@@ -0,0 +1,20 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+
+/**
+ * A session the server tracks in its {@link SessionTable}: a WebSocket connection of its own or a
+ * stream of a shared HTTP/2 connection. Holds only the compact id, so it adds no footprint.
+ */
+abstract class ServerSession implements WebSocketSession {
+    private int id = SessionTable.NO_ID;
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+}
@@ -0,0 +1,45 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.metrics.ServerMetrics;
+
+import java.util.function.Consumer;
+
+/**
+ * Immutable settings shared by every session of a server. Sessions hold a single reference
+ * to this object instead of carrying their own copy of each setting.
+ */
+final class SessionConfig {
+    final WebSocketListener listener;
+    /** Id registry of the owning server, or null for standalone sessions. */
+    final SessionTable sessions;
+    final ServerMetrics metrics;
+    final InboundLimits inboundLimits;
+    /** Largest accepted frame payload; bigger frames close the session with 1009. */
+    final int maxFramePayload;
+    /** Admission control of the owning server, or null when connections are not limited. */
+    final AdmissionController admission;
+    final OutboundLimits outboundLimits;
+    /** Told when a session has closed its socket, or null; lets io_uring drop its pending receive. */
+    final Consumer<NioWebSocketSession> channelClosed;
+
+    static final int DEFAULT_MAX_FRAME_PAYLOAD = 16 * 1024 * 1024;
+
+    SessionConfig(WebSocketListener listener) {
+        this(listener, null, new ServerMetrics(), InboundLimits.UNLIMITED, DEFAULT_MAX_FRAME_PAYLOAD, null,
+                OutboundLimits.DEFAULT, null);
+    }
+
+    SessionConfig(WebSocketListener listener, SessionTable sessions, ServerMetrics metrics,
+                  InboundLimits inboundLimits, int maxFramePayload, AdmissionController admission,
+                  OutboundLimits outboundLimits, Consumer<NioWebSocketSession> channelClosed) {
+        this.listener = listener;
+        this.sessions = sessions;
+        this.metrics = metrics;
+        this.inboundLimits = inboundLimits;
+        this.maxFramePayload = maxFramePayload;
+        this.admission = admission;
+        this.outboundLimits = outboundLimits;
+        this.channelClosed = channelClosed;
+    }
+}
@@ -0,0 +1,147 @@
+package com.eaze.websocket.core.nio;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Maps compact int session ids to sessions without boxing or per-entry objects.
+ *
+ * An id packs a slot index (low 24 bits, up to 16M live sessions) and the slot's generation (high
+ * 8 bits). Because the server assigns ids itself, the slot index is the table position: lookups
+ * are a direct index into a lazily allocated segment, with no hashing or probing. Bumping the
+ * generation on every release makes stale ids miss instead of aliasing a newer session (ABA).
+ *
+ * Freed slots are recycled through a FIFO ring, and only once more than {@link #FREE_RESERVE}
+ * slots wait in it; until then unused slots are handed out. A slot is therefore reused at most
+ * once per 4096 releases, and a stale id can only match again after 255 reuses of its slot, that
+ * is about a million disconnects later. Only a table that has run out of unused slots reuses
+ * freed ones sooner.
+ *
+ * Reads are lock-free (acquire loads of the segment slot). Allocation and release happen once
+ * per connection lifetime and are serialized by a single monitor.
+ */
+final class SessionTable {
+    static final int NO_ID = 0;
+
+    /** Freed slots that wait before reuse while unused slots remain. */
+    static final int FREE_RESERVE = 4096;
+
+    private static final int SLOT_BITS = 24;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = 0xFF;
+    private static final int SEGMENT_BITS = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MAX_SEGMENTS = 1 << (SLOT_BITS - SEGMENT_BITS);
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(ServerSession[].class);
+    private static final VarHandle SEGMENTS = MethodHandles.arrayElementVarHandle(Segment[].class);
+
+    private static final class Segment {
+        final ServerSession[] sessions = new ServerSession[SEGMENT_SIZE];
+        final byte[] generations = new byte[SEGMENT_SIZE];
+
+        Segment() {
+            Arrays.fill(generations, (byte) 1);
+        }
+    }
+
+    private final Segment[] segments = new Segment[MAX_SEGMENTS];
+    private final Object lock = new Object();
+    private final int freeReserve;
+
+    // Guarded by lock; a ring of freed slots, oldest at freeHead
+    private int[] freeSlots = new int[64];
+    private int freeHead;
+    private int freeCount;
+    private int nextUnusedSlot;
+    private volatile int size;
+
+    SessionTable() {
+        this(FREE_RESERVE);
+    }
+
+    /**
+     * @param freeReserve freed slots kept back from reuse while unused slots remain
+     */
+    SessionTable(int freeReserve) {
+        this.freeReserve = freeReserve;
+    }
+
+    /**
+     * Assigns the session a fresh id and publishes it for lookups.
+     *
+     * @return the id, or {@link #NO_ID} if all 2^24 slots are in use
+     */
+    int add(ServerSession session) {
+        synchronized (lock) {
+            int slot;
+            if (freeCount > freeReserve || (freeCount > 0 && nextUnusedSlot > SLOT_MASK)) {
+                slot = freeSlots[freeHead];
+                freeHead = (freeHead + 1) % freeSlots.length;
+                freeCount--;
+            } else if (nextUnusedSlot <= SLOT_MASK) {
+                slot = nextUnusedSlot++;
+            } else {
+                return NO_ID;
+            }
+
+            Segment segment = segments[slot >>> SEGMENT_BITS];
+            if (segment == null) {
+                segment = new Segment();
+                SEGMENTS.setRelease(segments, slot >>> SEGMENT_BITS, segment);
+            }
+            int generation = segment.generations[slot & SEGMENT_MASK] & GENERATION_MASK;
+            int id = (generation << SLOT_BITS) | slot;
+            session.setId(id);
+            // Release store: a reader that sees the session also sees its id
+            SLOTS.setRelease(segment.sessions, slot & SEGMENT_MASK, session);
+            size++;
+            return id;
+        }
+    }
+
+    ServerSession get(int id) {
+        if (id == NO_ID) return null;
+        int slot = id & SLOT_MASK;
+        Segment segment = (Segment) SEGMENTS.getAcquire(segments, slot >>> SEGMENT_BITS);
+        if (segment == null) return null;
+        ServerSession session = (ServerSession) SLOTS.getAcquire(segment.sessions, slot & SEGMENT_MASK);
+        // The id check rejects a newer session that has reused this slot
+        return session != null && session.getId() == id ? session : null;
+    }
+
+    /**
+     * Frees the session's slot and retires its id. Safe to call for sessions never added.
+     */
+    void remove(ServerSession session) {
+        int id = session.getId();
+        if (id == NO_ID) return;
+        int slot = id & SLOT_MASK;
+        synchronized (lock) {
+            Segment segment = segments[slot >>> SEGMENT_BITS];
+            if (segment == null || segment.sessions[slot & SEGMENT_MASK] != session) return;
+
+            SLOTS.setRelease(segment.sessions, slot & SEGMENT_MASK, null);
+            int generation = (segment.generations[slot & SEGMENT_MASK] & GENERATION_MASK) + 1;
+            // Generation 0 is skipped so that no id ever equals NO_ID
+            segment.generations[slot & SEGMENT_MASK] = (byte) (generation > GENERATION_MASK ? 1 : generation);
+
+            if (freeCount == freeSlots.length) {
+                int[] grown = new int[freeCount * 2];
+                for (int i = 0; i < freeCount; i++) {
+                    grown[i] = freeSlots[(freeHead + i) % freeSlots.length];
+                }
+                freeSlots = grown;
+                freeHead = 0;
+            }
+            freeSlots[(freeHead + freeCount++) % freeSlots.length] = slot;
+            size--;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+}
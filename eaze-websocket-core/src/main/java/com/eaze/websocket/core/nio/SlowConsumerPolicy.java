@@ -0,0 +1,22 @@
+package com.eaze.websocket.core.nio;
+
+/**
+ * What a send does once a session's unsent bytes exceed {@link OutboundLimits#getMaxPendingBytes()}.
+ *
+ * With every policy other than {@link #BLOCK}, sends never wait for the socket: whatever the socket
+ * does not take right away is queued and written by the session's SubPoller when it turns writable.
+ * Keyed sends ({@code sendLatest}) replace an unsent message with the same key under every policy.
+ */
+public enum SlowConsumerPolicy {
+    /** The sender writes the backlog out itself, waiting for the client (the default). */
+    BLOCK,
+    /**
+     * Keyed sends keep replacing unsent messages, so the backlog is bounded by the number of keys
+     * rather than the message rate; unkeyed sends block as with {@link #BLOCK}.
+     */
+    CONFLATE,
+    /** The oldest unsent messages are discarded until the backlog is back under the limit. */
+    DROP_OLDEST,
+    /** The connection is closed (reported to the listener as 1008). */
+    DISCONNECT
+}
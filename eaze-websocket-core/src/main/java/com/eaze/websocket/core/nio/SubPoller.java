@@ -1,11 +1,23 @@
 package com.eaze.websocket.core.nio;
 
+import com.eaze.websocket.core.jfr.SelectLoopEvent;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -13,12 +25,57 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * and platform thread. This avoids the bottleneck of the single JDK internal poller.
  */
 public class SubPoller implements Runnable {
+    private static final long SELECT_TIMEOUT_MS = 500;
+    // While retiring, how often to look again for sessions whose reader has finished
+    private static final long MIGRATE_RETRY_MS = 10;
+    // Shortest span over which utilization is averaged; idle pollers publish it at least every 1.5s
+    private static final long UTILIZATION_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Longest a flush pass may run before the poller goes back to select; also caps how long a
+    // read batch may hold replies back
+    static final long FLUSH_LATENCY_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     private final Selector selector;
     private final Queue<NioWebSocketSession> registrationQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<Resume> throttledQueue = new ConcurrentLinkedQueue<>();
+    // Poller-thread only: throttled sessions ordered by the time their inbound budget allows reading again
+    private final PriorityQueue<Resume> resumeQueue = new PriorityQueue<>();
+    private volatile Drain drain;
+    // Sessions with queued frames, flushed once per event-loop iteration
+    private final Queue<NioWebSocketSession> dirtyQueue = new ConcurrentLinkedQueue<>();
+    // Coalesces wakeups: only the first session marked dirty per iteration wakes the selector
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    // Poller-thread only: dirty sessions whose write side was busy, retried on the next pass
+    private final List<NioWebSocketSession> busy = new ArrayList<>();
+    // Sessions migrated here from a retiring poller
+    private final Queue<Handoff> handoffQueue = new ConcurrentLinkedQueue<>();
+    // Set when the pool retires this poller; its sessions then move to the pool's active pollers
+    private volatile PollerPool retiringFrom;
+    // Set once a retired poller owns no sessions; anything still queued here is forwarded
+    private volatile boolean retired;
+
+    // Poller-thread only: time spent outside select() in the current utilization window
+    private long busyNanos;
+    private long windowStart;
+    private volatile double utilization;
+
+    private record Resume(long atNanos, NioWebSocketSession session, SelectionKey key) implements Comparable<Resume> {
+        @Override
+        public int compareTo(Resume other) {
+            return Long.compare(atNanos, other.atNanos);
+        }
+    }
+
+    /**
+     * A session moving to this poller; throttled sessions keep the time their reads were due to resume.
+     */
+    private record Handoff(NioWebSocketSession session, boolean throttled, long resumeAtNanos) {
+    }
     private final AtomicBoolean running = new AtomicBoolean(true);
+    private final int index;
     private final Thread thread;
 
     public SubPoller(int index) throws IOException {
+        this.index = index;
         this.selector = Selector.open();
         this.thread = Thread.ofPlatform()
                 .name("Eaze-SubPoller-" + index)
@@ -27,43 +84,47 @@ public class SubPoller implements Runnable {
 
     public void register(NioWebSocketSession session) {
         registrationQueue.offer(session);
-        selector.wakeup();
+        if (retired) {
+            forwardQueued();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Share of wall-clock time the poller spent working rather than waiting in select(), between
+     * 0 and 1, averaged over the last window of at least one second.
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    public int getIndex() {
+        return index;
     }
 
     @Override
     public void run() {
+        long timeout = 0;
+        windowStart = System.nanoTime();
         while (running.get()) {
+            SelectLoopEvent event = new SelectLoopEvent();
             try {
-                processRegistrations();
-                
-                int readyChannels = selector.select(500);
-                if (readyChannels == 0) continue;
-
-                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
-                while (it.hasNext()) {
-                    SelectionKey key = it.next();
-                    it.remove();
-
-                    if (key.isValid() && key.isReadable()) {
-                        NioWebSocketSession session = (NioWebSocketSession) key.attachment();
-                        // Disable interest while processing to avoid concurrent execution for the same session
-                        key.interestOps(0);
-                        
-                        Thread.startVirtualThread(() -> {
-                            try {
-                                session.handleRead();
-                                if (session.isOpen()) {
-                                    // Re-enable interest and wakeup selector
-                                    key.interestOps(SelectionKey.OP_READ);
-                                    selector.wakeup();
-                                }
-                            } catch (Exception e) {
-                                session.onFailure(e);
-                            }
-                        });
-                    }
+                int readyChannels = timeout == 0 ? selector.selectNow() : selector.select(timeout);
+                long woke = System.nanoTime();
+                event.begin();
+                if (readyChannels > 0) {
+                    dispatchSelected();
+                }
+                timeout = prepareSelect();
+                if (event.shouldCommit()) {
+                    event.poller = index;
+                    event.readyKeys = readyChannels;
+                    event.commit();
                 }
+                measure(woke, System.nanoTime());
             } catch (IOException e) {
+                timeout = 0;
                 if (running.get()) {
                     System.err.println("SubPoller error: " + e.getMessage());
                 }
@@ -71,18 +132,317 @@ public class SubPoller implements Runnable {
         }
     }
 
+    private void measure(long woke, long now) {
+        busyNanos += now - woke;
+        long window = now - windowStart;
+        if (window >= UTILIZATION_WINDOW_NANOS) {
+            utilization = (double) busyNanos / window;
+            busyNanos = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Housekeeping before the next select: new sessions, drain steps, throttled sessions, the
+     * flush pass and, while retiring, session migration.
+     *
+     * @return how long the next select may block, 0 for a selectNow
+     */
+    private long prepareSelect() throws IOException {
+        processRegistrations();
+
+        long timeout = SELECT_TIMEOUT_MS;
+        Drain d = drain;
+        if (d != null) {
+            timeout = d.step();
+        }
+        timeout = resumeThrottled(timeout);
+        timeout = flushDirty(timeout);
+        PollerPool pool = retiringFrom;
+        if (d == null && pool != null) {
+            timeout = migrate(pool, timeout);
+        }
+        return timeout;
+    }
+
+    private void dispatchSelected() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            NioWebSocketSession session = (NioWebSocketSession) key.attachment();
+            if (key.isValid() && key.isWritable()) {
+                flush(session, key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                // Disable read interest while processing to avoid concurrent execution for the same session
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+                dispatchRead(session, key);
+            }
+        }
+    }
+
+    private void dispatchRead(NioWebSocketSession session, SelectionKey key) {
+        Thread.startVirtualThread(() -> {
+            try {
+                session.handleRead();
+                if (!session.isOpen()) {
+                    return;
+                }
+                if (session.isThrottled()) {
+                    // Over its inbound budget: leave OP_READ off so TCP pushes back on the client
+                    throttledQueue.offer(new Resume(System.nanoTime() + session.throttleDelayNanos(), session, key));
+                } else {
+                    // Re-enable interest
+                    key.interestOpsOr(SelectionKey.OP_READ);
+                }
+                selector.wakeup();
+            } catch (Exception e) {
+                session.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Queues a session for the next flush pass. Called from any thread once per batch of sends.
+     */
+    void scheduleFlush(NioWebSocketSession session) {
+        dirtyQueue.offer(session);
+        if (retired) {
+            forwardQueued();
+        } else if (Thread.currentThread() != thread && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Gives every dirty session one gathering write. The pass stops once it has used up the
+     * latency budget, so a burst of dirty sessions cannot keep the poller away from select().
+     *
+     * @return the select timeout: 0 if sessions are still waiting for a flush
+     */
+    private long flushDirty(long timeout) {
+        wakeupPending.set(false);
+        long start = System.nanoTime();
+        NioWebSocketSession session;
+        while ((session = dirtyQueue.poll()) != null) {
+            SubPoller owner = session.getPoller();
+            if (owner != this) {
+                // Migrated after the sender picked this poller; the new owner tracks its write interest
+                owner.scheduleFlush(session);
+                continue;
+            }
+            flush(session, session.getChannel().keyFor(selector));
+            if (System.nanoTime() - start > FLUSH_LATENCY_BUDGET_NANOS) {
+                timeout = 0;
+                break;
+            }
+        }
+        if (!busy.isEmpty()) {
+            // Another thread is mid-send and will usually finish within a millisecond
+            dirtyQueue.addAll(busy);
+            busy.clear();
+            timeout = timeout == 0 ? 0 : 1;
+        }
+        return timeout;
+    }
+
+    private void flush(NioWebSocketSession session, SelectionKey key) {
+        try {
+            int result = session.tryFlush();
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            if (result == NioWebSocketSession.FLUSH_PARTIAL) {
+                // Socket buffer is full: finish once the kernel has room
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            } else if (result == NioWebSocketSession.FLUSH_DONE) {
+                if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                    key.interestOpsAnd(~SelectionKey.OP_WRITE);
+                }
+            } else {
+                busy.add(session);
+            }
+        } catch (CancelledKeyException ignore) {
+        } catch (IOException e) {
+            Thread.startVirtualThread(() -> session.onFailure(e));
+        }
+    }
+
+    /**
+     * Restarts reads for throttled sessions whose budget has refilled. The resumed read works off
+     * the buffered backlog first, since the socket may stay quiet while undispatched frames are pending.
+     *
+     * @return the select timeout, shortened so the next pending resume is not late
+     */
+    private long resumeThrottled(long timeout) {
+        Resume resume;
+        while ((resume = throttledQueue.poll()) != null) {
+            resumeQueue.offer(resume);
+        }
+        long now = System.nanoTime();
+        while ((resume = resumeQueue.peek()) != null && resume.atNanos() - now <= 0) {
+            resumeQueue.poll();
+            if (resume.key().isValid()) {
+                dispatchRead(resume.session(), resume.key());
+            }
+        }
+        if (resume == null) {
+            return timeout;
+        }
+        long waitMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(resume.atNanos() - now));
+        return timeout == 0 ? 0 : Math.min(timeout, waitMs);
+    }
+
     private void processRegistrations() {
+        Handoff handoff;
+        while ((handoff = handoffQueue.poll()) != null) {
+            adopt(handoff);
+        }
         NioWebSocketSession session;
         while ((session = registrationQueue.poll()) != null) {
             try {
                 session.getChannel().configureBlocking(false);
-                session.getChannel().register(selector, SelectionKey.OP_READ, session);
+                Drain d = drain;
+                if (d != null) {
+                    // Handshake finished after draining started: close it along with the rest
+                    d.add(session);
+                } else {
+                    session.setPoller(this);
+                    session.getChannel().register(selector, SelectionKey.OP_READ, session);
+                }
             } catch (IOException e) {
                 session.onFailure(e);
             }
         }
     }
 
+    private void adopt(Handoff handoff) {
+        NioWebSocketSession session = handoff.session();
+        Drain d = drain;
+        if (d != null) {
+            d.add(session);
+            return;
+        }
+        try {
+            SelectionKey key = session.getChannel().register(selector,
+                    handoff.throttled() ? 0 : SelectionKey.OP_READ, session);
+            if (handoff.throttled()) {
+                resumeQueue.offer(new Resume(handoff.resumeAtNanos(), session, key));
+            }
+            // The old poller may have been waiting on OP_WRITE for a partial write
+            flush(session, key);
+        } catch (ClosedChannelException ignore) {
+            // Closed while moving
+        }
+    }
+
+    /**
+     * Takes this poller out of service: from the next iteration on it hands its sessions to the
+     * pool's active pollers, then stops once it owns none.
+     */
+    void retire(PollerPool pool) {
+        retiringFrom = pool;
+        selector.wakeup();
+    }
+
+    /**
+     * Moves every session that is not being read to the pool's active pollers. A reader turns
+     * OP_READ back on as its last touch of the key, so a key with read interest (or a throttled
+     * session, which no reader holds) can be cancelled safely; sessions still being read are
+     * picked up on a later pass.
+     *
+     * @return the select timeout: short while sessions are still being read
+     */
+    private long migrate(PollerPool pool, long timeout) throws IOException {
+        // Keys cancelled on the previous pass are gone after the select in between
+        if (selector.keys().isEmpty()) {
+            finishRetirement(pool);
+            return 0;
+        }
+        Resume resume;
+        while ((resume = resumeQueue.poll()) != null) {
+            resume.key().cancel();
+            handOff(pool.next(), new Handoff(resume.session(), true, resume.atNanos()));
+        }
+        boolean reading = false;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) continue;
+            if ((key.interestOps() & SelectionKey.OP_READ) == 0) {
+                reading = true;
+                continue;
+            }
+            key.cancel();
+            handOff(pool.next(), new Handoff((NioWebSocketSession) key.attachment(), false, 0));
+        }
+        // Select once right away so the cancelled keys are deregistered
+        return reading ? Math.min(timeout, MIGRATE_RETRY_MS) : 0;
+    }
+
+    private static void handOff(SubPoller target, Handoff handoff) {
+        // Point sends at the new owner first, so no flush is scheduled on a key that is gone
+        handoff.session().setPoller(target);
+        target.handoffQueue.offer(handoff);
+        if (target.retired) {
+            target.forwardQueued();
+        } else {
+            target.selector.wakeup();
+        }
+    }
+
+    private void finishRetirement(PollerPool pool) throws IOException {
+        if (!pool.retired(this)) {
+            // The server is shutting down: stay up for its drain, which now owns the remaining work
+            retiringFrom = null;
+            return;
+        }
+        retired = true;
+        running.set(false);
+        forwardQueued();
+        selector.close();
+    }
+
+    /**
+     * Passes on anything queued on a retired poller. Safe to race with the queues' producers:
+     * they check {@code retired} after offering, and each entry is polled exactly once.
+     */
+    private void forwardQueued() {
+        PollerPool pool = retiringFrom;
+        NioWebSocketSession session;
+        while ((session = registrationQueue.poll()) != null) {
+            pool.next().register(session);
+        }
+        Handoff handoff;
+        while ((handoff = handoffQueue.poll()) != null) {
+            handOff(pool.next(), handoff);
+        }
+        while ((session = dirtyQueue.poll()) != null) {
+            SubPoller owner = session.getPoller();
+            if (owner != this) {
+                owner.scheduleFlush(session);
+            }
+        }
+    }
+
+    /**
+     * Closes every session owned by this poller with the given pre-encoded close frame.
+     * The work runs on the poller thread itself, so all pollers drain in parallel without
+     * any cross-thread coordination on the session set.
+     *
+     * @param closeFrame   encoded close frame shared by all sessions (only duplicates are written)
+     * @param spreadNanos  window over which disconnect batches are spread, 0 to close everything at once
+     * @param deadlineNanos System.nanoTime() after which unflushed sessions are closed forcibly
+     * @return a future completed once every session has been closed
+     */
+    public CompletableFuture<Void> drain(ByteBuffer closeFrame, int code, String reason,
+                                         long spreadNanos, long deadlineNanos) {
+        Drain d = new Drain(closeFrame, code, reason, spreadNanos, deadlineNanos);
+        drain = d;
+        selector.wakeup();
+        return d.done;
+    }
+
     public void stop() {
         running.set(false);
         selector.wakeup();
@@ -90,4 +450,129 @@ public class SubPoller implements Runnable {
             selector.close();
         } catch (IOException ignore) {}
     }
+
+    /**
+     * Offset of the {@code index}-th of {@code total} closes within a drain window. Split so
+     * {@code spreadNanos * index} cannot overflow for long windows over millions of sessions.
+     */
+    static long spreadOffset(long spreadNanos, int index, int total) {
+        return spreadNanos / total * index + spreadNanos % total * index / total;
+    }
+
+    /**
+     * Drain state machine, only ever touched by the poller thread.
+     */
+    private final class Drain {
+        private static final int BATCH_SIZE = 512;
+        private static final long RETRY_INTERVAL_MS = 10;
+
+        private final ByteBuffer closeFrame;
+        private final int code;
+        private final String reason;
+        private final long spreadNanos;
+        private final long deadlineNanos;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private List<NioWebSocketSession> sessions;
+        private final Map<NioWebSocketSession, ByteBuffer> unflushed = new IdentityHashMap<>();
+        private long startNanos;
+        private int cursor;
+
+        Drain(ByteBuffer closeFrame, int code, String reason, long spreadNanos, long deadlineNanos) {
+            this.closeFrame = closeFrame;
+            this.code = code;
+            this.reason = reason;
+            this.spreadNanos = spreadNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        void add(NioWebSocketSession session) {
+            if (done.isDone()) {
+                if (session.markClosing()) {
+                    session.completeClose(code, reason);
+                }
+                return;
+            }
+            if (sessions == null) {
+                snapshot();
+            }
+            sessions.add(session);
+        }
+
+        private void snapshot() {
+            startNanos = System.nanoTime();
+            sessions = new ArrayList<>(selector.keys().size());
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioWebSocketSession session) {
+                    sessions.add(session);
+                }
+            }
+        }
+
+        /**
+         * Advances the drain by at most one batch and returns how long the poller may block in
+         * select() before the next session is due or unflushed close frames should be retried.
+         * A return value of 0 means more work is due immediately.
+         */
+        long step() {
+            if (done.isDone()) {
+                return SELECT_TIMEOUT_MS;
+            }
+            if (sessions == null) {
+                snapshot();
+            }
+
+            long now = System.nanoTime();
+            int total = sessions.size();
+            int end = Math.min(cursor + BATCH_SIZE, total);
+            while (cursor < end && (dueAt(cursor, total) <= now || now - deadlineNanos >= 0)) {
+                NioWebSocketSession session = sessions.get(cursor);
+                sessions.set(cursor++, null);
+                closeOne(session);
+            }
+
+            retryUnflushed(now);
+
+            if (cursor >= total && unflushed.isEmpty()) {
+                done.complete(null);
+                return SELECT_TIMEOUT_MS;
+            }
+            long wait = TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL_MS);
+            if (cursor < total) {
+                wait = Math.min(wait, dueAt(cursor, total) - now);
+            }
+            wait = Math.min(wait, deadlineNanos - now);
+            return wait <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+        }
+
+        private long dueAt(int index, int total) {
+            return startNanos + spreadOffset(spreadNanos, index, total);
+        }
+
+        private void closeOne(NioWebSocketSession session) {
+            if (!session.markClosing()) {
+                return;
+            }
+            ByteBuffer frame = closeFrame.duplicate();
+            if (session.tryWriteEncoded(frame)) {
+                session.completeClose(code, reason);
+            } else {
+                unflushed.put(session, frame);
+            }
+        }
+
+        private void retryUnflushed(long now) {
+            if (unflushed.isEmpty()) return;
+            boolean expired = now - deadlineNanos >= 0;
+            Iterator<Map.Entry<NioWebSocketSession, ByteBuffer>> it = unflushed.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<NioWebSocketSession, ByteBuffer> entry = it.next();
+                NioWebSocketSession session = entry.getKey();
+                if (expired || session.tryWriteEncoded(entry.getValue())) {
+                    session.completeClose(code, reason);
+                    it.remove();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,10 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.codec.MessageCodec;
+
+/**
+ * A subprotocol the server accepts, with the codec its sessions use; {@code codec} is null for a
+ * subprotocol that is only negotiated and whose messages reach the listener as raw payloads.
+ */
+record Subprotocol(String name, MessageCodec<Object> codec) {
+}
@@ -0,0 +1,90 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.FrameDecoder;
+import com.eaze.websocket.core.codec.HandshakeProcessor;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Gets a fresh JVM ready for a reconnect storm: fills the buffer and digest pools, then runs the
+ * handshake and frame codec paths enough times for the JIT to compile them before real clients
+ * arrive. Works on in-memory buffers only, so it never touches the listening socket.
+ */
+final class WarmUp {
+    private static final byte[] MASK = {0x37, (byte) 0xFA, 0x21, 0x3D};
+    private static final byte[] REQUEST = ("GET /warm-up HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+            "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // Results are folded in here so the JIT cannot discard the work as dead code
+    static volatile long sink;
+
+    private WarmUp() {
+    }
+
+    static void run(int pooledBuffers, int iterations) {
+        BufferPool.preallocate(pooledBuffers);
+        HandshakeProcessor.prewarm();
+
+        // One payload per length encoding: 7-bit, 16-bit, and a frame split across reads
+        byte[][] payloads = {
+                "warm-up".getBytes(StandardCharsets.UTF_8),
+                new byte[1024],
+                new byte[4000]
+        };
+        FrameDecoder decoder = new FrameDecoder(SessionConfig.DEFAULT_MAX_FRAME_PAYLOAD, true);
+        long result = 0;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                result += handshake();
+                result += roundTrip(decoder, payloads[i % payloads.length], (i & 1) == 0 ? Opcode.TEXT : Opcode.BINARY);
+            }
+        } catch (IOException e) {
+            // Only a codec bug can get here; warm-up must never keep the server from starting
+            System.err.println("Warm-up error: " + e.getMessage());
+        }
+        sink = result;
+    }
+
+    private static int handshake() {
+        ByteBuffer request = ByteBuffer.wrap(REQUEST);
+        int endOfHeaders = NioWebSocketSession.findEndOfHeaders(request);
+        Map<String, String> headers = HandshakeProcessor.parseHeaders(request, endOfHeaders);
+        String acceptKey = HandshakeProcessor.createAcceptKey(headers.get("sec-websocket-key"));
+        return HandshakeProcessor.buildResponse(acceptKey).length();
+    }
+
+    /**
+     * Client frame in, decoded and unmasked, reply encoded: the per-message path of an echo server.
+     */
+    private static int roundTrip(FrameDecoder decoder, byte[] payload, Opcode opcode) throws IOException {
+        ByteBuffer inbound = FrameCodec.encode(new WebSocketFrame(true, opcode, ByteBuffer.wrap(payload), true, MASK));
+        ByteBuffer reply = null;
+        try {
+            int length = 0;
+            // Feed the frame in two reads so the resumable decoder paths get compiled too
+            int split = inbound.limit() > 1024 ? inbound.limit() / 2 : inbound.limit();
+            ByteBuffer first = inbound.duplicate().limit(split);
+            WebSocketFrame frame = decoder.decode(first);
+            if (frame == null) {
+                frame = decoder.decode(inbound.position(split));
+            }
+            length += frame.getPayload().remaining();
+            reply = FrameCodec.encode(new WebSocketFrame(true, opcode, frame.getPayload()));
+            return length + reply.remaining();
+        } finally {
+            BufferPool.release(inbound);
+            BufferPool.release(reply);
+        }
+    }
+}
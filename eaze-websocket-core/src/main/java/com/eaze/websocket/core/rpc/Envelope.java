@@ -0,0 +1,61 @@
+package com.eaze.websocket.core.rpc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of {@code WebSocketSession.request}: a binary message made of a type byte, a 4-byte
+ * big-endian correlation id and the payload. The server sends {@link #REQUEST} envelopes; the
+ * client answers each with a {@link #REPLY} envelope carrying the same id, in any order.
+ *
+ * <pre>
+ * +------+----------------+---------+
+ * | type | correlation id | payload |
+ * |  1B  |   4B (int)     |   ...   |
+ * +------+----------------+---------+
+ * </pre>
+ */
+public final class Envelope {
+    public static final byte REQUEST = 0x01;
+    public static final byte REPLY = 0x02;
+    public static final int HEADER_SIZE = 5;
+
+    private Envelope() {
+    }
+
+    /**
+     * A fresh header for an envelope; the payload follows in a separate buffer.
+     */
+    public static ByteBuffer header(byte type, int correlationId) {
+        return ByteBuffer.allocate(HEADER_SIZE).put(type).putInt(correlationId).flip();
+    }
+
+    public static boolean isRequest(ByteBuffer message) {
+        return message.remaining() >= HEADER_SIZE && message.get(message.position()) == REQUEST;
+    }
+
+    public static boolean isReply(ByteBuffer message) {
+        return message.remaining() >= HEADER_SIZE && message.get(message.position()) == REPLY;
+    }
+
+    public static int correlationId(ByteBuffer message) {
+        return message.getInt(message.position() + 1);
+    }
+
+    /**
+     * The payload of an envelope, as a view that shares the message's content.
+     */
+    public static ByteBuffer payload(ByteBuffer message) {
+        return message.slice(message.position() + HEADER_SIZE, message.remaining() - HEADER_SIZE);
+    }
+
+    /**
+     * Builds the complete reply to a request envelope, for client implementations.
+     */
+    public static ByteBuffer reply(ByteBuffer request, ByteBuffer payload) {
+        return ByteBuffer.allocate(HEADER_SIZE + payload.remaining())
+                .put(REPLY)
+                .putInt(correlationId(request))
+                .put(payload.duplicate())
+                .flip();
+    }
+}
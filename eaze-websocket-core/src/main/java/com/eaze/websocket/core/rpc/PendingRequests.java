@@ -0,0 +1,212 @@
+package com.eaze.websocket.core.rpc;
+
+import com.eaze.websocket.core.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One session's in-flight requests, keyed by correlation id. Ids are handed out sequentially, so
+ * the table is a power-of-two ring indexed by {@code id & mask} rather than a hash map: no boxed
+ * keys, no entry objects, and a lookup is usually one array read. A request still waiting when its
+ * id comes around again (a straggler among fast replies) only pushes newer ids to the next free
+ * slot, as in linear probing. The ring is kept between one eighth and one half full, so its size
+ * follows the number of requests in flight, not the spread of their ids.
+ *
+ * Replies complete their future on the thread that read them, so dependent stages run right
+ * there without a hop to another executor; timeouts complete on the {@link TimerWheel} thread.
+ */
+public final class PendingRequests {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final TimerWheel timer;
+    private final ServerMetrics metrics;
+
+    // Guarded by this
+    private Pending[] slots = new Pending[INITIAL_CAPACITY];
+    private int nextId = 1;
+    private int size;
+    private IOException closed;
+
+    /**
+     * @param metrics counts timeouts; may be null
+     */
+    public PendingRequests(TimerWheel timer, ServerMetrics metrics) {
+        this.timer = timer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Allocates a correlation id for a new request and arms its timeout. The returned future is
+     * completed by {@link #complete(int, ByteBuffer)}, by the timeout or by {@link #failAll(IOException)}.
+     */
+    public Pending register(Duration timeout) {
+        Pending pending;
+        synchronized (this) {
+            if (closed != null) {
+                pending = new Pending(this, 0, 0);
+                pending.completeExceptionally(closed);
+                return pending;
+            }
+            int id = nextId;
+            // 0 is never used, so a zeroed id in a reply cannot match anything
+            nextId = id == Integer.MAX_VALUE ? 1 : id + 1;
+            if ((size + 1) * 2 > slots.length) {
+                resize(slots.length * 2);
+            }
+            pending = new Pending(this, id, System.nanoTime() + timeout.toNanos());
+            insert(pending);
+            size++;
+        }
+        timer.schedule(pending);
+        return pending;
+    }
+
+    /**
+     * Completes the request with the given id with a copy of the reply, so the caller may reuse
+     * its buffer as soon as this returns.
+     *
+     * @return false if no request with that id is pending, e.g. because it already timed out
+     */
+    public boolean complete(int id, ByteBuffer reply) {
+        Pending pending = take(id);
+        return pending != null
+                && pending.complete(ByteBuffer.allocate(reply.remaining()).put(reply.duplicate()).flip());
+    }
+
+    /**
+     * Fails one request, e.g. because it could not be sent, and frees its correlation id.
+     */
+    public boolean fail(Pending pending, Throwable cause) {
+        return take(pending.id) == pending && pending.completeExceptionally(cause);
+    }
+
+    /**
+     * Fails every pending request and all later registrations, e.g. when the session closes.
+     */
+    public void failAll(IOException cause) {
+        Pending[] failed;
+        synchronized (this) {
+            if (closed != null) return;
+            closed = cause;
+            failed = slots;
+            slots = new Pending[1];
+            size = 0;
+        }
+        for (Pending pending : failed) {
+            if (pending != null) {
+                pending.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * Number of requests awaiting a reply.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Ring capacity, for tests.
+     */
+    synchronized int capacity() {
+        return slots.length;
+    }
+
+    private synchronized Pending take(int id) {
+        int mask = slots.length - 1;
+        int index = id & mask;
+        Pending pending;
+        while ((pending = slots[index]) != null && pending.id != id) {
+            index = (index + 1) & mask;
+        }
+        if (pending == null) return null;
+        // Backward-shift deletion: pull later entries of the probe run into the gap
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            Pending moved = slots[next];
+            if (moved == null) break;
+            if (((next - moved.id) & mask) >= ((next - index) & mask)) {
+                slots[index] = moved;
+                index = next;
+            }
+        }
+        slots[index] = null;
+        size--;
+        if (slots.length > INITIAL_CAPACITY && size * 8 < slots.length) {
+            resize(slots.length / 2);
+        }
+        return pending;
+    }
+
+    private void insert(Pending pending) {
+        int mask = slots.length - 1;
+        int index = pending.id & mask;
+        while (slots[index] != null) {
+            index = (index + 1) & mask;
+        }
+        slots[index] = pending;
+    }
+
+    private void resize(int capacity) {
+        Pending[] old = slots;
+        slots = new Pending[capacity];
+        for (Pending pending : old) {
+            if (pending != null) {
+                insert(pending);
+            }
+        }
+    }
+
+    private void expire(Pending pending) {
+        if (take(pending.id) != pending) return;
+        // Counted before completing, so whoever observes the timeout also sees it in the metrics
+        if (metrics != null) {
+            metrics.requestTimedOut();
+        }
+        pending.completeExceptionally(new TimeoutException("No reply to request " + pending.id));
+    }
+
+    /**
+     * A request awaiting its reply; also its own timer wheel entry.
+     */
+    public static final class Pending extends CompletableFuture<ByteBuffer> implements TimerWheel.Timeout {
+        private final PendingRequests owner;
+        private final int id;
+        private final long deadlineNanos;
+
+        private Pending(PendingRequests owner, int id, long deadlineNanos) {
+            this.owner = owner;
+            this.id = id;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public long deadlineNanos() {
+            return deadlineNanos;
+        }
+
+        @Override
+        public void expire() {
+            owner.expire(this);
+        }
+
+        /**
+         * Cancelling also frees the correlation slot, so a late reply is ignored.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            owner.take(id);
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
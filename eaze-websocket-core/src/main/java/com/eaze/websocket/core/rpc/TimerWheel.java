@@ -0,0 +1,124 @@
+package com.eaze.websocket.core.rpc;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hashed timer wheel shared by all pending requests, so a million in-flight requests cost one
+ * thread and one bucket entry each instead of a scheduled task each. Timeouts are handed to the
+ * timer thread through a lock-free queue and placed in the bucket of their deadline tick; every
+ * tick the thread visits one bucket, drops entries that completed in the meantime and expires the
+ * ones that are due. Precision is one tick.
+ */
+public final class TimerWheel {
+    private static final TimerWheel SHARED = new TimerWheel(Duration.ofMillis(10), 512);
+
+    /**
+     * Something that expires at a deadline unless it is done first.
+     */
+    public interface Timeout {
+        long deadlineNanos();
+
+        /** True once the timeout no longer matters, so the wheel can forget it. */
+        boolean isDone();
+
+        /** Called on the timer thread once the deadline has passed; must not block. */
+        void expire();
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final long startNanos = System.nanoTime();
+
+    // Timer thread only
+    private final ArrayList<Timeout>[] buckets;
+    private long tick;
+
+    /**
+     * @param tick    resolution of the wheel
+     * @param buckets slots per revolution, rounded up to a power of two; a timeout longer than one
+     *                revolution is simply looked at again on later revolutions
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(Duration tick, int buckets) {
+        if (tick.isNegative() || tick.isZero()) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, buckets - 1)) << 1;
+        this.tickNanos = tick.toNanos();
+        this.mask = size - 1;
+        this.buckets = new ArrayList[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * The process-wide wheel (10 ms ticks) used for request timeouts.
+     */
+    public static TimerWheel shared() {
+        return SHARED;
+    }
+
+    /**
+     * Arms a timeout. The timer thread is started with the first call.
+     */
+    public void schedule(Timeout timeout) {
+        incoming.offer(timeout);
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread.ofPlatform().name("Eaze-TimerWheel").daemon().start(this::run);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            long nextTick = startNanos + (tick + 1) * tickNanos;
+            long sleep = nextTick - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            long now = System.nanoTime();
+            transferIncoming();
+            expire(buckets[(int) tick & mask], now);
+        }
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.isDone()) continue;
+            long due = (timeout.deadlineNanos() - startNanos + tickNanos - 1) / tickNanos;
+            // Already due: the current bucket is visited right after this
+            buckets[(int) Math.max(due, tick) & mask].add(timeout);
+        }
+    }
+
+    private static void expire(ArrayList<Timeout> bucket, long now) {
+        for (int i = bucket.size() - 1; i >= 0; i--) {
+            Timeout timeout = bucket.get(i);
+            boolean due = timeout.deadlineNanos() - now <= 0;
+            if (!due && !timeout.isDone()) continue;
+            // Swap-remove: order within a bucket does not matter
+            Timeout last = bucket.removeLast();
+            if (i < bucket.size()) {
+                bucket.set(i, last);
+            }
+            if (due && !timeout.isDone()) {
+                try {
+                    timeout.expire();
+                } catch (RuntimeException e) {
+                    System.err.println("Timeout callback error: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
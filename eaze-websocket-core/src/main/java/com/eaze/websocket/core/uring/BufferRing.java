@@ -0,0 +1,108 @@
+package com.eaze.websocket.core.uring;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+
+/**
+ * A provided-buffer ring registered with an {@link IoUring}: receives pick a free buffer from it
+ * as data arrives, so idle connections hold no buffer at all. The buffers are
+ * {@link BufferPool} buffers, held until {@link #close()}.
+ *
+ * {@link #recycle} is not thread-safe; callers serialize it.
+ */
+public final class BufferRing implements AutoCloseable {
+    private static final int IORING_REGISTER_PBUF_RING = 22;
+    private static final int IORING_UNREGISTER_PBUF_RING = 23;
+    private static final int ENTRY_SIZE = 16;
+    private static final long PAGE_SIZE = 4096;
+
+    private final IoUring ring;
+    private final short group;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment entries;
+    private final int mask;
+    private final ByteBuffer[] buffers;
+    private short tail;
+
+    /**
+     * @param count number of buffers, a power of two below 32768
+     */
+    public BufferRing(IoUring ring, short group, int count) throws IOException {
+        if (Integer.bitCount(count) != 1 || count >= 32768) {
+            arena.close();
+            throw new IllegalArgumentException("Buffer count must be a power of two below 32768: " + count);
+        }
+        this.ring = ring;
+        this.group = group;
+        this.mask = count - 1;
+        this.entries = arena.allocate((long) ENTRY_SIZE * count, PAGE_SIZE);
+        this.buffers = new ByteBuffer[count];
+
+        // struct io_uring_buf_reg: ring_addr, ring_entries, bgid
+        MemorySegment reg = arena.allocate(40, 8);
+        reg.set(ValueLayout.JAVA_LONG, 0, entries.address());
+        reg.set(ValueLayout.JAVA_INT, 8, count);
+        reg.set(ValueLayout.JAVA_SHORT, 12, group);
+        long result = ring.register(IORING_REGISTER_PBUF_RING, reg, 1);
+        if (result < 0) {
+            arena.close();
+            throw new IOException("Registering the buffer ring failed: errno " + -result);
+        }
+        for (int bid = 0; bid < count; bid++) {
+            buffers[bid] = BufferPool.acquire();
+            add(bid);
+        }
+        publish();
+    }
+
+    public short group() {
+        return group;
+    }
+
+    /**
+     * The buffer a completion was received into, positioned over the {@code length} bytes received.
+     */
+    public ByteBuffer buffer(int bid, int length) {
+        return buffers[bid].clear().limit(length);
+    }
+
+    /**
+     * Hands a buffer back to the kernel once its data has been consumed.
+     */
+    public void recycle(int bid) {
+        add(bid);
+        publish();
+    }
+
+    private void add(int bid) {
+        // struct io_uring_buf: addr, len, bid; the ring's tail overlays the first entry's resv field
+        long offset = (long) (tail & mask) * ENTRY_SIZE;
+        ByteBuffer buffer = buffers[bid];
+        entries.set(ValueLayout.JAVA_LONG, offset, MemorySegment.ofBuffer(buffer).address());
+        entries.set(ValueLayout.JAVA_INT, offset + 8, buffer.capacity());
+        entries.set(ValueLayout.JAVA_SHORT, offset + 12, (short) bid);
+        tail++;
+    }
+
+    private void publish() {
+        VarHandle.releaseFence();
+        entries.set(ValueLayout.JAVA_SHORT, 14, tail);
+    }
+
+    @Override
+    public void close() {
+        MemorySegment reg = arena.allocate(40, 8);
+        reg.set(ValueLayout.JAVA_SHORT, 12, group);
+        ring.register(IORING_UNREGISTER_PBUF_RING, reg, 1);
+        arena.close();
+        for (ByteBuffer buffer : buffers) {
+            BufferPool.release(buffer);
+        }
+    }
+}
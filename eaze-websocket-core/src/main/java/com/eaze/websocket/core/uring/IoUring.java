@@ -0,0 +1,306 @@
+package com.eaze.websocket.core.uring;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A Linux io_uring instance driven through {@code java.lang.foreign}: the submission and
+ * completion rings are mapped into the process and read and written directly, so queuing a
+ * request or reaping a completion is a memory access rather than a syscall. Only the operations
+ * the server needs are exposed: multishot receive into a {@link BufferRing}, cancel and no-op.
+ *
+ * Submission methods are not thread-safe; callers serialize them with their own lock. Completions
+ * must be reaped by a single thread, which may wait in {@link #awaitCompletions()} while other
+ * threads submit.
+ */
+public final class IoUring implements AutoCloseable {
+    /** Completion flag: {@link Completion#complete} got a buffer from the buffer ring. */
+    public static final int CQE_F_BUFFER = 1;
+    /** Completion flag: the multishot request stays armed and will complete again. */
+    public static final int CQE_F_MORE = 1 << 1;
+    public static final int CQE_BUFFER_SHIFT = 16;
+
+    public static final int ENOENT = 2;
+    public static final int ENOBUFS = 105;
+    public static final int ECANCELED = 125;
+
+    private static final byte IORING_OP_NOP = 0;
+    private static final byte IORING_OP_ASYNC_CANCEL = 14;
+    private static final byte IORING_OP_RECV = 27;
+    private static final byte IOSQE_BUFFER_SELECT = 1 << 5;
+    private static final short IORING_RECV_MULTISHOT = 1 << 1;
+
+    private static final int IORING_SETUP_CQSIZE = 1 << 3;
+    private static final int IORING_FEAT_SINGLE_MMAP = 1;
+    private static final int IORING_FEAT_NODROP = 1 << 1;
+    private static final int IORING_FEAT_FAST_POLL = 1 << 5;
+    private static final int IORING_ENTER_GETEVENTS = 1;
+    private static final long IORING_OFF_SQ_RING = 0;
+    private static final long IORING_OFF_CQ_RING = 0x8000000L;
+    private static final long IORING_OFF_SQES = 0x10000000L;
+
+    private static final int PARAMS_SIZE = 120;
+    private static final int SQE_SIZE = 64;
+    private static final int CQE_SIZE = 16;
+
+    private static volatile String unsupportedReason;
+    private static volatile boolean probed;
+
+    final int fd;
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment sqRing;
+    private final MemorySegment cqRing;
+    private final MemorySegment sqes;
+    private final int sqEntries;
+    private final int sqMask;
+    private final long sqHead;
+    private final long sqTail;
+    private final long sqArray;
+    private final int cqMask;
+    private final long cqHead;
+    private final long cqTail;
+    private final long cqes;
+    // Errno of submitting threads (serialized by the caller) and of the reaping thread
+    private final MemorySegment submitErrno = Syscalls.errnoSegment(arena);
+    private final MemorySegment waitErrno = Syscalls.errnoSegment(arena);
+
+    // Guarded by the caller's submission lock
+    private int localTail;
+    private int submitted;
+    // Reaping thread only
+    private int localHead;
+
+    /**
+     * A completion queue entry, valid only during the call.
+     */
+    @FunctionalInterface
+    public interface Completion {
+        /**
+         * @param result bytes received, or a negated errno
+         */
+        void complete(long userData, int result, int flags);
+    }
+
+    /**
+     * @param entries submission queue size, a power of two; the completion queue is four times larger
+     */
+    public IoUring(int entries) throws IOException {
+        MemorySegment params = arena.allocate(PARAMS_SIZE, 8);
+        params.set(ValueLayout.JAVA_INT, 8, IORING_SETUP_CQSIZE);
+        params.set(ValueLayout.JAVA_INT, 4, entries * 4);
+        long result = Syscalls.syscall(submitErrno, Syscalls.IO_URING_SETUP, entries, params.address(), 0, 0, 0, 0);
+        if (result < 0) {
+            arena.close();
+            throw new IOException("io_uring_setup failed: errno " + -result);
+        }
+        fd = (int) result;
+        try {
+            int features = params.get(ValueLayout.JAVA_INT, 20);
+            if ((features & IORING_FEAT_SINGLE_MMAP) == 0 || (features & IORING_FEAT_NODROP) == 0
+                    || (features & IORING_FEAT_FAST_POLL) == 0) {
+                throw new IOException("Kernel io_uring lacks required features (0x" + Integer.toHexString(features) + ")");
+            }
+            sqEntries = params.get(ValueLayout.JAVA_INT, 0);
+            int cqEntries = params.get(ValueLayout.JAVA_INT, 4);
+            // struct io_sqring_offsets at 40, struct io_cqring_offsets at 80
+            sqHead = params.get(ValueLayout.JAVA_INT, 40);
+            sqTail = params.get(ValueLayout.JAVA_INT, 44);
+            long sqRingMask = params.get(ValueLayout.JAVA_INT, 48);
+            sqArray = params.get(ValueLayout.JAVA_INT, 64);
+            cqHead = params.get(ValueLayout.JAVA_INT, 80);
+            cqTail = params.get(ValueLayout.JAVA_INT, 84);
+            long cqRingMask = params.get(ValueLayout.JAVA_INT, 88);
+            cqes = params.get(ValueLayout.JAVA_INT, 100);
+
+            // One mapping holds both rings (IORING_FEAT_SINGLE_MMAP)
+            long ringSize = Math.max(sqArray + 4L * sqEntries, cqes + (long) CQE_SIZE * cqEntries);
+            sqRing = Syscalls.mmap(submitErrno, ringSize, fd, IORING_OFF_SQ_RING);
+            cqRing = sqRing;
+            sqes = Syscalls.mmap(submitErrno, (long) SQE_SIZE * sqEntries, fd, IORING_OFF_SQES);
+            sqMask = sqRing.get(ValueLayout.JAVA_INT, sqRingMask);
+            cqMask = cqRing.get(ValueLayout.JAVA_INT, cqRingMask);
+            localTail = sqRing.get(ValueLayout.JAVA_INT, sqTail);
+            submitted = localTail;
+            localHead = cqRing.get(ValueLayout.JAVA_INT, cqHead);
+        } catch (IOException | RuntimeException e) {
+            Syscalls.close(fd);
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether io_uring with multishot receive and buffer rings can be used here: Linux 6.0 or
+     * later, native access through FFM, and no seccomp policy blocking the syscalls.
+     */
+    public static boolean isSupported() {
+        return unsupportedReason() == null;
+    }
+
+    /**
+     * Why {@link #isSupported()} is false, or null if it is true.
+     */
+    public static String unsupportedReason() {
+        if (!probed) {
+            synchronized (IoUring.class) {
+                if (!probed) {
+                    unsupportedReason = probe();
+                    probed = true;
+                }
+            }
+        }
+        return unsupportedReason;
+    }
+
+    private static String probe() {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return "io_uring is Linux only";
+        }
+        String[] version = System.getProperty("os.version", "0.0").split("[.-]");
+        try {
+            int major = Integer.parseInt(version[0]);
+            if (major < 6) {
+                return "Multishot receive needs Linux 6.0, running " + System.getProperty("os.version");
+            }
+        } catch (NumberFormatException e) {
+            return "Unknown kernel version " + System.getProperty("os.version");
+        }
+        try (IoUring ring = new IoUring(2);
+             BufferRing buffers = new BufferRing(ring, (short) 0, 1)) {
+            return null;
+        } catch (IOException e) {
+            return e.getMessage();
+        } catch (Throwable t) {
+            // No native access (e.g. FFM unavailable or denied) or an unexpected libc
+            return t.toString();
+        }
+    }
+
+    /**
+     * Queues a multishot receive: every chunk of data that arrives on the socket completes with a
+     * buffer picked from the group, until the request is cancelled, the peer closes (result 0),
+     * the group runs out of buffers ({@link #ENOBUFS}) or an error ends it. A completion without
+     * {@link #CQE_F_MORE} is the last one.
+     */
+    public void prepareRecvMultishot(int socketFd, short bufferGroup, long userData) throws IOException {
+        MemorySegment sqe = nextSqe(IORING_OP_RECV, socketFd, userData);
+        sqe.set(ValueLayout.JAVA_BYTE, 1, IOSQE_BUFFER_SELECT);
+        sqe.set(ValueLayout.JAVA_SHORT, 2, IORING_RECV_MULTISHOT);
+        sqe.set(ValueLayout.JAVA_SHORT, 40, bufferGroup);
+    }
+
+    /**
+     * Queues the cancellation of the request submitted with {@code target}; the cancel itself
+     * completes under {@code userData}.
+     */
+    public void prepareCancel(long target, long userData) throws IOException {
+        MemorySegment sqe = nextSqe(IORING_OP_ASYNC_CANCEL, -1, userData);
+        sqe.set(ValueLayout.JAVA_LONG, 16, target);
+    }
+
+    /**
+     * Queues a no-op, e.g. to wake the thread waiting in {@link #awaitCompletions()}.
+     */
+    public void prepareNop(long userData) throws IOException {
+        nextSqe(IORING_OP_NOP, -1, userData);
+    }
+
+    private MemorySegment nextSqe(byte opcode, int targetFd, long userData) throws IOException {
+        int head = sqRing.get(ValueLayout.JAVA_INT, sqHead);
+        VarHandle.acquireFence();
+        if (localTail - head >= sqEntries) {
+            // Without SQPOLL the kernel consumes submitted entries during io_uring_enter
+            submit();
+        }
+        int index = localTail & sqMask;
+        MemorySegment sqe = sqes.asSlice((long) index * SQE_SIZE, SQE_SIZE);
+        sqe.fill((byte) 0);
+        sqe.set(ValueLayout.JAVA_BYTE, 0, opcode);
+        sqe.set(ValueLayout.JAVA_INT, 4, targetFd);
+        sqe.set(ValueLayout.JAVA_LONG, 32, userData);
+        sqRing.set(ValueLayout.JAVA_INT, sqArray + 4L * index, index);
+        localTail++;
+        return sqe;
+    }
+
+    /**
+     * Submits everything queued since the last submit with one {@code io_uring_enter}.
+     *
+     * @return the number of requests submitted
+     */
+    public int submit() throws IOException {
+        int pending = localTail - submitted;
+        if (pending == 0) return 0;
+        VarHandle.releaseFence();
+        sqRing.set(ValueLayout.JAVA_INT, sqTail, localTail);
+        VarHandle.fullFence();
+        long result;
+        do {
+            result = Syscalls.syscall(submitErrno, Syscalls.IO_URING_ENTER, fd, pending, 0, 0, 0, 0);
+        } while (result == -Syscalls.EINTR);
+        if (result < 0) {
+            throw new IOException("io_uring_enter failed: errno " + -result);
+        }
+        submitted += (int) result;
+        return (int) result;
+    }
+
+    /**
+     * Blocks until at least one completion is available. Reaping thread only.
+     */
+    public void awaitCompletions() throws IOException {
+        if (hasCompletions()) return;
+        long result = Syscalls.syscall(waitErrno, Syscalls.IO_URING_ENTER, fd, 0, 1, IORING_ENTER_GETEVENTS, 0, 0);
+        if (result < 0 && result != -Syscalls.EINTR) {
+            throw new IOException("io_uring_enter failed: errno " + -result);
+        }
+    }
+
+    private boolean hasCompletions() {
+        int tail = cqRing.get(ValueLayout.JAVA_INT, cqTail);
+        VarHandle.acquireFence();
+        return tail != localHead;
+    }
+
+    /**
+     * Hands every available completion to {@code handler} and frees their slots. Reaping thread only.
+     *
+     * @return the number of completions reaped
+     */
+    public int reap(Completion handler) {
+        int tail = cqRing.get(ValueLayout.JAVA_INT, cqTail);
+        VarHandle.acquireFence();
+        int count = 0;
+        while (localHead != tail) {
+            long offset = cqes + (long) (localHead & cqMask) * CQE_SIZE;
+            long userData = cqRing.get(ValueLayout.JAVA_LONG, offset);
+            int result = cqRing.get(ValueLayout.JAVA_INT, offset + 8);
+            int flags = cqRing.get(ValueLayout.JAVA_INT, offset + 12);
+            localHead++;
+            count++;
+            // Release the slot before the handler runs, so a slow handler never backs up the kernel
+            VarHandle.releaseFence();
+            cqRing.set(ValueLayout.JAVA_INT, cqHead, localHead);
+            handler.complete(userData, result, flags);
+        }
+        return count;
+    }
+
+    long register(int opcode, MemorySegment arg, int count) {
+        return Syscalls.syscall(submitErrno, Syscalls.IO_URING_REGISTER, fd, opcode, arg.address(), count, 0, 0);
+    }
+
+    /**
+     * Closes the ring; requests still in flight are cancelled by the kernel.
+     */
+    @Override
+    public void close() {
+        Syscalls.munmap(sqes);
+        Syscalls.munmap(sqRing);
+        Syscalls.close(fd);
+        arena.close();
+    }
+}
@@ -0,0 +1,116 @@
+package com.eaze.websocket.core.uring;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * The few libc entry points io_uring needs, bound once through the FFM linker. The io_uring calls
+ * go through {@code syscall(2)} because glibc has no wrappers for them, so no liburing is needed.
+ * Every call captures errno into a caller-supplied segment from {@link #errnoSegment}.
+ */
+final class Syscalls {
+    // Same numbers on x86-64 and aarch64: io_uring was added after the syscall tables were unified
+    static final long IO_URING_SETUP = 425;
+    static final long IO_URING_ENTER = 426;
+    static final long IO_URING_REGISTER = 427;
+
+    static final int PROT_READ = 0x1;
+    static final int PROT_WRITE = 0x2;
+    static final int MAP_SHARED = 0x01;
+    static final int MAP_POPULATE = 0x08000;
+
+    static final int EINTR = 4;
+
+    private static final MethodHandle SYSCALL;
+    private static final MethodHandle MMAP;
+    private static final MethodHandle MUNMAP;
+    private static final MethodHandle CLOSE;
+    private static final long ERRNO_OFFSET;
+    private static final MemoryLayout CAPTURE_LAYOUT;
+
+    static {
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup libc = linker.defaultLookup();
+        Linker.Option errno = Linker.Option.captureCallState("errno");
+        CAPTURE_LAYOUT = Linker.Option.captureStateLayout();
+        ERRNO_OFFSET = CAPTURE_LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+        // long syscall(long number, ...): every argument is passed as a long
+        SYSCALL = linker.downcallHandle(libc.find("syscall").orElseThrow(),
+                FunctionDescriptor.of(ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG),
+                errno, Linker.Option.firstVariadicArg(1));
+        MMAP = linker.downcallHandle(libc.find("mmap").orElseThrow(),
+                FunctionDescriptor.of(ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG),
+                errno);
+        MUNMAP = linker.downcallHandle(libc.find("munmap").orElseThrow(),
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        CLOSE = linker.downcallHandle(libc.find("close").orElseThrow(),
+                FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+    }
+
+    private Syscalls() {
+    }
+
+    /**
+     * A segment for the errno of calls made by one thread at a time.
+     */
+    static MemorySegment errnoSegment(Arena arena) {
+        return arena.allocate(CAPTURE_LAYOUT.byteSize(), CAPTURE_LAYOUT.byteAlignment());
+    }
+
+    static int errno(MemorySegment capture) {
+        return capture.get(ValueLayout.JAVA_INT, ERRNO_OFFSET);
+    }
+
+    /**
+     * @return the syscall's result, or -errno if it failed
+     */
+    static long syscall(MemorySegment capture, long number, long a1, long a2, long a3, long a4, long a5, long a6) {
+        long result;
+        try {
+            result = (long) SYSCALL.invokeExact(capture, number, a1, a2, a3, a4, a5, a6);
+        } catch (Throwable t) {
+            throw new IllegalStateException("syscall " + number + " failed", t);
+        }
+        return result == -1 ? -errno(capture) : result;
+    }
+
+    static MemorySegment mmap(MemorySegment capture, long length, int fd, long offset) throws IOException {
+        MemorySegment address;
+        try {
+            address = (MemorySegment) MMAP.invokeExact(capture, MemorySegment.NULL, length,
+                    PROT_READ | PROT_WRITE, MAP_SHARED | MAP_POPULATE, fd, offset);
+        } catch (Throwable t) {
+            throw new IllegalStateException("mmap failed", t);
+        }
+        if (address.address() == -1L) {
+            throw new IOException("mmap of io_uring region failed: errno " + errno(capture));
+        }
+        return address.reinterpret(length);
+    }
+
+    static void munmap(MemorySegment region) {
+        try {
+            int ignored = (int) MUNMAP.invokeExact(region, region.byteSize());
+        } catch (Throwable t) {
+            throw new IllegalStateException("munmap failed", t);
+        }
+    }
+
+    static void close(int fd) {
+        try {
+            int ignored = (int) CLOSE.invokeExact(fd);
+        } catch (Throwable t) {
+            throw new IllegalStateException("close failed", t);
+        }
+    }
+}
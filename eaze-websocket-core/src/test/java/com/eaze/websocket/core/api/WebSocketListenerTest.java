@@ -0,0 +1,43 @@
+package com.eaze.websocket.core.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketListenerTest {
+
+    static class LegacyListener implements WebSocketListener {
+        final List<Object> messages = new ArrayList<>();
+
+        @Override public void onOpen(WebSocketSession session) {}
+        @Override public void onMessage(WebSocketSession session, String text) { messages.add(text); }
+        @Override public void onMessage(WebSocketSession session, byte[] data) { messages.add(data); }
+        @Override public void onClose(WebSocketSession session, int code, String reason) {}
+        @Override public void onError(WebSocketSession session, Throwable cause) {}
+    }
+
+    @Test
+    public void testByteBufferCallbackDelegatesToTextCallback() {
+        LegacyListener listener = new LegacyListener();
+        ByteBuffer payload = ByteBuffer.wrap("héllo".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+
+        listener.onMessage(null, payload, true);
+
+        assertEquals(List.of("héllo"), listener.messages);
+    }
+
+    @Test
+    public void testByteBufferCallbackDelegatesToBinaryCallback() {
+        LegacyListener listener = new LegacyListener();
+        ByteBuffer payload = ByteBuffer.allocateDirect(3).put(new byte[]{7, 8, 9}).flip().asReadOnlyBuffer();
+
+        listener.onMessage(null, payload, false);
+
+        assertEquals(1, listener.messages.size());
+        assertArrayEquals(new byte[]{7, 8, 9}, (byte[]) listener.messages.get(0));
+    }
+}
@@ -0,0 +1,65 @@
+package com.eaze.websocket.core.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebSocketSessionTest {
+
+    /** Implements only the methods the interface had before buffer, batch and typed sends. */
+    static class LegacySession implements WebSocketSession {
+        final List<Object> sent = new ArrayList<>();
+
+        @Override public void send(String text) { sent.add(text); }
+        @Override public void send(byte[] data) { sent.add(data); }
+        @Override public void close(int code, String reason) {}
+        @Override public boolean isOpen() { return true; }
+        @Override public String getRemoteAddress() { return "test"; }
+    }
+
+    @Test
+    public void testBufferSendsDelegateToByteArraySend() throws Exception {
+        LegacySession session = new LegacySession();
+        ByteBuffer single = ByteBuffer.wrap(new byte[]{0, 1, 2}).position(1);
+
+        session.send(single);
+        session.send(new ByteBuffer[]{ByteBuffer.wrap(new byte[]{3}), ByteBuffer.wrap(new byte[]{4, 5})});
+        session.sendLatest("key", ByteBuffer.wrap(new byte[]{6}));
+        session.sendStream(new ByteArrayInputStream(new byte[]{7, 8}));
+
+        assertEquals(1, single.position(), "Buffer position must be left untouched");
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) session.sent.get(0));
+        assertArrayEquals(new byte[]{3, 4, 5}, (byte[]) session.sent.get(1));
+        assertArrayEquals(new byte[]{6}, (byte[]) session.sent.get(2));
+        assertArrayEquals(new byte[]{7, 8}, (byte[]) session.sent.get(3));
+    }
+
+    @Test
+    public void testBatchAndLatestSendImmediately() throws Exception {
+        LegacySession session = new LegacySession();
+
+        session.batch(() -> session.sendLatest("price", "42"));
+
+        assertEquals(List.of("42"), session.sent);
+        assertNull(session.getSubprotocol());
+        assertEquals(0, session.getId());
+    }
+
+    @Test
+    public void testUnsupportedOperationsFail() {
+        LegacySession session = new LegacySession();
+
+        assertThrows(UnsupportedOperationException.class, () -> session.sendPreEncoded(ByteBuffer.allocate(2)));
+        assertThrows(UnsupportedOperationException.class, () -> session.sendFile(null, 0, 1, 0));
+        assertThrows(IllegalStateException.class, () -> session.sendObject("message"));
+        ExecutionException failed = assertThrows(ExecutionException.class,
+                () -> session.request(ByteBuffer.allocate(1), Duration.ofSeconds(1)).get());
+        assertInstanceOf(UnsupportedOperationException.class, failed.getCause());
+    }
+}
@@ -2,6 +2,8 @@ package com.eaze.websocket.core.buffer;
 
 import org.junit.jupiter.api.Test;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class BufferPoolTest {
@@ -16,7 +18,14 @@ public class BufferPoolTest {
         buffer1.put((byte) 1);
         BufferPool.release(buffer1);
 
-        ByteBuffer buffer2 = BufferPool.acquire();
+        // Other tests may have left buffers in the pool ahead of this one
+        List<ByteBuffer> ahead = new ArrayList<>();
+        ByteBuffer buffer2 = null;
+        for (int i = BufferPool.pooled(); i > 0 && buffer2 != buffer1; i--) {
+            buffer2 = BufferPool.acquire();
+            ahead.add(buffer2);
+        }
+        ahead.forEach(BufferPool::release);
         assertSame(buffer1, buffer2, "Should reuse the released buffer");
         assertEquals(0, buffer2.position(), "Reused buffer should be cleared");
     }
@@ -37,6 +46,10 @@ public class BufferPoolTest {
         
         ByteBuffer heapBuffer = ByteBuffer.allocate(8192);
         BufferPool.release(heapBuffer); // Should not be added to pool because it's not direct
+
+        int pooled = BufferPool.pooled();
+        BufferPool.release(ByteBuffer.allocateDirect(8192).asReadOnlyBuffer());
+        assertEquals(pooled, BufferPool.pooled(), "A read-only view must not be pooled");
         
         ByteBuffer buffer1 = BufferPool.acquire();
         assertNotSame(heapBuffer, buffer1);
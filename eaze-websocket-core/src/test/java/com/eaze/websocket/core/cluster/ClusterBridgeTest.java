@@ -0,0 +1,297 @@
+package com.eaze.websocket.core.cluster;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.FrameDecoder;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterBridgeTest {
+
+    private final List<ClusterBridge> bridges = new ArrayList<>();
+
+    /** Decodes pre-encoded writes back into text messages. */
+    private static class RecordingSession implements WebSocketSession {
+        private final FrameDecoder decoder = new FrameDecoder(Integer.MAX_VALUE, false);
+        final List<String> messages = new ArrayList<>();
+
+        @Override
+        public synchronized void sendPreEncoded(ByteBuffer frames) throws IOException {
+            ByteBuffer copy = ByteBuffer.allocate(frames.remaining()).put(frames.duplicate()).flip();
+            WebSocketFrame frame;
+            while ((frame = decoder.decode(copy)) != null) {
+                messages.add(StandardCharsets.UTF_8.decode(frame.getPayload()).toString());
+            }
+        }
+
+        synchronized int count() {
+            return messages.size();
+        }
+
+        @Override public void send(String text) {}
+        @Override public void send(byte[] data) {}
+        @Override public void close(int code, String reason) {}
+        @Override public boolean isOpen() { return true; }
+        @Override public int getId() { return 1; }
+        @Override public String getRemoteAddress() { return "test"; }
+    }
+
+    @AfterEach
+    public void closeBridges() throws IOException {
+        for (ClusterBridge bridge : bridges) {
+            bridge.close();
+        }
+    }
+
+    private ClusterBridge bridge(String nodeId) throws IOException {
+        ClusterBridge bridge = new ClusterBridge(nodeId, 0);
+        bridge.start();
+        bridges.add(bridge);
+        return bridge;
+    }
+
+    private static InetSocketAddress address(ClusterBridge bridge) {
+        return new InetSocketAddress("127.0.0.1", bridge.getLocalPort());
+    }
+
+    private static PeerLink peer(ClusterBridge bridge, String nodeId) {
+        for (PeerLink link : bridge.getPeers()) {
+            if (nodeId.equals(link.getNodeId())) return link;
+        }
+        return null;
+    }
+
+    private static boolean interested(ClusterBridge bridge, String nodeId, String topic) {
+        PeerLink link = peer(bridge, nodeId);
+        return link != null && link.isInterestedIn(topic);
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    public void testPublishReachesInterestedNodesOnly() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        ClusterBridge c = bridge("c");
+        a.connect(address(b));
+        a.connect(address(c));
+        b.connect(address(c));
+
+        RecordingSession local = new RecordingSession();
+        RecordingSession remote = new RecordingSession();
+        a.subscribe("prices", local);
+        c.subscribe("prices", remote);
+        assertTrue(waitFor(() -> interested(a, "c", "prices") && peer(a, "b") != null));
+        assertFalse(interested(a, "b", "prices"));
+
+        for (int i = 0; i < 100; i++) {
+            a.publish("prices", "tick-" + i);
+        }
+        assertTrue(waitFor(() -> remote.count() == 100));
+        assertEquals(100, local.count());
+        assertEquals("tick-0", remote.messages.get(0));
+        assertEquals("tick-99", remote.messages.get(99));
+
+        // B has no subscribers, so nothing was shipped to it
+        assertEquals(0, peer(b, "a").getMessagesReceived());
+        PeerLink fromA = peer(c, "a");
+        assertEquals(100, fromA.getMessagesReceived());
+        assertTrue(fromA.getLagMicros() >= 0);
+        assertTrue(peer(a, "c").getWriteCalls() <= 100 + 2);
+    }
+
+    @Test
+    public void testBlockedSubscriberDoesNotStallOthers() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        a.connect(address(b));
+
+        CountDownLatch unblock = new CountDownLatch(1);
+        RecordingSession stuck = new RecordingSession() {
+            @Override
+            public void sendPreEncoded(ByteBuffer frames) throws IOException {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.sendPreEncoded(frames);
+            }
+        };
+        RecordingSession live = new RecordingSession();
+        b.subscribe("prices", stuck);
+        b.subscribe("prices", live);
+        assertTrue(waitFor(() -> interested(a, "b", "prices")));
+
+        for (int i = 0; i < 100; i++) {
+            a.publish("prices", "tick-" + i);
+        }
+        assertTrue(waitFor(() -> live.count() == 100), "The link's reader must not wait for a blocked subscriber");
+        assertEquals(0, stuck.count());
+
+        unblock.countDown();
+        assertTrue(waitFor(() -> stuck.count() == 100));
+        assertEquals("tick-99", stuck.messages.get(99));
+        assertEquals(0, b.getRemoteMessagesDropped());
+    }
+
+    @Test
+    public void testUnsubscribeWithdrawsInterest() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        a.connect(address(b));
+
+        RecordingSession session = new RecordingSession();
+        b.subscribe("news", session);
+        assertTrue(waitFor(() -> interested(a, "b", "news")));
+
+        b.unsubscribeAll(session);
+        assertTrue(waitFor(() -> !interested(a, "b", "news")));
+        a.publish("news", "dropped");
+        assertEquals(0, peer(a, "b").getMessagesSent());
+    }
+
+    @Test
+    public void testInterestSentToLateJoiningPeer() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        b.subscribe("news", new RecordingSession());
+
+        a.connect(address(b));
+        assertTrue(waitFor(() -> interested(a, "b", "news")));
+    }
+
+    @Test
+    public void testMutualDialingKeepsOneLink() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        a.connect(address(b));
+        b.connect(address(a));
+
+        RecordingSession session = new RecordingSession();
+        b.subscribe("news", session);
+        assertTrue(waitFor(() -> interested(a, "b", "news")));
+        // Give the second link time to complete its HELLO and lose to the first
+        Thread.sleep(200);
+        assertEquals(1, a.getPeers().size());
+        assertEquals(1, b.getPeers().size());
+
+        a.publish("news", "once");
+        assertTrue(waitFor(() -> session.count() == 1));
+        Thread.sleep(100);
+        assertEquals(List.of("once"), session.messages);
+    }
+
+    private static void writeRecord(SocketChannel channel, byte type, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + 3 + bytes.length);
+        record.putInt(3 + bytes.length).put(type).putShort((short) bytes.length).put(bytes).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Reads records until the peer closes the connection.
+     *
+     * @return the record types in order
+     */
+    private static List<Byte> readRecords(SocketChannel channel) throws IOException {
+        List<Byte> types = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        while (channel.read(in) != -1) {
+            in.flip();
+            while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+                int length = in.getInt();
+                types.add(in.get(in.position()));
+                in.position(in.position() + length);
+            }
+            in.compact();
+        }
+        return types;
+    }
+
+    @Test
+    public void testDuplicateLinkTellsThePeerBeforeClosing() throws Exception {
+        ClusterBridge a = bridge("a");
+        ClusterBridge b = bridge("b");
+        a.connect(address(b));
+        assertTrue(waitFor(() -> peer(a, "b") != null));
+
+        // A second link from "b" loses to the one "a" dialed
+        try (SocketChannel impostor = SocketChannel.open(address(a))) {
+            impostor.socket().setSoTimeout(5000);
+            writeRecord(impostor, PeerLink.HELLO, "b");
+            List<Byte> types = readRecords(impostor);
+            assertEquals(PeerLink.HELLO, types.get(0));
+            assertEquals(PeerLink.DUPLICATE, types.get(types.size() - 1));
+        }
+        assertTrue(peer(a, "b").isOpen());
+    }
+
+    @Test
+    public void testDialerStopsAfterDuplicate() throws Exception {
+        ClusterBridge a = bridge("a");
+        try (ServerSocketChannel fake = ServerSocketChannel.open()) {
+            fake.bind(new InetSocketAddress("127.0.0.1", 0));
+            a.connect((InetSocketAddress) fake.getLocalAddress());
+            try (SocketChannel dialed = fake.accept()) {
+                writeRecord(dialed, PeerLink.HELLO, "b");
+                writeRecord(dialed, PeerLink.DUPLICATE, "b");
+                assertTrue(waitFor(() -> peer(a, "b") == null));
+            }
+            // Without DUPLICATE the dialer would be back within its one-second reconnect delay
+            fake.configureBlocking(false);
+            Thread.sleep(1500);
+            assertNull(fake.accept(), "The dialer reconnected a link the peer dropped as a duplicate");
+        }
+    }
+
+    @Test
+    public void testUnsubscribedSessionsKeepNoDeliveryQueue() throws Exception {
+        ClusterBridge b = bridge("b");
+        ByteBuffer frame = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap("tick".getBytes(StandardCharsets.UTF_8))));
+        // A link's reader delivering while subscribers come and go
+        AtomicBoolean reading = new AtomicBoolean(true);
+        Thread reader = Thread.ofPlatform().start(() -> {
+            while (reading.get()) {
+                b.deliverRemote("news", frame.duplicate());
+            }
+        });
+        try {
+            for (int i = 0; i < 2000; i++) {
+                RecordingSession session = new RecordingSession();
+                b.subscribe("news", session);
+                b.unsubscribeAll(session);
+            }
+        } finally {
+            reading.set(false);
+            reader.join();
+        }
+        assertEquals(0, b.deliveryQueueCount());
+    }
+}
@@ -2,7 +2,9 @@ package com.eaze.websocket.core.codec;
 
 import org.junit.jupiter.api.Test;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class FrameCodecTest {
@@ -169,4 +171,73 @@ public class FrameCodecTest {
         WebSocketFrame decoded = FrameCodec.decode(encoded);
         assertFalse(decoded.isFin());
     }
+
+    @Test
+    public void testEncodeTextMatchesStringEncoding() {
+        String[] samples = {
+                "", "plain ascii", "caf\u00e9", "\u20ac100", "emoji \uD83D\uDE00!", "lone \uD83D high", "lone \uDE00 low",
+                "x".repeat(125), "x".repeat(126), "\u00e9".repeat(40_000), "y".repeat(70_000)
+        };
+        for (String text : samples) {
+            ByteBuffer expected = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                    ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8))));
+            assertEquals(expected, FrameCodec.encodeText(text), "Encoding of a " + text.length() + "-char string");
+            assertEquals(expected, FrameCodec.encodeText(new StringBuilder(text)));
+            assertEquals(expected, FrameCodec.encodeText(CharBuffer.wrap(text.toCharArray())));
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, FrameCodec.utf8Length(text));
+        }
+    }
+
+    /** Writes the message as that many bytes of 'z', to exercise buffer growth. */
+    private static final MessageCodec<Integer> REPEAT_CODEC = new MessageCodec<>() {
+        @Override public Integer decode(ByteBuffer payload, boolean text) { return payload.remaining(); }
+        @Override public void encode(Integer length, ByteBuffer out) {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) 'z');
+            }
+        }
+    };
+
+    @Test
+    public void testEncodeMessageGrowsBufferAndMatchesFrameEncoding() {
+        for (int length : new int[]{0, 125, 126, 8000, 8182, 8183, 70_000}) {
+            ByteBuffer expected = FrameCodec.encode(new WebSocketFrame(true, Opcode.BINARY,
+                    ByteBuffer.wrap("z".repeat(length).getBytes(StandardCharsets.US_ASCII))));
+            assertEquals(expected, FrameCodec.encodeMessage(REPEAT_CODEC, length, 1 << 20), "Encoding of " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void testEncodeMessageStopsGrowingAtMaxPayload() {
+        AtomicInteger calls = new AtomicInteger();
+        MessageCodec<Integer> counting = new MessageCodec<>() {
+            @Override public Integer decode(ByteBuffer payload, boolean text) { return payload.remaining(); }
+            @Override public void encode(Integer length, ByteBuffer out) {
+                calls.incrementAndGet();
+                REPEAT_CODEC.encode(length, out);
+            }
+        };
+
+        assertThrows(IllegalArgumentException.class, () -> FrameCodec.encodeMessage(counting, 100_000, 65_536));
+        assertEquals(5, calls.get(), "8, 16, 32 and 64 KB buffers, then one with room for exactly 64 KB");
+
+        calls.set(0);
+        assertEquals(65_536 + 10, FrameCodec.encodeMessage(counting, 65_536, 65_536).remaining());
+    }
+
+    @Test
+    public void testEncodeMessageSizesFirstBufferFromHint() {
+        AtomicInteger calls = new AtomicInteger();
+        MessageCodec<Integer> hinted = new MessageCodec<>() {
+            @Override public Integer decode(ByteBuffer payload, boolean text) { return payload.remaining(); }
+            @Override public void encode(Integer length, ByteBuffer out) {
+                calls.incrementAndGet();
+                REPEAT_CODEC.encode(length, out);
+            }
+            @Override public int sizeHint(Integer length) { return length; }
+        };
+
+        assertEquals(70_000 + 10, FrameCodec.encodeMessage(hinted, 70_000, 1 << 20).remaining());
+        assertEquals(1, calls.get());
+    }
 }
@@ -0,0 +1,154 @@
+package com.eaze.websocket.core.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class FrameDecoderTest {
+
+    private static ByteBuffer masked(Opcode opcode, boolean fin, byte[] payload) {
+        WebSocketFrame frame = new WebSocketFrame(fin, opcode, ByteBuffer.wrap(payload), true, new byte[]{0x11, 0x22, 0x33, 0x44});
+        return FrameCodec.encode(frame);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.duplicate().get(out);
+        return out;
+    }
+
+    @Test
+    public void testDecodesWholeFrameInPlace() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        ByteBuffer encoded = masked(Opcode.TEXT, true, "hello".getBytes(StandardCharsets.UTF_8));
+
+        WebSocketFrame frame = decoder.decode(encoded);
+        assertNotNull(frame);
+        assertTrue(frame.isFin());
+        assertEquals(Opcode.TEXT, frame.getOpcode());
+        assertEquals("hello", StandardCharsets.UTF_8.decode(frame.getPayload()).toString());
+        assertFalse(encoded.hasRemaining());
+        assertTrue(decoder.isIdle());
+    }
+
+    @Test
+    public void testResumesAcrossSegmentsWithoutRewinding() throws Exception {
+        byte[] payload = new byte[70_000];
+        new Random(42).nextBytes(payload);
+        byte[] wire = bytes(masked(Opcode.BINARY, true, payload));
+
+        FrameDecoder decoder = new FrameDecoder(1 << 20, true);
+        WebSocketFrame frame = null;
+        // Odd segment sizes split the header, the mask and the payload at every possible offset
+        int segment = 7;
+        for (int pos = 0; pos < wire.length; ) {
+            ByteBuffer chunk = ByteBuffer.wrap(wire, pos, Math.min(segment, wire.length - pos));
+            pos += chunk.remaining();
+            assertNull(frame, "Frame completed early");
+            frame = decoder.decode(chunk);
+            assertFalse(chunk.hasRemaining(), "Every byte handed over must be consumed");
+            segment = segment == 7 ? 1453 : 7;
+        }
+        assertNotNull(frame);
+        assertArrayEquals(payload, bytes(frame.getPayload()));
+    }
+
+    @Test
+    public void testDeclaredLengthIsNotReservedUpFront() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        int declared = 16 * 1024 * 1024;
+        // Header announcing a 16 MB masked frame, then a trickle of payload
+        ByteBuffer header = ByteBuffer.allocate(14).put((byte) 0x82).put((byte) (0x80 | 127)).putLong(declared)
+                .put(new byte[]{1, 2, 3, 4}).flip();
+        FrameDecoder decoder = new FrameDecoder(declared, true);
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        assertNull(decoder.decode(header));
+        for (int i = 0; i < 10; i++) {
+            assertNull(decoder.decode(ByteBuffer.allocate(100)));
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(allocated < 1024 * 1024, "Trickled frame allocated " + allocated + " bytes");
+        assertFalse(decoder.isIdle());
+    }
+
+    @Test
+    public void testBackToBackFrames() throws Exception {
+        ByteBuffer wire = ByteBuffer.allocate(256);
+        wire.put(masked(Opcode.TEXT, true, "a".getBytes(StandardCharsets.UTF_8)));
+        wire.put(masked(Opcode.PING, true, new byte[0]));
+        wire.put(masked(Opcode.BINARY, true, new byte[]{1, 2, 3}));
+        wire.flip();
+
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        assertEquals(Opcode.TEXT, decoder.decode(wire).getOpcode());
+        WebSocketFrame ping = decoder.decode(wire);
+        assertEquals(Opcode.PING, ping.getOpcode());
+        assertEquals(0, ping.getPayload().remaining());
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes(decoder.decode(wire).getPayload()));
+        assertNull(decoder.decode(wire));
+    }
+
+    @Test
+    public void testRejectsRsvBits() {
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        ByteBuffer wire = ByteBuffer.wrap(new byte[]{(byte) 0xC1, (byte) 0x80});
+        WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> decoder.decode(wire));
+        assertEquals(1002, e.getCloseCode());
+    }
+
+    @Test
+    public void testRejectsReservedOpcode() {
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        ByteBuffer wire = ByteBuffer.wrap(new byte[]{(byte) 0x83, (byte) 0x80});
+        assertThrows(WebSocketProtocolException.class, () -> decoder.decode(wire));
+    }
+
+    @Test
+    public void testRejectsUnmaskedClientFrame() {
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        ByteBuffer wire = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT, ByteBuffer.wrap(new byte[]{'x'})));
+        assertThrows(WebSocketProtocolException.class, () -> decoder.decode(wire));
+    }
+
+    @Test
+    public void testRejectsFragmentedControlFrame() {
+        FrameDecoder decoder = new FrameDecoder(1024, true);
+        ByteBuffer wire = masked(Opcode.PING, false, new byte[0]);
+        assertThrows(WebSocketProtocolException.class, () -> decoder.decode(wire));
+    }
+
+    @Test
+    public void testRejectsOversizeFromHeaderAlone() {
+        FrameDecoder decoder = new FrameDecoder(1000, true);
+        // Only the length of a 64 KB frame, no masking key yet: rejected before anything else arrives
+        ByteBuffer header = ByteBuffer.wrap(new byte[]{(byte) 0x82, (byte) 0xFF, 0, 0, 0, 0, 0, 1, 0, 0});
+        WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> decoder.decode(header));
+        assertEquals(1009, e.getCloseCode());
+    }
+
+    @Test
+    public void testUnmaskMatchesBytewiseXor() {
+        byte[] key = {(byte) 0xA1, 0x22, (byte) 0xF3, 0x04};
+        int mask = ((key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+        for (int offset = 0; offset < 4; offset++) {
+            byte[] data = new byte[37];
+            new Random(offset).nextBytes(data);
+            byte[] expected = data.clone();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] ^= key[(offset + i) & 3];
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            FrameDecoder.unmask(buffer, 0, data.length, mask, offset);
+            assertArrayEquals(expected, data, "mask offset " + offset);
+        }
+    }
+}
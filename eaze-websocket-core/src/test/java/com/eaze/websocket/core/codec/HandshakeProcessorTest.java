@@ -2,7 +2,10 @@ package com.eaze.websocket.core.codec;
 
 import org.junit.jupiter.api.Test;
 import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class HandshakeProcessorTest {
@@ -65,4 +68,18 @@ public class HandshakeProcessorTest {
         assertTrue(response.contains("Sec-WebSocket-Accept: " + acceptKey));
         assertTrue(response.endsWith("\r\n\r\n"));
     }
+
+    @Test
+    public void testSubprotocolNegotiation() {
+        Set<String> supported = new LinkedHashSet<>(List.of("v1.json", "v2.bin"));
+        assertEquals("v2.bin", HandshakeProcessor.selectSubprotocol("v2.bin, v1.json", supported),
+                "The client's order of preference wins");
+        assertEquals("v1.json", HandshakeProcessor.selectSubprotocol("mqtt,v1.json", supported));
+        assertNull(HandshakeProcessor.selectSubprotocol("mqtt", supported));
+        assertNull(HandshakeProcessor.selectSubprotocol(null, supported));
+
+        String response = HandshakeProcessor.buildResponse("key", "v2.bin");
+        assertTrue(response.contains("\r\nSec-WebSocket-Protocol: v2.bin\r\n"));
+        assertFalse(HandshakeProcessor.buildResponse("key").contains("Sec-WebSocket-Protocol"));
+    }
 }
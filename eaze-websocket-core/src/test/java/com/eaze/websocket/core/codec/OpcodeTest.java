@@ -15,6 +15,8 @@ public class OpcodeTest {
         assertEquals(Opcode.PONG, Opcode.fromCode(0xA));
         assertNull(Opcode.fromCode(0x3)); // Reserved
         assertNull(Opcode.fromCode(0xF)); // Reserved
+        assertNull(Opcode.fromCode(0x10)); // Out of range
+        assertNull(Opcode.fromCode(-1));
     }
 
     @Test
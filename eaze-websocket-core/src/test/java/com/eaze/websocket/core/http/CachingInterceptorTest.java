@@ -0,0 +1,114 @@
+package com.eaze.websocket.core.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingInterceptorTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private CompletionStage<HandshakeDecision> authorize(HandshakeRequest request) {
+        calls.incrementAndGet();
+        return CompletableFuture.completedFuture("good".equals(request.getQueryParameter("token"))
+                ? HandshakeDecision.ACCEPT : HandshakeDecision.reject(401, "Unauthorized"));
+    }
+
+    private static HandshakeRequest request(String target) {
+        ByteBuffer line = ByteBuffer.wrap(("GET " + target + " HTTP/1.1\r\n").getBytes(StandardCharsets.US_ASCII));
+        return HandshakeRequest.parse(line, Map.of(), null);
+    }
+
+    private static CachingInterceptor byToken(HandshakeInterceptor delegate, int maxEntries, Duration ttl) {
+        return new CachingInterceptor(delegate, r -> r.getQueryParameter("token"), maxEntries, ttl);
+    }
+
+    @Test
+    public void testParsesRequestLineAndQuery() {
+        HandshakeRequest request = request("/chat?room=a%20b&token=good&flag");
+        assertEquals("GET", request.getMethod());
+        assertEquals("/chat", request.getPath());
+        assertEquals("a b", request.getQueryParameter("room"));
+        assertEquals("good", request.getQueryParameter("token"));
+        assertEquals("", request.getQueryParameter("flag"));
+        assertNull(request.getQueryParameter("tok"));
+        assertNull(HandshakeRequest.parse(ByteBuffer.wrap("garbage\r\n".getBytes()), Map.of(), null));
+    }
+
+    @Test
+    public void testRepeatedTokensAreAnsweredFromCache() throws Exception {
+        CachingInterceptor cache = byToken(this::authorize, 16, Duration.ofMinutes(1));
+
+        assertTrue(cache.intercept(request("/chat?token=good")).toCompletableFuture().get().isAccepted());
+        assertTrue(cache.intercept(request("/other?token=good")).toCompletableFuture().get().isAccepted());
+        HandshakeDecision rejected = cache.intercept(request("/chat?token=bad")).toCompletableFuture().get();
+        assertEquals(401, rejected.getStatus());
+        assertSame(rejected, cache.intercept(request("/chat?token=bad")).toCompletableFuture().get());
+        assertEquals(2, calls.get());
+
+        // No key, no caching
+        cache.intercept(request("/chat"));
+        cache.intercept(request("/chat"));
+        assertEquals(4, calls.get());
+
+        cache.invalidate("good");
+        cache.intercept(request("/chat?token=good"));
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() throws Exception {
+        CachingInterceptor cache = byToken(this::authorize, 16, Duration.ofMillis(50));
+        cache.intercept(request("/chat?token=good"));
+        Thread.sleep(100);
+        cache.intercept(request("/chat?token=good"));
+        assertEquals(2, calls.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneCall() {
+        CompletableFuture<HandshakeDecision> backend = new CompletableFuture<>();
+        CachingInterceptor cache = byToken(r -> {
+            calls.incrementAndGet();
+            return backend;
+        }, 16, Duration.ofMinutes(1));
+
+        CompletableFuture<HandshakeDecision> first = cache.intercept(request("/?token=t")).toCompletableFuture();
+        CompletableFuture<HandshakeDecision> second = cache.intercept(request("/?token=t")).toCompletableFuture();
+        assertFalse(first.isDone());
+        backend.complete(HandshakeDecision.ACCEPT);
+        assertSame(HandshakeDecision.ACCEPT, first.join());
+        assertSame(HandshakeDecision.ACCEPT, second.join());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testFailuresAreNotCachedAndSizeIsBounded() {
+        CachingInterceptor failing = byToken(r -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("auth service down"));
+        }, 16, Duration.ofMinutes(1));
+        assertTrue(failing.intercept(request("/?token=t")).toCompletableFuture().isCompletedExceptionally());
+        assertTrue(failing.intercept(request("/?token=t")).toCompletableFuture().isCompletedExceptionally());
+        assertEquals(2, calls.get());
+        assertEquals(0, failing.size());
+
+        CachingInterceptor bounded = byToken(this::authorize, 2, Duration.ofMinutes(1));
+        for (int i = 0; i < 5; i++) {
+            bounded.intercept(request("/?token=" + i));
+        }
+        assertEquals(2, bounded.size());
+        // The oldest entries went first
+        bounded.intercept(request("/?token=4"));
+        bounded.intercept(request("/?token=0"));
+        assertEquals(8, calls.get());
+    }
+}
@@ -0,0 +1,182 @@
+package com.eaze.websocket.core.http;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.nio.NioWebSocketServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpResponderTest {
+
+    private static final WebSocketListener NO_OP = new WebSocketListener() {
+        @Override public void onOpen(WebSocketSession session) {}
+        @Override public void onClose(WebSocketSession session, int code, String reason) {}
+        @Override public void onError(WebSocketSession session, Throwable cause) {}
+    };
+
+    @TempDir
+    Path temp;
+    private Path root;
+    private NioWebSocketServer server;
+    private HttpResponder responder;
+    private final AtomicBoolean ready = new AtomicBoolean(true);
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        root = Files.createDirectory(temp.resolve("static"));
+        Files.writeString(root.resolve("index.html"), "<h1>eaze</h1>");
+        server = new NioWebSocketServer(0, NO_OP, 1, 1);
+        responder = new HttpResponder(root);
+        responder.setReadiness(ready::get);
+        server.setHttpResponder(responder);
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.stop();
+    }
+
+    /** Sends a request and returns the raw response, read until the server closes the connection. */
+    private byte[] request(String requestLine, String... headers) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            StringBuilder request = new StringBuilder(requestLine).append("\r\nHost: localhost\r\n");
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            socket.getOutputStream().write(request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            InputStream in = socket.getInputStream();
+            return in.readAllBytes();
+        }
+    }
+
+    private String get(String path, String... headers) throws IOException {
+        return new String(request("GET " + path + " HTTP/1.1", headers), StandardCharsets.UTF_8);
+    }
+
+    private static String header(String response, String name) {
+        for (String line : response.split("\r\n")) {
+            if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testHealthAndReadiness() throws Exception {
+        assertTrue(get("/health").startsWith("HTTP/1.1 200"));
+        assertTrue(get("/ready").startsWith("HTTP/1.1 200"));
+        ready.set(false);
+        assertTrue(get("/ready").startsWith("HTTP/1.1 503"));
+    }
+
+    @Test
+    public void testServesCachedFileWithEtag() throws Exception {
+        String response = get("/");
+        assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        assertEquals("text/html; charset=utf-8", header(response, "Content-Type"));
+        assertTrue(response.endsWith("\r\n\r\n<h1>eaze</h1>"));
+
+        String etag = header(response, "ETag");
+        assertNotNull(etag);
+        String conditional = get("/index.html", "If-None-Match: " + etag);
+        assertTrue(conditional.startsWith("HTTP/1.1 304"), conditional);
+        assertTrue(conditional.endsWith("\r\n\r\n"), "304 has no body");
+    }
+
+    @Test
+    public void testLargeFileIsStreamed() throws Exception {
+        byte[] content = new byte[3 * HttpResponder.DEFAULT_CACHE_FILE_LIMIT + 17];
+        Arrays.fill(content, (byte) 'z');
+        content[content.length - 1] = '!';
+        Files.write(root.resolve("bundle.js"), content);
+
+        byte[] response = request("GET /bundle.js HTTP/1.1");
+        String head = new String(response, 0, 200, StandardCharsets.US_ASCII);
+        assertTrue(head.startsWith("HTTP/1.1 200"));
+        assertEquals(String.valueOf(content.length), header(head, "Content-Length"));
+        int bodyStart = head.indexOf("\r\n\r\n") + 4;
+        assertArrayEquals(content, Arrays.copyOfRange(response, bodyStart, response.length));
+    }
+
+    @Test
+    public void testHeadSendsNoBody() throws Exception {
+        String response = new String(request("HEAD /index.html HTTP/1.1"), StandardCharsets.UTF_8);
+        assertTrue(response.startsWith("HTTP/1.1 200"));
+        assertEquals("13", header(response, "Content-Length"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+
+    @Test
+    public void testNotFoundAndTraversal() throws Exception {
+        Files.writeString(temp.resolve("secret.txt"), "secret");
+        assertTrue(get("/missing.html").startsWith("HTTP/1.1 404"));
+        assertTrue(get("/../secret.txt").startsWith("HTTP/1.1 404"));
+        assertTrue(get("/%2e%2e/secret.txt").startsWith("HTTP/1.1 404"));
+        assertTrue(new String(request("POST / HTTP/1.1"), StandardCharsets.UTF_8).startsWith("HTTP/1.1 405"));
+    }
+
+    @Test
+    public void testMissingPathsAreRememberedUntilRevalidated() throws Exception {
+        assertTrue(get("/later.html").startsWith("HTTP/1.1 404"));
+        assertTrue(get("/later.html").startsWith("HTTP/1.1 404"));
+        assertEquals(1, responder.missingPaths());
+
+        // Trusted like a cached file: a file that appears is served once the entry is checked again
+        Files.writeString(root.resolve("later.html"), "here");
+        assertTrue(get("/later.html").startsWith("HTTP/1.1 404"));
+        Thread.sleep(1100);
+        assertTrue(get("/later.html").endsWith("here"));
+        assertEquals(0, responder.missingPaths());
+    }
+
+    @Test
+    public void testEquivalentPathsShareOneCacheEntry() throws Exception {
+        for (String path : new String[]{"/index.html", "/./index.html", "/././index.html", "/.//index.html", "/"}) {
+            assertTrue(get(path).endsWith("<h1>eaze</h1>"), path);
+        }
+        assertEquals(1, responder.cachedFiles());
+    }
+
+    @Test
+    public void testClientThatDoesNotReadDoesNotBlockAcceptor() throws Exception {
+        // Cached, and far more than the socket buffers of a client that does not read take
+        int size = 4 * 1024 * 1024;
+        Files.write(root.resolve("cached.bin"), new byte[size]);
+        NioWebSocketServer cachingServer = new NioWebSocketServer(0, NO_OP, 1, 1);
+        cachingServer.setHttpResponder(new HttpResponder(root, size));
+        cachingServer.start();
+        try (Socket stalled = new Socket(); Socket next = new Socket()) {
+            stalled.setReceiveBufferSize(1024);
+            stalled.connect(new InetSocketAddress("127.0.0.1", cachingServer.getLocalPort()));
+            stalled.getOutputStream().write("GET /cached.bin HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            Thread.sleep(100);
+
+            // The stalled client never reads; the next connection must still be served
+            next.setSoTimeout(2000);
+            next.connect(new InetSocketAddress("127.0.0.1", cachingServer.getLocalPort()));
+            next.getOutputStream().write("GET /health HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            String response = new String(next.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            assertTrue(response.startsWith("HTTP/1.1 200"), response);
+        } finally {
+            cachingServer.stop();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.eaze.websocket.core.http2;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HexFormat;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HpackDecoderTest {
+
+    private static ByteBuffer hex(String s) {
+        return ByteBuffer.wrap(HexFormat.of().parseHex(s.replace(" ", "")));
+    }
+
+    @Test
+    public void testDecodesHuffmanRequestsSharingDynamicTable() throws Exception {
+        // RFC 7541, appendix C.4: three requests on one connection
+        HpackDecoder decoder = new HpackDecoder(4096, 16 * 1024);
+
+        Map<String, String> first = decoder.decode(hex("8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+        assertEquals(Map.of(":method", "GET", ":scheme", "http", ":path", "/",
+                ":authority", "www.example.com"), first);
+
+        Map<String, String> second = decoder.decode(hex("8286 84be 5886 a8eb 1064 9cbf"));
+        assertEquals("www.example.com", second.get(":authority"));
+        assertEquals("no-cache", second.get("cache-control"));
+
+        Map<String, String> third = decoder.decode(hex("8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+        assertEquals(Map.of(":method", "GET", ":scheme", "https", ":path", "/index.html",
+                ":authority", "www.example.com", "custom-key", "custom-value"), third);
+    }
+
+    @Test
+    public void testDecodesWhatTheEncoderWrites() throws Exception {
+        ByteBuffer block = ByteBuffer.allocate(128);
+        HpackEncoder.encodeStatus(block, 200);
+        HpackEncoder.encodeStatus(block, 503);
+        HpackEncoder.encodeHeader(block, "sec-websocket-protocol", "chat.v1");
+        Map<String, String> headers = new HpackDecoder(4096, 16 * 1024).decode(block.flip());
+        assertEquals("200, 503", headers.get(":status"));
+        assertEquals("chat.v1", headers.get("sec-websocket-protocol"));
+    }
+
+    @Test
+    public void testRejectsInvalidBlocks() {
+        HpackDecoder decoder = new HpackDecoder(4096, 16 * 1024);
+        // Index 0 and an index past the empty dynamic table
+        assertThrows(Http2Exception.class, () -> decoder.decode(hex("80")));
+        assertThrows(Http2Exception.class, () -> decoder.decode(hex("be")));
+        // Huffman string padded with a zero bit instead of the EOS prefix
+        assertThrows(Http2Exception.class, () -> decoder.decode(hex("0081 1c 01 61")));
+        // Header list over the limit
+        assertThrows(Http2Exception.class, () -> new HpackDecoder(4096, 40).decode(hex("8286 84")));
+    }
+}
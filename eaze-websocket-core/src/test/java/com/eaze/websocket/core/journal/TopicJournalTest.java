@@ -0,0 +1,150 @@
+package com.eaze.websocket.core.journal;
+
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameDecoder;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TopicJournalTest {
+
+    @TempDir
+    Path temp;
+
+    /** Captures pre-encoded writes and decodes them back into text messages. */
+    private static final class CapturingSession implements WebSocketSession {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int writes;
+
+        @Override public void sendPreEncoded(ByteBuffer frames) {
+            ByteBuffer copy = frames.duplicate();
+            byte[] out = new byte[copy.remaining()];
+            copy.get(out);
+            bytes.writeBytes(out);
+            writes++;
+        }
+
+        List<String> messages() throws IOException {
+            FrameDecoder decoder = new FrameDecoder(Integer.MAX_VALUE, false);
+            ByteBuffer in = ByteBuffer.wrap(bytes.toByteArray());
+            List<String> out = new ArrayList<>();
+            WebSocketFrame frame;
+            while ((frame = decoder.decode(in)) != null) {
+                out.add(StandardCharsets.UTF_8.decode(frame.getPayload()).toString());
+            }
+            assertFalse(in.hasRemaining());
+            return out;
+        }
+
+        @Override public void send(String text) {}
+        @Override public void send(byte[] data) {}
+        @Override public void close(int code, String reason) {}
+        @Override public boolean isOpen() { return true; }
+        @Override public int getId() { return 1; }
+        @Override public String getRemoteAddress() { return "test"; }
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> out = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            out.add("message-" + i);
+        }
+        return out;
+    }
+
+    private static long segmentFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".seg")).count();
+        }
+    }
+
+    @Test
+    public void testReplayFromOffset() throws Exception {
+        try (TopicJournal journal = new TopicJournal(temp, 64 * 1024, 0, Duration.ZERO)) {
+            for (String message : range(0, 200)) {
+                journal.append(message);
+            }
+            assertEquals(200, journal.nextSequence());
+
+            CapturingSession session = new CapturingSession();
+            assertEquals(200, journal.replay(150, session));
+            assertEquals(range(150, 200), session.messages());
+            assertEquals(1, session.writes, "A run within one segment is a single write");
+
+            CapturingSession caughtUp = new CapturingSession();
+            assertEquals(200, journal.replay(200, caughtUp));
+            assertEquals(0, caughtUp.writes);
+        }
+    }
+
+    @Test
+    public void testReplaySpansRolledSegments() throws Exception {
+        // Each frame is 12-13 bytes, so a 1KB segment holds roughly 80 of them
+        try (TopicJournal journal = new TopicJournal(temp, 1024, 0, Duration.ZERO)) {
+            for (String message : range(0, 500)) {
+                journal.append(message);
+            }
+            assertTrue(segmentFiles(temp) > 5);
+
+            CapturingSession session = new CapturingSession();
+            assertEquals(500, journal.replay(3, session));
+            assertEquals(range(3, 500), session.messages());
+        }
+    }
+
+    @Test
+    public void testRecoversAfterReopen() throws Exception {
+        try (TopicJournal journal = new TopicJournal(temp, 1024, 0, Duration.ZERO)) {
+            for (String message : range(0, 300)) {
+                journal.append(message);
+            }
+        }
+        try (TopicJournal reopened = new TopicJournal(temp, 1024, 0, Duration.ZERO)) {
+            assertEquals(300, reopened.nextSequence());
+            assertEquals(300, reopened.append("message-300"));
+
+            CapturingSession session = new CapturingSession();
+            assertEquals(301, reopened.replay(250, session));
+            assertEquals(range(250, 301), session.messages());
+        }
+    }
+
+    @Test
+    public void testSizeRetentionDropsOldestSegments() throws Exception {
+        try (TopicJournal journal = new TopicJournal(temp, 1024, 4096, Duration.ZERO)) {
+            for (String message : range(0, 2000)) {
+                journal.append(message);
+            }
+            assertTrue(segmentFiles(temp) <= 4);
+            long first = journal.firstSequence();
+            assertTrue(first > 0);
+
+            // Evicted offsets need a snapshot; retained ones still replay
+            assertEquals(-1, journal.replay(0, new CapturingSession()));
+            CapturingSession session = new CapturingSession();
+            assertEquals(2000, journal.replay(first, session));
+            assertEquals(range((int) first, 2000), session.messages());
+        }
+    }
+
+    @Test
+    public void testRejectsFramesThatDoNotFit() throws Exception {
+        try (TopicJournal journal = new TopicJournal(temp, 1024, 0, Duration.ZERO)) {
+            assertThrows(IllegalArgumentException.class, () -> journal.append("x".repeat(2000)));
+            assertThrows(IllegalArgumentException.class, () -> journal.append(ByteBuffer.wrap(new byte[]{(byte) 0x81, 5, 'a'})));
+            assertEquals(0, journal.nextSequence());
+        }
+    }
+}
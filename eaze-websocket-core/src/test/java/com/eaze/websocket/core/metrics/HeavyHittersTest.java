@@ -0,0 +1,90 @@
+package com.eaze.websocket.core.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void testHeavyKeyStandsOutAmongManyLightOnes() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(1024, 4);
+        for (int round = 0; round < 10; round++) {
+            for (long key = 0; key < 50_000; key++) {
+                hitters.record(key, "light", 10);
+            }
+            for (int i = 0; i < 20_000; i++) {
+                hitters.record(777_777, "heavy", 100);
+            }
+        }
+        List<HeavyHitters.Hitter<String>> top = hitters.topByBytes(1);
+        assertEquals(1, top.size());
+        assertEquals(777_777, top.get(0).key());
+        assertEquals("heavy", top.get(0).label());
+        // Never under-counted, and collisions add little next to a real heavy hitter
+        assertTrue(top.get(0).bytes() >= 20_000_000L);
+        assertTrue(top.get(0).bytes() < 21_000_000L, "estimate " + top.get(0).bytes());
+        assertEquals(777_777, hitters.topByMessages(1).get(0).key());
+    }
+
+    @Test
+    public void testBytesAndMessagesRankSeparately() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(4096, 4);
+        for (int i = 0; i < 1000; i++) {
+            hitters.record(1, "chatty", 1);
+        }
+        for (int i = 0; i < 10; i++) {
+            hitters.record(2, "bulky", 100_000);
+        }
+        assertEquals("bulky", hitters.topByBytes(1).get(0).label());
+        assertEquals("chatty", hitters.topByMessages(1).get(0).label());
+        assertEquals(2, hitters.topByBytes(5).size());
+        assertEquals(1000, hitters.estimateMessages(1));
+        assertEquals(1_000_000, hitters.estimateBytes(2));
+    }
+
+    @Test
+    public void testDecayHalvesCounts() {
+        HeavyHitters<String> hitters = new HeavyHitters<>(4096, 4);
+        for (int i = 0; i < 100; i++) {
+            hitters.record(42, "a", 10);
+        }
+        hitters.decay();
+        assertEquals(500, hitters.estimateBytes(42));
+        assertEquals(50, hitters.estimateMessages(42));
+        assertEquals(500, hitters.topByBytes(1).get(0).bytes());
+    }
+
+    @Test
+    public void testConcurrentUpdatesAreNotLost() throws Exception {
+        HeavyHitters<String> hitters = new HeavyHitters<>(4096, 8);
+        int threads = 4;
+        int perThread = 100_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    hitters.record(i % 8, "k", 2);
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        long total = 0;
+        for (HeavyHitters.Hitter<String> hitter : hitters.topByMessages(8)) {
+            total += hitter.messages();
+        }
+        assertEquals((long) threads * perThread, total);
+    }
+
+    @Test
+    public void testAddressKeys() throws Exception {
+        assertEquals(0x0A000001L, TrafficHitters.addressKey(InetAddress.getByName("10.0.0.1")));
+        long v6 = TrafficHitters.addressKey(InetAddress.getByName("::1"));
+        assertTrue(v6 > 0xFFFFFFFFL || v6 < 0, "IPv6 keys stay clear of IPv4 keys");
+        assertNotEquals(v6, TrafficHitters.addressKey(InetAddress.getByName("::2")));
+    }
+}
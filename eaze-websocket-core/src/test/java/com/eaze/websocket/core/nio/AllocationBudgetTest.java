@@ -0,0 +1,193 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.FrameDecoder;
+import com.eaze.websocket.core.codec.HandshakeProcessor;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Heap bytes allocated per operation on the hot paths, measured with the thread's allocation
+ * counter once the JIT has compiled the loop. The budgets sit a little above what the paths
+ * allocate today; raise one only deliberately, since at 1M messages/s every 100 bytes per
+ * message is 100 MB/s of garbage.
+ */
+public class AllocationBudgetTest {
+    /** One deque node per release. */
+    private static final double BUFFER_POOL_BUDGET = 32;
+    /** The frame and its payload view. */
+    private static final double DECODE_BUDGET = 128;
+    /** Decode plus the read-only view handed to the listener; the read buffer itself is pooled. */
+    private static final double DISPATCH_BUDGET = 160;
+    /** Dispatch plus queuing the reply for the batch's gathering write. */
+    private static final double ECHO_BUDGET = 448;
+    /** Header map, accept key and response string. */
+    private static final double HANDSHAKE_BUDGET = 3072;
+
+    private static final int WARM_UP_ROUNDS = 20_000;
+    private static final int MEASURED_ROUNDS = 20_000;
+    private static final int FRAMES_PER_READ = 8;
+    private static final int PAYLOAD_LENGTH = 64;
+    private static final byte[] REQUEST = ("GET /chat HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+            "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Results are folded in here so the JIT cannot discard the work as dead code
+    static long sink;
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+
+    @BeforeAll
+    public static void requireAllocationCounter() {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported());
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    private static double bytesPerOperation(Operation operation, int operationsPerRound) throws IOException {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            operation.run();
+        }
+        long thread = Thread.currentThread().threadId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            operation.run();
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - before;
+        return (double) allocated / ((long) MEASURED_ROUNDS * operationsPerRound);
+    }
+
+    private static void assertWithinBudget(String path, double budget, double measured) {
+        assertTrue(measured <= budget, path + " allocates " + measured + " bytes per operation, budget is " + budget);
+    }
+
+    /**
+     * {@link #FRAMES_PER_READ} masked text frames back to back, as one read would see them.
+     */
+    private static ByteBuffer clientFrames() {
+        ByteBuffer frames = ByteBuffer.allocateDirect(FRAMES_PER_READ * (PAYLOAD_LENGTH + 6));
+        for (int i = 0; i < FRAMES_PER_READ; i++) {
+            ByteBuffer frame = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                    ByteBuffer.wrap(new byte[PAYLOAD_LENGTH]), true, new byte[]{1, 2, 3, 4}));
+            frames.put(frame);
+            BufferPool.release(frame);
+        }
+        return frames.flip();
+    }
+
+    @Test
+    public void testBufferPoolReuseStaysWithinBudget() throws IOException {
+        double measured = bytesPerOperation(() -> BufferPool.release(BufferPool.acquire()), 1);
+        assertWithinBudget("BufferPool acquire/release", BUFFER_POOL_BUDGET, measured);
+    }
+
+    @Test
+    public void testFrameDecodeStaysWithinBudget() throws IOException {
+        ByteBuffer frames = clientFrames();
+        FrameDecoder decoder = new FrameDecoder(SessionConfig.DEFAULT_MAX_FRAME_PAYLOAD, true);
+        double measured = bytesPerOperation(() -> {
+            frames.rewind();
+            WebSocketFrame frame;
+            while ((frame = decoder.decode(frames)) != null) {
+                sink += frame.getPayload().remaining();
+            }
+        }, FRAMES_PER_READ);
+        assertWithinBudget("Frame decode", DECODE_BUDGET, measured);
+    }
+
+    @Test
+    public void testDispatchToListenerStaysWithinBudget() throws IOException {
+        assertWithinBudget("Read and dispatch", DISPATCH_BUDGET, sessionRoundTrip(false));
+    }
+
+    @Test
+    public void testEchoSendStaysWithinBudget() throws IOException {
+        assertWithinBudget("Read, dispatch and echo", ECHO_BUDGET, sessionRoundTrip(true));
+    }
+
+    @Test
+    public void testHandshakeStaysWithinBudget() throws IOException {
+        ByteBuffer request = ByteBuffer.wrap(REQUEST);
+        double measured = bytesPerOperation(() -> {
+            request.clear();
+            int endOfHeaders = NioWebSocketSession.findEndOfHeaders(request);
+            Map<String, String> headers = HandshakeProcessor.parseHeaders(request, endOfHeaders);
+            String acceptKey = HandshakeProcessor.createAcceptKey(headers.get("sec-websocket-key"));
+            sink += HandshakeProcessor.buildResponse(acceptKey).length();
+        }, 1);
+        assertWithinBudget("Handshake", HANDSHAKE_BUDGET, measured);
+    }
+
+    /**
+     * Drives a standalone session over a loopback connection: the client writes a batch of frames,
+     * {@link NioWebSocketSession#handleRead()} decodes and dispatches them on this thread and, when
+     * echoing, flushes the replies inline, which the client then reads back.
+     *
+     * @return bytes allocated per message
+     */
+    private static double sessionRoundTrip(boolean echo) throws IOException {
+        ByteBuffer frames = clientFrames();
+        WebSocketListener listener = new WebSocketListener() {
+            @Override public void onOpen(WebSocketSession session) {}
+            @Override public void onMessage(WebSocketSession session, ByteBuffer payload, boolean text) {
+                if (!echo) return;
+                try {
+                    session.send(payload);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            @Override public void onClose(WebSocketSession session, int code, String reason) {}
+            @Override public void onError(WebSocketSession session, Throwable cause) {}
+        };
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             SocketChannel client = SocketChannel.open(acceptor.getLocalAddress());
+             SocketChannel channel = acceptor.accept()) {
+            channel.configureBlocking(false);
+            NioWebSocketSession session = new NioWebSocketSession(channel, new SessionConfig(listener));
+            session.setHandshaked(true);
+            ByteBuffer replies = ByteBuffer.allocateDirect(FRAMES_PER_READ * (PAYLOAD_LENGTH + 2));
+            double measured = bytesPerOperation(() -> {
+                frames.rewind();
+                while (frames.hasRemaining()) {
+                    client.write(frames);
+                }
+                session.handleRead();
+                if (echo) {
+                    replies.clear();
+                    while (replies.hasRemaining()) {
+                        client.read(replies);
+                    }
+                }
+            }, FRAMES_PER_READ);
+            assertTrue(session.isOpen());
+            return measured;
+        }
+    }
+}
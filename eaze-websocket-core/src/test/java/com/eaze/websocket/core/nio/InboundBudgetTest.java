@@ -0,0 +1,58 @@
+package com.eaze.websocket.core.nio;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboundBudgetTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testMessageBucketAllowsOneSecondBurst() {
+        InboundBudget budget = new InboundBudget(new InboundLimits(10, 0, 0), 0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.consume(100), "Message " + i + " should fit the burst");
+        }
+        assertFalse(budget.consume(100), "11th message goes into debt");
+        assertTrue(budget.delayNanos(0) > 0);
+    }
+
+    @Test
+    public void testDebtIsRepaidAtConfiguredRate() {
+        InboundBudget budget = new InboundBudget(new InboundLimits(10, 0, 0), 0);
+        for (int i = 0; i < 12; i++) {
+            budget.consume(0);
+        }
+        // Two messages of debt at 10/s = 200ms
+        long delay = budget.delayNanos(0);
+        assertEquals(SECOND / 5, delay, SECOND / 1000);
+        assertEquals(0, budget.delayNanos(delay));
+    }
+
+    @Test
+    public void testByteBucket() {
+        InboundBudget budget = new InboundBudget(new InboundLimits(0, 1000, 0), 0);
+        assertTrue(budget.consume(600));
+        assertFalse(budget.consume(600));
+        // 200 bytes of debt at 1000 B/s = 200ms
+        assertEquals(SECOND / 5, budget.delayNanos(0), SECOND / 1000);
+        assertEquals(0, budget.delayNanos(SECOND / 5 + 1));
+    }
+
+    @Test
+    public void testRefillIsCappedAtOneSecond() {
+        InboundBudget budget = new InboundBudget(new InboundLimits(5, 0, 0), 0);
+        assertEquals(0, budget.delayNanos(100 * SECOND));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(budget.consume(0));
+        }
+        assertFalse(budget.consume(0), "Idle time must not bank more than one second of budget");
+    }
+
+    @Test
+    public void testInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new InboundLimits(-1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new InboundLimits(0, InboundLimits.MAX_RATE + 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new InboundLimits(0, 0, 65536));
+    }
+}
@@ -0,0 +1,87 @@
+package com.eaze.websocket.core.nio;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IpSessionCounterTest {
+
+    @Test
+    public void testLimitPerAddress() {
+        IpSessionCounter counter = new IpSessionCounter();
+        int address = 0x0A000001;
+        int ticket = counter.tryAcquire(address, 3);
+        assertNotEquals(IpSessionCounter.AT_LIMIT, ticket);
+        assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(address, 3));
+        assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(address, 3));
+        assertEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(address, 3));
+        assertEquals(3, counter.count(address), "A refused acquire must not be counted");
+
+        counter.release(ticket);
+        assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(address, 3));
+    }
+
+    @Test
+    public void testAddressesAreIndependentAtReconnectStormScale() {
+        IpSessionCounter counter = new IpSessionCounter();
+        for (int i = 0; i < 10; i++) {
+            assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(0x0A000001, 10));
+        }
+        // Half a million distinct clients with one session each, at the tightest limit
+        int clients = 500_000;
+        int[] tickets = new int[clients];
+        for (int i = 0; i < clients; i++) {
+            tickets[i] = counter.tryAcquire(0xC0000000L + i, 1);
+            assertNotEquals(IpSessionCounter.AT_LIMIT, tickets[i], "client " + i);
+        }
+        assertEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(0x0A000001, 10));
+        assertEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(0xC0000000L + 1234, 1));
+        assertEquals(clients + 1, counter.size());
+
+        // All of them disconnect; their entries are freed
+        for (int ticket : tickets) {
+            counter.release(ticket);
+        }
+        assertEquals(1, counter.size());
+        assertEquals(0, counter.count(0xC0000000L + 1234));
+        assertEquals(10, counter.count(0x0A000001));
+    }
+
+    @Test
+    public void testReleaseKeepsOtherAddressesReachable() {
+        IpSessionCounter counter = new IpSessionCounter();
+        int[] tickets = new int[10_000];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = counter.tryAcquire(i, 2);
+        }
+        // Every other address leaves, which shifts entries around in the probe runs
+        for (int i = 0; i < tickets.length; i += 2) {
+            counter.release(tickets[i]);
+        }
+        counter.release(tickets[0]); // A second release of a freed entry is ignored
+        for (int i = 0; i < tickets.length; i++) {
+            assertEquals(i % 2, counter.count(i), "address " + i);
+        }
+        for (int i = 0; i < tickets.length; i += 2) {
+            assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(i, 1));
+        }
+        assertEquals(tickets.length, counter.size());
+    }
+
+    @Test
+    public void testIpv6AddressesAreCountedPerSlash64() throws Exception {
+        long first = AdmissionController.addressKey(InetAddress.getByName("2001:db8:1:2::1").getAddress());
+        long rotated = AdmissionController.addressKey(InetAddress.getByName("2001:db8:1:2:dead:beef:0:7").getAddress());
+        long otherPrefix = AdmissionController.addressKey(InetAddress.getByName("2001:db8:1:3::1").getAddress());
+        long ipv4 = AdmissionController.addressKey(InetAddress.getByName("10.0.0.1").getAddress());
+
+        assertEquals(first, rotated, "Interface ids within one /64 must share a key");
+        assertNotEquals(first, otherPrefix);
+        assertNotEquals(ipv4, AdmissionController.addressKey(InetAddress.getByName("10.0.0.2").getAddress()));
+
+        IpSessionCounter counter = new IpSessionCounter();
+        assertNotEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(first, 1));
+        assertEquals(IpSessionCounter.AT_LIMIT, counter.tryAcquire(rotated, 1), "Rotating addresses must not escape the cap");
+    }
+}
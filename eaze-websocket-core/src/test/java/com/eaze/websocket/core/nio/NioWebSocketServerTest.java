@@ -0,0 +1,1324 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.MessageCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.http.CachingInterceptor;
+import com.eaze.websocket.core.http.HandshakeDecision;
+import com.eaze.websocket.core.http.HandshakeInterceptor;
+import com.eaze.websocket.core.http2.HpackDecoder;
+import com.eaze.websocket.core.http2.HpackEncoder;
+import com.eaze.websocket.core.http2.Http2Codec;
+import com.eaze.websocket.core.rpc.Envelope;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class NioWebSocketServerTest {
+
+    static class RecordingListener implements WebSocketListener {
+        final CountDownLatch opened;
+        final CountDownLatch closed;
+        final ConcurrentLinkedQueue<Integer> closeCodes = new ConcurrentLinkedQueue<>();
+
+        RecordingListener(int sessions) {
+            this.opened = new CountDownLatch(sessions);
+            this.closed = new CountDownLatch(sessions);
+        }
+
+        @Override public void onOpen(WebSocketSession session) { opened.countDown(); }
+        @Override public void onMessage(WebSocketSession session, String text) {}
+        @Override public void onMessage(WebSocketSession session, byte[] data) {}
+        @Override public void onClose(WebSocketSession session, int code, String reason) {
+            closeCodes.add(code);
+            closed.countDown();
+        }
+        @Override public void onError(WebSocketSession session, Throwable cause) {}
+    }
+
+    static Socket connect(int port) throws IOException {
+        return connect(port, "", new StringBuilder());
+    }
+
+    /**
+     * @param extraHeaders further request header lines, each ending in CRLF
+     * @param response     receives the server's handshake response
+     */
+    static Socket connect(int port, String extraHeaders, StringBuilder response) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(5000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /chat HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                extraHeaders +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        response.append(readUntilEndOfHeaders(socket.getInputStream()));
+        return socket;
+    }
+
+    static String readUntilEndOfHeaders(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) break;
+            sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    static byte[] maskedTextFrame(String text) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testDrainSendsCloseFrameToEverySession() throws Exception {
+        int sessions = 20;
+        RecordingListener listener = new RecordingListener(sessions);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 2);
+        server.start();
+
+        List<Socket> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+
+            assertTrue(server.drain(Duration.ofSeconds(2), Duration.ZERO));
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(sessions, listener.closeCodes.size());
+            assertTrue(listener.closeCodes.stream().allMatch(code -> code == 1001));
+
+            for (Socket client : clients) {
+                InputStream in = client.getInputStream();
+                assertEquals(0x88, in.read(), "Expected a FIN close frame");
+                int length = in.read();
+                assertEquals(1001, (in.read() << 8) | in.read());
+                in.skipNBytes(length - 2);
+                assertEquals(-1, in.read(), "Server should close the TCP connection after the close frame");
+            }
+            assertFalse(server.isRunning());
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSendBySessionId() throws Exception {
+        ConcurrentLinkedQueue<Integer> ids = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) {
+                ids.add(session.getId());
+                super.onOpen(session);
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            int id = ids.peek();
+            assertNotNull(server.getSession(id));
+            assertEquals(1, server.getSessionCount());
+
+            assertTrue(server.send(id, "hi"));
+            InputStream in = client.getInputStream();
+            assertEquals(0x81, in.read());
+            assertEquals(2, in.read());
+            assertEquals("hi", new String(in.readNBytes(2), StandardCharsets.UTF_8));
+
+            server.getSession(id).close(1000, "done");
+            assertNull(server.getSession(id));
+            assertFalse(server.send(id, "gone"));
+            assertEquals(0, server.getSessionCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testDrainSpreadsDisconnectsOverWindow() throws Exception {
+        int sessions = 10;
+        RecordingListener listener = new RecordingListener(sessions);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        List<Socket> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+
+            long start = System.nanoTime();
+            assertTrue(server.drain(Duration.ofSeconds(2), Duration.ofMillis(400)));
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // The last session is due at 9/10 of the window
+            assertTrue(elapsedMs >= 300, "Disconnects should be spread, took " + elapsedMs + "ms");
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDrainSpreadDoesNotOverflowForLongWindows() {
+        long hour = TimeUnit.HOURS.toNanos(1);
+        int total = 10_000_000;
+        assertEquals(0, SubPoller.spreadOffset(hour, 0, total));
+        assertEquals(hour / 2, SubPoller.spreadOffset(hour, total / 2, total));
+        long last = SubPoller.spreadOffset(hour, total - 1, total);
+        assertTrue(last > 0 && last < hour, "Last close should fall inside the window, was " + last);
+    }
+
+    @Test
+    public void testInboundRateLimitThrottlesFloodingSession() throws Exception {
+        int messages = 30;
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch all = new CountDownLatch(messages);
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onMessage(WebSocketSession session, String text) {
+                received.incrementAndGet();
+                all.countDown();
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setInboundLimits(new InboundLimits(10, 0, 0));
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            OutputStream out = client.getOutputStream();
+            for (int i = 0; i < messages; i++) {
+                out.write(maskedTextFrame("m" + i));
+            }
+            out.flush();
+
+            Thread.sleep(300);
+            // One second of burst (10) plus the message that went into debt, plus ~3 refilled
+            assertTrue(received.get() <= 15, "Flood should be throttled, got " + received.get());
+            assertTrue(server.getMetrics().getThrottleEvents() >= 1);
+            assertEquals(1, server.getMetrics().getThrottledSessions());
+
+            // Nothing is dropped: the backlog is delivered as the budget refills
+            assertTrue(all.await(5, TimeUnit.SECONDS));
+        } finally {
+            server.stop();
+        }
+        assertEquals(0, server.getMetrics().getThrottledSessions());
+    }
+
+    @Test
+    public void testReadyOnlyAfterWarmUp() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setWarmUp(32, 5000);
+        assertFalse(server.isReady());
+        server.start();
+        try {
+            assertTrue(server.awaitReady(Duration.ofSeconds(30)));
+            assertTrue(server.isReady());
+            assertThrows(IllegalStateException.class, () -> server.setWarmUp(0, 0));
+            try (Socket client = connect(server.getLocalPort())) {
+                assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            server.stop();
+        }
+        assertFalse(server.isReady());
+    }
+
+    @Test
+    public void testHeavyHittersFindFloodingSession() throws Exception {
+        CountDownLatch all = new CountDownLatch(202);
+        RecordingListener listener = new RecordingListener(3) {
+            @Override public void onMessage(WebSocketSession session, String text) { all.countDown(); }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        assertNull(server.getHeavyHitters());
+        server.setHeavyHitters(4, Duration.ofMinutes(1));
+        server.start();
+        try (Socket quiet = connect(server.getLocalPort());
+             Socket flooder = connect(server.getLocalPort());
+             Socket other = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            quiet.getOutputStream().write(maskedTextFrame("hi"));
+            other.getOutputStream().write(maskedTextFrame("hello"));
+            OutputStream out = flooder.getOutputStream();
+            for (int i = 0; i < 200; i++) {
+                out.write(maskedTextFrame("flood-" + i));
+            }
+            out.flush();
+            assertTrue(all.await(5, TimeUnit.SECONDS));
+
+            var top = server.getHeavyHitters().getInboundSessions().topByMessages(1).get(0);
+            assertEquals(200, top.messages());
+            assertTrue(top.bytes() >= 200 * 7);
+            var address = server.getHeavyHitters().getInboundAddresses().topByBytes(1).get(0);
+            assertEquals("127.0.0.1", address.label().getHostAddress());
+            assertEquals(202, address.messages());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRecordsJfrEvents() throws Exception {
+        CountDownLatch received = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onMessage(WebSocketSession session, String text) { received.countDown(); }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        Path dump = Files.createTempFile("eaze", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : List.of("Handshake", "SessionOpen", "SessionClose", "FrameDecode",
+                    "ListenerCallback", "SelectLoop")) {
+                recording.enable("com.eaze.websocket." + name).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            server.start();
+            try (Socket client = connect(server.getLocalPort())) {
+                client.getOutputStream().write(maskedTextFrame("hello"));
+                assertTrue(received.await(5, TimeUnit.SECONDS));
+                client.getOutputStream().write(maskedCloseFrame());
+                assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            } finally {
+                server.stop();
+            }
+            recording.stop();
+            recording.dump(dump);
+
+            List<String> names = RecordingFile.readAllEvents(dump).stream()
+                    .map(event -> event.getEventType().getName()).toList();
+            assertTrue(names.contains("com.eaze.websocket.Handshake"));
+            assertTrue(names.contains("com.eaze.websocket.SessionOpen"));
+            assertTrue(names.contains("com.eaze.websocket.SessionClose"));
+            assertTrue(names.contains("com.eaze.websocket.FrameDecode"));
+            assertTrue(names.contains("com.eaze.websocket.ListenerCallback"));
+            assertTrue(names.contains("com.eaze.websocket.SelectLoop"));
+        } finally {
+            Files.deleteIfExists(dump);
+        }
+    }
+
+    @Test
+    public void testByteBufferListenerAndGatheringSend() throws Exception {
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onMessage(WebSocketSession session, ByteBuffer payload, boolean text) {
+                try {
+                    assertTrue(payload.isReadOnly());
+                    ByteBuffer prefix = ByteBuffer.wrap("re:".getBytes(StandardCharsets.UTF_8));
+                    session.send(new ByteBuffer[]{prefix, payload});
+                    assertEquals(3, prefix.remaining(), "Caller buffer positions must not move");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            client.getOutputStream().write(maskedTextFrame("ping"));
+
+            InputStream in = client.getInputStream();
+            assertEquals(0x82, in.read(), "Gathering send produces one binary frame");
+            assertEquals(7, in.read());
+            assertEquals("re:ping", new String(in.readNBytes(7), StandardCharsets.UTF_8));
+        } finally {
+            server.stop();
+        }
+    }
+
+    static byte[] maskedBinaryFrame(ByteBuffer payload) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.BINARY, payload, true, new byte[]{5, 6, 7, 8});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testRequestsCompleteWithRepliesInAnyOrder() throws Exception {
+        CompletableFuture<WebSocketSession> openedSession = new CompletableFuture<>();
+        ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) { openedSession.complete(session); }
+            @Override public void onMessage(WebSocketSession session, byte[] data) {
+                messages.add(new String(data, StandardCharsets.UTF_8));
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            WebSocketSession session = openedSession.get(5, TimeUnit.SECONDS);
+            List<CompletableFuture<ByteBuffer>> replies = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                replies.add(session.request(ByteBuffer.wrap(("q" + i).getBytes(StandardCharsets.UTF_8)),
+                        Duration.ofSeconds(5)));
+            }
+            CompletableFuture<ByteBuffer> unanswered = session.request(ByteBuffer.allocate(0), Duration.ofMillis(100));
+
+            InputStream in = client.getInputStream();
+            List<ByteBuffer> requests = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                assertEquals(0x82, in.read());
+                ByteBuffer request = ByteBuffer.wrap(in.readNBytes(in.read()));
+                assertTrue(Envelope.isRequest(request));
+                requests.add(request);
+            }
+            OutputStream out = client.getOutputStream();
+            for (int i = 2; i >= 0; i--) {
+                String answer = "a:" + StandardCharsets.UTF_8.decode(Envelope.payload(requests.get(i)));
+                out.write(maskedBinaryFrame(Envelope.reply(requests.get(i),
+                        ByteBuffer.wrap(answer.getBytes(StandardCharsets.UTF_8)))));
+            }
+            out.write(maskedBinaryFrame(ByteBuffer.wrap("plain".getBytes(StandardCharsets.UTF_8))));
+            out.flush();
+
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer reply = replies.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals("a:q" + i, StandardCharsets.UTF_8.decode(reply).toString());
+            }
+            ExecutionException timedOut = assertThrows(ExecutionException.class,
+                    () -> unanswered.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, timedOut.getCause());
+            assertTrue(server.getMetrics().getRequestTimeouts() >= 1);
+            assertTrue(waitFor(() -> messages.contains("plain")));
+            assertEquals(1, messages.size(), "Replies are not passed to the listener");
+
+            // A late reply, or a second one to an answered request, is an ordinary message
+            out.write(maskedBinaryFrame(Envelope.reply(requests.get(3), ByteBuffer.wrap("late".getBytes(StandardCharsets.UTF_8)))));
+            out.write(maskedBinaryFrame(Envelope.reply(requests.get(0), ByteBuffer.wrap("again".getBytes(StandardCharsets.UTF_8)))));
+            out.flush();
+            assertTrue(waitFor(() -> messages.size() == 3), "Unmatched replies must reach the listener");
+            assertTrue(messages.stream().anyMatch(m -> m.endsWith("late")));
+            assertTrue(messages.stream().anyMatch(m -> m.endsWith("again")));
+
+            CompletableFuture<ByteBuffer> pending = session.request(ByteBuffer.allocate(0), Duration.ofSeconds(30));
+            session.close(1000, "done");
+            ExecutionException closed = assertThrows(ExecutionException.class, () -> pending.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, closed.getCause());
+        } finally {
+            server.stop();
+        }
+    }
+
+    record Point(int x, int y) {}
+
+    /** Text codec for points written as "x,y". */
+    static final MessageCodec<Point> POINT_CODEC = new MessageCodec<>() {
+        @Override public Point decode(ByteBuffer payload, boolean text) {
+            String s = StandardCharsets.US_ASCII.decode(payload).toString();
+            int comma = s.indexOf(',');
+            return new Point(Integer.parseInt(s.substring(0, comma)), Integer.parseInt(s.substring(comma + 1)));
+        }
+        @Override public void encode(Point point, ByteBuffer out) {
+            out.put((point.x() + "," + point.y()).getBytes(StandardCharsets.US_ASCII));
+        }
+        @Override public boolean isText() { return true; }
+    };
+
+    @Test
+    public void testNegotiatedSubprotocolDecodesTypedMessages() throws Exception {
+        ConcurrentLinkedQueue<String> protocols = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(3) {
+            @Override public void onOpen(WebSocketSession session) {
+                protocols.add(String.valueOf(session.getSubprotocol()));
+                opened.countDown();
+            }
+            @Override public void onDecoded(WebSocketSession session, Object message) {
+                try {
+                    if (message instanceof Point(int x, int y)) {
+                        session.sendObject(new Point(y, x));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            @Override public void onMessage(WebSocketSession session, String text) {
+                try {
+                    session.send("raw:" + text);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.addSubprotocol("points.v1", POINT_CODEC);
+        server.addSubprotocol("raw.v1", null);
+        server.start();
+
+        StringBuilder pointsResponse = new StringBuilder();
+        StringBuilder rawResponse = new StringBuilder();
+        StringBuilder noneResponse = new StringBuilder();
+        try (Socket points = connect(server.getLocalPort(), "Sec-WebSocket-Protocol: mqtt, points.v1\r\n", pointsResponse);
+             Socket raw = connect(server.getLocalPort(), "Sec-WebSocket-Protocol: raw.v1\r\n", rawResponse);
+             Socket none = connect(server.getLocalPort(), "Sec-WebSocket-Protocol: mqtt\r\n", noneResponse)) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            assertTrue(pointsResponse.toString().contains("Sec-WebSocket-Protocol: points.v1\r\n"));
+            assertTrue(rawResponse.toString().contains("Sec-WebSocket-Protocol: raw.v1\r\n"));
+            assertFalse(noneResponse.toString().contains("Sec-WebSocket-Protocol"));
+            assertTrue(protocols.containsAll(List.of("points.v1", "raw.v1", "null")));
+
+            points.getOutputStream().write(maskedTextFrame("3,4"));
+            InputStream in = points.getInputStream();
+            assertEquals(0x81, in.read());
+            assertEquals(3, in.read());
+            assertEquals("4,3", new String(in.readNBytes(3), StandardCharsets.US_ASCII));
+
+            raw.getOutputStream().write(maskedTextFrame("3,4"));
+            InputStream rawIn = raw.getInputStream();
+            assertEquals(0x81, rawIn.read());
+            assertEquals(7, rawIn.read());
+            assertEquals("raw:3,4", new String(rawIn.readNBytes(7), StandardCharsets.US_ASCII));
+
+            // A payload the codec cannot decode closes the session with 1007
+            points.getOutputStream().write(maskedTextFrame("not a point"));
+            assertTrue(waitFor(() -> listener.closeCodes.contains(1007)));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /** Reads one unmasked server frame header and payload; returns the payload, stores the first byte. */
+    static byte[] readFrame(InputStream in, int[] firstByte) throws IOException {
+        firstByte[0] = in.read();
+        int len = in.read() & 0x7F;
+        long length = len;
+        if (len == 126) {
+            length = ((in.read() & 0xFF) << 8) | (in.read() & 0xFF);
+        } else if (len == 127) {
+            length = ByteBuffer.wrap(in.readNBytes(8)).getLong();
+        }
+        return in.readNBytes((int) length);
+    }
+
+    @Test
+    public void testSendFileAndStreamWriteFromSource() throws Exception {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        Path file = Files.createTempFile("eaze", ".bin");
+        Files.write(file, content);
+        CompletableFuture<WebSocketSession> openedSession = new CompletableFuture<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) { openedSession.complete(session); }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort());
+             FileChannel channel = FileChannel.open(file)) {
+            WebSocketSession session = openedSession.get(5, TimeUnit.SECONDS);
+            // The client reads concurrently: the sends block while the socket buffer is full
+            CompletableFuture<Void> sends = CompletableFuture.runAsync(() -> {
+                try {
+                    session.send("before");
+                    session.sendFile(channel, 0, content.length);
+                    session.sendFile(channel, 100, 2_500_000, 1_000_000);
+                    session.sendStream(new ByteArrayInputStream(content, 0, 20_000));
+                    session.send("after");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            InputStream in = client.getInputStream();
+            int[] first = new int[1];
+            assertEquals("before", new String(readFrame(in, first), StandardCharsets.UTF_8));
+            assertArrayEquals(content, readFrame(in, first));
+            assertEquals(0x82, first[0]);
+
+            int[] expectedOpcodes = {0x02, 0x00, 0x80};
+            ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+            for (int expected : expectedOpcodes) {
+                fragments.writeBytes(readFrame(in, first));
+                assertEquals(expected, first[0]);
+            }
+            assertArrayEquals(Arrays.copyOfRange(content, 100, 2_500_100), fragments.toByteArray());
+
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            do {
+                streamed.writeBytes(readFrame(in, first));
+            } while ((first[0] & 0x80) == 0);
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 20_000), streamed.toByteArray());
+
+            assertEquals("after", new String(readFrame(in, first), StandardCharsets.UTF_8));
+            sends.get(5, TimeUnit.SECONDS);
+
+            assertThrows(IllegalArgumentException.class, () -> session.sendFile(channel, 10, content.length));
+        } finally {
+            server.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testPongGoesOutBetweenFragmentsOfStreamedMessage() throws Exception {
+        // Far more than the loopback socket buffers hold, so the ping arrives while the message is in progress
+        byte[] content = new byte[32 * 1024 * 1024];
+        Path file = Files.createTempFile("eaze", ".bin");
+        Files.write(file, content);
+        CompletableFuture<WebSocketSession> openedSession = new CompletableFuture<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) { openedSession.complete(session); }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort());
+             FileChannel channel = FileChannel.open(file)) {
+            WebSocketSession session = openedSession.get(5, TimeUnit.SECONDS);
+            CompletableFuture<Void> send = CompletableFuture.runAsync(() -> {
+                try {
+                    session.sendFile(channel, 0, content.length, 64 * 1024);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ByteBuffer ping = FrameCodec.encode(new WebSocketFrame(true, Opcode.PING,
+                    ByteBuffer.wrap(new byte[]{42}), true, new byte[]{1, 2, 3, 4}));
+            byte[] pingBytes = new byte[ping.remaining()];
+            ping.get(pingBytes);
+            client.getOutputStream().write(pingBytes);
+            Thread.sleep(200);
+
+            InputStream in = client.getInputStream();
+            int[] first = new int[1];
+            long received = 0;
+            boolean pongBeforeEnd = false;
+            while (true) {
+                byte[] payload = readFrame(in, first);
+                if (first[0] == 0x8A) {
+                    assertArrayEquals(new byte[]{42}, payload);
+                    pongBeforeEnd = true;
+                    continue;
+                }
+                received += payload.length;
+                if ((first[0] & 0x80) != 0) break;
+            }
+            assertTrue(pongBeforeEnd, "The pong must not wait for the whole message");
+            assertEquals(content.length, received);
+            send.get(5, TimeUnit.SECONDS);
+        } finally {
+            server.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testStreamedSendsRequireBlockingPolicy() throws Exception {
+        CompletableFuture<WebSocketSession> openedSession = new CompletableFuture<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) { openedSession.complete(session); }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setOutboundLimits(new OutboundLimits(SlowConsumerPolicy.DROP_OLDEST, 64 * 1024));
+        server.start();
+        Path file = Files.createTempFile("eaze", ".bin");
+        Files.write(file, new byte[100]);
+
+        try (Socket client = connect(server.getLocalPort());
+             FileChannel channel = FileChannel.open(file)) {
+            WebSocketSession session = openedSession.get(5, TimeUnit.SECONDS);
+            assertThrows(IllegalStateException.class, () -> session.sendFile(channel, 0, 100));
+            assertThrows(IllegalStateException.class, () -> session.sendStream(new ByteArrayInputStream(new byte[100])));
+
+            session.send("still open");
+            int[] first = new int[1];
+            assertEquals("still open", new String(readFrame(client.getInputStream(), first), StandardCharsets.UTF_8));
+        } finally {
+            server.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testBatchedSendsShareWriteCalls() throws Exception {
+        int messages = 50;
+        ConcurrentLinkedQueue<WebSocketSession> sessions = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) {
+                sessions.add(session);
+                super.onOpen(session);
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            WebSocketSession session = sessions.peek();
+            long framesBefore = server.getMetrics().getFramesSent();
+            long writesBefore = server.getMetrics().getWriteCalls();
+
+            session.batch(() -> {
+                for (int i = 0; i < messages; i++) {
+                    session.send("m" + (i % 10));
+                }
+            });
+
+            InputStream in = client.getInputStream();
+            for (int i = 0; i < messages; i++) {
+                assertEquals(0x81, in.read());
+                assertEquals(2, in.read());
+                assertEquals("m" + (i % 10), new String(in.readNBytes(2), StandardCharsets.UTF_8));
+            }
+            assertEquals(messages, server.getMetrics().getFramesSent() - framesBefore);
+            long writes = server.getMetrics().getWriteCalls() - writesBefore;
+            assertTrue(writes <= 2, "Batch should go out in one gathering write, took " + writes);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testConflatesKeyedSendsForSlowConsumer() throws Exception {
+        int keys = 10;
+        int rounds = 2000;
+        String padding = "x".repeat(1000);
+        ConcurrentLinkedQueue<WebSocketSession> sessions = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) {
+                sessions.add(session);
+                super.onOpen(session);
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setOutboundLimits(new OutboundLimits(SlowConsumerPolicy.CONFLATE, 64 * 1024));
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            WebSocketSession session = sessions.peek();
+
+            // 20 MB to a client that is not reading: must not block the sender
+            for (int round = 0; round < rounds; round++) {
+                for (int key = 0; key < keys; key++) {
+                    session.sendLatest("k" + key, key + ":" + round + ":" + padding);
+                }
+            }
+            assertTrue(server.getMetrics().getMessagesConflated() > 0);
+
+            InputStream in = client.getInputStream();
+            int[] lastRound = new int[keys];
+            java.util.Arrays.fill(lastRound, -1);
+            int complete = 0;
+            while (complete < keys) {
+                assertEquals(0x81, in.read());
+                int length = in.read();
+                if (length == 126) {
+                    length = (in.read() << 8) | in.read();
+                }
+                String[] parts = new String(in.readNBytes(length), StandardCharsets.UTF_8).split(":");
+                int key = Integer.parseInt(parts[0]);
+                int round = Integer.parseInt(parts[1]);
+                assertTrue(round > lastRound[key], "Values per key arrive in order");
+                lastRound[key] = round;
+                if (round == rounds - 1) {
+                    complete++;
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testDisconnectsSlowConsumer() throws Exception {
+        ConcurrentLinkedQueue<WebSocketSession> sessions = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) {
+                sessions.add(session);
+                super.onOpen(session);
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setOutboundLimits(new OutboundLimits(SlowConsumerPolicy.DISCONNECT, 64 * 1024));
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            WebSocketSession session = sessions.peek();
+            String payload = "x".repeat(1000);
+            for (int i = 0; i < 50_000 && session.isOpen(); i++) {
+                session.send(payload);
+            }
+            assertFalse(session.isOpen());
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(1008, listener.closeCodes.peek());
+            assertEquals(1, server.getMetrics().getSlowConsumerDisconnects());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFrameLargerThanReadBufferArrivesInPieces() throws Exception {
+        int size = 50_000;
+        AtomicInteger receivedLength = new AtomicInteger();
+        CountDownLatch received = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onMessage(WebSocketSession session, String text) {
+                receivedLength.set(text.length());
+                received.countDown();
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            byte[] frame = maskedTextFrame("x".repeat(size));
+            OutputStream out = client.getOutputStream();
+            for (int pos = 0; pos < frame.length; pos += 3000) {
+                out.write(frame, pos, Math.min(3000, frame.length - pos));
+                out.flush();
+            }
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(size, receivedLength.get());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testOversizeFrameClosesWith1009() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setMaxFramePayload(1024);
+        server.start();
+
+        try (Socket client = connect(server.getLocalPort())) {
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            client.getOutputStream().write(maskedTextFrame("y".repeat(2048)));
+
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(1009, listener.closeCodes.peek());
+            InputStream in = client.getInputStream();
+            assertEquals(0x88, in.read());
+            in.read();
+            assertEquals(1009, (in.read() << 8) | in.read());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHandshakeInterceptorRejectsAndCachesDecisions() throws Exception {
+        RecordingListener listener = new RecordingListener(2);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        AtomicInteger backendCalls = new AtomicInteger();
+        HandshakeInterceptor auth = request -> CompletableFuture.supplyAsync(() -> {
+            backendCalls.incrementAndGet();
+            return "Bearer good".equals(request.getHeader("Authorization"))
+                    ? HandshakeDecision.ACCEPT : HandshakeDecision.reject(401, "Unauthorized");
+        });
+        server.setHandshakeInterceptor(new CachingInterceptor(auth, r -> r.getHeader("authorization"),
+                100, Duration.ofMinutes(1)), Duration.ofSeconds(5));
+        server.start();
+
+        try {
+            StringBuilder rejected = new StringBuilder();
+            try (Socket socket = connect(server.getLocalPort(), "Authorization: Bearer bad\r\n", rejected)) {
+                assertTrue(rejected.toString().startsWith("HTTP/1.1 401"), rejected.toString());
+                assertEquals("Unauthorized", new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+            }
+            assertEquals(1, server.getMetrics().getRejectedHandshakes());
+            assertEquals(0, server.getSessionCount());
+
+            StringBuilder first = new StringBuilder();
+            StringBuilder second = new StringBuilder();
+            try (Socket a = connect(server.getLocalPort(), "Authorization: Bearer good\r\n", first);
+                 Socket b = connect(server.getLocalPort(), "Authorization: Bearer good\r\n", second)) {
+                assertTrue(first.toString().startsWith("HTTP/1.1 101"), first.toString());
+                assertTrue(second.toString().startsWith("HTTP/1.1 101"), second.toString());
+                assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+                // The reconnect was answered from the cache
+                assertEquals(2, backendCalls.get());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testPerAddressCapShedsWith503() throws Exception {
+        RecordingListener listener = new RecordingListener(3);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setAdmissionLimits(new AdmissionLimits(0, 0, 2, 7, false));
+        server.start();
+
+        try (Socket first = connect(server.getLocalPort());
+             Socket second = connect(server.getLocalPort())) {
+            try (Socket shed = new Socket("127.0.0.1", server.getLocalPort())) {
+                shed.setSoTimeout(5000);
+                String response = readUntilEndOfHeaders(shed.getInputStream());
+                assertTrue(response.startsWith("HTTP/1.1 503"), response);
+                assertTrue(response.contains("Retry-After: 7"), response);
+            }
+            assertEquals(1, server.getMetrics().getShedConnections());
+            assertEquals(2, server.getMetrics().getAcceptedConnections());
+
+            // Closing a session frees its slot for the same address
+            first.getOutputStream().write(maskedCloseFrame());
+            assertTrue(waitFor(() -> server.getSessionCount() == 1));
+            try (Socket third = connect(server.getLocalPort())) {
+                assertEquals(3, server.getMetrics().getAcceptedConnections());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHandshakeRateShedsWithReset() throws Exception {
+        RecordingListener listener = new RecordingListener(0);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setAdmissionLimits(new AdmissionLimits(5, 0, 0, 1, true));
+        server.start();
+
+        List<Socket> clients = new ArrayList<>();
+        try {
+            int shed = 0;
+            for (int i = 0; i < 10; i++) {
+                Socket client = new Socket("127.0.0.1", server.getLocalPort());
+                client.setSoTimeout(5000);
+                clients.add(client);
+                try {
+                    client.getOutputStream().write(("GET / HTTP/1.1\r\n" +
+                            "Upgrade: websocket\r\n" +
+                            "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    if (!readUntilEndOfHeaders(client.getInputStream()).startsWith("HTTP/1.1 101")) {
+                        shed++;
+                    }
+                } catch (IOException reset) {
+                    shed++;
+                }
+            }
+            // One second of burst is 5 handshakes
+            assertTrue(shed >= 4, "Expected connections over the rate to be shed, shed " + shed);
+            assertEquals(shed, server.getMetrics().getShedConnections());
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testIdlePollerRetiresAndMigratesSessions() throws Exception {
+        int sessions = 8;
+        RecordingListener listener = new RecordingListener(sessions) {
+            @Override public void onMessage(WebSocketSession session, String text) {
+                try {
+                    session.send(text);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 3);
+        // Idle pollers are retired one after another, down to one, once the sessions are connected
+        server.setPollerScaling(new PollerScaling(1, 3, 0.75, 0.25, Duration.ofMillis(20), Duration.ofMillis(300)));
+        assertEquals(3, server.getPollerCount());
+        server.start();
+        List<Socket> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+
+            // Keep every session busy while its poller is retired underneath it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            int rounds = 0;
+            while (server.getPollerCount() > 1 || rounds++ < 20) {
+                for (int i = 0; i < sessions; i++) {
+                    clients.get(i).getOutputStream().write(maskedTextFrame("m" + i));
+                }
+                for (int i = 0; i < sessions; i++) {
+                    InputStream in = clients.get(i).getInputStream();
+                    assertEquals(0x81, in.read());
+                    assertEquals(2, in.read());
+                    assertEquals("m" + i, new String(in.readNBytes(2), StandardCharsets.UTF_8));
+                }
+                assertTrue(System.nanoTime() < deadline, "Pool did not shrink");
+                Thread.sleep(5);
+            }
+            assertEquals(1, server.getPollerUtilization().length);
+            assertEquals(sessions, server.getSessionCount());
+            assertEquals(sessions, listener.closed.getCount(), "Migration must not close sessions");
+        } finally {
+            server.stop();
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHttp2StreamsCarrySeparateSessions() throws Exception {
+        ConcurrentLinkedQueue<Integer> ids = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(2) {
+            @Override public void onOpen(WebSocketSession session) {
+                ids.add(session.getId());
+                super.onOpen(session);
+            }
+            @Override public void onMessage(WebSocketSession session, String text) {
+                try {
+                    session.send("echo:" + text);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setHttp2(Http2Settings.DEFAULT);
+        server.start();
+
+        try (Socket socket = new Socket("127.0.0.1", server.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Codec.PREFACE);
+            writeH2Frame(out, Http2Codec.SETTINGS, 0, 0, new byte[0]);
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 1, connectRequest("CONNECT"));
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 3, connectRequest("CONNECT"));
+
+            HpackDecoder hpack = new HpackDecoder(4096, 16 * 1024);
+            assertEquals("200", hpack.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.HEADERS, 1).payload)).get(":status"));
+            assertEquals("200", hpack.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.HEADERS, 3).payload)).get(":status"));
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+            assertEquals(2, server.getSessionCount());
+            assertEquals(2, ids.stream().distinct().count());
+
+            // Both sessions share the one TCP connection
+            writeH2Frame(out, Http2Codec.DATA, 0, 3, maskedTextFrame("three"));
+            writeH2Frame(out, Http2Codec.DATA, 0, 1, maskedTextFrame("one"));
+            assertEquals("echo:three", textOf(nextH2Frame(in, Http2Codec.DATA, 3)));
+            assertEquals("echo:one", textOf(nextH2Frame(in, Http2Codec.DATA, 1)));
+
+            // Closing one session ends its stream only
+            writeH2Frame(out, Http2Codec.DATA, 0, 1, maskedCloseFrame());
+            assertEquals(Opcode.CLOSE, FrameCodec.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.DATA, 1).payload)).getOpcode());
+            assertEquals(Http2Codec.FLAG_END_STREAM, nextH2Frame(in, Http2Codec.DATA, 1).flags);
+            assertTrue(waitFor(() -> server.getSessionCount() == 1));
+
+            // Anything but an extended CONNECT is refused on its stream
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 5, connectRequest("GET"));
+            H2Frame refused = nextH2Frame(in, Http2Codec.HEADERS, 5);
+            assertEquals("400", hpack.decode(ByteBuffer.wrap(refused.payload)).get(":status"));
+            assertTrue((refused.flags & Http2Codec.FLAG_END_STREAM) != 0);
+
+            writeH2Frame(out, Http2Codec.DATA, 0, 3, maskedTextFrame("still"));
+            assertEquals("echo:still", textOf(nextH2Frame(in, Http2Codec.DATA, 3)));
+
+            // A message beyond the client's 64 KB window goes out as the client grants more
+            String large = "x".repeat(100_000);
+            byte[] frame = maskedTextFrame(large);
+            for (int offset = 0; offset < frame.length; offset += Http2Codec.DEFAULT_MAX_FRAME_SIZE) {
+                writeH2Frame(out, Http2Codec.DATA, 0, 3, Arrays.copyOfRange(frame, offset,
+                        Math.min(frame.length, offset + Http2Codec.DEFAULT_MAX_FRAME_SIZE)));
+            }
+            ByteArrayOutputStream echoed = new ByteArrayOutputStream();
+            int expected = 10 + "echo:".length() + large.length();
+            while (echoed.size() < expected) {
+                byte[] data = nextH2Frame(in, Http2Codec.DATA, 3).payload;
+                echoed.write(data);
+                byte[] increment = ByteBuffer.allocate(4).putInt(data.length).array();
+                writeH2Frame(out, Http2Codec.WINDOW_UPDATE, 0, 0, increment);
+                writeH2Frame(out, Http2Codec.WINDOW_UPDATE, 0, 3, increment);
+            }
+            assertEquals("echo:" + large, textOf(new H2Frame(Http2Codec.DATA, 0, 3, echoed.toByteArray())));
+        } finally {
+            server.stop();
+        }
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testHttp2StreamsAreAdmittedOneByOne() throws Exception {
+        RecordingListener listener = new RecordingListener(1);
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setHttp2(Http2Settings.DEFAULT);
+        // The connection takes one slot, so one stream fits
+        server.setAdmissionLimits(new AdmissionLimits(0, 0, 2, 1, false));
+        server.start();
+
+        try (Socket socket = new Socket("127.0.0.1", server.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Codec.PREFACE);
+            writeH2Frame(out, Http2Codec.SETTINGS, 0, 0, new byte[0]);
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 1, connectRequest("CONNECT"));
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 3, connectRequest("CONNECT"));
+
+            HpackDecoder hpack = new HpackDecoder(4096, 16 * 1024);
+            assertEquals("200", hpack.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.HEADERS, 1).payload)).get(":status"));
+            assertEquals("503", hpack.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.HEADERS, 3).payload)).get(":status"));
+            assertEquals(1, server.getMetrics().getShedConnections());
+
+            // A reset stream gives its slot back
+            writeH2Frame(out, Http2Codec.RST_STREAM, 0, 1, ByteBuffer.allocate(4).putInt(Http2Codec.CANCEL).array());
+            assertTrue(waitFor(() -> server.getSessionCount() == 0));
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 5, connectRequest("CONNECT"));
+            assertEquals("200", hpack.decode(ByteBuffer.wrap(nextH2Frame(in, Http2Codec.HEADERS, 5).payload)).get(":status"));
+
+            // Opening and cancelling streams in a loop gets the connection dropped. Each round goes out in
+            // one write and ends with a PING, so the server has read everything by the time it closes.
+            byte[] cancel = ByteBuffer.allocate(4).putInt(Http2Codec.CANCEL).array();
+            H2Frame reply = null;
+            for (int streamId = 7; streamId < 7 + 4 * Http2Connection.MAX_CANCELLED_STREAMS_PER_SECOND; streamId += 2) {
+                ByteArrayOutputStream round = new ByteArrayOutputStream();
+                writeH2Frame(round, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, streamId, connectRequest("CONNECT"));
+                writeH2Frame(round, Http2Codec.RST_STREAM, 0, streamId, cancel);
+                writeH2Frame(round, Http2Codec.PING, 0, 0, new byte[8]);
+                out.write(round.toByteArray());
+                do {
+                    reply = readH2Frame(in);
+                } while (reply.streamId != 0 || (reply.type != Http2Codec.PING && reply.type != Http2Codec.GOAWAY));
+                if (reply.type == Http2Codec.GOAWAY) break;
+            }
+            assertEquals(Http2Codec.GOAWAY, reply.type);
+            assertEquals(Http2Codec.ENHANCE_YOUR_CALM, ByteBuffer.wrap(reply.payload).getInt(4));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHttp2ClientThatStopsReadingIsDisconnectedWithoutBlockingSender() throws Exception {
+        ConcurrentLinkedQueue<WebSocketSession> sessions = new ConcurrentLinkedQueue<>();
+        RecordingListener listener = new RecordingListener(1) {
+            @Override public void onOpen(WebSocketSession session) {
+                sessions.add(session);
+                super.onOpen(session);
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.setHttp2(Http2Settings.DEFAULT);
+        server.setOutboundLimits(new OutboundLimits(SlowConsumerPolicy.DISCONNECT, 64 * 1024));
+        server.start();
+
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Codec.PREFACE);
+            // Windows wide open, so only the socket holds the server back once the client stops reading
+            writeH2Frame(out, Http2Codec.SETTINGS, 0, 0, ByteBuffer.allocate(6)
+                    .putShort((short) Http2Codec.SETTINGS_INITIAL_WINDOW_SIZE).putInt(Integer.MAX_VALUE).array());
+            writeH2Frame(out, Http2Codec.WINDOW_UPDATE, 0, 0, ByteBuffer.allocate(4)
+                    .putInt(Integer.MAX_VALUE - Http2Codec.DEFAULT_INITIAL_WINDOW_SIZE).array());
+            writeH2Frame(out, Http2Codec.HEADERS, Http2Codec.FLAG_END_HEADERS, 1, connectRequest("CONNECT"));
+            nextH2Frame(in, Http2Codec.HEADERS, 1);
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+
+            WebSocketSession session = sessions.peek();
+            String payload = "x".repeat(1000);
+            CompletableFuture<Void> sender = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 0; i < 100_000 && session.isOpen(); i++) {
+                        session.send(payload);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            sender.get(10, TimeUnit.SECONDS);
+            assertFalse(session.isOpen());
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+            assertEquals(1008, listener.closeCodes.peek());
+            assertEquals(1, server.getMetrics().getSlowConsumerDisconnects());
+        } finally {
+            server.stop();
+        }
+    }
+
+    record H2Frame(int type, int flags, int streamId, byte[] payload) {
+    }
+
+    static String textOf(H2Frame data) {
+        ByteBuffer payload = FrameCodec.decode(ByteBuffer.wrap(data.payload)).getPayload();
+        return StandardCharsets.UTF_8.decode(payload).toString();
+    }
+
+    static byte[] connectRequest(String method) {
+        ByteBuffer block = ByteBuffer.allocate(256);
+        HpackEncoder.encodeHeader(block, ":method", method);
+        HpackEncoder.encodeHeader(block, ":protocol", "websocket");
+        HpackEncoder.encodeHeader(block, ":scheme", "http");
+        HpackEncoder.encodeHeader(block, ":path", "/chat");
+        HpackEncoder.encodeHeader(block, ":authority", "localhost");
+        HpackEncoder.encodeHeader(block, "sec-websocket-version", "13");
+        return Arrays.copyOf(block.array(), block.position());
+    }
+
+    static void writeH2Frame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Http2Codec.FRAME_HEADER_LENGTH);
+        Http2Codec.writeFrameHeader(header, payload.length, type, flags, streamId);
+        out.write(header.array());
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Reads frames until one of the given type arrives on the stream, skipping everything else.
+     */
+    static H2Frame nextH2Frame(DataInputStream in, int type, int streamId) throws IOException {
+        while (true) {
+            H2Frame frame = readH2Frame(in);
+            if (frame.type == type && frame.streamId == streamId) return frame;
+        }
+    }
+
+    static H2Frame readH2Frame(DataInputStream in) throws IOException {
+        byte[] header = new byte[Http2Codec.FRAME_HEADER_LENGTH];
+        in.readFully(header);
+        ByteBuffer view = ByteBuffer.wrap(header);
+        byte[] payload = new byte[Http2Codec.length(view, 0)];
+        in.readFully(payload);
+        return new H2Frame(Http2Codec.type(view, 0), Http2Codec.flags(view, 0), Http2Codec.streamId(view, 0), payload);
+    }
+
+    @Test
+    public void testIoUringTransportEchoesClosesAndDrains() throws Exception {
+        RecordingListener listener = new RecordingListener(3) {
+            @Override public void onMessage(WebSocketSession session, String text) {
+                try {
+                    session.send(text.length() > 100 ? "long:" + text.length() : "echo:" + text);
+                } catch (IOException e) {
+                    onError(session, e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 2);
+        server.setIoUring(true);
+        server.start();
+        List<Socket> clients = new ArrayList<>();
+        try {
+            assumeTrue(server.isIoUringActive(), "io_uring not available here");
+            for (int i = 0; i < 3; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            assertTrue(listener.opened.await(5, TimeUnit.SECONDS));
+
+            // Pipelined frames arrive in one completion and are answered in order
+            OutputStream out = clients.get(0).getOutputStream();
+            InputStream in = clients.get(0).getInputStream();
+            out.write(concat(maskedTextFrame("a"), maskedTextFrame("b"), maskedTextFrame("c")));
+            out.flush();
+            int[] first = new int[1];
+            for (String expected : List.of("echo:a", "echo:b", "echo:c")) {
+                assertEquals(expected, new String(readFrame(in, first), StandardCharsets.UTF_8));
+            }
+            // A frame spanning many ring buffers
+            out.write(maskedTextFrame("x".repeat(50_000)));
+            out.flush();
+            assertEquals("long:50000", new String(readFrame(in, first), StandardCharsets.UTF_8));
+
+            // The client's close is answered and the socket released despite the armed receive
+            OutputStream closing = clients.get(1).getOutputStream();
+            closing.write(maskedCloseFrame());
+            closing.flush();
+            InputStream closed = clients.get(1).getInputStream();
+            readFrame(closed, first);
+            assertEquals(0x88, first[0]);
+            assertEquals(-1, closed.read());
+
+            assertTrue(server.drain(Duration.ofSeconds(2), Duration.ZERO));
+            for (Socket client : List.of(clients.get(0), clients.get(2))) {
+                InputStream drained = client.getInputStream();
+                byte[] payload = readFrame(drained, first);
+                assertEquals(0x88, first[0]);
+                assertEquals(1001, ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF));
+                assertEquals(-1, drained.read());
+            }
+            assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+            if (server.isRunning()) {
+                server.stop();
+            }
+        }
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            all.writeBytes(part);
+        }
+        return all.toByteArray();
+    }
+
+    static byte[] maskedCloseFrame() {
+        ByteBuffer encoded = FrameCodec.encode(new WebSocketFrame(true, Opcode.CLOSE,
+                FrameCodec.closePayload(1000, ""), true, new byte[]{1, 2, 3, 4}));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -1,7 +1,19 @@
 package com.eaze.websocket.core.nio;
 
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
 import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class NioWebSocketSessionTest {
@@ -32,4 +44,44 @@ public class NioWebSocketSessionTest {
         ByteBuffer buffer = ByteBuffer.allocate(0);
         assertEquals(-1, NioWebSocketSession.findEndOfHeaders(buffer));
     }
+
+    /**
+     * Per-session heap budget, excluding the channel (kernel socket wrapper) and shared config.
+     * Raise it only deliberately: 10M sessions x 8 extra bytes = 80MB of heap.
+     */
+    private static final long SESSION_RETAINED_BYTES_BUDGET = 64;
+
+    @Test
+    public void testSessionRetainedSizeStaysWithinBudget() throws Exception {
+        List<String> received = new ArrayList<>();
+        WebSocketListener listener = new WebSocketListener() {
+            @Override public void onOpen(WebSocketSession session) {}
+            @Override public void onMessage(WebSocketSession session, String text) { received.add(text); }
+            @Override public void onMessage(WebSocketSession session, byte[] data) {}
+            @Override public void onClose(WebSocketSession session, int code, String reason) {}
+            @Override public void onError(WebSocketSession session, Throwable cause) {}
+        };
+        SessionConfig config = new SessionConfig(listener);
+        try (SocketChannel channel = SocketChannel.open()) {
+            NioWebSocketSession session = new NioWebSocketSession(channel, config);
+            session.setHandshaked(true);
+
+            assertWithinRetainedBudget(session, channel, config);
+
+            // Once a message has been read, the session must not keep decoder state around
+            ByteBuffer frame = FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                    ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4}));
+            session.handleData(frame);
+            BufferPool.release(frame);
+            assertEquals(List.of("hello"), received);
+            assertWithinRetainedBudget(session, channel, config);
+        }
+    }
+
+    private static void assertWithinRetainedBudget(NioWebSocketSession session, SocketChannel channel, SessionConfig config) {
+        GraphLayout retained = GraphLayout.parseInstance(session)
+                .subtract(GraphLayout.parseInstance(channel, config));
+        assertTrue(retained.totalSize() <= SESSION_RETAINED_BYTES_BUDGET,
+                "Session retains " + retained.totalSize() + " bytes:\n" + retained.toFootprint());
+    }
 }
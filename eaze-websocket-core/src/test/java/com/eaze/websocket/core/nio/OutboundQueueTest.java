@@ -0,0 +1,194 @@
+package com.eaze.websocket.core.nio;
+
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTest {
+
+    /** Accepts at most {@code maxPerWrite} bytes per call and counts the calls. */
+    static class LimitedChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int maxPerWrite;
+        int writes;
+
+        LimitedChannel(int maxPerWrite) {
+            this.maxPerWrite = maxPerWrite;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            writes++;
+            long written = 0;
+            for (int i = offset; i < offset + length && written < maxPerWrite; i++) {
+                while (srcs[i].hasRemaining() && written < maxPerWrite) {
+                    received.write(srcs[i].get());
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        @Override public long write(ByteBuffer[] srcs) { return write(srcs, 0, srcs.length); }
+        @Override public int write(ByteBuffer src) { return (int) write(new ByteBuffer[]{src}); }
+        @Override public boolean isOpen() { return true; }
+        @Override public void close() {}
+    }
+
+    private static ByteBuffer encoded(String text) {
+        ByteBuffer buffer = BufferPool.acquire();
+        buffer.put(text.getBytes(StandardCharsets.US_ASCII));
+        return buffer.flip();
+    }
+
+    @Test
+    public void testSmallFramesCoalesceIntoOneWrite() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.add(encoded("frame" + i + ";"));
+        }
+        assertEquals(70, queue.pendingBytes());
+
+        LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+        assertEquals(70, queue.writeTo(channel));
+        assertEquals(1, channel.writes);
+        assertTrue(queue.isEmpty());
+        assertTrue(channel.received.toString(StandardCharsets.US_ASCII).startsWith("frame0;frame1;"));
+    }
+
+    @Test
+    public void testPartialWritesKeepOrder() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        StringBuilder expected = new StringBuilder();
+        // Large frames do not fit the tail buffer, so the queue holds several buffers
+        for (int i = 0; i < 6; i++) {
+            String frame = String.valueOf((char) ('a' + i)).repeat(5000);
+            expected.append(frame);
+            queue.add(encoded(frame));
+        }
+
+        LimitedChannel channel = new LimitedChannel(7000);
+        while (!queue.isEmpty()) {
+            queue.writeTo(channel);
+        }
+        assertEquals(0, queue.pendingBytes());
+        assertEquals(expected.toString(), channel.received.toString(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer frame(String text) {
+        return FrameCodec.encode(new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    private static String payloads(byte[] wire) {
+        StringBuilder out = new StringBuilder();
+        ByteBuffer in = ByteBuffer.wrap(wire);
+        while (in.hasRemaining()) {
+            int length = in.get(in.position() + 1) & 0x7F;
+            in.position(in.position() + 2);
+            byte[] payload = new byte[length];
+            in.get(payload);
+            out.append(new String(payload, StandardCharsets.US_ASCII)).append(' ');
+        }
+        return out.toString().trim();
+    }
+
+    @Test
+    public void testKeyedFrameReplacesUnsentOneInPlace() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        assertFalse(queue.add(frame("a1"), "a"));
+        assertFalse(queue.add(frame("b1"), "b"));
+        queue.add(frame("note"));
+        assertTrue(queue.add(frame("a2"), "a"));
+        assertTrue(queue.add(frame("a3"), "a"));
+        assertEquals(4 + 4 + 6, queue.pendingBytes());
+
+        LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+        queue.writeTo(channel);
+        assertEquals("a3 b1 note", payloads(channel.received.toByteArray()));
+    }
+
+    @Test
+    public void testPartlyWrittenKeyedFrameIsNotReplaced() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.add(frame("a1"), "a");
+        LimitedChannel channel = new LimitedChannel(1);
+        queue.writeTo(channel);
+
+        assertFalse(queue.add(frame("a2"), "a"), "The first byte of a1 is already on the wire");
+        assertTrue(queue.add(frame("a3"), "a"), "a2 is still replaceable");
+        channel.maxPerWrite = Integer.MAX_VALUE;
+        queue.writeTo(channel);
+        assertEquals("a1 a3", payloads(channel.received.toByteArray()));
+    }
+
+    @Test
+    public void testDropOldestKeepsPartlyWrittenHead() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        queue.add(frame("k1"), "k");
+        for (int i = 0; i < 5; i++) {
+            queue.add(frame("x" + i), "x" + i);
+        }
+        LimitedChannel channel = new LimitedChannel(1);
+        queue.writeTo(channel);
+
+        // 23 bytes pending: the rest of k1 plus five 4-byte frames; keep at most 12
+        assertEquals(3, queue.dropOldest(12));
+        assertEquals(11, queue.pendingBytes());
+        assertFalse(queue.add(frame("x4b"), "x0"), "Dropped keys are no longer indexed");
+        assertTrue(queue.add(frame("x4c"), "x4"));
+
+        channel.maxPerWrite = Integer.MAX_VALUE;
+        queue.writeTo(channel);
+        assertEquals("k1 x3 x4c x4b", payloads(channel.received.toByteArray()));
+    }
+
+    @Test
+    public void testCountFramesInCoalescedBuffer() {
+        OutboundQueue queue = new OutboundQueue();
+        queue.add(frame("one"));
+        queue.add(frame("two"));
+        queue.add(FrameCodec.encode(new WebSocketFrame(true, Opcode.BINARY, ByteBuffer.allocate(300))));
+        assertEquals(3, queue.dropOldest(0));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRemainderOfPartlyWrittenFrameIsNeverDropped() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        // The rest of a frame after a partial write, copied to a buffer of its own that starts at 0.
+        // Heap, so the next frame gets an entry of its own rather than being coalesced.
+        ByteBuffer rest = ByteBuffer.allocate(7).put(frame("first")).flip().position(3);
+        queue.addRemainder(rest.slice());
+        // Text frames encoded from chars start after the reserved header space
+        queue.add(FrameCodec.encodeText("second"));
+        assertNotEquals(0, FrameCodec.encodeText("x").position());
+
+        assertEquals(1, queue.dropOldest(0));
+        assertEquals(4, queue.pendingBytes());
+        LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+        queue.writeTo(channel);
+        assertEquals("irst", channel.received.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testReadOnlyEntryIsWrittenInPlace() throws Exception {
+        OutboundQueue queue = new OutboundQueue();
+        // A mapped journal run: direct, pool-sized and read-only
+        ByteBuffer run = ByteBuffer.allocateDirect(BufferPool.BUFFER_SIZE).put(frame("run")).flip().asReadOnlyBuffer();
+        queue.add(run);
+        queue.add(frame("next"));
+
+        LimitedChannel channel = new LimitedChannel(Integer.MAX_VALUE);
+        queue.writeTo(channel);
+        assertEquals("run next", payloads(channel.received.toByteArray()));
+    }
+}
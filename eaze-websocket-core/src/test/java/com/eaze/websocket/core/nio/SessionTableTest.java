@@ -0,0 +1,134 @@
+package com.eaze.websocket.core.nio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTableTest {
+
+    private static NioWebSocketSession newSession() {
+        return new NioWebSocketSession(null, new SessionConfig(null));
+    }
+
+    @Test
+    public void testAddAndGet() {
+        SessionTable table = new SessionTable();
+        NioWebSocketSession session = newSession();
+
+        int id = table.add(session);
+        assertNotEquals(SessionTable.NO_ID, id);
+        assertEquals(id, session.getId());
+        assertSame(session, table.get(id));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testRemovedIdNoLongerResolves() {
+        SessionTable table = new SessionTable();
+        NioWebSocketSession session = newSession();
+        int id = table.add(session);
+
+        table.remove(session);
+        assertNull(table.get(id));
+        assertEquals(0, table.size());
+
+        // Removing twice is harmless
+        table.remove(session);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testRecycledSlotGetsNewGeneration() {
+        SessionTable table = new SessionTable(0);
+        NioWebSocketSession first = newSession();
+        int staleId = table.add(first);
+        table.remove(first);
+
+        NioWebSocketSession second = newSession();
+        int freshId = table.add(second);
+
+        assertNotEquals(staleId, freshId, "Reused slot must produce a different id");
+        assertEquals(staleId & 0xFFFFFF, freshId & 0xFFFFFF, "Slot should be recycled");
+        assertNull(table.get(staleId), "Stale id must not reach the newer session");
+        assertSame(second, table.get(freshId));
+    }
+
+    @Test
+    public void testStaleIdMissesAfterManyReusesOfItsSlot() {
+        SessionTable table = new SessionTable();
+        NioWebSocketSession first = newSession();
+        int staleId = table.add(first);
+        table.remove(first);
+
+        // Each connect and disconnect reuses a slot from the reserve, so the stale slot only comes
+        // back once per FREE_RESERVE + 1 of them and needs 255 reuses to repeat the generation
+        NioWebSocketSession other = newSession();
+        int reuses = 0;
+        for (int i = 0; i < 255 * (SessionTable.FREE_RESERVE + 1) - 1; i++) {
+            int id = table.add(other);
+            if ((id & 0xFFFFFF) == (staleId & 0xFFFFFF)) {
+                reuses++;
+                assertNull(table.get(staleId), "Stale id resolved after " + reuses + " reuses");
+            }
+            table.remove(other);
+        }
+        assertEquals(254, reuses);
+    }
+
+    @Test
+    public void testFreedSlotsWaitWhileUnusedSlotsRemain() {
+        SessionTable table = new SessionTable(2);
+        NioWebSocketSession a = newSession();
+        int slotA = table.add(a) & 0xFFFFFF;
+        table.remove(a);
+
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            NioWebSocketSession next = newSession();
+            slots.add(table.add(next) & 0xFFFFFF);
+            table.remove(next);
+        }
+        assertFalse(slots.contains(slotA), "A freed slot must wait behind the reserve");
+        assertEquals(slotA, table.add(newSession()) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testFreedSlotsAreReusedOldestFirst() {
+        SessionTable table = new SessionTable(0);
+        NioWebSocketSession a = newSession();
+        NioWebSocketSession b = newSession();
+        int slotA = table.add(a) & 0xFFFFFF;
+        int slotB = table.add(b) & 0xFFFFFF;
+        table.remove(a);
+        table.remove(b);
+
+        assertEquals(slotA, table.add(newSession()) & 0xFFFFFF);
+        assertEquals(slotB, table.add(newSession()) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testIdsUniqueAcrossSegments() {
+        SessionTable table = new SessionTable();
+        int count = 10_000; // spans several 4096-slot segments
+        NioWebSocketSession[] sessions = new NioWebSocketSession[count];
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            sessions[i] = newSession();
+            assertTrue(ids.add(table.add(sessions[i])));
+        }
+        for (NioWebSocketSession session : sessions) {
+            assertSame(session, table.get(session.getId()));
+        }
+        assertEquals(count, table.size());
+    }
+
+    @Test
+    public void testUnknownIds() {
+        SessionTable table = new SessionTable();
+        assertNull(table.get(SessionTable.NO_ID));
+        assertNull(table.get(12345));
+        assertNull(table.get(-1));
+    }
+}
@@ -0,0 +1,117 @@
+package com.eaze.websocket.core.rpc;
+
+import com.eaze.websocket.core.metrics.ServerMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PendingRequestsTest {
+
+    private static ByteBuffer text(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(ByteBuffer b) {
+        return StandardCharsets.UTF_8.decode(b.duplicate()).toString();
+    }
+
+    @Test
+    public void testRepliesCompleteOutOfOrder() throws Exception {
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(10), 64), null);
+        List<PendingRequests.Pending> pending = new ArrayList<>();
+        // Well past the initial capacity, so the ring has to grow with everything still pending
+        for (int i = 0; i < 100; i++) {
+            pending.add(table.register(Duration.ofSeconds(30)));
+        }
+        assertEquals(100, table.size());
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            assertTrue(table.complete(pending.get(i).getId(), text("reply-" + i)));
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            assertEquals("reply-" + i, text(pending.get(i).get()));
+        }
+        assertEquals(0, table.size());
+        assertFalse(table.complete(pending.get(0).getId(), text("late")), "A reply only completes once");
+    }
+
+    @Test
+    public void testStragglerDoesNotGrowTheRing() throws Exception {
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(10), 64), null);
+        PendingRequests.Pending straggler = table.register(Duration.ofSeconds(30));
+        // 30 s of 10k requests a second would be 300k; each is answered right away
+        for (int i = 0; i < 300_000; i++) {
+            PendingRequests.Pending fast = table.register(Duration.ofSeconds(30));
+            assertTrue(table.complete(fast.getId(), text("fast")));
+        }
+        assertTrue(table.capacity() <= 16, "Ring grew to " + table.capacity() + " slots for 2 requests");
+
+        // A burst grows the ring, and it shrinks again once answered
+        List<PendingRequests.Pending> burst = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            burst.add(table.register(Duration.ofSeconds(30)));
+        }
+        assertTrue(table.capacity() >= 2002);
+        for (PendingRequests.Pending pending : burst) {
+            assertTrue(table.complete(pending.getId(), text("burst")));
+        }
+        assertTrue(table.capacity() <= 16);
+        assertTrue(table.complete(straggler.getId(), text("late")));
+        assertEquals("late", text(straggler.get()));
+    }
+
+    @Test
+    public void testReplyIsCopied() throws Exception {
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(10), 64), null);
+        PendingRequests.Pending pending = table.register(Duration.ofSeconds(30));
+        ByteBuffer reused = text("first");
+        table.complete(pending.getId(), reused);
+        reused.put(0, (byte) 'X');
+        assertEquals("first", text(pending.get()));
+    }
+
+    @Test
+    public void testTimeoutFreesSlotAndIsCounted() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(5), 64), metrics);
+        PendingRequests.Pending slow = table.register(Duration.ofMillis(50));
+        PendingRequests.Pending answered = table.register(Duration.ofMillis(50));
+        table.complete(answered.getId(), text("ok"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertEquals("ok", text(answered.get()));
+        assertEquals(0, table.size());
+        assertEquals(1, metrics.getRequestTimeouts());
+        assertFalse(table.complete(slow.getId(), text("late")));
+    }
+
+    @Test
+    public void testFailAllFailsPendingAndLaterRequests() {
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(10), 64), null);
+        PendingRequests.Pending pending = table.register(Duration.ofSeconds(30));
+        table.failAll(new IOException("Session closed"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, pending::get);
+        assertInstanceOf(IOException.class, e.getCause());
+        assertTrue(table.register(Duration.ofSeconds(30)).isCompletedExceptionally());
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testCancelFreesSlot() {
+        PendingRequests table = new PendingRequests(new TimerWheel(Duration.ofMillis(10), 64), null);
+        PendingRequests.Pending pending = table.register(Duration.ofSeconds(30));
+        assertTrue(pending.cancel(false));
+        assertEquals(0, table.size());
+        assertFalse(table.complete(pending.getId(), text("late")));
+    }
+}
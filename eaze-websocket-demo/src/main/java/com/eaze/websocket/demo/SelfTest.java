@@ -0,0 +1,74 @@
+package com.eaze.websocket.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loopback client used by {@code -Deaze.selfTest=N}: opens N connections in turn, each doing a
+ * handshake and a few echo round trips. One connection measures time to first handshake; a few
+ * thousand make a representative AOT training run.
+ */
+final class SelfTest {
+    private static final int MESSAGES_PER_CONNECTION = 10;
+    private static final byte[] MASK = {0x11, 0x22, 0x33, 0x44};
+
+    private SelfTest() {
+    }
+
+    static void run(int port, int connections) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(5000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = socket.getInputStream();
+                out.write(("GET / HTTP/1.1\r\n" +
+                        "Host: localhost\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                        "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                skipHeaders(in);
+                readFrame(in); // welcome message
+                for (int m = 0; m < MESSAGES_PER_CONNECTION; m++) {
+                    out.write(maskedText("message " + m));
+                    readFrame(in);
+                }
+            }
+        }
+        System.out.printf("Self-test: %d connections in %d ms%n", connections, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static void skipHeaders(InputStream in) throws IOException {
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Handshake failed");
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    private static void readFrame(InputStream in) throws IOException {
+        in.read();
+        int length = in.read() & 0x7F;
+        if (length == 126) {
+            length = (in.read() << 8) | in.read();
+        }
+        in.readNBytes(length);
+    }
+
+    private static byte[] maskedText(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[6 + payload.length];
+        frame[0] = (byte) 0x81;
+        frame[1] = (byte) (0x80 | payload.length);
+        System.arraycopy(MASK, 0, frame, 2, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame[6 + i] = (byte) (payload[i] ^ MASK[i & 3]);
+        }
+        return frame;
+    }
+}
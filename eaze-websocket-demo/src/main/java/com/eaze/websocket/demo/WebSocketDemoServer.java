@@ -2,16 +2,29 @@ package com.eaze.websocket.demo;
 
 import com.eaze.websocket.core.api.WebSocketListener;
 import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.http.HttpResponder;
 import com.eaze.websocket.core.nio.NioWebSocketServer;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WebSocketDemoServer {
-    static void main(String[] args) throws IOException {
-        NioWebSocketServer server = new NioWebSocketServer(8081, new WebSocketListener() {
+    private static final AtomicBoolean firstHandshake = new AtomicBoolean();
+
+    static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.getInteger("eaze.port", 8081);
+        NioWebSocketServer server = new NioWebSocketServer(port, new WebSocketListener() {
             @Override
             public void onOpen(WebSocketSession session) {
                 //System.out.println("New connection: " + session.getRemoteAddress());
+                if (firstHandshake.compareAndSet(false, true)) {
+                    System.out.println("First handshake " + uptimeMillis() + " ms after JVM start");
+                }
                 try {
                     session.send("Welcome to Eaze WebSocket Server!");
                 } catch (IOException e) {
@@ -45,8 +58,30 @@ public class WebSocketDemoServer {
             }
         });
 
+        Path staticRoot = staticRoot();
+        HttpResponder responder = new HttpResponder(staticRoot);
+        responder.setReadiness(server::isReady);
+        server.setHttpResponder(responder);
+        // Warm up before taking traffic; -Deaze.warmup=0 skips it
+        server.setWarmUp(1024, Integer.getInteger("eaze.warmup", 20_000));
+        // Experimental io_uring reads on Linux: -Deaze.ioUring=true (see the run task's JVM flags)
+        server.setIoUring(Boolean.getBoolean("eaze.ioUring"));
         server.start();
-        System.out.println("WebSocket Server started on ws://localhost:8081");
+        System.out.println("WebSocket Server started on ws://localhost:" + server.getLocalPort()
+                + (server.isIoUringActive() ? " (io_uring)" : ""));
+        if (staticRoot != null) {
+            System.out.println("Demo client at http://localhost:" + server.getLocalPort() + "/ (serving " + staticRoot + ")");
+        }
+        server.awaitReady(Duration.ofMinutes(1));
+        System.out.println("Ready " + uptimeMillis() + " ms after JVM start");
+
+        // Startup checks and AOT training runs: drive some echo round trips, then exit
+        int selfTest = Integer.getInteger("eaze.selfTest", 0);
+        if (selfTest > 0) {
+            SelfTest.run(server.getLocalPort(), selfTest);
+            server.stop();
+            return;
+        }
 
         try {
              Thread.currentThread().join();
@@ -54,4 +89,28 @@ public class WebSocketDemoServer {
              Thread.currentThread().interrupt();
         }
     }
+
+    static long uptimeMillis() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    /**
+     * The demo's static directory: -Deaze.static=<dir> if given, otherwise the bundled resources
+     * when running from an exploded classpath (files inside a jar cannot be sent with sendfile).
+     */
+    private static Path staticRoot() {
+        String configured = System.getProperty("eaze.static");
+        if (configured != null) {
+            return Path.of(configured);
+        }
+        URL resource = WebSocketDemoServer.class.getResource("/static");
+        if (resource == null || !"file".equals(resource.getProtocol())) {
+            return null;
+        }
+        try {
+            return Path.of(resource.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
 }
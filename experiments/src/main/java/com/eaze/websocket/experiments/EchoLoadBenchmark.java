@@ -0,0 +1,174 @@
+package com.eaze.websocket.experiments;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.metrics.ServerMetrics;
+import com.eaze.websocket.core.nio.NioWebSocketServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load benchmark for the outbound path. Reports socket write calls per message sent by the server
+ * for three workloads:
+ *
+ * - publish: a "go" request answered with a burst of small messages, one send() each
+ * - publish-batched: the same burst wrapped in session.batch(), flushed with one gathering write
+ * - echo: clients pipeline many small messages; replies sent during one read share a flush
+ */
+public class EchoLoadBenchmark {
+    private static final int CLIENTS = 50;
+    private static final int ROUNDS = 200;
+    private static final int BURST = 20;
+    private static final String PAYLOAD = "tick:0123456789";
+
+    private static class PublishListener implements WebSocketListener {
+        private final boolean batched;
+
+        PublishListener(boolean batched) {
+            this.batched = batched;
+        }
+
+        @Override public void onOpen(WebSocketSession session) {}
+        @Override public void onClose(WebSocketSession session, int code, String reason) {}
+        @Override public void onError(WebSocketSession session, Throwable cause) {}
+
+        @Override
+        public void onMessage(WebSocketSession session, String text) {
+            try {
+                if (text.startsWith("go")) {
+                    // Publish from another thread so the read batch does not coalesce the sends
+                    Thread.startVirtualThread(() -> publish(session));
+                } else {
+                    session.send(text);
+                }
+            } catch (IOException e) {
+                onError(session, e);
+            }
+        }
+
+        private void publish(WebSocketSession session) {
+            try {
+                if (batched) {
+                    session.batch(() -> sendBurst(session));
+                } else {
+                    sendBurst(session);
+                }
+            } catch (IOException e) {
+                onError(session, e);
+            }
+        }
+
+        private void sendBurst(WebSocketSession session) throws IOException {
+            for (int i = 0; i < BURST; i++) {
+                session.send(PAYLOAD);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        run("publish", new PublishListener(false), false);
+        run("publish-batched", new PublishListener(true), false);
+        run("echo", new PublishListener(false), true);
+    }
+
+    private static void run(String name, WebSocketListener listener, boolean echo) throws Exception {
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 2);
+        server.start();
+        try {
+            List<Socket> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            ServerMetrics metrics = server.getMetrics();
+            long framesBefore = metrics.getFramesSent();
+            long writesBefore = metrics.getWriteCalls();
+            long start = System.nanoTime();
+
+            CountDownLatch done = new CountDownLatch(CLIENTS);
+            for (Socket client : clients) {
+                Thread.startVirtualThread(() -> {
+                    try {
+                        drive(client, echo);
+                    } catch (IOException e) {
+                        System.err.println(name + " client failed: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            long frames = metrics.getFramesSent() - framesBefore;
+            long writes = metrics.getWriteCalls() - writesBefore;
+            System.out.printf("%-16s messages=%d writes=%d writes/message=%.3f time=%dms%n",
+                    name, frames, writes, (double) writes / frames, elapsedMs);
+            for (Socket client : clients) {
+                client.close();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void drive(Socket client, boolean echo) throws IOException {
+        OutputStream out = client.getOutputStream();
+        InputStream in = client.getInputStream();
+        byte[] request = echo ? pipelined(PAYLOAD, BURST) : maskedText("go");
+        int replyLength = 2 + PAYLOAD.length();
+        for (int round = 0; round < ROUNDS; round++) {
+            out.write(request);
+            out.flush();
+            in.readNBytes(replyLength * BURST);
+        }
+    }
+
+    private static byte[] pipelined(String text, int count) {
+        byte[] frame = maskedText(text);
+        byte[] all = new byte[frame.length * count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(frame, 0, all, i * frame.length, frame.length);
+        }
+        return all;
+    }
+
+    private static byte[] maskedText(String text) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET / HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Handshake failed");
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return socket;
+    }
+}
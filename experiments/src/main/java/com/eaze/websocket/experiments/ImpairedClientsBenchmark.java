@@ -0,0 +1,415 @@
+package com.eaze.websocket.experiments;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.metrics.ServerMetrics;
+import com.eaze.websocket.core.nio.NioWebSocketServer;
+import com.eaze.websocket.core.nio.OutboundLimits;
+import com.eaze.websocket.core.nio.SlowConsumerPolicy;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server behavior with slow and flaky clients. Clients connect through an {@link ImpairmentProxy};
+ * in each scenario a share of them gets an {@link Impairment} and the rest stay healthy. The
+ * server runs in a child JVM so its memory and CPU are measured apart from the clients and the
+ * proxy. It broadcasts an 8 KB tick to every session 50 times a second (400 KB/s each) and echoes
+ * pings. Loopback send buffers autotune to megabytes, so it takes seconds of falling behind before
+ * the server itself sees a slow client; the run time and tick size are chosen to get there.
+ *
+ * Per scenario it reports:
+ * - the server's peak RSS, heap and direct memory, and its CPU time
+ * - tick rate, tick delay and ping round trip of healthy clients (p50/p99/max): whether slow
+ *   clients hold back everyone else; of all clients when every client is impaired
+ * - tick rate of impaired clients, the server's dropped messages and slow-consumer disconnects
+ *
+ * Run with {@code ./gradlew :experiments:impairedClientsBenchmark}.
+ */
+public class ImpairedClientsBenchmark {
+    private static final int CLIENTS = 50;
+    private static final Duration RUN_TIME = Duration.ofSeconds(30);
+    private static final long TICK_INTERVAL_MS = 20;
+    private static final int TICK_SIZE = 8192;
+    private static final long PING_INTERVAL_MS = 100;
+    private static final Duration SAMPLE_INTERVAL = Duration.ofMillis(250);
+
+    private record Scenario(String name, int impairedEvery, Impairment impairment, OutboundLimits limits) {
+    }
+
+    private static final Impairment WAN = Impairment.NONE.withLatency(Duration.ofMillis(40), Duration.ofMillis(20))
+            .withBandwidth(2 * 1024 * 1024);
+    // A twelfth of the ticks each client is sent
+    private static final Impairment SLOW = Impairment.NONE.withBandwidth(32 * 1024);
+    private static final Impairment STALLING = Impairment.NONE.withStalls(Duration.ofSeconds(10), Duration.ofSeconds(10));
+
+    private static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("baseline", 0, Impairment.NONE, OutboundLimits.DEFAULT),
+            new Scenario("wan-all", 1, WAN, OutboundLimits.DEFAULT),
+            new Scenario("slow-10%-block", 10, SLOW, OutboundLimits.DEFAULT),
+            new Scenario("slow-10%-drop", 10, SLOW, new OutboundLimits(SlowConsumerPolicy.DROP_OLDEST, 64 * 1024)),
+            new Scenario("stall-10%-block", 10, STALLING, OutboundLimits.DEFAULT),
+            new Scenario("stall-10%-disconnect", 10, STALLING, new OutboundLimits(SlowConsumerPolicy.DISCONNECT, 64 * 1024)));
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("server")) {
+            runServer(SlowConsumerPolicy.valueOf(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        // Results are only comparable on the same JDK; the server child runs on this one too
+        System.out.println("JDK " + Runtime.version() + ", " + Runtime.getRuntime().availableProcessors() + " CPUs");
+        System.out.printf("%-21s %-7s %-7s %-7s %-6s %-7s %-24s %-24s %-8s %-8s %-7s%n", "scenario", "rss MB",
+                "heap MB", "direct", "cpu s", "ticks/s", "tick delay p50/p99/max", "ping rtt p50/p99/max",
+                "impaired", "dropped", "discon");
+        for (Scenario scenario : SCENARIOS) {
+            run(scenario);
+        }
+    }
+
+    private static void run(Scenario scenario) throws Exception {
+        Process server = startServer(scenario.limits());
+        try (BufferedReader serverOut = new BufferedReader(new InputStreamReader(server.getInputStream()));
+             PrintStream serverIn = new PrintStream(server.getOutputStream(), true)) {
+            int port = Integer.parseInt(serverOut.readLine().substring("port ".length()));
+            int every = scenario.impairedEvery();
+            try (ImpairmentProxy proxy = new ImpairmentProxy(port,
+                    i -> every > 0 && i % every == 0 ? scenario.impairment() : Impairment.NONE)) {
+                List<Client> clients = new ArrayList<>();
+                for (int i = 0; i < CLIENTS; i++) {
+                    clients.add(new Client(proxy.getLocalPort(), every > 0 && i % every == 0));
+                }
+                for (Client client : clients) {
+                    client.recording = true;
+                }
+                Stats peak = Stats.ZERO;
+                Stats first = null;
+                long end = System.nanoTime() + RUN_TIME.toNanos();
+                while (System.nanoTime() < end) {
+                    Thread.sleep(SAMPLE_INTERVAL);
+                    serverIn.println("stats");
+                    Stats sample = Stats.parse(serverOut.readLine());
+                    if (first == null) first = sample;
+                    peak = peak.max(sample);
+                }
+                for (Client client : clients) {
+                    client.recording = false;
+                    client.close();
+                }
+                report(scenario, peak, first, clients);
+            }
+            serverIn.println("stop");
+        } finally {
+            if (!server.waitFor(10, TimeUnit.SECONDS)) {
+                server.destroyForcibly();
+            }
+        }
+    }
+
+    private static void report(Scenario scenario, Stats peak, Stats first, List<Client> clients) {
+        Samples ticks = new Samples();
+        Samples pings = new Samples();
+        long healthyTicks = 0;
+        long impairedTicks = 0;
+        int healthy = 0;
+        boolean allImpaired = clients.stream().allMatch(client -> client.impaired);
+        for (Client client : clients) {
+            if (client.impaired && !allImpaired) {
+                impairedTicks += client.tickDelays.size();
+                continue;
+            }
+            healthy++;
+            healthyTicks += client.tickDelays.size();
+            ticks.addAll(client.tickDelays);
+            pings.addAll(client.pingRtts);
+        }
+        double seconds = RUN_TIME.toMillis() / 1000.0;
+        int impaired = clients.size() - healthy;
+        System.out.printf("%-21s %-7d %-7d %-7d %-6.1f %-7.1f %-24s %-24s %-8s %-8d %-7d%n", scenario.name(),
+                peak.rss() >> 20, peak.heap() >> 20, peak.direct() >> 20, (peak.cpuNanos() - first.cpuNanos()) / 1e9,
+                healthyTicks / seconds / healthy, ticks.summary(), pings.summary(),
+                impaired == 0 ? "-" : String.format("%.1f/s", impairedTicks / seconds / impaired),
+                peak.dropped() - first.dropped(), peak.disconnects() - first.disconnects());
+    }
+
+    private static Process startServer(OutboundLimits limits) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // Same JVM flags as this process, e.g. heap size or --enable-preview
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), ImpairedClientsBenchmark.class.getName(),
+                "server", limits.getPolicy().name(), String.valueOf(limits.getMaxPendingBytes())));
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Child process: runs the server and answers "stats" on stdin with one line of measurements.
+     */
+    private static void runServer(SlowConsumerPolicy policy, int maxPendingBytes) throws Exception {
+        Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+        NioWebSocketServer server = new NioWebSocketServer(0, new WebSocketListener() {
+            @Override public void onOpen(WebSocketSession session) { sessions.add(session); }
+            @Override public void onMessage(WebSocketSession session, byte[] data) {}
+            @Override public void onClose(WebSocketSession session, int code, String reason) { sessions.remove(session); }
+            @Override public void onError(WebSocketSession session, Throwable cause) {}
+
+            @Override
+            public void onMessage(WebSocketSession session, String text) {
+                try {
+                    session.send(text);
+                } catch (IOException e) {
+                    onError(session, e);
+                }
+            }
+        }, 1, 2);
+        server.setOutboundLimits(new OutboundLimits(policy, maxPendingBytes));
+        server.start();
+        Thread ticker = Thread.ofPlatform().name("Ticker").daemon().start(() -> tick(sessions));
+        System.out.println("port " + server.getLocalPort());
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null && line.equals("stats")) {
+            System.out.println(Stats.ofThisProcess(server.getMetrics()));
+        }
+        ticker.interrupt();
+        server.stop();
+        System.exit(0);
+    }
+
+    /**
+     * Sends every session a tick stamped with the wall clock, which unlike nanoTime is comparable
+     * across processes. One blocked send delays the tick for every session after it.
+     */
+    private static void tick(Set<WebSocketSession> sessions) {
+        byte[] tick = new byte[TICK_SIZE];
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            ByteBuffer.wrap(tick).putLong(wallMicros());
+            for (WebSocketSession session : sessions) {
+                try {
+                    session.send(tick);
+                } catch (IOException ignore) {
+                    // Closed meanwhile
+                }
+            }
+            next += TimeUnit.MILLISECONDS.toNanos(TICK_INTERVAL_MS);
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                // Fell behind: skip ticks rather than bursting
+                next = System.nanoTime();
+            }
+        }
+    }
+
+    private static long wallMicros() {
+        java.time.Instant now = java.time.Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
+    }
+
+    private record Stats(long rss, long heap, long direct, long cpuNanos, long dropped, long disconnects) {
+        static final Stats ZERO = new Stats(0, 0, 0, 0, 0, 0);
+
+        static Stats ofThisProcess(ServerMetrics metrics) {
+            long direct = 0;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) {
+                    direct = pool.getMemoryUsed();
+                }
+            }
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            return new Stats(residentSetSize(), ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), direct,
+                    os.getProcessCpuTime(), metrics.getMessagesDropped(), metrics.getSlowConsumerDisconnects());
+        }
+
+        /**
+         * Resident set size from /proc, 0 where it is not available.
+         */
+        private static long residentSetSize() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                    }
+                }
+            } catch (IOException | RuntimeException ignore) {
+            }
+            return 0;
+        }
+
+        static Stats parse(String line) {
+            long[] v = Arrays.stream(line.split(" ")).mapToLong(Long::parseLong).toArray();
+            return new Stats(v[0], v[1], v[2], v[3], v[4], v[5]);
+        }
+
+        Stats max(Stats o) {
+            return new Stats(Math.max(rss, o.rss), Math.max(heap, o.heap), Math.max(direct, o.direct),
+                    Math.max(cpuNanos, o.cpuNanos), Math.max(dropped, o.dropped), Math.max(disconnects, o.disconnects));
+        }
+
+        @Override
+        public String toString() {
+            return rss + " " + heap + " " + direct + " " + cpuNanos + " " + dropped + " " + disconnects;
+        }
+    }
+
+    /**
+     * Latencies in microseconds.
+     */
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        void addAll(Samples other) {
+            long[] copy;
+            synchronized (other) {
+                copy = Arrays.copyOf(other.values, other.size);
+            }
+            for (long value : copy) {
+                add(value);
+            }
+        }
+
+        synchronized String summary() {
+            if (size == 0) return "-";
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return ms(sorted[size / 2]) + "/" + ms(sorted[(int) (size * 0.99)]) + "/" + ms(sorted[size - 1]) + " ms";
+        }
+
+        private static String ms(long micros) {
+            return String.format("%.1f", micros / 1000.0);
+        }
+    }
+
+    /**
+     * A client that reads everything as fast as the proxy delivers it and pings at a fixed rate.
+     */
+    private static final class Client {
+        final boolean impaired;
+        final Samples tickDelays = new Samples();
+        final Samples pingRtts = new Samples();
+        // Set while the scenario is measured, so connecting and closing are left out
+        volatile boolean recording;
+        private final Socket socket;
+        private volatile boolean closed;
+
+        Client(int port, boolean impaired) throws IOException {
+            this.impaired = impaired;
+            this.socket = connect(port);
+            Thread.startVirtualThread(this::readLoop);
+            Thread.startVirtualThread(this::pingLoop);
+        }
+
+        private void readLoop() {
+            try {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                while (true) {
+                    int opcode = in.readUnsignedByte() & 0x0F;
+                    int len = in.readUnsignedByte() & 0x7F;
+                    long length = len == 126 ? in.readUnsignedShort() : len == 127 ? in.readLong() : len;
+                    byte[] payload = in.readNBytes((int) length);
+                    if (!recording) {
+                        continue;
+                    }
+                    if (opcode == Opcode.BINARY.getCode()) {
+                        tickDelays.add(wallMicros() - ByteBuffer.wrap(payload).getLong());
+                    } else if (opcode == Opcode.TEXT.getCode()) {
+                        long sent = Long.parseLong(new String(payload, StandardCharsets.US_ASCII));
+                        pingRtts.add((System.nanoTime() - sent) / 1000);
+                    } else if (opcode == Opcode.CLOSE.getCode()) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by the benchmark or disconnected by the server
+            }
+        }
+
+        private void pingLoop() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                while (!closed) {
+                    out.write(maskedText(String.valueOf(System.nanoTime())));
+                    out.flush();
+                    Thread.sleep(PING_INTERVAL_MS);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed
+            }
+        }
+
+        void close() throws IOException {
+            closed = true;
+            socket.close();
+        }
+    }
+
+    private static byte[] maskedText(String text) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET / HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Handshake failed");
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,59 @@
+package com.eaze.websocket.experiments;
+
+import java.time.Duration;
+
+/**
+ * Network conditions an {@link ImpairmentProxy} applies to one connection, in each direction
+ * separately: a bandwidth cap, a one-way delay with jitter, and periodic stalls during which
+ * nothing is forwarded (a client that stops reading, or a radio losing coverage).
+ *
+ * @param bytesPerSecond bandwidth cap per direction, 0 for unlimited
+ * @param latency        one-way delay added to every chunk
+ * @param jitter         the delay varies uniformly by up to this much either way; order is kept
+ * @param stallEvery     forwarding runs this long between stalls, {@link Duration#ZERO} for no stalls
+ * @param stallFor       how long each stall lasts
+ */
+public record Impairment(long bytesPerSecond, Duration latency, Duration jitter, Duration stallEvery,
+                         Duration stallFor) {
+    public static final Impairment NONE = new Impairment(0, Duration.ZERO, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+
+    public Impairment {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must not be negative");
+        }
+        if (jitter.compareTo(latency) > 0) {
+            throw new IllegalArgumentException("jitter must not exceed latency");
+        }
+        if (!stallEvery.isZero() && (stallFor.isNegative() || stallFor.isZero())) {
+            throw new IllegalArgumentException("stallFor must be positive when stalls are enabled");
+        }
+    }
+
+    public Impairment withBandwidth(long bytesPerSecond) {
+        return new Impairment(bytesPerSecond, latency, jitter, stallEvery, stallFor);
+    }
+
+    public Impairment withLatency(Duration latency, Duration jitter) {
+        return new Impairment(bytesPerSecond, latency, jitter, stallEvery, stallFor);
+    }
+
+    public Impairment withStalls(Duration every, Duration duration) {
+        return new Impairment(bytesPerSecond, latency, jitter, every, duration);
+    }
+
+    boolean isNone() {
+        return bytesPerSecond == 0 && latency.isZero() && stallEvery.isZero();
+    }
+
+    @Override
+    public String toString() {
+        if (isNone()) return "none";
+        StringBuilder sb = new StringBuilder();
+        if (bytesPerSecond > 0) sb.append(bytesPerSecond / 1024).append(" KB/s ");
+        if (!latency.isZero()) sb.append(latency.toMillis()).append("±").append(jitter.toMillis()).append(" ms ");
+        if (!stallEvery.isZero()) {
+            sb.append("stall ").append(stallFor.toMillis()).append(" ms every ").append(stallEvery.toMillis()).append(" ms");
+        }
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,218 @@
+package com.eaze.websocket.experiments;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * TCP proxy on loopback that makes local benchmarks behave like real clients on bad networks.
+ * Every accepted connection is forwarded to the target port with the {@link Impairment} chosen
+ * for its index (0 for the first connection), applied to each direction on its own.
+ *
+ * Each direction reads a chunk, stamps it with its due time and hands it to a writer through a
+ * short queue. The writer waits until the chunk is due, outside stalls, and within the bandwidth
+ * cap. Once the queue is full the reader stops taking data. The socket buffers towards the server
+ * are kept small, so the server's writes block or queue much as they would for a real slow
+ * client, instead of the loopback buffers soaking up megabytes.
+ */
+public final class ImpairmentProxy implements AutoCloseable {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int QUEUE_CHUNKS = 16;
+    private static final int SOCKET_BUFFER = 64 * 1024;
+    // Ends a direction: the writer shuts down its output once everything before it is written
+    private static final Chunk EOF = new Chunk(new byte[0], 0);
+
+    private final ServerSocket listener;
+    private final int targetPort;
+    private final IntFunction<Impairment> impairments;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Thread acceptor;
+
+    private record Chunk(byte[] data, long dueNanos) {
+    }
+
+    /**
+     * @param impairments conditions for the connection with the given index
+     */
+    public ImpairmentProxy(int targetPort, IntFunction<Impairment> impairments) throws IOException {
+        this.targetPort = targetPort;
+        this.impairments = impairments;
+        this.listener = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.acceptor = Thread.ofPlatform().name("ImpairmentProxy").daemon().start(this::acceptLoop);
+    }
+
+    public int getLocalPort() {
+        return listener.getLocalPort();
+    }
+
+    /**
+     * Number of connections accepted so far.
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    private void acceptLoop() {
+        while (!listener.isClosed()) {
+            try {
+                Socket client = listener.accept();
+                Impairment impairment = impairments.apply(connections.getAndIncrement());
+                Thread.startVirtualThread(() -> open(client, impairment));
+            } catch (IOException e) {
+                if (!listener.isClosed()) {
+                    System.err.println("Proxy accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void open(Socket client, Impairment impairment) {
+        Socket server = new Socket();
+        try {
+            // Set before connecting so the window scale is negotiated for the small buffer
+            server.setReceiveBufferSize(SOCKET_BUFFER);
+            server.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), targetPort));
+            client.setTcpNoDelay(true);
+            server.setTcpNoDelay(true);
+            client.setSendBufferSize(SOCKET_BUFFER);
+        } catch (IOException e) {
+            closeQuietly(client);
+            closeQuietly(server);
+            return;
+        }
+        long start = System.nanoTime();
+        // Both sockets close once both directions have finished
+        AtomicInteger open = new AtomicInteger(2);
+        forward(client, server, impairment, start, open);
+        forward(server, client, impairment, start, open);
+    }
+
+    private static void forward(Socket from, Socket to, Impairment impairment, long startNanos, AtomicInteger open) {
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        // Small chunks under a tight bandwidth cap, so pacing stays smooth
+        int chunkSize = impairment.bytesPerSecond() == 0 ? CHUNK_SIZE
+                : (int) Math.clamp(impairment.bytesPerSecond() / 50, 512, CHUNK_SIZE);
+        Thread.startVirtualThread(() -> read(from, to, queue, impairment, chunkSize));
+        Thread.startVirtualThread(() -> {
+            try {
+                write(from, to, queue, impairment, startNanos);
+            } finally {
+                if (open.decrementAndGet() == 0) {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        });
+    }
+
+    private static void read(Socket from, Socket to, BlockingQueue<Chunk> queue, Impairment impairment,
+                             int chunkSize) {
+        long latency = impairment.latency().toNanos();
+        long jitter = impairment.jitter().toNanos();
+        long lastDue = 0;
+        byte[] buffer = new byte[chunkSize];
+        try {
+            InputStream in = from.getInputStream();
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                long due = System.nanoTime() + latency;
+                if (jitter > 0) {
+                    due += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+                }
+                // TCP keeps order: a chunk is never due before the one ahead of it
+                due = Math.max(due, lastDue);
+                lastDue = due;
+                if (!enqueue(queue, new Chunk(Arrays.copyOf(buffer, n), due), to)) return;
+            }
+            enqueue(queue, EOF, to);
+        } catch (IOException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+            queue.offer(EOF);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Blocks while the writer is behind, which is what pushes back on the sender.
+     *
+     * @return false if the writer has given up on the connection
+     */
+    private static boolean enqueue(BlockingQueue<Chunk> queue, Chunk chunk, Socket to) throws InterruptedException {
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if (to.isClosed()) return false;
+        }
+        return true;
+    }
+
+    private static void write(Socket from, Socket to, BlockingQueue<Chunk> queue, Impairment impairment,
+                              long startNanos) {
+        long bytesPerSecond = impairment.bytesPerSecond();
+        long runNanos = impairment.stallEvery().toNanos();
+        long cycleNanos = runNanos + impairment.stallFor().toNanos();
+        long nextSendNanos = System.nanoTime();
+        try {
+            OutputStream out = to.getOutputStream();
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == EOF) {
+                    to.shutdownOutput();
+                    return;
+                }
+                sleepUntil(chunk.dueNanos());
+                if (runNanos > 0) {
+                    long inCycle = (System.nanoTime() - startNanos) % cycleNanos;
+                    if (inCycle >= runNanos) {
+                        sleepUntil(System.nanoTime() + cycleNanos - inCycle);
+                    }
+                }
+                if (bytesPerSecond > 0) {
+                    sleepUntil(nextSendNanos);
+                    // An idle link does not save up credit for a burst
+                    nextSendNanos = Math.max(nextSendNanos, System.nanoTime())
+                            + chunk.data().length * 1_000_000_000L / bytesPerSecond;
+                }
+                out.write(chunk.data());
+            }
+        } catch (IOException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepUntil(long nanos) throws InterruptedException {
+        long wait = nanos - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignore) {}
+    }
+
+    /**
+     * Stops accepting. Connections already open stay up until either side closes.
+     */
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        acceptor.interrupt();
+    }
+}
@@ -0,0 +1,151 @@
+package com.eaze.websocket.experiments;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.nio.NioWebSocketServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Echo throughput of the NIO SubPollers against the io_uring transport, with the demo server's
+ * echo listener. Clients pipeline bursts of small messages and wait for every reply before the
+ * next burst. Reports messages per second and process CPU time per 1000 messages (clients
+ * included, so the difference between the runs is the server's).
+ *
+ * Needs {@code --enable-native-access=ALL-UNNAMED --add-opens java.base/sun.nio.ch=ALL-UNNAMED};
+ * the ioUringEchoBenchmark task passes them.
+ */
+public class IoUringEchoBenchmark {
+    private static final int CLIENTS = 200;
+    private static final int ROUNDS = 500;
+    private static final int BURST = 10;
+    private static final String PAYLOAD = "tick:0123456789";
+    private static final int REPLY_LENGTH = 2 + "Echo: ".length() + PAYLOAD.length();
+
+    private static final WebSocketListener ECHO = new WebSocketListener() {
+        @Override public void onOpen(WebSocketSession session) {}
+        @Override public void onMessage(WebSocketSession session, byte[] data) {}
+        @Override public void onClose(WebSocketSession session, int code, String reason) {}
+        @Override public void onError(WebSocketSession session, Throwable cause) {}
+
+        @Override
+        public void onMessage(WebSocketSession session, String text) {
+            try {
+                session.send("Echo: " + text);
+            } catch (IOException e) {
+                onError(session, e);
+            }
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        // The first pass of each only warms up the JIT
+        run("nio", false, false);
+        run("io_uring", true, false);
+        run("nio", false, true);
+        run("io_uring", true, true);
+    }
+
+    private static void run(String name, boolean ioUring, boolean report) throws Exception {
+        NioWebSocketServer server = new NioWebSocketServer(0, ECHO, 1, 2);
+        server.setIoUring(ioUring);
+        server.start();
+        if (ioUring && !server.isIoUringActive()) {
+            server.stop();
+            return;
+        }
+        try {
+            List<Socket> clients = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                clients.add(connect(server.getLocalPort()));
+            }
+            com.sun.management.OperatingSystemMXBean os =
+                    (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+            long cpuBefore = os.getProcessCpuTime();
+            long start = System.nanoTime();
+
+            CountDownLatch done = new CountDownLatch(CLIENTS);
+            for (Socket client : clients) {
+                Thread.startVirtualThread(() -> {
+                    try {
+                        drive(client);
+                    } catch (IOException e) {
+                        System.err.println(name + " client failed: " + e.getMessage());
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+
+            long elapsed = System.nanoTime() - start;
+            long cpu = os.getProcessCpuTime() - cpuBefore;
+            long messages = (long) CLIENTS * ROUNDS * BURST;
+            if (report) {
+                System.out.printf("%-9s messages=%d rate=%.0f msg/s cpu=%.3f ms/1000 msgs time=%dms%n",
+                        name, messages, messages * 1e9 / elapsed, cpu / 1e6 / (messages / 1000.0), elapsed / 1_000_000);
+            }
+            for (Socket client : clients) {
+                client.close();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void drive(Socket client) throws IOException {
+        OutputStream out = client.getOutputStream();
+        InputStream in = client.getInputStream();
+        byte[] frame = maskedText(PAYLOAD);
+        byte[] burst = new byte[frame.length * BURST];
+        for (int i = 0; i < BURST; i++) {
+            System.arraycopy(frame, 0, burst, i * frame.length, frame.length);
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            out.write(burst);
+            out.flush();
+            in.readNBytes(REPLY_LENGTH * BURST);
+        }
+    }
+
+    private static byte[] maskedText(String text) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET / HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Handshake failed");
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,130 @@
+package com.eaze.websocket.experiments;
+
+import com.eaze.websocket.core.api.WebSocketListener;
+import com.eaze.websocket.core.api.WebSocketSession;
+import com.eaze.websocket.core.buffer.BufferPool;
+import com.eaze.websocket.core.codec.FrameCodec;
+import com.eaze.websocket.core.codec.Opcode;
+import com.eaze.websocket.core.codec.WebSocketFrame;
+import com.eaze.websocket.core.journal.TopicJournal;
+import com.eaze.websocket.core.nio.NioWebSocketServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Append and replay throughput of {@link TopicJournal}.
+ *
+ * - append: pre-encoded 64-byte messages appended from one thread
+ * - replay: a client asks for the whole journal and reads it back over loopback
+ */
+public class JournalBenchmark {
+    private static final int MESSAGES = 2_000_000;
+    private static final int PAYLOAD_BYTES = 64;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("journal-bench");
+        try (TopicJournal journal = new TopicJournal(dir, TopicJournal.DEFAULT_SEGMENT_BYTES, 0, Duration.ZERO)) {
+            long bytes = append(journal);
+            replay(journal, bytes);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static long append(TopicJournal journal) throws IOException {
+        ByteBuffer frame = FrameCodec.encode(new WebSocketFrame(true, Opcode.BINARY, ByteBuffer.allocate(PAYLOAD_BYTES)));
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            journal.append(frame.duplicate());
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = (long) frame.remaining() * MESSAGES;
+        BufferPool.release(frame);
+        report("append", bytes, elapsed);
+        return bytes;
+    }
+
+    private static void replay(TopicJournal journal, long expectedBytes) throws Exception {
+        WebSocketListener listener = new WebSocketListener() {
+            @Override public void onOpen(WebSocketSession session) {}
+            @Override public void onClose(WebSocketSession session, int code, String reason) {}
+            @Override public void onError(WebSocketSession session, Throwable cause) {}
+
+            @Override
+            public void onMessage(WebSocketSession session, String text) {
+                try {
+                    journal.replay(Long.parseLong(text), session);
+                } catch (IOException e) {
+                    onError(session, e);
+                }
+            }
+        };
+        NioWebSocketServer server = new NioWebSocketServer(0, listener, 1, 1);
+        server.start();
+        try (Socket client = connect(server.getLocalPort())) {
+            long start = System.nanoTime();
+            OutputStream out = client.getOutputStream();
+            out.write(maskedText("0"));
+            out.flush();
+            InputStream in = client.getInputStream();
+            byte[] chunk = new byte[256 * 1024];
+            long read = 0;
+            while (read < expectedBytes) {
+                int n = in.read(chunk);
+                if (n == -1) throw new IOException("Connection closed after " + read + " bytes");
+                read += n;
+            }
+            report("replay", read, System.nanoTime() - start);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void report(String name, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-8s messages=%d msg/s=%.0f MB/s=%.1f time=%dms%n",
+                name, MESSAGES, MESSAGES / seconds, bytes / seconds / (1024 * 1024), nanos / 1_000_000);
+    }
+
+    private static byte[] maskedText(String text) {
+        WebSocketFrame frame = new WebSocketFrame(true, Opcode.TEXT,
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), true, new byte[]{1, 2, 3, 4});
+        ByteBuffer encoded = FrameCodec.encode(frame);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        BufferPool.release(encoded);
+        return bytes;
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET / HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int b = in.read();
+            if (b == -1) throw new IOException("Handshake failed");
+            matched = (b == "\r\n\r\n".charAt(matched)) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+        return socket;
+    }
+}